@@ -17,6 +17,8 @@
 package com.offbynull.coroutines.antplugin;
 
 import com.offbynull.coroutines.instrumenter.InstrumentationSettings;
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.FieldResidentLocalsMode;
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.StateLayout;
 import com.offbynull.coroutines.instrumenter.Instrumenter;
 import com.offbynull.coroutines.instrumenter.PluginHelper;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
@@ -56,6 +58,22 @@ public final class InstrumentTask extends Task {
 
     private boolean autoSerializable = true;
 
+    private boolean callGraphAnalysis = false;
+
+    private String stateLayout = StateLayout.ARRAYS.name();
+
+    private String fieldResidentLocalsMode = FieldResidentLocalsMode.ANNOTATED.name();
+
+    private boolean methodSplitting = false;
+
+    private boolean leanMode = false;
+
+    private int parallelism = 1;
+
+    private boolean incremental = false;
+
+    private File classpathCacheDirectory;
+
     private String classpath;
 
     private File sourceDirectory;
@@ -93,6 +111,70 @@ public final class InstrumentTask extends Task {
         this.autoSerializable = autoSerializable;
     }
 
+    /**
+     * Sets the call graph analysis flag. Defaults to {@code false}.
+     * @param callGraphAnalysis call graph analysis
+     */
+    public void setCallGraphAnalysis(boolean callGraphAnalysis) {
+        this.callGraphAnalysis = callGraphAnalysis;
+    }
+
+    /**
+     * Sets the state layout. Defaults to ARRAYS.
+     * @param stateLayout state layout (must be a value from {@link StateLayout})
+     */
+    public void setStateLayout(String stateLayout) {
+        this.stateLayout = stateLayout;
+    }
+
+    /**
+     * Sets the field resident locals mode. Defaults to ANNOTATED.
+     * @param fieldResidentLocalsMode field resident locals mode (must be a value from {@link FieldResidentLocalsMode})
+     */
+    public void setFieldResidentLocalsMode(String fieldResidentLocalsMode) {
+        this.fieldResidentLocalsMode = fieldResidentLocalsMode;
+    }
+
+    /**
+     * Sets the method splitting flag. Defaults to {@code false}.
+     * @param methodSplitting method splitting
+     */
+    public void setMethodSplitting(boolean methodSplitting) {
+        this.methodSplitting = methodSplitting;
+    }
+
+    /**
+     * Sets the lean mode flag. Defaults to {@code false}.
+     * @param leanMode lean mode
+     */
+    public void setLeanMode(boolean leanMode) {
+        this.leanMode = leanMode;
+    }
+
+    /**
+     * Sets the maximum number of class files to instrument at the same time. Defaults to {@code 1}.
+     * @param parallelism parallelism
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the incremental flag. Defaults to {@code false}.
+     * @param incremental incremental
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Sets the directory to cache classpath information in. Defaults to {@code null} (no caching).
+     * @param classpathCacheDirectory classpath cache directory
+     */
+    public void setClasspathCacheDirectory(File classpathCacheDirectory) {
+        this.classpathCacheDirectory = classpathCacheDirectory;
+    }
+
     /**
      * Sets the classpath -- required by instrumenter when instrumenting class files.
      * @param classpath semicolon delimited classpath
@@ -146,6 +228,15 @@ public final class InstrumentTask extends Task {
         if (markerType == null) {
             throw new BuildException("Marker type not set");
         }
+        if (stateLayout == null) {
+            throw new BuildException("State layout not set");
+        }
+        if (fieldResidentLocalsMode == null) {
+            throw new BuildException("Field resident locals mode not set");
+        }
+        if (parallelism < 1) {
+            throw new BuildException("Parallelism must be at least 1: " + parallelism);
+        }
 
         List<File> combinedClasspath;
         try {
@@ -165,11 +256,23 @@ public final class InstrumentTask extends Task {
         try {
             log("Creating instrumenter...", Project.MSG_DEBUG);
             MarkerType markerTypeEnum = MarkerType.valueOf(markerType);
-            instrumenter = new Instrumenter(combinedClasspath);
-            InstrumentationSettings settings = new InstrumentationSettings(markerTypeEnum, debugMode, autoSerializable);
+            StateLayout stateLayoutEnum = StateLayout.valueOf(stateLayout);
+            FieldResidentLocalsMode fieldResidentLocalsModeEnum = FieldResidentLocalsMode.valueOf(fieldResidentLocalsMode);
+            if (classpathCacheDirectory != null) {
+                instrumenter = new Instrumenter(combinedClasspath, classpathCacheDirectory);
+            } else {
+                instrumenter = new Instrumenter(combinedClasspath);
+            }
+            InstrumentationSettings settings = new InstrumentationSettings(markerTypeEnum, debugMode, autoSerializable)
+                    .withCallGraphAnalysis(callGraphAnalysis)
+                    .withStateLayout(stateLayoutEnum)
+                    .withFieldResidentLocalsMode(fieldResidentLocalsModeEnum)
+                    .withMethodSplitting(methodSplitting)
+                    .withLeanMode(leanMode);
             
             log("Processing " + sourceDirectory.getAbsolutePath() + " ... ", Project.MSG_DEBUG);
-            PluginHelper.instrument(instrumenter, settings, sourceDirectory, targetDirectory, this::log);
+            PluginHelper.instrument(instrumenter, settings, sourceDirectory, targetDirectory, this::log, parallelism,
+                    incremental);
         } catch (Exception ex) {
             throw new BuildException("Failed to instrument", ex);
         }
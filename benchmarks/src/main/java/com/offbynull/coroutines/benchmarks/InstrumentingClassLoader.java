@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.benchmarks;
+
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings;
+import com.offbynull.coroutines.instrumenter.Instrumenter;
+import com.offbynull.coroutines.instrumenter.asm.ClassResourceClassInformationRepository;
+import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
+import com.offbynull.coroutines.user.Coroutine;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.reflect.ConstructorUtils;
+
+/**
+ * A {@link ClassLoader} that instruments the classes in the fixtures package as they're loaded. Fixture classes are loaded child-first,
+ * everything else (including the user-level coroutines classes) is delegated to the parent so that instrumented classes and the benchmarks
+ * share the same {@link Coroutine} and {@link com.offbynull.coroutines.user.Continuation} classes.
+ * @author Kasra Faghihi
+ */
+final class InstrumentingClassLoader extends ClassLoader {
+    private static final String FIXTURES_PREFIX = "com.offbynull.coroutines.benchmarks.fixtures.";
+
+    private final Instrumenter instrumenter;
+    private final InstrumentationSettings settings;
+
+    InstrumentingClassLoader(ClassLoader parent) {
+        this(parent, new InstrumentationSettings(MarkerType.NONE, false, true));
+    }
+
+    InstrumentingClassLoader(ClassLoader parent, InstrumentationSettings settings) {
+        super(parent);
+        Validate.notNull(parent);
+        Validate.notNull(settings);
+        this.instrumenter = new Instrumenter(new ClassResourceClassInformationRepository(parent));
+        this.settings = settings;
+    }
+
+    /**
+     * Loads, instruments, and instantiates a fixture coroutine.
+     * @param parent class loader that the fixtures (and the rest of the benchmarks) are available through
+     * @param name simple name of the fixture class
+     * @param args constructor arguments
+     * @return new instance of the instrumented fixture
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if the fixture couldn't be loaded or instantiated
+     */
+    static Coroutine newFixture(ClassLoader parent, String name, Object... args) {
+        Validate.notNull(parent);
+        Validate.notNull(name);
+        Validate.notNull(args);
+
+        try {
+            Class<?> cls = new InstrumentingClassLoader(parent).loadClass(FIXTURES_PREFIX + name);
+            return (Coroutine) ConstructorUtils.invokeConstructor(cls, args);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException
+                | InstantiationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!name.startsWith(FIXTURES_PREFIX)) {
+            return super.loadClass(name, resolve);
+        }
+
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> cls = findLoadedClass(name);
+            if (cls == null) {
+                byte[] input = readClass(name);
+                byte[] output = instrumenter.instrument(input, settings).getInstrumentedClass();
+                cls = defineClass(name, output, 0, output.length);
+            }
+            if (resolve) {
+                resolveClass(cls);
+            }
+            return cls;
+        }
+    }
+
+    private byte[] readClass(String name) throws ClassNotFoundException {
+        String resourceName = name.replace('.', '/') + ".class";
+        try (InputStream is = getParent().getResourceAsStream(resourceName)) {
+            if (is == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return IOUtils.toByteArray(is);
+        } catch (IOException ioe) {
+            throw new ClassNotFoundException(name, ioe);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.benchmarks;
+
+import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.Coroutine;
+import com.offbynull.coroutines.user.CoroutineReader.BinaryCoroutineDeserializer;
+import com.offbynull.coroutines.user.CoroutineReader.CoroutineDeserializer;
+import com.offbynull.coroutines.user.CoroutineReader.DefaultCoroutineDeserializer;
+import com.offbynull.coroutines.user.CoroutineWriter.BinaryCoroutineSerializer;
+import com.offbynull.coroutines.user.CoroutineWriter.CoroutineSerializer;
+import com.offbynull.coroutines.user.CoroutineWriter.DefaultCoroutineSerializer;
+import com.offbynull.coroutines.user.SerializedState;
+import com.offbynull.coroutines.user.SerializedState.Data;
+import com.offbynull.coroutines.user.SerializedState.Frame;
+import com.offbynull.coroutines.user.SerializedState.VersionedFrame;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures serializing and deserializing the state of a suspended coroutine. The state is built by hand (rather than pulled from a
+ * running coroutine) so that only the cost of the serialization format gets measured -- each frame is shaped like the frames of
+ * {@code MixedLocalsCoroutine}, meaning every type of local variable along with a partially evaluated operand stack.
+ * <p>
+ * The {@link #format} parameter picks the serializer/deserializer pair...
+ * <ul>
+ * <li>{@code default} -- {@link DefaultCoroutineSerializer} / {@link DefaultCoroutineDeserializer}.</li>
+ * <li>{@code binary} -- {@link BinaryCoroutineSerializer} / {@link BinaryCoroutineDeserializer}.</li>
+ * </ul>
+ * @author Kasra Faghihi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    /**
+     * Serialization format to benchmark.
+     */
+    @Param({"default", "binary"})
+    public String format;
+
+    /**
+     * Number of frames in the serialized state.
+     */
+    @Param({"1", "8", "64"})
+    public int depth;
+
+    private CoroutineSerializer serializer;
+    private CoroutineDeserializer deserializer;
+    private SerializedState state;
+    private byte[] data;
+
+    /**
+     * Builds the state to serialize and serializes it once so that there's something to deserialize.
+     */
+    @Setup
+    public void setup() {
+        switch (format) {
+            case "default":
+                serializer = new DefaultCoroutineSerializer();
+                deserializer = new DefaultCoroutineDeserializer();
+                break;
+            case "binary":
+                serializer = new BinaryCoroutineSerializer();
+                deserializer = new BinaryCoroutineDeserializer();
+                break;
+            default:
+                throw new IllegalArgumentException(format);
+        }
+
+        String className = "com.offbynull.coroutines.benchmarks.fixtures.MixedLocalsCoroutine";
+        VersionedFrame[] frames = new VersionedFrame[depth];
+        for (int i = 0; i < depth; i++) {
+            String s = "frame";
+            Data variables = new Data(
+                    new int[] { i, depth - i },
+                    new float[] { i / 2.0f },
+                    new long[] { i * 31L, 0L },
+                    new double[] { i / 3.0, 0.0 },
+                    new Object[] { null, null, s, new StringBuilder(s) },
+                    new int[] { 1 });
+            Data operands = new Data(
+                    new int[0],
+                    new float[0],
+                    new long[0],
+                    new double[] { i + i * 31L },
+                    new Object[] { null },
+                    new int[0]);
+            frames[i] = new VersionedFrame(new Frame(className, 1040634433, 0, new Object[0], variables, operands));
+        }
+        state = new SerializedState(new DummyCoroutine(), null, frames);
+        data = serializer.serialize(state);
+    }
+
+    /**
+     * Serialize the state.
+     * @return serialized state
+     */
+    @Benchmark
+    public byte[] serialize() {
+        return serializer.serialize(state);
+    }
+
+    /**
+     * Deserialize the state.
+     * @return deserialized state
+     */
+    @Benchmark
+    public SerializedState deserialize() {
+        return deserializer.deserialize(data);
+    }
+
+    private static final class DummyCoroutine implements Coroutine {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void run(Continuation c) throws Exception {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
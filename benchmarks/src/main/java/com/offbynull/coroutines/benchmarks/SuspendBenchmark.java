@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.benchmarks;
+
+import com.offbynull.coroutines.user.CoroutineRunner;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a single suspend/resume cycle of a coroutine that suspends directly from its entry point (suspend continuation point only, no
+ * invocation chain). This is the floor for every other benchmark.
+ * @author Kasra Faghihi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SuspendBenchmark {
+
+    private CoroutineRunner runner;
+
+    /**
+     * Instruments the fixture and primes the runner so that measurements start at a steady state.
+     */
+    @Setup
+    public void setup() {
+        runner = new CoroutineRunner(InstrumentingClassLoader.newFixture(getClass().getClassLoader(), "SuspendCoroutine"));
+        runner.execute();
+    }
+
+    /**
+     * Resume and suspend the coroutine once.
+     * @return result of {@link CoroutineRunner#execute() }
+     */
+    @Benchmark
+    public boolean suspendResume() {
+        return runner.execute();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.benchmarks.fixtures;
+
+import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.Coroutine;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Coroutine that recurses to a fixed depth before suspending, where each frame keeps every type of local variable (int, long, float,
+ * double and object) alive across the recursive call and has a partially evaluated expression sitting on the operand stack. Each
+ * execution has to save and restore all of those values for every frame.
+ * @author Kasra Faghihi
+ */
+public final class MixedLocalsCoroutine implements Coroutine {
+    private static final long serialVersionUID = 1L;
+
+    private final int depth;
+    private long counter;
+    private double sink;
+
+    /**
+     * Constructs a {@link MixedLocalsCoroutine} object.
+     * @param depth number of frames to recurse through before suspending
+     * @throws IllegalArgumentException if {@code depth < 1}
+     */
+    public MixedLocalsCoroutine(int depth) {
+        Validate.isTrue(depth >= 1);
+        this.depth = depth;
+    }
+
+    @Override
+    public void run(Continuation c) throws Exception {
+        while (true) {
+            sink += recurse(c, depth);
+        }
+    }
+
+    private double recurse(Continuation c, int remaining) {
+        if (remaining == 1) {
+            counter++;
+            c.suspend();
+            return 0.0;
+        }
+
+        int i = remaining;
+        long l = remaining * 31L;
+        float f = remaining / 2.0f;
+        double d = remaining / 3.0;
+        String s = "frame";
+        StringBuilder sb = new StringBuilder(s);
+
+        return (i + l) + recurse(c, remaining - 1) + f + d + s.length() + sb.length();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.benchmarks.fixtures;
+
+import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.Coroutine;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Coroutine that recurses to a fixed depth before suspending, where each frame holds a monitor across the recursive call. Each execution
+ * has to release and re-enter one monitor per frame in addition to resuming and suspending it.
+ * @author Kasra Faghihi
+ */
+public final class MonitorCoroutine implements Coroutine {
+    private static final long serialVersionUID = 1L;
+
+    private final int depth;
+    private long counter;
+
+    /**
+     * Constructs a {@link MonitorCoroutine} object.
+     * @param depth number of frames to recurse through before suspending
+     * @throws IllegalArgumentException if {@code depth < 1}
+     */
+    public MonitorCoroutine(int depth) {
+        Validate.isTrue(depth >= 1);
+        this.depth = depth;
+    }
+
+    @Override
+    public void run(Continuation c) throws Exception {
+        while (true) {
+            recurse(c, depth);
+        }
+    }
+
+    private void recurse(Continuation c, int remaining) {
+        synchronized (this) {
+            if (remaining == 1) {
+                counter++;
+                c.suspend();
+                return;
+            }
+            recurse(c, remaining - 1);
+        }
+    }
+}
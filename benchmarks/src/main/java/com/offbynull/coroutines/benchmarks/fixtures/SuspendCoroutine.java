@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.benchmarks.fixtures;
+
+import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.Coroutine;
+
+/**
+ * Coroutine that suspends in a loop directly from {@link #run(com.offbynull.coroutines.user.Continuation) }. Each execution resumes and
+ * suspends a single frame through a suspend continuation point.
+ * @author Kasra Faghihi
+ */
+public final class SuspendCoroutine implements Coroutine {
+    private static final long serialVersionUID = 1L;
+
+    private long counter;
+
+    @Override
+    public void run(Continuation c) throws Exception {
+        while (true) {
+            counter++;
+            c.suspend();
+        }
+    }
+}
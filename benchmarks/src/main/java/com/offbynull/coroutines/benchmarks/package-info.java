@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+/**
+ * Coroutines JMH benchmarks. Benchmarks in this package measure the runtime cost of suspending and resuming instrumented coroutines.
+ * <p>
+ * Build the shaded JAR and run it directly. Pass {@code -prof gc} to JMH to get the number of bytes allocated per operation in addition
+ * to throughput...
+ * <pre>
+ * mvn -pl benchmarks -am package
+ * java -jar benchmarks/target/benchmarks-*-shaded.jar -prof gc
+ * </pre>
+ * @author Kasra Faghihi
+ */
+package com.offbynull.coroutines.benchmarks;
@@ -17,6 +17,8 @@
 package com.offbynull.coroutines.gradleplugin;
 
 import com.offbynull.coroutines.instrumenter.InstrumentationSettings;
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.FieldResidentLocalsMode;
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.StateLayout;
 import com.offbynull.coroutines.instrumenter.Instrumenter;
 import com.offbynull.coroutines.instrumenter.PluginHelper;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
@@ -107,6 +109,15 @@ public class CoroutinesPlugin implements Plugin<Project> {
 
                 if (sourceSetsMap.containsKey(sourceType)) {
                     JXPathContext ctx = JXPathContext.newContext(sourceSetsMap);
+
+                    // Call graph analysis assumes that the classes being instrumented are the only ones that override methods declared
+                    // in them. Test classes get instrumented separately (after main classes have been instrumented), so a test class
+                    // that overrides a main class method and suspends would go unseen.
+                    if (sourceType.equals("main") && config.isCallGraphAnalysis() && sourceSetsMap.containsKey("test")
+                            && !((Set<File>) ctx.getValue("test/allJava/files")).isEmpty()) {
+                        throw new IllegalStateException("Call graph analysis can't be used when there are test sources -- test classes may"
+                                + " override methods of main classes");
+                    }
                     File classesDir = (File) ctx.getValue(sourceType + "/output/classesDir");
                     Set<File> compileClasspath = (Set<File>) ctx.getValue(sourceType + "/compileClasspath/files");
                     
@@ -137,12 +148,27 @@ public class CoroutinesPlugin implements Plugin<Project> {
             MarkerType markerType = MarkerType.valueOf(config.getMarkerType());
             boolean debugMode = config.isDebugMode();
             boolean autoSerializable = config.isAutoSerializable();
-            InstrumentationSettings settings = new InstrumentationSettings(markerType, debugMode, autoSerializable);
-            Instrumenter instrumenter = new Instrumenter(classpath);
+            boolean callGraphAnalysis = config.isCallGraphAnalysis();
+            StateLayout stateLayout = StateLayout.valueOf(config.getStateLayout());
+            FieldResidentLocalsMode fieldResidentLocalsMode = FieldResidentLocalsMode.valueOf(config.getFieldResidentLocalsMode());
+            boolean methodSplitting = config.isMethodSplitting();
+            boolean leanMode = config.isLeanMode();
+            int parallelism = config.getParallelism();
+            boolean incremental = config.isIncremental();
+            InstrumentationSettings settings = new InstrumentationSettings(markerType, debugMode, autoSerializable)
+                    .withCallGraphAnalysis(callGraphAnalysis)
+                    .withStateLayout(stateLayout)
+                    .withFieldResidentLocalsMode(fieldResidentLocalsMode)
+                    .withMethodSplitting(methodSplitting)
+                    .withLeanMode(leanMode);
+            String classpathCacheDirectory = config.getClasspathCacheDirectory();
+            Instrumenter instrumenter = classpathCacheDirectory != null
+                    ? new Instrumenter(classpath, new File(classpathCacheDirectory))
+                    : new Instrumenter(classpath);
 
             // This logs to info by default, but info won't show up unless you pass -i to gradle. If you want logs to show up by default,
             // pass in log::lifecycle instead.
-            PluginHelper.instrument(instrumenter, settings, classesDir, classesDir, log::info);
+            PluginHelper.instrument(instrumenter, settings, classesDir, classesDir, log::info, parallelism, incremental);
         } catch (IOException ioe) {
             throw new IllegalStateException("Failed to instrument", ioe);
         }
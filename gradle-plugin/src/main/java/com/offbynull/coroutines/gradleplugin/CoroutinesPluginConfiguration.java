@@ -27,6 +27,14 @@ public final class CoroutinesPluginConfiguration {
     private String markerType;
     private boolean debugMode;
     private boolean autoSerializable;
+    private boolean callGraphAnalysis;
+    private String stateLayout;
+    private String fieldResidentLocalsMode;
+    private boolean methodSplitting;
+    private boolean leanMode;
+    private int parallelism;
+    private boolean incremental;
+    private String classpathCacheDirectory;
 
     /**
      * Constructs a {@link CoroutinesPluginConfiguration} object.
@@ -35,6 +43,14 @@ public final class CoroutinesPluginConfiguration {
         markerType = "NONE";
         debugMode = false;
         autoSerializable = true;
+        callGraphAnalysis = false;
+        stateLayout = "ARRAYS";
+        fieldResidentLocalsMode = "ANNOTATED";
+        methodSplitting = false;
+        leanMode = false;
+        parallelism = 1;
+        incremental = false;
+        classpathCacheDirectory = null;
     }
 
     /**
@@ -90,5 +106,139 @@ public final class CoroutinesPluginConfiguration {
     public void setAutoSerializable(boolean autoSerializable) {
         this.autoSerializable = autoSerializable;
     }
+
+    /**
+     * Get call graph analysis.
+     * @return call graph analysis
+     */
+    public boolean isCallGraphAnalysis() {
+        return callGraphAnalysis;
+    }
+
+    /**
+     * Set call graph analysis.
+     * @param callGraphAnalysis call graph analysis
+     */
+    public void setCallGraphAnalysis(boolean callGraphAnalysis) {
+        this.callGraphAnalysis = callGraphAnalysis;
+    }
+
+    /**
+     * Get state layout.
+     * @return state layout
+     */
+    public String getStateLayout() {
+        return stateLayout;
+    }
+
+    /**
+     * Set state layout.
+     * @param stateLayout state layout
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void setStateLayout(String stateLayout) {
+        Validate.notNull(stateLayout);
+        this.stateLayout = stateLayout;
+    }
+
+    /**
+     * Get field resident locals mode.
+     * @return field resident locals mode
+     */
+    public String getFieldResidentLocalsMode() {
+        return fieldResidentLocalsMode;
+    }
+
+    /**
+     * Set field resident locals mode.
+     * @param fieldResidentLocalsMode field resident locals mode
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void setFieldResidentLocalsMode(String fieldResidentLocalsMode) {
+        Validate.notNull(fieldResidentLocalsMode);
+        this.fieldResidentLocalsMode = fieldResidentLocalsMode;
+    }
+
+    /**
+     * Get method splitting.
+     * @return method splitting
+     */
+    public boolean isMethodSplitting() {
+        return methodSplitting;
+    }
+
+    /**
+     * Set method splitting.
+     * @param methodSplitting method splitting
+     */
+    public void setMethodSplitting(boolean methodSplitting) {
+        this.methodSplitting = methodSplitting;
+    }
+
+    /**
+     * Get lean mode.
+     * @return lean mode
+     */
+    public boolean isLeanMode() {
+        return leanMode;
+    }
+
+    /**
+     * Set lean mode.
+     * @param leanMode lean mode
+     */
+    public void setLeanMode(boolean leanMode) {
+        this.leanMode = leanMode;
+    }
+
+    /**
+     * Get parallelism (maximum number of class files to instrument at the same time).
+     * @return parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set parallelism (maximum number of class files to instrument at the same time).
+     * @param parallelism parallelism
+     * @throws IllegalArgumentException if {@code parallelism < 1}
+     */
+    public void setParallelism(int parallelism) {
+        Validate.isTrue(parallelism >= 1);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Get incremental.
+     * @return incremental
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Set incremental.
+     * @param incremental incremental
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Get classpath cache directory.
+     * @return classpath cache directory (may be {@code null})
+     */
+    public String getClasspathCacheDirectory() {
+        return classpathCacheDirectory;
+    }
+
+    /**
+     * Set classpath cache directory.
+     * @param classpathCacheDirectory classpath cache directory ({@code null} to disable caching)
+     */
+    public void setClasspathCacheDirectory(String classpathCacheDirectory) {
+        this.classpathCacheDirectory = classpathCacheDirectory;
+    }
     
 }
@@ -51,8 +51,8 @@ final class AutoSerializableInstrumentationPass implements InstrumentationPass {
         Validate.validState(classNode.methods.containsAll(state.methodAttributes().keySet()));
 
         
-        // Should we skip this?
-        if (!state.instrumentationSettings().isAutoSerializable()) {
+        // Should we skip this? (lean mode doesn't support serialization, so there's no point)
+        if (!state.instrumentationSettings().isAutoSerializable() || state.instrumentationSettings().isLeanMode()) {
             return;
         }
 
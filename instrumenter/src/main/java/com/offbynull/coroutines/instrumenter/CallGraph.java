@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter;
+
+import static com.offbynull.coroutines.instrumenter.InternalFields.INSTRUMENTED_MARKER_FIELD_NAME;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformation;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformationRepository;
+import static com.offbynull.coroutines.instrumenter.asm.SearchUtils.findField;
+import static com.offbynull.coroutines.instrumenter.asm.SearchUtils.findInvocationsOf;
+import static com.offbynull.coroutines.instrumenter.asm.SearchUtils.findInvocationsWithParameter;
+import static com.offbynull.coroutines.instrumenter.asm.SearchUtils.findMethodsWithParameter;
+import com.offbynull.coroutines.user.Continuation;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.reflect.MethodUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+// Call graph over the methods that take a Continuation parameter in a set of classes (the classes being instrumented), used to determine
+// which of those methods can never end up calling Continuation.suspend(). Invocations of methods that can never suspend don't need to be
+// continuation points, and methods that can never suspend don't need to be instrumented at all.
+//
+// This is a closed-world analysis -- it assumes that the classes it was created from are the only ones that override/implement methods
+// taking a Continuation declared in those classes. It's conservative about everything else: an invocation is considered as potentially
+// suspending if...
+//   it's an invokedynamic.
+//   the method being invoked is (or may be) declared in a class outside of the set (other than core Java classes, which never take a
+//   Continuation).
+//   the method being invoked, or any override of it within the set, potentially suspends.
+// ... and a method potentially suspends if it's abstract (it may be implemented by a lambda or method reference, which gets bound at
+// runtime through invokedynamic and so never shows up as an override), calls Continuation.suspend(), makes a potentially suspending
+// invocation, or belongs to a class that's already been instrumented.
+//
+// Safe to call from multiple threads.
+final class CallGraph {
+
+    private static final Type CONTINUATION_CLASS_TYPE = Type.getType(Continuation.class);
+    private static final Method CONTINUATION_SUSPEND_METHOD = MethodUtils.getAccessibleMethod(Continuation.class, "suspend");
+    private static final byte[] CONTINUATION_DESCRIPTOR = CONTINUATION_CLASS_TYPE.getDescriptor().getBytes(StandardCharsets.US_ASCII);
+    private static final Set<String> UNKNOWN = Collections.unmodifiableSet(new HashSet<>());
+
+    private final ClassInformationRepository classRepo;
+    private final Map<String, ClassInformation> inputClasses;        // all classes in set
+    private final Map<String, Map<String, Integer>> declaredMethods; // class -> method name+desc -> access (only methods w/ Continuation)
+    private final Set<String> suspendingMethods;                     // class.name+desc
+    private final Map<String, Boolean> invocationCache;
+    private final String digest;
+
+    private CallGraph(ClassInformationRepository classRepo, Map<String, ClassInformation> inputClasses,
+            Map<String, Map<String, Integer>> declaredMethods, Map<String, List<MethodInsnNode>> invocations,
+            Set<String> initiallySuspending) {
+        this.classRepo = classRepo;
+        this.inputClasses = inputClasses;
+        this.declaredMethods = declaredMethods;
+        this.invocationCache = new ConcurrentHashMap<>();
+
+        // Resolve edges, flipped so that suspending methods can be propagated up to their callers
+        Map<String, List<String>> callers = new HashMap<>();
+        Deque<String> queue = new ArrayDeque<>(initiallySuspending);
+        Set<String> suspending = new HashSet<>(initiallySuspending);
+        for (Map.Entry<String, List<MethodInsnNode>> entry : invocations.entrySet()) {
+            String caller = entry.getKey();
+            for (MethodInsnNode invocation : entry.getValue()) {
+                Set<String> targets = resolve(invocation);
+                if (targets == UNKNOWN) {
+                    if (suspending.add(caller)) {
+                        queue.add(caller);
+                    }
+                    continue;
+                }
+                for (String target : targets) {
+                    callers.computeIfAbsent(target, x -> new ArrayList<>()).add(caller);
+                }
+            }
+        }
+
+        // Propagate
+        while (!queue.isEmpty()) {
+            String method = queue.poll();
+            for (String caller : callers.getOrDefault(method, Collections.emptyList())) {
+                if (suspending.add(caller)) {
+                    queue.add(caller);
+                }
+            }
+        }
+
+        this.suspendingMethods = suspending;
+        this.digest = generateDigest(inputClasses, declaredMethods, suspending);
+    }
+
+    // classFiles are the contents of the class files being instrumented. classRepo is used for hierarchy lookups of anything outside of
+    // classFiles.
+    static CallGraph create(List<byte[]> classFiles, ClassInformationRepository classRepo) {
+        Validate.notNull(classFiles);
+        Validate.notNull(classRepo);
+        Validate.noNullElements(classFiles);
+
+        Map<String, ClassInformation> inputClasses = new HashMap<>();
+        Map<String, Map<String, Integer>> declaredMethods = new HashMap<>();
+        Map<String, List<MethodInsnNode>> invocations = new HashMap<>(); // method -> invocations it makes w/ Continuation
+        Set<String> initiallySuspending = new HashSet<>();
+
+        for (byte[] classFile : classFiles) {
+            ClassReader cr = new ClassReader(classFile);
+            String className = cr.getClassName();
+            inputClasses.put(className, new ClassInformation(
+                    className,
+                    cr.getSuperName(),
+                    Arrays.asList(cr.getInterfaces()),
+                    (cr.getAccess() & Opcodes.ACC_INTERFACE) != 0));
+
+            // Same as what Instrumenter does -- if the class doesn't mention Continuation, none of its methods take a Continuation
+            if (!Instrumenter.containsUtf8Constant(cr, classFile, CONTINUATION_DESCRIPTOR)) {
+                continue;
+            }
+
+            ClassNode classNode = new ClassNode(Opcodes.ASM5);
+            cr.accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            boolean alreadyInstrumented = findField(classNode, INSTRUMENTED_MARKER_FIELD_NAME) != null;
+
+            Map<String, Integer> methods = new HashMap<>();
+            for (MethodNode methodNode : findMethodsWithParameter(classNode.methods, CONTINUATION_CLASS_TYPE)) {
+                String methodKey = className + '.' + methodNode.name + methodNode.desc;
+                methods.put(methodNode.name + methodNode.desc, methodNode.access);
+
+                List<MethodInsnNode> methodInvocations = new ArrayList<>();
+                boolean suspending = alreadyInstrumented
+                        || (methodNode.access & Opcodes.ACC_ABSTRACT) != 0
+                        || !findInvocationsOf(methodNode.instructions, CONTINUATION_SUSPEND_METHOD).isEmpty();
+                for (AbstractInsnNode insnNode : findInvocationsWithParameter(methodNode.instructions, CONTINUATION_CLASS_TYPE)) {
+                    if (!(insnNode instanceof MethodInsnNode)) { // invokedynamic
+                        suspending = true;
+                        continue;
+                    }
+                    methodInvocations.add((MethodInsnNode) insnNode);
+                }
+
+                invocations.put(methodKey, methodInvocations);
+                if (suspending) {
+                    initiallySuspending.add(methodKey);
+                }
+            }
+            declaredMethods.put(className, methods);
+        }
+
+        return new CallGraph(classRepo, inputClasses, declaredMethods, invocations, initiallySuspending);
+    }
+
+    // Returns false if the invocation is guaranteed to never end up calling Continuation.suspend().
+    boolean isSuspendingInvocation(MethodInsnNode invocation) {
+        Validate.notNull(invocation);
+
+        String key = invocation.getOpcode() + " " + invocation.owner + '.' + invocation.name + invocation.desc;
+        return invocationCache.computeIfAbsent(key, x -> {
+            Set<String> targets = resolve(invocation);
+            return targets == UNKNOWN || targets.stream().anyMatch(suspendingMethods::contains);
+        });
+    }
+
+    // Changes whenever anything that would change the result of isSuspendingInvocation() changes.
+    String digest() {
+        return digest;
+    }
+
+    // Returns the methods that invocation may end up at (class.name+desc), or UNKNOWN if it may end up at something outside of the set.
+    private Set<String> resolve(MethodInsnNode invocation) {
+        if (invocation.owner.startsWith("[")) { // method on array (e.g. clone()), would never take a Continuation
+            return Collections.emptySet();
+        }
+
+        String nameDesc = invocation.name + invocation.desc;
+        Set<String> ret = new HashSet<>();
+
+        // Find where the method is declared -- up the superclass chain first, then the interfaces (default methods)
+        List<String> interfaces = new ArrayList<>();
+        for (String cls = invocation.owner; cls != null && !isCoreClass(cls);) {
+            ClassInformation info = getInformation(cls);
+            Map<String, Integer> methods = declaredMethods.get(cls);
+            if (info == null || !inputClasses.containsKey(cls)) {
+                return UNKNOWN;
+            }
+            interfaces.addAll(info.getInterfaces());
+            if (methods != null && methods.containsKey(nameDesc)) {
+                ret.add(cls + '.' + nameDesc);
+                break;
+            }
+            cls = info.getSuperClassName();
+        }
+        if (ret.isEmpty()) {
+            Set<String> visited = new HashSet<>();
+            Deque<String> queue = new ArrayDeque<>(interfaces);
+            while (!queue.isEmpty()) {
+                String cls = queue.poll();
+                if (isCoreClass(cls) || !visited.add(cls)) {
+                    continue;
+                }
+                ClassInformation info = getInformation(cls);
+                Map<String, Integer> methods = declaredMethods.get(cls);
+                if (info == null || !inputClasses.containsKey(cls)) {
+                    return UNKNOWN;
+                }
+                if (methods != null && methods.containsKey(nameDesc)) {
+                    ret.add(cls + '.' + nameDesc);
+                }
+                queue.addAll(info.getInterfaces());
+            }
+        }
+
+        // Virtual/interface invocations may also end up at any override
+        int opcode = invocation.getOpcode();
+        if (opcode == Opcodes.INVOKEVIRTUAL || opcode == Opcodes.INVOKEINTERFACE) {
+            for (Map.Entry<String, Map<String, Integer>> entry : declaredMethods.entrySet()) {
+                String cls = entry.getKey();
+                Integer access = entry.getValue().get(nameDesc);
+                if (access == null || (access & (Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE)) != 0) {
+                    continue;
+                }
+                Boolean subtype = isSubtype(cls, invocation.owner);
+                if (subtype == null) {
+                    return UNKNOWN;
+                } else if (subtype) {
+                    ret.add(cls + '.' + nameDesc);
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    // Returns null if it can't be determined.
+    private Boolean isSubtype(String cls, String expectedParent) {
+        Set<String> visited = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(cls);
+        while (!queue.isEmpty()) {
+            String current = queue.poll();
+            if (current.equals(expectedParent)) {
+                return true;
+            }
+            if (!visited.add(current)) {
+                continue;
+            }
+            ClassInformation info = getInformation(current);
+            if (info == null) {
+                return null;
+            }
+            if (info.getSuperClassName() != null) {
+                queue.add(info.getSuperClassName());
+            }
+            queue.addAll(info.getInterfaces());
+        }
+        return false;
+    }
+
+    private ClassInformation getInformation(String cls) {
+        ClassInformation info = inputClasses.get(cls);
+        return info != null ? info : classRepo.getInformation(cls);
+    }
+
+    private static boolean isCoreClass(String cls) {
+        return cls.startsWith("java/") || cls.startsWith("javax/");
+    }
+
+    private static String generateDigest(Map<String, ClassInformation> inputClasses, Map<String, Map<String, Integer>> declaredMethods,
+            Set<String> suspendingMethods) {
+        StringBuilder data = new StringBuilder();
+        for (ClassInformation info : new TreeMap<>(inputClasses).values()) { // sorted so that output is the same from run to run
+            data.append(info.getName())
+                    .append('|').append(info.getSuperClassName())
+                    .append('|').append(String.join(",", info.getInterfaces()))
+                    .append('|').append(info.isInterface())
+                    .append('\n');
+            for (Map.Entry<String, Integer> method : new TreeMap<>(declaredMethods.getOrDefault(info.getName(), Collections.emptyMap()))
+                    .entrySet()) {
+                String methodKey = info.getName() + '.' + method.getKey();
+                data.append("  ").append(method.getKey())
+                        .append('|').append(method.getValue())
+                        .append('|').append(suspendingMethods.contains(methodKey))
+                        .append('\n');
+            }
+        }
+        return DigestUtils.sha256Hex(data.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -16,6 +16,7 @@
  */
 package com.offbynull.coroutines.instrumenter;
 
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.StateLayout;
 import static com.offbynull.coroutines.instrumenter.InternalUtils.validateAndGetContinuationPoint;
 import static com.offbynull.coroutines.instrumenter.LocalsStateGenerators.loadLocals;
 import static com.offbynull.coroutines.instrumenter.LocalsStateGenerators.saveLocals;
@@ -25,6 +26,7 @@ import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators
 import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.call;
 import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.cloneInvokeNode;
 import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.construct;
+import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.empty;
 import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.ifIntegersEqual;
 import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.jumpTo;
 import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.loadIntConst;
@@ -43,9 +45,11 @@ import com.offbynull.coroutines.user.Continuation;
 import static com.offbynull.coroutines.user.Continuation.MODE_NORMAL;
 import static com.offbynull.coroutines.user.Continuation.MODE_SAVING;
 import com.offbynull.coroutines.user.LockState;
+import com.offbynull.coroutines.user.MethodFrame;
 import com.offbynull.coroutines.user.MethodState;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.util.Map;
 import java.util.stream.IntStream;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.reflect.ConstructorUtils;
@@ -56,16 +60,18 @@ import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
 import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
 import org.objectweb.asm.tree.analysis.BasicValue;
 import org.objectweb.asm.tree.analysis.Frame;
 import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.throwRuntimeException;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
 import static com.offbynull.coroutines.instrumenter.generators.DebugGenerators.debugMarker;
 import static com.offbynull.coroutines.instrumenter.SynchronizationGenerators.createMonitorContainer;
-import static com.offbynull.coroutines.instrumenter.PackStateGenerators.packStorageArrays;
 import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.lineNumber;
 import static com.offbynull.coroutines.instrumenter.OperandStackStateGenerators.loadOperandStack;
 import static com.offbynull.coroutines.instrumenter.OperandStackStateGenerators.saveOperandStack;
@@ -92,15 +98,29 @@ final class ContinuationGenerators {
     private static final Method CONTINUATION_PUSHNEWMETHODSTATE_METHOD
             = MethodUtils.getAccessibleMethod(Continuation.class, "pushNewMethodState", MethodState.class);
 
-    private static final Constructor<MethodState> METHODSTATE_INIT_METHOD
+    private static final Constructor<MethodState> METHODSTATE_INIT_WITH_FRAME_METHOD
             = ConstructorUtils.getAccessibleConstructor(MethodState.class, String.class, Integer.TYPE, Integer.TYPE,
-                    Object[].class, LockState.class);
+                    MethodFrame.class, LockState.class);
     private static final Method METHODSTATE_GETCONTINUATIONPOINT_METHOD
             = MethodUtils.getAccessibleMethod(MethodState.class, "getContinuationPoint");
     private static final Method METHODSTATE_GETDATA_METHOD
             = MethodUtils.getAccessibleMethod(MethodState.class, "getData");
+    private static final Method METHODSTATE_GETFRAME_METHOD
+            = MethodUtils.getAccessibleMethod(MethodState.class, "getFrame");
+    private static final Method METHODSTATE_GETPRIMITIVES_METHOD
+            = MethodUtils.getAccessibleMethod(MethodState.class, "getPrimitives");
+    private static final Method METHODSTATE_GETOBJECTS_METHOD
+            = MethodUtils.getAccessibleMethod(MethodState.class, "getObjects");
+    private static final Method METHODSTATE_ISPACKED_METHOD
+            = MethodUtils.getAccessibleMethod(MethodState.class, "isPacked");
+    private static final Method METHODSTATE_TOPACKED_METHOD
+            = MethodUtils.getAccessibleMethod(MethodState.class, "toPacked");
     private static final Method METHODSTATE_GETLOCKSTATE_METHOD
             = MethodUtils.getAccessibleMethod(MethodState.class, "getLockState");
+    private static final Method METHODSTATE_TAKESPARE_METHOD
+            = MethodUtils.getAccessibleMethod(MethodState.class, "takeSpare", LockState.class);
+    private static final Method METHODSTATE_SETSPARE_METHOD
+            = MethodUtils.getAccessibleMethod(MethodState.class, "setSpare", MethodState.class);
     
     private ContinuationGenerators() {
         // do nothing
@@ -111,7 +131,6 @@ final class ContinuationGenerators {
 
         Variable contArg = attrs.getCoreVariables().getContinuationArgVar();
         Variable methodStateVar = attrs.getCoreVariables().getMethodStateVar();
-        Variable storageContainerVar = attrs.getStorageContainerVariables().getContainerVar();
         
         LockVariables lockVars = attrs.getLockVariables();
         Variable lockStateVar = lockVars.getLockStateVar();
@@ -135,11 +154,20 @@ final class ContinuationGenerators {
                         0,
                         merge(
                                 debugMarker(markerType, dbgSig + "Case 0 -- Fresh invocation"),
+                                // null out method state so that save points know there's no method state that can be reused
+                                debugMarker(markerType, dbgSig + "Clearing method state"),
+                                loadNull(),
+                                saveVar(methodStateVar),
                                 // create lockstate if method actually has monitorenter/exit in it (var != null if this were the case)
                                 mergeIf(lockStateVar != null, () -> new Object[] {
                                         debugMarker(markerType, "Creating monitors container"),
                                         createMonitorContainer(markerType, lockVars),
                                 }),
+                                // create frame if method has field resident locals
+                                mergeIf(attrs.getStorageContainerVariables().getResidentLocals().isEnabled(), () -> new Object[] {
+                                        debugMarker(markerType, dbgSig + "Creating frame for field resident locals"),
+                                        createResidentLocalsFrame(attrs)
+                                }),
                                 debugMarker(markerType, dbgSig + "Jump to start of method point"),
                                 jumpTo(startOfMethodLabelNode)
                         ),
@@ -153,8 +181,7 @@ final class ContinuationGenerators {
                                 call(CONTINUATION_LOADNEXTMETHODSTATE_METHOD, loadVar(contArg)),
                                 saveVar(methodStateVar),
                                 debugMarker(markerType, dbgSig + "Getting method state data"),
-                                call(METHODSTATE_GETDATA_METHOD, loadVar(methodStateVar)),
-                                saveVar(storageContainerVar),
+                                loadStorageContainer(attrs),
                                 // get lockstate if method actually has monitorenter/exit in it (var != null if this were the case)
                                 mergeIf(lockStateVar != null, () -> new Object[] {
                                         debugMarker(markerType, dbgSig + "Method has synch points, so loading lockstate as well"),
@@ -235,13 +262,13 @@ final class ContinuationGenerators {
         return merge(
                 debugMarker(markerType, dbgSig + "Restoring SUSPEND " + idx),
                 debugMarker(markerType, dbgSig + "Unpacking operand stack storage variables"),
-                unpackOperandStackStorageArrays(markerType, frame, storageContainerVar, savedStackVars),
+                unpackOperandStackStorage(attrs, frame),
                 debugMarker(markerType, dbgSig + "Unpacking locals storage variables"),
-                unpackLocalsStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars),
+                unpackLocalsStorage(attrs, frame),
                 debugMarker(markerType, dbgSig + "Restoring operand stack"),
-                loadOperandStack(markerType, savedStackVars, frame),
+                loadSavedOperandStack(attrs, frame, 0, frame.getStackSize()),
                 debugMarker(markerType, dbgSig + "Restoring locals"),
-                loadLocals(markerType, savedLocalsVars, frame),
+                loadSavedLocals(attrs, frame),
                 mergeIf(lineNumber != null, () -> new Object[] {
                     // We add the line number AFTER locals have been restored, so if you put in a break point at the specified line number
                     // the local vars will all show up.
@@ -311,6 +338,11 @@ final class ContinuationGenerators {
         //              continuation.addPending(methodState); // method state should be loaded from Continuation.saved
         //              return <dummy>;
         //          }
+        //             // If this is a tail call, the method has nothing left to do but return, so return the invocation's result directly.
+        //          if (<tail call>) {
+        //              continuation.unloadCurrentMethodState();
+        //              return <method invocation>'s return value; // pop and return void if method return type is void
+        //          }
         //             // At this point the invocation happened successfully, so we want to save the invocation's result, restore this
         //             // method's state, and then put the result on top of the stack as if invocation just happened. We then jump in to
         //             // the method and continue running it from the instruction after the original invocation point.
@@ -328,17 +360,17 @@ final class ContinuationGenerators {
                 }),
                 // Only unpack operand stack storage vars, we unpack the locals afterwards if we need to
                 debugMarker(markerType, dbgSig + "Unpacking operand stack storage variables"),
-                unpackOperandStackStorageArrays(markerType, frame, storageContainerVar, savedStackVars),
+                unpackOperandStackStorage(attrs, frame),
                 debugMarker(markerType, dbgSig + "Restoring top " + invokeArgCount + " items of operand stack (just enough to invoke)"),
-                loadOperandStack(markerType, savedStackVars, frame, 0, frame.getStackSize() - invokeArgCount, invokeArgCount),
+                loadSavedOperandStack(attrs, frame, frame.getStackSize() - invokeArgCount, invokeArgCount),
                 mergeIf(debugMode, () -> new Object[]{
                     // If in debug mode, load up the locals. This is useful if you're stepping through your coroutine in a debugger... you
                     // can look at method frames above the current one and introspect the variables (what the user expects if they're
                     // running in a debugger).
                     debugMarker(markerType, dbgSig + "Unpacking locals storage variables (for debugMode)"),
-                    unpackLocalsStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars),
+                    unpackLocalsStorage(attrs, frame),
                     debugMarker(markerType, dbgSig + "Restoring locals (for debugMode)"),
-                    loadLocals(markerType, savedLocalsVars, frame),
+                    loadSavedLocals(attrs, frame),
                 }),
                 mergeIf(lineNumber != null, () -> new Object[]{
                     // We add the line number AFTER locals have been restored, so if you put in a break point at the specified line number
@@ -363,25 +395,36 @@ final class ContinuationGenerators {
                                 returnDummy(returnType)
                         )
                 ),
-                mergeIf(returnCacheVar != null, () -> new Object[] {// save return (if returnCacheVar is null means ret type is void)
-                    debugMarker(markerType, dbgSig + "Saving invocation return value"),
-                    saveVar(returnCacheVar)
+                mergeIf(cp.isTailCall(), () -> new Object[] {
+                    // Tail call, so there's nothing left for the method to do other than return -- return directly rather than restoring
+                    // the rest of the method and jumping back in to it (the frame for a tail call only has the invocation's arguments)
+                    debugMarker(markerType, dbgSig + "Tail call, discarding saved method state"),
+                    call(CONTINUATION_UNLOADCURRENTMETHODSTATE_METHOD, loadVar(contArg)),
+                    debugMarker(markerType, dbgSig + "Tail call, returning (invocation return value if not void)"),
+                    returnInvocationResult(returnType, invokeNode)
                 }),
-                debugMarker(markerType, dbgSig + "Unpacking locals storage variables"),
-                unpackLocalsStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars),
-                debugMarker(markerType, dbgSig + "Restoring operand stack (without invoke args)"),
-                loadOperandStack(markerType, savedStackVars, frame, 0, 0, frame.getStackSize() - invokeArgCount),
-                debugMarker(markerType, dbgSig + "Restoring locals"),
-                loadLocals(markerType, savedLocalsVars, frame),
-                mergeIf(returnCacheVar != null, () -> new Object[] {// load return (if returnCacheVar is null means ret type is void)
-                    debugMarker(markerType, dbgSig + "Loading invocation return value"),
-                    loadVar(returnCacheVar)
-                }),
-                // We've successfully completed our restore and we're continuing the invocation, so we need "discard" this method state
-                debugMarker(markerType, dbgSig + "Discarding saved method state"),
-                call(CONTINUATION_UNLOADCURRENTMETHODSTATE_METHOD, loadVar(contArg)),
-                debugMarker(markerType, dbgSig + "Restore complete. Jumping to post-invocation point"),
-                jumpTo(continueExecLabelNode)
+                mergeIf(!cp.isTailCall(), () -> new Object[] {
+                    mergeIf(returnCacheVar != null, () -> new Object[] {// save return (if returnCacheVar is null means ret type is void)
+                        debugMarker(markerType, dbgSig + "Saving invocation return value"),
+                        saveVar(returnCacheVar)
+                    }),
+                    debugMarker(markerType, dbgSig + "Unpacking locals storage variables"),
+                    unpackLocalsStorage(attrs, frame),
+                    debugMarker(markerType, dbgSig + "Restoring operand stack (without invoke args)"),
+                    loadSavedOperandStack(attrs, frame, 0, frame.getStackSize() - invokeArgCount),
+                    debugMarker(markerType, dbgSig + "Restoring locals"),
+                    loadSavedLocals(attrs, frame),
+                    mergeIf(returnCacheVar != null, () -> new Object[] {// load return (if returnCacheVar is null means ret type is void)
+                        debugMarker(markerType, dbgSig + "Loading invocation return value"),
+                        loadVar(returnCacheVar)
+                    }),
+                    // We've successfully completed our restore and we're continuing the invocation, so we need "discard" this method
+                    // state
+                    debugMarker(markerType, dbgSig + "Discarding saved method state"),
+                    call(CONTINUATION_UNLOADCURRENTMETHODSTATE_METHOD, loadVar(contArg)),
+                    debugMarker(markerType, dbgSig + "Restore complete. Jumping to post-invocation point"),
+                    jumpTo(continueExecLabelNode)
+                })
         );
     }
     
@@ -460,17 +503,17 @@ final class ContinuationGenerators {
                 }),
                 // Only unpack operand stack storage vars, we unpack the locals afterwards if we need to
                 debugMarker(markerType, dbgSig + "Unpacking operand stack storage variables"),
-                unpackOperandStackStorageArrays(markerType, frame, storageContainerVar, savedStackVars),
+                unpackOperandStackStorage(attrs, frame),
                 debugMarker(markerType, dbgSig + "Restoring top " + invokeArgCount + " items of operand stack (just enough to invoke)"),
-                loadOperandStack(markerType, savedStackVars, frame, 0, frame.getStackSize() - invokeArgCount, invokeArgCount),
+                loadSavedOperandStack(attrs, frame, frame.getStackSize() - invokeArgCount, invokeArgCount),
                 mergeIf(debugMode, () -> new Object[]{
                     // If in debug mode, load up the locals. This is useful if you're stepping through your coroutine in a debugger... you
                     // can look at method frames above the current one and introspect the variables (what the user expects if they're
                     // running in a debugger).
                     debugMarker(markerType, dbgSig + "Unpacking locals storage variables (for debugMode)"),
-                    unpackLocalsStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars),
+                    unpackLocalsStorage(attrs, frame),
                     debugMarker(markerType, dbgSig + "Restoring locals (for debugMode)"),
-                    loadLocals(markerType, savedLocalsVars, frame),
+                    loadSavedLocals(attrs, frame),
                 }),
                 mergeIf(lineNumber != null, () -> new Object[]{
                     // We add the line number AFTER locals have been restored, so if you put in a break point at the specified line number
@@ -488,11 +531,11 @@ final class ContinuationGenerators {
                                 debugMarker(markerType, dbgSig + "Saving caught throwable"),
                                 saveVar(throwableVar),
                                 debugMarker(markerType, dbgSig + "Unpacking locals storage variables"),
-                                unpackLocalsStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars),
+                                unpackLocalsStorage(attrs, frame),
                                 debugMarker(markerType, dbgSig + "Restoring operand stack (without invoke args)"),
-                                loadOperandStack(markerType, savedStackVars, frame, 0, 0, frame.getStackSize() - invokeArgCount),
+                                loadSavedOperandStack(attrs, frame, 0, frame.getStackSize() - invokeArgCount),
                                 debugMarker(markerType, dbgSig + "Restoring locals"),
-                                loadLocals(markerType, savedLocalsVars, frame),
+                                loadSavedLocals(attrs, frame),
                                 // We caught an exception, which means that everything that was invoked after us is pretty much gone and
                                 // we're continuing the invocation as if we restore, we need to "discard" this method state along with
                                 // everything after it.
@@ -523,11 +566,11 @@ final class ContinuationGenerators {
                     saveVar(returnCacheVar)
                 }),
                 debugMarker(markerType, dbgSig + "Unpacking locals storage variables"),
-                unpackLocalsStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars),
+                unpackLocalsStorage(attrs, frame),
                 debugMarker(markerType, dbgSig + "Restoring operand stack (without invoke args)"),
-                loadOperandStack(markerType, savedStackVars, frame, 0, 0, frame.getStackSize() - invokeArgCount),
+                loadSavedOperandStack(attrs, frame, 0, frame.getStackSize() - invokeArgCount),
                 debugMarker(markerType, dbgSig + "Restoring locals"),
-                loadLocals(markerType, savedLocalsVars, frame),
+                loadSavedLocals(attrs, frame),
                 mergeIf(returnCacheVar != null, () -> new Object[] {// load return (if returnCacheVar is null means ret type is void)
                     debugMarker(markerType, dbgSig + "Loading invocation return value"),
                     loadVar(returnCacheVar)
@@ -578,15 +621,12 @@ final class ContinuationGenerators {
         Validate.isTrue(idx >= 0);
         SuspendContinuationPoint cp = validateAndGetContinuationPoint(attrs, idx, SuspendContinuationPoint.class);
 
-        String friendlyClassName = attrs.getSignature().getClassName().replace('/', '.'); // '/' -> '.'   because it's non-internal format
-        int methodId = attrs.getSignature().getMethodId();
-        
         Integer lineNumber = cp.getLineNumber();
 
         Variable contArg = attrs.getCoreVariables().getContinuationArgVar();
+        Variable methodStateVar = attrs.getCoreVariables().getMethodStateVar();
         StorageVariables savedLocalsVars = attrs.getLocalsStorageVariables();
         StorageVariables savedStackVars = attrs.getStackStorageVariables();
-        Variable storageContainerVar = attrs.getStorageContainerVariables().getContainerVar();
         
         LockVariables lockVars = attrs.getLockVariables();
         Variable lockStateVar = lockVars.getLockStateVar();
@@ -599,9 +639,10 @@ final class ContinuationGenerators {
         MarkerType markerType = attrs.getSettings().getMarkerType();
         String dbgSig = getLogPrefix(attrs);
         
-        //          Object[] stack = saveOperandStack();
-        //          Object[] locals = saveLocals();
-        //          continuation.addPending(new MethodState(<number>, stack, locals, lockState);
+        //          methodState = <methodState loaded from <number> ? reuse it : new MethodState(<number>, stack, locals, lockState)>;
+        //          saveOperandStack(stack);
+        //          saveLocals(locals);
+        //          continuation.addPending(methodState);
         //          continuation.setMode(MODE_SAVING);
         //          exitLocks(lockState);
         //          return <dummy>;
@@ -613,29 +654,15 @@ final class ContinuationGenerators {
                     lineNumber(lineNumber)
                 }),
                 debugMarker(markerType, dbgSig + "Saving SUSPEND " + idx),
+                debugMarker(markerType, dbgSig + "Preparing method state"),
+                prepareMethodState(attrs, idx),
                 debugMarker(markerType, dbgSig + "Saving operand stack"),
-                saveOperandStack(markerType, savedStackVars, frame), // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS. ALSO, DON'T FORGET THAT
-                                                                     // Continuation OBJECT WILL BE TOP ITEM, NEEDS TO BE DISCARDED ON LOAD
+                saveOperandStackToStorage(attrs, frame), // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS. ALSO, DON'T FORGET THAT
+                                                         // Continuation OBJECT WILL BE TOP ITEM, NEEDS TO BE DISCARDED ON LOAD
                 debugMarker(markerType, dbgSig + "Saving locals"),
-                saveLocals(markerType, savedLocalsVars, frame),
-                debugMarker(markerType, dbgSig + "Packing locals and operand stack in to container"),
-                packStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars, savedStackVars),
-                debugMarker(markerType, dbgSig + "Creating and pushing method state"),
-                call(CONTINUATION_PUSHNEWMETHODSTATE_METHOD, loadVar(contArg),
-                        construct(METHODSTATE_INIT_METHOD,
-                                loadStringConst(friendlyClassName),
-                                loadIntConst(methodId),
-                                loadIntConst(idx),
-                                loadVar(storageContainerVar),
-                                // load lockstate for last arg if method actually has monitorenter/exit in it
-                                // (var != null if this were the case), otherwise load null for that arg
-                                mergeIf(lockStateVar != null, () -> new Object[] {
-                                    loadVar(lockStateVar)
-                                }).mergeIf(lockStateVar == null, () -> new Object[] {
-                                    loadNull()
-                                }).generate()
-                        )
-                ),
+                saveLocalsToStorage(attrs, frame),
+                debugMarker(markerType, dbgSig + "Pushing method state"),
+                call(CONTINUATION_PUSHNEWMETHODSTATE_METHOD, loadVar(contArg), loadVar(methodStateVar)),
                 debugMarker(markerType, dbgSig + "Setting mode to save"),
                 call(CONTINUATION_SETMODE_METHOD, loadVar(contArg), loadIntConst(MODE_SAVING)),
                 // attempt to exit monitors only if method has monitorenter/exit in it (var != null if this were the case)
@@ -658,15 +685,12 @@ final class ContinuationGenerators {
         Validate.isTrue(idx >= 0);
         NormalInvokeContinuationPoint cp = validateAndGetContinuationPoint(attrs, idx, NormalInvokeContinuationPoint.class);
 
-        String friendlyClassName = attrs.getSignature().getClassName().replace('/', '.'); // '/' -> '.'   because it's non-internal format
-        int methodId = attrs.getSignature().getMethodId();
-
         Integer lineNumber = cp.getLineNumber();
 
         Variable contArg = attrs.getCoreVariables().getContinuationArgVar();
+        Variable methodStateVar = attrs.getCoreVariables().getMethodStateVar();
         StorageVariables savedLocalsVars = attrs.getLocalsStorageVariables();
         StorageVariables savedStackVars = attrs.getStackStorageVariables();
-        Variable storageContainerVar = attrs.getStorageContainerVariables().getContainerVar();
         
         LockVariables lockVars = attrs.getLockVariables();
         Variable lockStateVar = lockVars.getLockStateVar();
@@ -689,10 +713,11 @@ final class ContinuationGenerators {
         //                                                                            -- again (see loading code generator above).
         //          <method invocation>
         //          if (continuation.getMode() == MODE_SAVING) {
-        //              Object[] stack = saveOperandStack();
-        //              Object[] locals = saveLocals();
+        //              methodState = <methodState loaded from <number> ? reuse it : new MethodState(<number>, stack, locals, lockState)>;
+        //              saveOperandStack(stack);
+        //              saveLocals(locals);
         //              exitLocks(lockState);
-        //              continuation.addPending(new MethodState(<number>, stack, locals, lockState);
+        //              continuation.addPending(methodState);
         //              return <dummy>;
         //          }
         //
@@ -726,33 +751,19 @@ final class ContinuationGenerators {
                                         frame.getStackSize() - invokeArgCount,
                                         frame.getStackSize() - invokeArgCount,
                                         invokeArgCount),
+                                debugMarker(markerType, dbgSig + "Preparing method state"),
+                                prepareMethodState(attrs, idx), // MUST BE AFTER ARGS RELOADED, clobbers operand stack storage vars
                                 debugMarker(markerType, dbgSig + "Saving operand stack"),
-                                saveOperandStack(markerType, savedStackVars, frame), // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS
+                                saveOperandStackToStorage(attrs, frame), // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS
                                 debugMarker(markerType, dbgSig + "Saving locals"),
-                                saveLocals(markerType, savedLocalsVars, frame),
-                                debugMarker(markerType, dbgSig + "Packing locals and operand stack in to container"),
-                                packStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars, savedStackVars),
+                                saveLocalsToStorage(attrs, frame),
                                 // attempt to exit monitors only if method has monitorenter/exit in it (var != null if this were the case)
                                 mergeIf(lockStateVar != null, () -> new Object[]{
                                     debugMarker(markerType, dbgSig + "Exiting monitors"),
                                     exitStoredMonitors(markerType, lockVars),
                                 }),
-                                debugMarker(markerType, dbgSig + "Creating and pushing method state"),
-                                call(CONTINUATION_PUSHNEWMETHODSTATE_METHOD, loadVar(contArg),
-                                        construct(METHODSTATE_INIT_METHOD,
-                                                loadStringConst(friendlyClassName),
-                                                loadIntConst(methodId),
-                                                loadIntConst(idx),
-                                                loadVar(storageContainerVar),
-                                                // load lockstate for last arg if method actually has monitorenter/exit in it
-                                                // (var != null if this were the case), otherwise load null for that arg
-                                                mergeIf(lockStateVar != null, () -> new Object[] {
-                                                    loadVar(lockStateVar)
-                                                }).mergeIf(lockStateVar == null, () -> new Object[] {
-                                                    loadNull()
-                                                }).generate()
-                                        )
-                                ),
+                                debugMarker(markerType, dbgSig + "Pushing method state"),
+                                call(CONTINUATION_PUSHNEWMETHODSTATE_METHOD, loadVar(contArg), loadVar(methodStateVar)),
                                 debugMarker(markerType, dbgSig + "Returning (dummy return value if not void)"),
                                 returnDummy(returnType)
                         )
@@ -771,15 +782,12 @@ final class ContinuationGenerators {
         Validate.isTrue(idx >= 0);
         TryCatchInvokeContinuationPoint cp = validateAndGetContinuationPoint(attrs, idx, TryCatchInvokeContinuationPoint.class);
 
-        String friendlyClassName = attrs.getSignature().getClassName().replace('/', '.'); // '/' -> '.'   because it's non-internal format
-        int methodId = attrs.getSignature().getMethodId();
-
         Integer lineNumber = cp.getLineNumber();
 
         Variable contArg = attrs.getCoreVariables().getContinuationArgVar();
+        Variable methodStateVar = attrs.getCoreVariables().getMethodStateVar();
         StorageVariables savedLocalsVars = attrs.getLocalsStorageVariables();
         StorageVariables savedStackVars = attrs.getStackStorageVariables();
-        Variable storageContainerVar = attrs.getStorageContainerVariables().getContainerVar();
         
         LockVariables lockVars = attrs.getLockVariables();
         Variable lockStateVar = lockVars.getLockStateVar();
@@ -822,33 +830,19 @@ final class ContinuationGenerators {
                                         frame.getStackSize() - invokeArgCount,
                                         frame.getStackSize() - invokeArgCount,
                                         invokeArgCount),
+                                debugMarker(markerType, dbgSig + "Preparing method state"),
+                                prepareMethodState(attrs, idx), // MUST BE AFTER ARGS RELOADED, clobbers operand stack storage vars
                                 debugMarker(markerType, dbgSig + "Saving operand stack"),
-                                saveOperandStack(markerType, savedStackVars, frame), // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS
+                                saveOperandStackToStorage(attrs, frame), // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS
                                 debugMarker(markerType, dbgSig + "Saving locals"),
-                                saveLocals(markerType, savedLocalsVars, frame),
-                                debugMarker(markerType, dbgSig + "Packing locals and operand stack in to container"),
-                                packStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars, savedStackVars),
+                                saveLocalsToStorage(attrs, frame),
                                 // attempt to exit monitors only if method has monitorenter/exit in it (var != null if this were the case)
                                 mergeIf(lockStateVar != null, () -> new Object[]{
                                     debugMarker(markerType, dbgSig + "Exiting monitors"),
                                     exitStoredMonitors(markerType, lockVars),
                                 }),
-                                debugMarker(markerType, dbgSig + "Creating and pushing method state"),
-                                call(CONTINUATION_PUSHNEWMETHODSTATE_METHOD, loadVar(contArg),
-                                        construct(METHODSTATE_INIT_METHOD,
-                                                loadStringConst(friendlyClassName),
-                                                loadIntConst(methodId),
-                                                loadIntConst(idx),
-                                                loadVar(storageContainerVar),
-                                                // load lockstate for last arg if method actually has monitorenter/exit in it
-                                                // (var != null if this were the case), otherwise load null for that arg
-                                                mergeIf(lockStateVar != null, () -> new Object[] {
-                                                    loadVar(lockStateVar)
-                                                }).mergeIf(lockStateVar == null, () -> new Object[] {
-                                                    loadNull()
-                                                }).generate()
-                                        )
-                                ),
+                                debugMarker(markerType, dbgSig + "Pushing method state"),
+                                call(CONTINUATION_PUSHNEWMETHODSTATE_METHOD, loadVar(contArg), loadVar(methodStateVar)),
                                 debugMarker(markerType, dbgSig + "Returning (dummy return value if not void)"),
                                 returnDummy(returnType)
                         )
@@ -880,6 +874,530 @@ final class ContinuationGenerators {
     
     
     
+    private static InsnList prepareMethodState(MethodAttributes attrs, int idx) {
+        Validate.notNull(attrs);
+        Validate.isTrue(idx >= 0);
+        if (attrs.getSettings().getStateLayout() == StateLayout.FRAME_CLASSES) {
+            return prepareMethodStateWithFrame(attrs, idx);
+        }
+        if (attrs.getSettings().getStateLayout() == StateLayout.PACKED) {
+            return prepareMethodStateWithPackedArrays(attrs, idx);
+        }
+        ContinuationPoint cp = validateAndGetContinuationPoint(attrs, idx, ContinuationPoint.class);
+
+        int methodId = attrs.getSignature().getMethodId();
+
+        Variable methodStateVar = attrs.getCoreVariables().getMethodStateVar();
+        StorageVariables savedLocalsVars = attrs.getLocalsStorageVariables();
+        StorageVariables savedStackVars = attrs.getStackStorageVariables();
+        Variable storageContainerVar = attrs.getStorageContainerVariables().getContainerVar();
+
+        LockVariables lockVars = attrs.getLockVariables();
+        Variable lockStateVar = lockVars.getLockStateVar();
+
+        Frame<BasicValue> frame = cp.getFrame();
+
+        MarkerType markerType = attrs.getSettings().getMarkerType();
+        String dbgSig = getLogPrefix(attrs);
+
+        // Why not write over the method state that this invocation was restored from? Because it's still what the continuation rolls
+        // back to if this execution cycle fails (something further up the call chain can still throw once this method state has been
+        // saved, e.g. exiting monitors). Instead, the method state that this invocation was restored from has a spare -- a method state for
+        // the same continuation point that got rolled back to before it and that nothing else refers to anymore. Its container (along with
+        // the storage arrays in that container) are sized for exactly the items that are about to be saved, so it gets written over
+        // instead. The two alternate between each other, meaning that a method that keeps suspending at the same point stops allocating
+        // once it's suspended there twice (see takeSpareMethodState()).
+        //
+        // Creating the storage arrays / container / method state is done by a helper method shared by all continuation points in the class
+        // that have the same storage sizes, rather than being inlined here (see MethodStateHelperGenerators).
+        //
+        //          <take spare if available, jump to reuse with methodState set to spare>
+        //          newMethodState = <helper for storage sizes>(<method id>, <number>, lockState);
+        //          newMethodState.setSpare(methodState);
+        //          methodState = newMethodState;
+        //        reuse:
+        //          container = methodState.getData();
+        //          <unpack storage arrays from container>
+        LabelNode reuseLabelNode = new LabelNode();
+        return merge(
+                takeSpareMethodState(attrs, idx, null, reuseLabelNode),
+                debugMarker(markerType, dbgSig + "Creating method state"),
+                MethodStateHelperGenerators.callHelper(
+                        attrs.getSignature().getClassName(),
+                        LocalsStateGenerators.computeSizes(frame),
+                        OperandStackStateGenerators.computeSizes(frame, 0, frame.getStackSize()),
+                        methodId,
+                        idx,
+                        // load lockstate for last arg if method actually has monitorenter/exit in it
+                        // (var != null if this were the case), otherwise load null for that arg
+                        mergeIf(lockStateVar != null, () -> new Object[] {
+                            loadVar(lockStateVar)
+                        }).mergeIf(lockStateVar == null, () -> new Object[] {
+                            loadNull()
+                        }).generate()
+                ),
+                setSpareOfNewMethodState(attrs),
+                saveVar(methodStateVar),
+                addLabel(reuseLabelNode),
+                debugMarker(markerType, dbgSig + "Unpacking storage arrays from method state"),
+                call(METHODSTATE_GETDATA_METHOD, loadVar(methodStateVar)),
+                saveVar(storageContainerVar),
+                unpackOperandStackStorageArrays(markerType, frame, storageContainerVar, savedStackVars),
+                unpackLocalsStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars)
+        );
+    }
+
+    private static InsnList prepareMethodStateWithPackedArrays(MethodAttributes attrs, int idx) {
+        Validate.notNull(attrs);
+        Validate.isTrue(idx >= 0);
+        ContinuationPoint cp = validateAndGetContinuationPoint(attrs, idx, ContinuationPoint.class);
+
+        int methodId = attrs.getSignature().getMethodId();
+
+        Variable methodStateVar = attrs.getCoreVariables().getMethodStateVar();
+
+        LockVariables lockVars = attrs.getLockVariables();
+        Variable lockStateVar = lockVars.getLockStateVar();
+
+        Frame<BasicValue> frame = cp.getFrame();
+
+        MarkerType markerType = attrs.getSettings().getMarkerType();
+        String dbgSig = getLogPrefix(attrs);
+
+        // Same idea as prepareMethodState(), except that the storage is the packed arrays -- the packed arrays are sized for exactly the
+        // items that are about to be saved, so they can be written over. A method state created by CoroutineReader only has the Object[]
+        // container (it doesn't have packed arrays), so a spare is only taken if it was constructed with packed arrays.
+        //
+        //          <take spare if available and spare.isPacked(), jump to reuse with methodState set to spare>
+        //          newMethodState = <packed helper for storage sizes>(<method id>, <number>, lockState);
+        //          newMethodState.setSpare(methodState);
+        //          methodState = newMethodState;
+        //        reuse:
+        //          primitives = methodState.getPrimitives();
+        //          objects = methodState.getObjects();
+        LabelNode reuseLabelNode = new LabelNode();
+        return merge(
+                takeSpareMethodState(attrs, idx, call(METHODSTATE_ISPACKED_METHOD, empty()), reuseLabelNode),
+                debugMarker(markerType, dbgSig + "Creating method state"),
+                MethodStateHelperGenerators.callPackedHelper(
+                        attrs.getSignature().getClassName(),
+                        LocalsStateGenerators.computeSizes(frame),
+                        OperandStackStateGenerators.computeSizes(frame, 0, frame.getStackSize()),
+                        methodId,
+                        idx,
+                        // load lockstate for last arg if method actually has monitorenter/exit in it
+                        // (var != null if this were the case), otherwise load null for that arg
+                        mergeIf(lockStateVar != null, () -> new Object[] {
+                            loadVar(lockStateVar)
+                        }).mergeIf(lockStateVar == null, () -> new Object[] {
+                            loadNull()
+                        }).generate()
+                ),
+                setSpareOfNewMethodState(attrs),
+                saveVar(methodStateVar),
+                addLabel(reuseLabelNode),
+                loadPackedArrays(attrs)
+        );
+    }
+
+    private static InsnList prepareMethodStateWithFrame(MethodAttributes attrs, int idx) {
+        Validate.notNull(attrs);
+        Validate.isTrue(idx >= 0);
+        validateAndGetContinuationPoint(attrs, idx, ContinuationPoint.class);
+
+        int methodId = attrs.getSignature().getMethodId();
+
+        Variable methodStateVar = attrs.getCoreVariables().getMethodStateVar();
+        Variable frameVar = attrs.getStorageContainerVariables().getContainerVar();
+        String frameClassName = frameVar.getType().getInternalName();
+
+        LockVariables lockVars = attrs.getLockVariables();
+        Variable lockStateVar = lockVars.getLockStateVar();
+
+        MarkerType markerType = attrs.getSettings().getMarkerType();
+        String dbgSig = getLogPrefix(attrs);
+
+        if (attrs.getStorageContainerVariables().getResidentLocals().isEnabled()) {
+            return prepareMethodStateWithResidentLocalsFrame(attrs, idx);
+        }
+
+        // Same idea as prepareMethodState(), except that the container is a frame object. The spare is only written over if it was created
+        // by this method (a method state created by CoroutineReader has no frame, it only has the Object[] container).
+        //
+        //          <take spare if available and spare.getFrame() != null, jump to reuse with methodState set to spare>
+        //          frame = new <frame class>();
+        //          newMethodState = new MethodState(<number>, frame, lockState);
+        //          newMethodState.setSpare(methodState);
+        //          methodState = newMethodState;
+        //          goto done;
+        //        reuse:
+        //          frame = (<frame class>) methodState.getFrame();
+        //        done:
+        LabelNode reuseLabelNode = new LabelNode();
+        LabelNode doneLabelNode = new LabelNode();
+        return merge(
+                takeSpareMethodState(attrs, idx,
+                        merge(
+                                call(METHODSTATE_GETFRAME_METHOD, empty()), // spare is on the stack
+                                new TypeInsnNode(Opcodes.INSTANCEOF, frameClassName)
+                        ),
+                        reuseLabelNode),
+                debugMarker(markerType, dbgSig + "Creating frame"),
+                new TypeInsnNode(Opcodes.NEW, frameClassName),
+                new InsnNode(Opcodes.DUP),
+                new MethodInsnNode(Opcodes.INVOKESPECIAL, frameClassName, "<init>", "()V", false),
+                saveVar(frameVar),
+                debugMarker(markerType, dbgSig + "Creating method state"),
+                construct(METHODSTATE_INIT_WITH_FRAME_METHOD,
+                        loadClassName(attrs),
+                        loadIntConst(methodId),
+                        loadIntConst(idx),
+                        loadVar(frameVar),
+                        // load lockstate for last arg if method actually has monitorenter/exit in it
+                        // (var != null if this were the case), otherwise load null for that arg
+                        mergeIf(lockStateVar != null, () -> new Object[] {
+                            loadVar(lockStateVar)
+                        }).mergeIf(lockStateVar == null, () -> new Object[] {
+                            loadNull()
+                        }).generate()
+                ),
+                setSpareOfNewMethodState(attrs),
+                saveVar(methodStateVar),
+                jumpTo(doneLabelNode),
+                addLabel(reuseLabelNode),
+                debugMarker(markerType, dbgSig + "Reusing frame of spare method state"),
+                call(METHODSTATE_GETFRAME_METHOD, loadVar(methodStateVar)),
+                new TypeInsnNode(Opcodes.CHECKCAST, frameClassName),
+                saveVar(frameVar),
+                addLabel(doneLabelNode)
+        );
+    }
+    
+    
+    
+    
+    
+    
+    
+    
+    
+    private static InsnList prepareMethodStateWithResidentLocalsFrame(MethodAttributes attrs, int idx) {
+        Validate.notNull(attrs);
+        Validate.isTrue(idx >= 0);
+        validateAndGetContinuationPoint(attrs, idx, ContinuationPoint.class);
+
+        int methodId = attrs.getSignature().getMethodId();
+
+        Variable methodStateVar = attrs.getCoreVariables().getMethodStateVar();
+        Variable frameVar = attrs.getStorageContainerVariables().getContainerVar();
+
+        LockVariables lockVars = attrs.getLockVariables();
+        Variable lockStateVar = lockVars.getLockStateVar();
+
+        MarkerType markerType = attrs.getSettings().getMarkerType();
+        String dbgSig = getLogPrefix(attrs);
+
+        // Same idea as prepareMethodStateWithFrame(), except that the frame already exists (it was created when the method started and
+        // holds the field resident locals) -- it must be the one the method state points to. There's no spare here: field resident locals
+        // get written to directly in the frame as the method runs, so (like any other object the coroutine modifies) a rolled back
+        // execution cycle doesn't undo them. The method state itself is never written over, so it's safe to push the same one again.
+        //
+        //          if (methodState == null || methodState.getContinuationPoint() != <number> || methodState.getFrame() != frame) {
+        //              methodState = new MethodState(<number>, frame, lockState);
+        //          }
+        LabelNode createLabelNode = new LabelNode();
+        LabelNode doneLabelNode = new LabelNode();
+        return merge(
+                debugMarker(markerType, dbgSig + "Checking if method state can be reused"),
+                loadVar(methodStateVar),
+                new JumpInsnNode(Opcodes.IFNULL, createLabelNode),
+                call(METHODSTATE_GETCONTINUATIONPOINT_METHOD, loadVar(methodStateVar)),
+                loadIntConst(idx),
+                new JumpInsnNode(Opcodes.IF_ICMPNE, createLabelNode),
+                call(METHODSTATE_GETFRAME_METHOD, loadVar(methodStateVar)),
+                loadVar(frameVar),
+                new JumpInsnNode(Opcodes.IF_ACMPNE, createLabelNode),
+                debugMarker(markerType, dbgSig + "Reusing method state"),
+                jumpTo(doneLabelNode),
+                addLabel(createLabelNode),
+                debugMarker(markerType, dbgSig + "Creating method state"),
+                construct(METHODSTATE_INIT_WITH_FRAME_METHOD,
+                        loadClassName(attrs),
+                        loadIntConst(methodId),
+                        loadIntConst(idx),
+                        loadVar(frameVar),
+                        // load lockstate for last arg if method actually has monitorenter/exit in it
+                        // (var != null if this were the case), otherwise load null for that arg
+                        mergeIf(lockStateVar != null, () -> new Object[] {
+                            loadVar(lockStateVar)
+                        }).mergeIf(lockStateVar == null, () -> new Object[] {
+                            loadNull()
+                        }).generate()
+                ),
+                saveVar(methodStateVar),
+                addLabel(doneLabelNode)
+        );
+    }
+
+    private static InsnList loadClassName(MethodAttributes attrs) {
+        // The class name is only needed for serialization, so lean mode doesn't bother with it (see MethodStateHelperGenerators)
+        if (attrs.getSettings().isLeanMode()) {
+            return loadNull();
+        }
+        return loadStringConst(attrs.getSignature().getClassName().replace('/', '.')); // '/' -> '.'   because it's non-internal format
+    }
+
+    // Used by the prepareMethodState*() methods. Falls through if a new method state needs to be created, leaving methodState set to what
+    // should become the new method state's spare (null if there isn't anything suitable). Jumps to reuseLabelNode with methodState set to
+    // the spare if the spare can be written over. spareCheck (if not null) gets the spare on the stack and must replace it with an int
+    // that's 0 if the spare doesn't have the storage that this continuation point writes to (e.g. it was created by CoroutineReader).
+    //
+    //          if (methodState != null && methodState.getContinuationPoint() == <number>) {
+    //              spare = methodState.takeSpare(lockState);
+    //              if (spare != null && <spareCheck>) {
+    //                  methodState = spare;
+    //                  goto reuse;
+    //              }
+    //          } else {
+    //              methodState = null;
+    //          }
+    private static InsnList takeSpareMethodState(MethodAttributes attrs, int idx, InsnList spareCheck, LabelNode reuseLabelNode) {
+        Variable methodStateVar = attrs.getCoreVariables().getMethodStateVar();
+        Variable lockStateVar = attrs.getLockVariables().getLockStateVar();
+
+        MarkerType markerType = attrs.getSettings().getMarkerType();
+        String dbgSig = getLogPrefix(attrs);
+
+        LabelNode takeSpareLabelNode = new LabelNode();
+        LabelNode popAndCreateLabelNode = new LabelNode();
+        LabelNode createLabelNode = new LabelNode();
+        return merge(
+                debugMarker(markerType, dbgSig + "Checking if method state has a spare that can be reused"),
+                loadVar(methodStateVar),
+                new JumpInsnNode(Opcodes.IFNULL, createLabelNode),
+                call(METHODSTATE_GETCONTINUATIONPOINT_METHOD, loadVar(methodStateVar)),
+                loadIntConst(idx),
+                new JumpInsnNode(Opcodes.IF_ICMPEQ, takeSpareLabelNode),
+                debugMarker(markerType, dbgSig + "Method state is for a different continuation point, discarding"),
+                loadNull(),
+                saveVar(methodStateVar),
+                jumpTo(createLabelNode),
+                addLabel(takeSpareLabelNode),
+                call(METHODSTATE_TAKESPARE_METHOD, loadVar(methodStateVar),
+                        // load lockstate if method actually has monitorenter/exit in it (var != null if this were the case), otherwise
+                        // load null
+                        mergeIf(lockStateVar != null, () -> new Object[] {
+                            loadVar(lockStateVar)
+                        }).mergeIf(lockStateVar == null, () -> new Object[] {
+                            loadNull()
+                        }).generate()
+                ),
+                new InsnNode(Opcodes.DUP),
+                new JumpInsnNode(Opcodes.IFNULL, popAndCreateLabelNode),
+                mergeIf(spareCheck != null, () -> new Object[] {
+                    new InsnNode(Opcodes.DUP),
+                    spareCheck,
+                    new JumpInsnNode(Opcodes.IFEQ, popAndCreateLabelNode)
+                }),
+                debugMarker(markerType, dbgSig + "Reusing spare method state"),
+                saveVar(methodStateVar),
+                jumpTo(reuseLabelNode),
+                addLabel(popAndCreateLabelNode),
+                new InsnNode(Opcodes.POP),
+                addLabel(createLabelNode)
+        );
+    }
+
+    // Expects the newly created method state on the stack and leaves it there.
+    //
+    //          newMethodState.setSpare(methodState);
+    private static InsnList setSpareOfNewMethodState(MethodAttributes attrs) {
+        Variable methodStateVar = attrs.getCoreVariables().getMethodStateVar();
+        return merge(
+                new InsnNode(Opcodes.DUP),
+                call(METHODSTATE_SETSPARE_METHOD, empty(), loadVar(methodStateVar)) // new method state is on the stack
+        );
+    }
+
+    private static InsnList createResidentLocalsFrame(MethodAttributes attrs) {
+        Variable frameVar = attrs.getStorageContainerVariables().getContainerVar();
+        String frameClassName = frameVar.getType().getInternalName();
+
+        //          frame = new <frame class>();
+        //          frame.<field for arg> = <arg>; // for each argument that's a field resident local
+        InsnList ret = merge(
+                new TypeInsnNode(Opcodes.NEW, frameClassName),
+                new InsnNode(Opcodes.DUP),
+                new MethodInsnNode(Opcodes.INVOKESPECIAL, frameClassName, "<init>", "()V", false),
+                saveVar(frameVar)
+        );
+        for (Map.Entry<Integer, Type> arg : attrs.getStorageContainerVariables().getResidentLocals().getArguments().entrySet()) {
+            int slot = arg.getKey();
+            Type type = arg.getValue();
+            ret.add(new VarInsnNode(type.getOpcode(Opcodes.ILOAD), slot));
+            ret.add(FrameClassGenerators.storeResidentLocal(frameVar, slot, type));
+        }
+        return ret;
+    }
+
+    // Field resident locals are already in the frame (they never leave it). The remaining locals are arguments that never get written to
+    // -- they're still saved/loaded so that the saved state is complete (e.g. for serialization).
+    private static Frame<BasicValue> removeResidentLocals(MethodAttributes attrs, Frame<BasicValue> frame) {
+        ResidentLocals residentLocals = attrs.getStorageContainerVariables().getResidentLocals();
+        if (!residentLocals.isEnabled()) {
+            return frame;
+        }
+
+        Frame<BasicValue> ret = new Frame<>(frame);
+        for (int i = 0; i < ret.getLocals(); i++) {
+            if (residentLocals.isResident(i)) {
+                ret.setLocal(i, BasicValue.UNINITIALIZED_VALUE);
+            }
+        }
+        return ret;
+    }
+    
+    
+    
+    
+    
+    
+    
+    
+    
+    // The following methods generate instructions that move locals / operand stack items to and from storage, based on the state layout
+    // being used. For the ARRAYS state layout, the storage is the storage arrays packed in the Object[] container. For the FRAME_CLASSES
+    // state layout, the storage is the fields of the frame object (there's nothing to unpack). For the PACKED state layout, the storage is
+    // the long[] / Object[] of the method state (there's nothing to unpack).
+    
+    private static InsnList loadPackedArrays(MethodAttributes attrs) {
+        Variable methodStateVar = attrs.getCoreVariables().getMethodStateVar();
+        return merge(
+                call(METHODSTATE_GETPRIMITIVES_METHOD, loadVar(methodStateVar)),
+                saveVar(attrs.getStorageContainerVariables().getPrimitivesVar()),
+                call(METHODSTATE_GETOBJECTS_METHOD, loadVar(methodStateVar)),
+                saveVar(attrs.getStorageContainerVariables().getContainerVar())
+        );
+    }
+    
+    private static InsnList loadStorageContainer(MethodAttributes attrs) {
+        Variable methodStateVar = attrs.getCoreVariables().getMethodStateVar();
+        Variable storageContainerVar = attrs.getStorageContainerVariables().getContainerVar();
+        
+        //          packedMethodState = methodState.toPacked();
+        //          primitives = packedMethodState.getPrimitives();
+        //          objects = packedMethodState.getObjects();
+        //
+        // A method state created by CoroutineReader only has the Object[] container, so it needs to be converted. The converted method
+        // state is only used to load from -- methodState stays as is because Continuation expects to get back what it loaded.
+        if (attrs.getSettings().getStateLayout() == StateLayout.PACKED) {
+            return merge(
+                    call(METHODSTATE_TOPACKED_METHOD, loadVar(methodStateVar)),
+                    new InsnNode(Opcodes.DUP),
+                    call(METHODSTATE_GETPRIMITIVES_METHOD, empty()),
+                    saveVar(attrs.getStorageContainerVariables().getPrimitivesVar()),
+                    call(METHODSTATE_GETOBJECTS_METHOD, empty()),
+                    saveVar(attrs.getStorageContainerVariables().getContainerVar())
+            );
+        }
+        if (attrs.getSettings().getStateLayout() != StateLayout.FRAME_CLASSES) {
+            return merge(
+                    call(METHODSTATE_GETDATA_METHOD, loadVar(methodStateVar)),
+                    saveVar(storageContainerVar)
+            );
+        }
+
+        //          frame = methodState.getFrame() != null
+        //                  ? (<frame class>) methodState.getFrame()
+        //                  : <frame class>.fromData(methodState.getContinuationPoint(), methodState.getData());
+        String frameClassName = storageContainerVar.getType().getInternalName();
+        LabelNode convertLabelNode = new LabelNode();
+        LabelNode doneLabelNode = new LabelNode();
+        return merge(
+                call(METHODSTATE_GETFRAME_METHOD, loadVar(methodStateVar)),
+                new InsnNode(Opcodes.DUP),
+                new JumpInsnNode(Opcodes.IFNULL, convertLabelNode),
+                new TypeInsnNode(Opcodes.CHECKCAST, frameClassName),
+                jumpTo(doneLabelNode),
+                addLabel(convertLabelNode),
+                new InsnNode(Opcodes.POP),
+                call(METHODSTATE_GETCONTINUATIONPOINT_METHOD, loadVar(methodStateVar)),
+                call(METHODSTATE_GETDATA_METHOD, loadVar(methodStateVar)),
+                FrameClassGenerators.convertDataToFrame(frameClassName),
+                addLabel(doneLabelNode),
+                saveVar(storageContainerVar)
+        );
+    }
+
+    private static InsnList unpackOperandStackStorage(MethodAttributes attrs, Frame<BasicValue> frame) {
+        if (attrs.getSettings().getStateLayout() != StateLayout.ARRAYS) {
+            return empty();
+        }
+        return unpackOperandStackStorageArrays(attrs.getSettings().getMarkerType(), frame,
+                attrs.getStorageContainerVariables().getContainerVar(), attrs.getStackStorageVariables());
+    }
+
+    private static InsnList unpackLocalsStorage(MethodAttributes attrs, Frame<BasicValue> frame) {
+        if (attrs.getSettings().getStateLayout() != StateLayout.ARRAYS) {
+            return empty();
+        }
+        return unpackLocalsStorageArrays(attrs.getSettings().getMarkerType(), frame,
+                attrs.getStorageContainerVariables().getContainerVar(), attrs.getLocalsStorageVariables());
+    }
+
+    private static InsnList loadSavedOperandStack(MethodAttributes attrs, Frame<BasicValue> frame, int storageStackLoadIdx, int count) {
+        if (attrs.getSettings().getStateLayout() == StateLayout.FRAME_CLASSES) {
+            return FrameClassGenerators.loadOperandStack(attrs.getSettings().getMarkerType(),
+                    attrs.getStorageContainerVariables().getContainerVar(), frame, storageStackLoadIdx, count);
+        }
+        if (attrs.getSettings().getStateLayout() == StateLayout.PACKED) {
+            return PackedLayoutGenerators.loadOperandStack(attrs.getSettings().getMarkerType(),
+                    attrs.getStorageContainerVariables().getPrimitivesVar(), attrs.getStorageContainerVariables().getContainerVar(), frame,
+                    storageStackLoadIdx, count);
+        }
+        return loadOperandStack(attrs.getSettings().getMarkerType(), attrs.getStackStorageVariables(), frame, 0, storageStackLoadIdx,
+                count);
+    }
+
+    private static InsnList loadSavedLocals(MethodAttributes attrs, Frame<BasicValue> frame) {
+        if (attrs.getSettings().getStateLayout() == StateLayout.FRAME_CLASSES) {
+            return FrameClassGenerators.loadLocals(attrs.getSettings().getMarkerType(),
+                    attrs.getStorageContainerVariables().getContainerVar(), removeResidentLocals(attrs, frame));
+        }
+        if (attrs.getSettings().getStateLayout() == StateLayout.PACKED) {
+            return PackedLayoutGenerators.loadLocals(attrs.getSettings().getMarkerType(),
+                    attrs.getStorageContainerVariables().getPrimitivesVar(), attrs.getStorageContainerVariables().getContainerVar(), frame);
+        }
+        return loadLocals(attrs.getSettings().getMarkerType(), attrs.getLocalsStorageVariables(), frame);
+    }
+
+    // Storage must have already been prepared by prepareMethodState().
+    private static InsnList saveOperandStackToStorage(MethodAttributes attrs, Frame<BasicValue> frame) {
+        if (attrs.getSettings().getStateLayout() == StateLayout.FRAME_CLASSES) {
+            return FrameClassGenerators.saveOperandStack(attrs.getSettings().getMarkerType(),
+                    attrs.getStorageContainerVariables().getContainerVar(), frame);
+        }
+        if (attrs.getSettings().getStateLayout() == StateLayout.PACKED) {
+            return PackedLayoutGenerators.saveOperandStack(attrs.getSettings().getMarkerType(),
+                    attrs.getStorageContainerVariables().getPrimitivesVar(), attrs.getStorageContainerVariables().getContainerVar(), frame);
+        }
+        return saveOperandStack(attrs.getSettings().getMarkerType(), attrs.getStackStorageVariables(), frame, frame.getStackSize(),
+                false);
+    }
+
+    // Storage must have already been prepared by prepareMethodState().
+    private static InsnList saveLocalsToStorage(MethodAttributes attrs, Frame<BasicValue> frame) {
+        if (attrs.getSettings().getStateLayout() == StateLayout.FRAME_CLASSES) {
+            return FrameClassGenerators.saveLocals(attrs.getSettings().getMarkerType(),
+                    attrs.getStorageContainerVariables().getContainerVar(), removeResidentLocals(attrs, frame));
+        }
+        if (attrs.getSettings().getStateLayout() == StateLayout.PACKED) {
+            return PackedLayoutGenerators.saveLocals(attrs.getSettings().getMarkerType(),
+                    attrs.getStorageContainerVariables().getPrimitivesVar(), attrs.getStorageContainerVariables().getContainerVar(), frame);
+        }
+        return saveLocals(attrs.getSettings().getMarkerType(), attrs.getLocalsStorageVariables(), frame, false);
+    }
+
     /**
      * Generates instructions that returns a dummy value. Return values are as follows:
      * <ul>
@@ -939,6 +1457,29 @@ final class ContinuationGenerators {
         return ret;
     }
     
+    /**
+     * Generates instructions that returns the result of a method invocation that's on top of the stack. If the method being returned
+     * from has a void return type, the invocation's result gets popped off (if it has one).
+     * @param returnType return type of the method this generated bytecode is for
+     * @param invokeInsnNode instruction for the method that was invoked
+     * @return instructions to return the result of the invocation
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code returnType}'s sort is of {@link Type#METHOD}
+     */
+    private static InsnList returnInvocationResult(Type returnType, AbstractInsnNode invokeInsnNode) {
+        Validate.notNull(returnType);
+        Validate.notNull(invokeInsnNode);
+        Validate.isTrue(returnType.getSort() != Type.METHOD);
+
+        InsnList ret = new InsnList();
+        if (returnType.getSort() == Type.VOID) {
+            ret.add(popMethodResult(invokeInsnNode));
+        }
+        ret.add(new InsnNode(returnType.getOpcode(Opcodes.IRETURN)));
+
+        return ret;
+    }
+    
     /**
      * Generates instructions to pop the result of the method off the stack. This will only generate instructions if the method being
      * invoked generates a return value.
@@ -0,0 +1,714 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter;
+
+import com.offbynull.coroutines.instrumenter.asm.ClassInformationRepository;
+import com.offbynull.coroutines.instrumenter.asm.SimpleClassWriter;
+import com.offbynull.coroutines.instrumenter.asm.VariableTable.Variable;
+import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
+import static com.offbynull.coroutines.instrumenter.generators.DebugGenerators.debugMarker;
+import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.addLabel;
+import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.jumpTo;
+import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.loadIntConst;
+import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.merge;
+import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.tableSwitch;
+import com.offbynull.coroutines.user.MethodFrame;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.Frame;
+
+/**
+ * Utility class to generate frame classes (used by the {@code FRAME_CLASSES} state layout) along with the bytecode instructions that
+ * save/load the local variables table and operand stack to/from them.
+ * @author Kasra Faghihi
+ */
+final class FrameClassGenerators {
+    private FrameClassGenerators() {
+        // do nothing
+    }
+    
+    // A PRIMER ON HOW FRAME CLASSES WORK...
+    //
+    // Each instrumented method gets its own frame class. The frame class has one field for each local variable slot / operand stack
+    // position that needs to be saved at any of the method's continuation points, named after the slot/position and typed after the
+    // category of the item in it (int, float, long, double or Object). For example, if local variable slot 2 holds an int at one
+    // continuation point and a String at another, the frame class will have the fields...
+    //
+    //   int l2_I;
+    //   Object l2_A;
+    //
+    // Saving a method frame means creating a single instance of the frame class and writing each item directly in to its field (vs
+    // creating a container + a storage array for each type). Loading is the reverse -- each item is read directly from its field.
+    //
+    // Serialization (CoroutineWriter/CoroutineReader) still works with the Object[10] container of typed arrays. Frame classes convert
+    // to/from that container...
+    //
+    //   public Object[] toData(int continuationPoint)                -- called by MethodState.getData() (MethodFrame interface)
+    //   static <frame class> fromData(int continuationPoint, Object[]) -- called by the instrumented method when it gets a MethodState
+    //                                                                     that has no frame (e.g. it was created by CoroutineReader)
+    //
+    // ... where the order of items in each typed array is exactly the same as what the storage array generators in LocalsStateGenerators
+    // and OperandStackStateGenerators produce (locals in order of slot, operand stack items from bottom to top). That means that
+    // coroutines instrumented with either layout serialize to the same thing and .coroutinesinfo files describe both.
+    
+    private static final String FRAME_CLASS_NAME_SUFFIX = "$CoroutinesFrame";
+    private static final Type METHOD_FRAME_TYPE = Type.getType(MethodFrame.class);
+    private static final Type OBJECT_TYPE = Type.getType(Object.class);
+    private static final Type OBJECT_ARRAY_TYPE = Type.getType(Object[].class);
+    private static final String TO_DATA_METHOD_NAME = "toData";
+    private static final String FROM_DATA_METHOD_NAME = "fromData";
+    private static final int CONTAINER_SIZE = 10;
+    private static final int CONTAINER_LOCALS_OFFSET = 0;
+    private static final int CONTAINER_OPERANDS_OFFSET = 5;
+
+    /**
+     * Get the internal name of the frame class for a method.
+     * @param signature signature of method
+     * @return internal name of frame class for method
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static String getFrameClassName(MethodSignature signature) {
+        Validate.notNull(signature);
+        return signature.getClassName() + FRAME_CLASS_NAME_SUFFIX + Integer.toHexString(signature.getMethodId());
+    }
+
+    /**
+     * Generates the frame class for a method.
+     * @param frameClassName internal name of the frame class
+     * @param classVersion class file version to generate (should be the same as the class the method is in)
+     * @param frames execution frames at each of the method's continuation points (in order of continuation point id)
+     * @param classRepo class information repository (needed by ASM to generate stack map frames)
+     * @return frame class bytecode
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     */
+    public static byte[] generateFrameClass(String frameClassName, int classVersion, List<Frame<BasicValue>> frames,
+            ClassInformationRepository classRepo) {
+        return generateFrameClass(frameClassName, classVersion, frames, new LinkedHashMap<>(), classRepo);
+    }
+
+    /**
+     * Generates the frame class for a method.
+     * @param frameClassName internal name of the frame class
+     * @param classVersion class file version to generate (should be the same as the class the method is in)
+     * @param frames execution frames at each of the method's continuation points (in order of continuation point id)
+     * @param extraFields fields referenced by the method in addition to those needed for {@code frames} (e.g. field resident locals that
+     * aren't live at any continuation point), mapped to their types
+     * @param classRepo class information repository (needed by ASM to generate stack map frames)
+     * @return frame class bytecode
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     */
+    public static byte[] generateFrameClass(String frameClassName, int classVersion, List<Frame<BasicValue>> frames,
+            Map<String, Type> extraFields, ClassInformationRepository classRepo) {
+        Validate.notNull(frameClassName);
+        Validate.notNull(frames);
+        Validate.notNull(extraFields);
+        Validate.notNull(classRepo);
+        Validate.noNullElements(frames);
+        Validate.noNullElements(extraFields.keySet());
+        Validate.noNullElements(extraFields.values());
+        
+        // Collect fields across all continuation points (same field may be used at multiple continuation points)
+        Map<String, Type> fields = new LinkedHashMap<>();
+        for (Frame<BasicValue> frame : frames) {
+            for (Item item : getLocalItems(frame)) {
+                fields.put(item.fieldName, item.fieldType);
+            }
+            for (Item item : getStackItems(frame, 0, frame.getStackSize())) {
+                fields.put(item.fieldName, item.fieldType);
+            }
+        }
+        fields.putAll(extraFields);
+        
+        ClassNode classNode = new ClassNode(Opcodes.ASM5);
+        classNode.version = classVersion;
+        classNode.access = Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC;
+        classNode.name = frameClassName;
+        classNode.superName = OBJECT_TYPE.getInternalName();
+        classNode.interfaces.add(METHOD_FRAME_TYPE.getInternalName());
+
+        classNode.fields.add(new FieldNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "serialVersionUID",
+                Type.LONG_TYPE.getDescriptor(), null, 0L));
+        for (Map.Entry<String, Type> field : fields.entrySet()) {
+            classNode.fields.add(new FieldNode(0, field.getKey(), field.getValue().getDescriptor(), null, null));
+        }
+
+        classNode.methods.add(generateConstructor());
+        classNode.methods.add(generateToDataMethod(frameClassName, frames));
+        classNode.methods.add(generateFromDataMethod(frameClassName, frames));
+
+        ClassWriter cw = new SimpleClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES, classRepo);
+        classNode.accept(cw);
+        return cw.toByteArray();
+    }
+
+    /**
+     * Generates instructions that convert the container stored in a method state back in to a frame (used when a method state that
+     * doesn't have a frame is being restored -- e.g. it came from {@code CoroutineReader}). Expects the continuation point id and the
+     * container to be on the stack, in that order. Leaves the frame on the stack.
+     * @param frameClassName internal name of the frame class
+     * @return instructions to convert the container to a frame
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static InsnList convertDataToFrame(String frameClassName) {
+        Validate.notNull(frameClassName);
+        
+        InsnList ret = new InsnList();
+        ret.add(new MethodInsnNode(Opcodes.INVOKESTATIC, frameClassName, FROM_DATA_METHOD_NAME,
+                getFromDataMethodDescriptor(frameClassName), false));
+        return ret;
+    }
+
+    /**
+     * Generates instructions to save the local variables table to a frame.
+     * @param markerType debug marker type
+     * @param frameVar variable holding the frame to save locals in to
+     * @param frame execution frame at the instruction where the local variables table is to be saved
+     * @return instructions to save the local variables table in to the frame
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static InsnList saveLocals(MarkerType markerType, Variable frameVar, Frame<BasicValue> frame) {
+        Validate.notNull(markerType);
+        Validate.notNull(frameVar);
+        Validate.notNull(frame);
+        
+        String frameClassName = frameVar.getType().getInternalName();
+        
+        InsnList ret = new InsnList();
+        ret.add(debugMarker(markerType, "Saving locals to frame"));
+        for (Item item : getLocalItems(frame)) {
+            ret.add(debugMarker(markerType, "Saving LVT index " + item.index + " to field " + item.fieldName));
+            ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                                     // [frame]
+            ret.add(new VarInsnNode(item.fieldType.getOpcode(Opcodes.ILOAD), item.index));                    // [frame, val]
+            ret.add(new FieldInsnNode(Opcodes.PUTFIELD, frameClassName, item.fieldName, item.fieldType.getDescriptor())); // []
+        }
+        return ret;
+    }
+
+    /**
+     * Generates instructions to load the local variables table from a frame.
+     * @param markerType debug marker type
+     * @param frameVar variable holding the frame to load locals from
+     * @param frame execution frame at the instruction for which the local variables table is to be restored
+     * @return instructions to load the local variables table from the frame
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static InsnList loadLocals(MarkerType markerType, Variable frameVar, Frame<BasicValue> frame) {
+        Validate.notNull(markerType);
+        Validate.notNull(frameVar);
+        Validate.notNull(frame);
+        
+        String frameClassName = frameVar.getType().getInternalName();
+        
+        InsnList ret = new InsnList();
+        ret.add(debugMarker(markerType, "Loading locals from frame"));
+        for (int i = 0; i < frame.getLocals(); i++) {
+            Type type = frame.getLocal(i).getType();
+            // Same as LocalsStateGenerators -- uninitialized slots are skipped, 'Lnull;' slots get null put in to them
+            if (type != null && "Lnull;".equals(type.getDescriptor())) {
+                ret.add(debugMarker(markerType, "Putting null value at " + i));
+                ret.add(new InsnNode(Opcodes.ACONST_NULL));
+                ret.add(new VarInsnNode(Opcodes.ASTORE, i));
+            }
+        }
+        for (Item item : getLocalItems(frame)) {
+            ret.add(debugMarker(markerType, "Loading LVT index " + item.index + " from field " + item.fieldName));
+            ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                                     // [frame]
+            ret.add(new FieldInsnNode(Opcodes.GETFIELD, frameClassName, item.fieldName, item.fieldType.getDescriptor())); // [val]
+            if (item.fieldType.equals(OBJECT_TYPE)) {
+                // must cast, otherwise the jvm won't know the type that's in the localvariable slot
+                ret.add(new TypeInsnNode(Opcodes.CHECKCAST, item.type.getInternalName()));
+            }
+            ret.add(new VarInsnNode(item.fieldType.getOpcode(Opcodes.ISTORE), item.index));                   // []
+        }
+        return ret;
+    }
+
+    /**
+     * Generates instructions to save the entire operand stack to a frame. The items are popped off the operand stack.
+     * @param markerType debug marker type
+     * @param frameVar variable holding the frame to save operand stack in to
+     * @param frame execution frame at the instruction where the operand stack is to be saved
+     * @return instructions to save the operand stack in to the frame
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static InsnList saveOperandStack(MarkerType markerType, Variable frameVar, Frame<BasicValue> frame) {
+        Validate.notNull(markerType);
+        Validate.notNull(frameVar);
+        Validate.notNull(frame);
+        
+        String frameClassName = frameVar.getType().getInternalName();
+        
+        InsnList ret = new InsnList();
+        ret.add(debugMarker(markerType, "Saving operand stack to frame (" + frame.getStackSize() + " items)"));
+        for (int i = frame.getStackSize() - 1; i >= 0; i--) {
+            Type type = frame.getStack(i).getType();
+            // Same as OperandStackStateGenerators -- 'Lnull;' items don't need to be saved, null gets pushed back in when loading
+            if ("Lnull;".equals(type.getDescriptor())) {
+                ret.add(debugMarker(markerType, "Skipping null value at " + i));
+                ret.add(new InsnNode(Opcodes.POP));
+                continue;
+            }
+            
+            Item item = new Item(i, type, "s");
+            ret.add(debugMarker(markerType, "Popping/storing item at " + i + " to field " + item.fieldName));
+            ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                  // [val, frame]
+            if (item.fieldType.getSize() == 2) {
+                ret.add(new InsnNode(Opcodes.DUP_X2));                                     // [frame, val_PART1, val_PART2, frame]
+                ret.add(new InsnNode(Opcodes.POP));                                        // [frame, val_PART1, val_PART2]
+            } else {
+                ret.add(new InsnNode(Opcodes.SWAP));                                       // [frame, val]
+            }
+            ret.add(new FieldInsnNode(Opcodes.PUTFIELD, frameClassName, item.fieldName, item.fieldType.getDescriptor())); // []
+        }
+        return ret;
+    }
+
+    /**
+     * Generates instructions to load a certain number of items from a frame on to the top of the operand stack.
+     * @param markerType debug marker type
+     * @param frameVar variable holding the frame to load operand stack from
+     * @param frame execution frame at the instruction where the operand stack is to be loaded
+     * @param storageStackLoadIdx stack position where loading should start from
+     * @param count number of stack items to load
+     * @return instructions to load the operand stack from the frame
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if any numeric argument is negative, or if you're trying to load too many items on the stack (such
+     * that it goes past {@code frame.getStackSize()})
+     */
+    public static InsnList loadOperandStack(MarkerType markerType, Variable frameVar, Frame<BasicValue> frame, int storageStackLoadIdx,
+            int count) {
+        Validate.notNull(markerType);
+        Validate.notNull(frameVar);
+        Validate.notNull(frame);
+        Validate.isTrue(storageStackLoadIdx >= 0);
+        Validate.isTrue(count >= 0);
+        Validate.isTrue(storageStackLoadIdx + count <= frame.getStackSize());
+        
+        String frameClassName = frameVar.getType().getInternalName();
+        
+        InsnList ret = new InsnList();
+        ret.add(debugMarker(markerType, "Loading stack items from frame"));
+        for (int i = storageStackLoadIdx; i < storageStackLoadIdx + count; i++) {
+            Type type = frame.getStack(i).getType();
+            if ("Lnull;".equals(type.getDescriptor())) {
+                ret.add(debugMarker(markerType, "Loading null value at " + i));
+                ret.add(new InsnNode(Opcodes.ACONST_NULL));
+                continue;
+            }
+            
+            Item item = new Item(i, type, "s");
+            ret.add(debugMarker(markerType, "Loading item at " + i + " from field " + item.fieldName));
+            ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                                     // [frame]
+            ret.add(new FieldInsnNode(Opcodes.GETFIELD, frameClassName, item.fieldName, item.fieldType.getDescriptor())); // [val]
+            if (item.fieldType.equals(OBJECT_TYPE)) {
+                ret.add(new TypeInsnNode(Opcodes.CHECKCAST, item.type.getInternalName()));
+            }
+        }
+        return ret;
+    }
+    
+    
+    
+    
+    
+    /**
+     * Generates instructions to read a field resident local from a frame on to the operand stack (replaces a load instruction for that
+     * local).
+     * @param frameVar variable holding the frame that the local resides in
+     * @param index local variable slot
+     * @param type type of the value in the local -- for objects, {@code null} can be used if the type isn't known (no cast is done)
+     * @return instructions to read the local
+     * @throws NullPointerException if {@code frameVar} is {@code null}
+     * @throws IllegalArgumentException if {@code index} is negative
+     */
+    public static InsnList loadResidentLocal(Variable frameVar, int index, Type type) {
+        Validate.notNull(frameVar);
+        Validate.isTrue(index >= 0);
+        
+        String frameClassName = frameVar.getType().getInternalName();
+        
+        InsnList ret = new InsnList();
+        if (type != null && "Lnull;".equals(type.getDescriptor())) {
+            // Same as loadLocals() -- the slot always contains null at this point
+            ret.add(new InsnNode(Opcodes.ACONST_NULL));
+            return ret;
+        }
+        
+        Item item = new Item(index, type == null ? OBJECT_TYPE : type, "l");
+        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                                             // [frame]
+        ret.add(new FieldInsnNode(Opcodes.GETFIELD, frameClassName, item.fieldName, item.fieldType.getDescriptor())); // [val]
+        if (item.fieldType.equals(OBJECT_TYPE) && !item.type.equals(OBJECT_TYPE)) {
+            ret.add(new TypeInsnNode(Opcodes.CHECKCAST, item.type.getInternalName()));
+        }
+        return ret;
+    }
+
+    /**
+     * Generates instructions to write the item at the top of the operand stack to a field resident local in a frame (replaces a store
+     * instruction for that local). The item is popped off the operand stack.
+     * @param frameVar variable holding the frame that the local resides in
+     * @param index local variable slot
+     * @param type type of the item being written
+     * @return instructions to write the local
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code index} is negative
+     */
+    public static InsnList storeResidentLocal(Variable frameVar, int index, Type type) {
+        Validate.notNull(frameVar);
+        Validate.notNull(type);
+        Validate.isTrue(index >= 0);
+        
+        String frameClassName = frameVar.getType().getInternalName();
+        
+        Item item = new Item(index, type, "l");
+        InsnList ret = new InsnList();
+        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));          // [val, frame]
+        if (item.fieldType.getSize() == 2) {
+            ret.add(new InsnNode(Opcodes.DUP_X2));                             // [frame, val_PART1, val_PART2, frame]
+            ret.add(new InsnNode(Opcodes.POP));                                // [frame, val_PART1, val_PART2]
+        } else {
+            ret.add(new InsnNode(Opcodes.SWAP));                               // [frame, val]
+        }
+        ret.add(new FieldInsnNode(Opcodes.PUTFIELD, frameClassName, item.fieldName, item.fieldType.getDescriptor())); // []
+        return ret;
+    }
+
+    /**
+     * Generates instructions to increment a field resident int local in a frame (replaces an {@code IINC} instruction for that local).
+     * @param frameVar variable holding the frame that the local resides in
+     * @param index local variable slot
+     * @param increment amount to increment by
+     * @return instructions to increment the local
+     * @throws NullPointerException if {@code frameVar} is {@code null}
+     * @throws IllegalArgumentException if {@code index} is negative
+     */
+    public static InsnList incrementResidentLocal(Variable frameVar, int index, int increment) {
+        Validate.notNull(frameVar);
+        Validate.isTrue(index >= 0);
+        
+        String frameClassName = frameVar.getType().getInternalName();
+        
+        Item item = new Item(index, Type.INT_TYPE, "l");
+        InsnList ret = new InsnList();
+        ret.add(new VarInsnNode(Opcodes.ALOAD, frameVar.getIndex()));                                             // [frame]
+        ret.add(new InsnNode(Opcodes.DUP));                                                                       // [frame, frame]
+        ret.add(new FieldInsnNode(Opcodes.GETFIELD, frameClassName, item.fieldName, item.fieldType.getDescriptor())); // [frame, val]
+        ret.add(loadIntConst(increment));                                                                         // [frame, val, inc]
+        ret.add(new InsnNode(Opcodes.IADD));                                                                      // [frame, val+inc]
+        ret.add(new FieldInsnNode(Opcodes.PUTFIELD, frameClassName, item.fieldName, item.fieldType.getDescriptor())); // []
+        return ret;
+    }
+    
+    
+    
+    
+    
+    private static MethodNode generateConstructor() {
+        MethodNode methodNode = new MethodNode(0, "<init>", "()V", null, null);
+        methodNode.instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
+        methodNode.instructions.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, OBJECT_TYPE.getInternalName(), "<init>", "()V", false));
+        methodNode.instructions.add(new InsnNode(Opcodes.RETURN));
+        return methodNode;
+    }
+
+    private static MethodNode generateToDataMethod(String frameClassName, List<Frame<BasicValue>> frames) {
+        //          public Object[] toData(int continuationPoint) {
+        //              switch (continuationPoint) {
+        //                  case <number>:
+        //                      Object[] container = new Object[10];
+        //                      container[<type>] = new <type>[] { this.<field>, this.<field>, ... }; // for each non-empty type
+        //                      return container;
+        //                  default:
+        //                      throw new IllegalArgumentException();
+        //              }
+        //          }
+        InsnList[] cases = new InsnList[frames.size()];
+        for (int i = 0; i < frames.size(); i++) {
+            Frame<BasicValue> frame = frames.get(i);
+
+            InsnList caseInsnList = new InsnList();
+            caseInsnList.add(new LdcInsnNode(CONTAINER_SIZE));
+            caseInsnList.add(new TypeInsnNode(Opcodes.ANEWARRAY, OBJECT_TYPE.getInternalName()));         // [container]
+            List<List<Item>> localsArrays = groupByFieldType(getLocalItems(frame));
+            List<List<Item>> stackArrays = groupByFieldType(getStackItems(frame, 0, frame.getStackSize()));
+            for (int j = 0; j < localsArrays.size(); j++) {
+                caseInsnList.add(packArray(frameClassName, CONTAINER_LOCALS_OFFSET + j, localsArrays.get(j)));
+            }
+            for (int j = 0; j < stackArrays.size(); j++) {
+                caseInsnList.add(packArray(frameClassName, CONTAINER_OPERANDS_OFFSET + j, stackArrays.get(j)));
+            }
+            caseInsnList.add(new InsnNode(Opcodes.ARETURN));                                            // []
+            cases[i] = caseInsnList;
+        }
+
+        MethodNode methodNode = new MethodNode(Opcodes.ACC_PUBLIC, TO_DATA_METHOD_NAME,
+                Type.getMethodDescriptor(OBJECT_ARRAY_TYPE, Type.INT_TYPE), null, null);
+        methodNode.instructions.add(tableSwitch(
+                merge(new VarInsnNode(Opcodes.ILOAD, 1)),
+                throwIllegalArgumentException(),
+                0,
+                cases));
+        return methodNode;
+    }
+
+    private static MethodNode generateFromDataMethod(String frameClassName, List<Frame<BasicValue>> frames) {
+        //          static <frame class> fromData(int continuationPoint, Object[] container) {
+        //              <frame class> frame = new <frame class>();
+        //              switch (continuationPoint) {
+        //                  case <number>:
+        //                      frame.<field> = ((<type>[]) container[<type>])[<idx>]; // for each field used by continuation point
+        //                      break;
+        //                  default:
+        //                      throw new IllegalArgumentException();
+        //              }
+        //              return frame;
+        //          }
+        LabelNode doneLabelNode = new LabelNode();
+
+        InsnList[] cases = new InsnList[frames.size()];
+        for (int i = 0; i < frames.size(); i++) {
+            Frame<BasicValue> frame = frames.get(i);
+
+            InsnList caseInsnList = new InsnList();
+            List<List<Item>> localsArrays = groupByFieldType(getLocalItems(frame));
+            List<List<Item>> stackArrays = groupByFieldType(getStackItems(frame, 0, frame.getStackSize()));
+            for (int j = 0; j < localsArrays.size(); j++) {
+                caseInsnList.add(unpackArray(frameClassName, CONTAINER_LOCALS_OFFSET + j, localsArrays.get(j)));
+            }
+            for (int j = 0; j < stackArrays.size(); j++) {
+                caseInsnList.add(unpackArray(frameClassName, CONTAINER_OPERANDS_OFFSET + j, stackArrays.get(j)));
+            }
+            caseInsnList.add(jumpTo(doneLabelNode));
+            cases[i] = caseInsnList;
+        }
+
+        MethodNode methodNode = new MethodNode(Opcodes.ACC_STATIC, FROM_DATA_METHOD_NAME,
+                getFromDataMethodDescriptor(frameClassName), null, null);
+        methodNode.instructions.add(merge(
+                new TypeInsnNode(Opcodes.NEW, frameClassName),
+                new InsnNode(Opcodes.DUP),
+                new MethodInsnNode(Opcodes.INVOKESPECIAL, frameClassName, "<init>", "()V", false),
+                new VarInsnNode(Opcodes.ASTORE, 2),
+                tableSwitch(
+                        merge(new VarInsnNode(Opcodes.ILOAD, 0)),
+                        throwIllegalArgumentException(),
+                        0,
+                        cases),
+                addLabel(doneLabelNode),
+                new VarInsnNode(Opcodes.ALOAD, 2),
+                new InsnNode(Opcodes.ARETURN)
+        ));
+        return methodNode;
+    }
+
+    // Expects [container] on the stack, leaves [container] on the stack.
+    private static InsnList packArray(String frameClassName, int containerIdx, List<Item> items) {
+        InsnList ret = new InsnList();
+        if (items.isEmpty()) {
+            return ret; // empty arrays are left as null in the container
+        }
+
+        Type fieldType = items.get(0).fieldType;
+        ret.add(new InsnNode(Opcodes.DUP));                                                          // [container, container]
+        ret.add(new LdcInsnNode(containerIdx));                                                      // [container, container, idx]
+        ret.add(new LdcInsnNode(items.size()));                                                      // [container, container, idx, len]
+        ret.add(newArray(fieldType));                                                                // [container, container, idx, arr]
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            ret.add(new InsnNode(Opcodes.DUP));                                                      // [..., arr, arr]
+            ret.add(new LdcInsnNode(i));                                                             // [..., arr, arr, i]
+            ret.add(new VarInsnNode(Opcodes.ALOAD, 0));                                              // [..., arr, arr, i, this]
+            ret.add(new FieldInsnNode(Opcodes.GETFIELD, frameClassName, item.fieldName, fieldType.getDescriptor()));
+                                                                                                     // [..., arr, arr, i, val]
+            ret.add(new InsnNode(fieldType.getOpcode(Opcodes.IASTORE)));                             // [..., arr]
+        }
+        ret.add(new InsnNode(Opcodes.AASTORE));                                                      // [container]
+        return ret;
+    }
+
+    // Expects the frame in local 2 and the container in local 1, leaves the stack as-is.
+    private static InsnList unpackArray(String frameClassName, int containerIdx, List<Item> items) {
+        InsnList ret = new InsnList();
+        if (items.isEmpty()) {
+            return ret;
+        }
+
+        Type fieldType = items.get(0).fieldType;
+        ret.add(new VarInsnNode(Opcodes.ALOAD, 1));                                                  // [container]
+        ret.add(new LdcInsnNode(containerIdx));                                                      // [container, idx]
+        ret.add(new InsnNode(Opcodes.AALOAD));                                                       // [arr]
+        ret.add(new TypeInsnNode(Opcodes.CHECKCAST, Type.getType("[" + fieldType.getDescriptor()).getInternalName())); // [arr]
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            ret.add(new InsnNode(Opcodes.DUP));                                                      // [arr, arr]
+            ret.add(new LdcInsnNode(i));                                                             // [arr, arr, i]
+            ret.add(new InsnNode(fieldType.getOpcode(Opcodes.IALOAD)));                              // [arr, val]
+            ret.add(new VarInsnNode(Opcodes.ALOAD, 2));                                              // [arr, val, frame]
+            if (fieldType.getSize() == 2) {
+                ret.add(new InsnNode(Opcodes.DUP_X2));                                               // [arr, frame, val, frame]
+                ret.add(new InsnNode(Opcodes.POP));                                                  // [arr, frame, val]
+            } else {
+                ret.add(new InsnNode(Opcodes.SWAP));                                                 // [arr, frame, val]
+            }
+            ret.add(new FieldInsnNode(Opcodes.PUTFIELD, frameClassName, item.fieldName, fieldType.getDescriptor())); // [arr]
+        }
+        ret.add(new InsnNode(Opcodes.POP));                                                          // []
+        return ret;
+    }
+
+    private static InsnList newArray(Type fieldType) {
+        InsnList ret = new InsnList();
+        switch (fieldType.getSort()) {
+            case Type.INT:
+                ret.add(new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_INT));
+                break;
+            case Type.FLOAT:
+                ret.add(new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_FLOAT));
+                break;
+            case Type.LONG:
+                ret.add(new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_LONG));
+                break;
+            case Type.DOUBLE:
+                ret.add(new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_DOUBLE));
+                break;
+            case Type.OBJECT:
+                ret.add(new TypeInsnNode(Opcodes.ANEWARRAY, OBJECT_TYPE.getInternalName()));
+                break;
+            default:
+                throw new IllegalStateException(); // should never happen
+        }
+        return ret;
+    }
+
+    private static InsnList throwIllegalArgumentException() {
+        InsnList ret = new InsnList();
+        ret.add(new TypeInsnNode(Opcodes.NEW, "java/lang/IllegalArgumentException"));
+        ret.add(new InsnNode(Opcodes.DUP));
+        ret.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, "java/lang/IllegalArgumentException", "<init>", "()V", false));
+        ret.add(new InsnNode(Opcodes.ATHROW));
+        return ret;
+    }
+
+    private static String getFromDataMethodDescriptor(String frameClassName) {
+        return Type.getMethodDescriptor(Type.getObjectType(frameClassName), Type.INT_TYPE, OBJECT_ARRAY_TYPE);
+    }
+
+    // Groups items in to int/float/long/double/Object lists (the same order as the storage arrays in the container), keeping the order
+    // of items within each list.
+    private static List<List<Item>> groupByFieldType(List<Item> items) {
+        Type[] order = new Type[] {Type.INT_TYPE, Type.FLOAT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE, OBJECT_TYPE};
+        List<List<Item>> ret = new ArrayList<>(order.length);
+        for (Type fieldType : order) {
+            List<Item> group = new ArrayList<>();
+            for (Item item : items) {
+                if (item.fieldType.equals(fieldType)) {
+                    group.add(item);
+                }
+            }
+            ret.add(group);
+        }
+        return ret;
+    }
+
+    // Locals that get saved -- uninitialized and 'Lnull;' slots are skipped (same as LocalsStateGenerators).
+    private static List<Item> getLocalItems(Frame<BasicValue> frame) {
+        List<Item> ret = new ArrayList<>();
+        for (int i = 0; i < frame.getLocals(); i++) {
+            Type type = frame.getLocal(i).getType();
+            if (type == null || "Lnull;".equals(type.getDescriptor())) {
+                continue;
+            }
+            ret.add(new Item(i, type, "l"));
+        }
+        return ret;
+    }
+
+    // Operand stack items that get saved -- 'Lnull;' items are skipped (same as OperandStackStateGenerators).
+    private static List<Item> getStackItems(Frame<BasicValue> frame, int start, int count) {
+        List<Item> ret = new ArrayList<>();
+        for (int i = start; i < start + count; i++) {
+            Type type = frame.getStack(i).getType();
+            if ("Lnull;".equals(type.getDescriptor())) {
+                continue;
+            }
+            ret.add(new Item(i, type, "s"));
+        }
+        return ret;
+    }
+
+    private static final class Item {
+        private final int index;
+        private final Type type;
+        private final Type fieldType;
+        private final String fieldName;
+
+        Item(int index, Type type, String prefix) {
+            this.index = index;
+            this.type = type;
+            switch (type.getSort()) {
+                case Type.BOOLEAN:
+                case Type.BYTE:
+                case Type.SHORT:
+                case Type.CHAR:
+                case Type.INT:
+                    fieldType = Type.INT_TYPE;
+                    fieldName = prefix + index + "_I";
+                    break;
+                case Type.FLOAT:
+                    fieldType = Type.FLOAT_TYPE;
+                    fieldName = prefix + index + "_F";
+                    break;
+                case Type.LONG:
+                    fieldType = Type.LONG_TYPE;
+                    fieldName = prefix + index + "_J";
+                    break;
+                case Type.DOUBLE:
+                    fieldType = Type.DOUBLE_TYPE;
+                    fieldName = prefix + index + "_D";
+                    break;
+                case Type.ARRAY:
+                case Type.OBJECT:
+                    fieldType = OBJECT_TYPE;
+                    fieldName = prefix + index + "_A";
+                    break;
+                case Type.METHOD:
+                case Type.VOID:
+                default:
+                    throw new IllegalArgumentException();
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter;
+
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.StateLayout;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.Frame;
+
+// Generates a frame class for each instrumented method and writes it out as an extra file (if the FRAME_CLASSES state layout is being
+// used). The frame class must be placed alongside the class it was generated for.
+final class FrameClassInstrumentationPass implements InstrumentationPass {
+
+    @Override
+    public void pass(ClassNode classNode, InstrumentationState state) {
+        Validate.notNull(classNode);
+        Validate.notNull(state);
+
+
+        // Methods attributes should be assigned at this point.
+        Validate.validState(!state.methodAttributes().isEmpty());
+        Validate.validState(state.methodAttributes().keySet().stream().allMatch(x -> x != null));
+        Validate.validState(state.methodAttributes().values().stream().allMatch(x -> x != null));
+
+        // Sanity check to make sure that we're only dealing with methodnodes in the classnode -- this should never trigger unless previous
+        // passes mess up
+        Validate.validState(classNode.methods.containsAll(state.methodAttributes().keySet()));
+
+
+        // Should we skip this?
+        if (state.instrumentationSettings().getStateLayout() != StateLayout.FRAME_CLASSES) {
+            return;
+        }
+
+
+        // Generate a frame class for each method
+        for (Map.Entry<MethodNode, MethodAttributes> method : state.methodAttributes().entrySet()) {
+            MethodNode methodNode = method.getKey();
+            MethodAttributes methodAttrs = method.getValue();
+
+            List<Frame<BasicValue>> frames = new ArrayList<>();
+            for (ContinuationPoint cp : methodAttrs.getContinuationPoints()) {
+                frames.add(cp.getFrame());
+            }
+
+            // Instrumented method may access fields that aren't needed by any continuation point (e.g. field resident locals)
+            String frameClassName = FrameClassGenerators.getFrameClassName(methodAttrs.getSignature());
+            Map<String, Type> extraFields = new LinkedHashMap<>();
+            for (AbstractInsnNode insnNode : methodNode.instructions.toArray()) {
+                if (insnNode instanceof FieldInsnNode && frameClassName.equals(((FieldInsnNode) insnNode).owner)) {
+                    FieldInsnNode fieldInsnNode = (FieldInsnNode) insnNode;
+                    extraFields.put(fieldInsnNode.name, Type.getType(fieldInsnNode.desc));
+                }
+            }
+
+            byte[] frameClass = FrameClassGenerators.generateFrameClass(
+                    frameClassName,
+                    classNode.version,
+                    frames,
+                    extraFields,
+                    state.classInformationRepository());
+
+            String fileName = getNameWithoutPackage(frameClassName) + ".class";
+            Validate.validState(!state.extraFiles().containsKey(fileName), "Frame class name collision: %s", frameClassName);
+            state.extraFiles().put(fileName, frameClass);
+        }
+    }
+
+    private static String getNameWithoutPackage(String internalClassName) {
+        Validate.notNull(internalClassName);
+
+        int idx = internalClassName.lastIndexOf('/');
+        if (idx == -1) {
+            return internalClassName;
+        }
+
+        return internalClassName.substring(idx + 1);
+    }
+}
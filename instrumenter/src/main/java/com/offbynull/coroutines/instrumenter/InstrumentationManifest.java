@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter;
+
+import com.offbynull.coroutines.instrumenter.asm.ClassInformation;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformationRepository;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.Validate;
+
+// Tracks what PluginHelper did to each class file on a previous run so that class files that haven't changed can be skipped. An entry is
+// kept for every class file processed (instrumented or not), and is only trusted if the instrumenter version + instrumentation settings
+// used for the previous run match the current run. The file is line based...
+//
+//   line 1: header (manifest format + instrumenter version + settings + digest of call graph if call graph analysis is enabled)
+//   line 2+: one entry per class file, tab separated...
+//     input file path
+//     SHA-256 of the input class file
+//     SHA-256 of the instrumented class file written out ("-" if the class didn't need instrumentation)
+//     names of extra files written alongside the instrumented class file (e.g. .coroutinesinfo), separated by '/'
+//     SHA-256 of the class information for dependencies (see below)
+//     names of dependencies, separated by ','
+//
+// Dependencies are the classes that the instrumenter looked up in the ClassInformationRepository while instrumenting -- the instrumented
+// output (stack map frames specifically) depends on the hierarchy of these classes. If any of them change (e.g. a superclass is changed
+// or an interface is added/removed), the class file gets instrumented again even if its contents haven't changed.
+final class InstrumentationManifest {
+
+    static final String FILE_NAME = "coroutines.manifest";
+
+    private static final String FORMAT = "coroutines-manifest-1";
+    private static final String NOT_INSTRUMENTED = "-";
+
+    private final String header;
+    private final Map<String, Entry> oldEntries;
+    private final Map<String, Entry> newEntries;
+    private final Map<String, String> currentClassInformation; // cache of class name -> digest lookups against the current repo
+
+    private InstrumentationManifest(String header, Map<String, Entry> oldEntries) {
+        this.header = header;
+        this.oldEntries = oldEntries;
+        this.newEntries = new ConcurrentHashMap<>();
+        this.currentClassInformation = new ConcurrentHashMap<>();
+    }
+
+    // callGraph may be null (if call graph analysis is disabled).
+    static InstrumentationManifest load(File file, InstrumentationSettings settings, CallGraph callGraph) {
+        Validate.notNull(file);
+        Validate.notNull(settings);
+
+        String header = FORMAT + '\t' + Instrumenter.getVersion() + '\t' + settings;
+        if (callGraph != null) {
+            header += '\t' + callGraph.digest();
+        }
+
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        if (!file.isFile()) {
+            return new InstrumentationManifest(header, entries);
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!header.equals(reader.readLine())) {
+                // Different instrumenter or settings, nothing in here can be trusted
+                return new InstrumentationManifest(header, entries);
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Entry entry = Entry.parse(line);
+                entries.put(entry.inputPath, entry);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Unreadable or corrupt, treat as if it doesn't exist -- everything will get instrumented again
+            entries.clear();
+        }
+
+        return new InstrumentationManifest(header, entries);
+    }
+
+    static String hash(byte[] data) {
+        return DigestUtils.sha256Hex(data);
+    }
+
+    // Returns true if inputFile was processed by a previous run and nothing that would affect its output has changed since then (in which
+    // case the previous entry is carried over to this run's manifest). Safe to call from multiple threads.
+    boolean isUpToDate(File inputFile, String inputHash, File outputFile, ClassInformationRepository repo) throws IOException {
+        String inputPath = inputFile.getAbsolutePath();
+        Entry entry = oldEntries.get(inputPath);
+        if (entry == null) {
+            return false;
+        }
+
+        boolean upToDate;
+        if (entry.outputHash.equals(NOT_INSTRUMENTED)) {
+            // Whether or not a class needs instrumentation depends only on the class itself
+            upToDate = entry.inputHash.equals(inputHash);
+        } else if (entry.outputHash.equals(inputHash)) {
+            // The input is what was written out last time (e.g. instrumenting in place and the class wasn't recompiled) -- it's already
+            // instrumented, so there's nothing more that can be done with it
+            upToDate = extraFilesExist(entry, outputFile);
+        } else {
+            upToDate = entry.inputHash.equals(inputHash)
+                    && outputFile.isFile()
+                    && entry.outputHash.equals(hash(FileUtils.readFileToByteArray(outputFile)))
+                    && extraFilesExist(entry, outputFile)
+                    && entry.dependenciesHash.equals(hashDependencies(entry.dependencies, repo));
+        }
+
+        if (upToDate) {
+            newEntries.put(inputPath, entry);
+        }
+        return upToDate;
+    }
+
+    // Records what happened to inputFile on this run. output should be null if the class didn't need instrumentation. Safe to call from
+    // multiple threads.
+    void record(File inputFile, String inputHash, byte[] output, List<String> extraFiles, Map<String, ClassInformation> dependencies) {
+        String inputPath = inputFile.getAbsolutePath();
+        Entry entry;
+        if (output == null) {
+            entry = new Entry(inputPath, inputHash, NOT_INSTRUMENTED, Collections.emptyList(), hash(new byte[0]),
+                    Collections.emptyList());
+        } else {
+            List<String> dependencyNames = new ArrayList<>(new TreeMap<>(dependencies).keySet());
+            StringBuilder dependencyData = new StringBuilder();
+            for (String name : dependencyNames) {
+                dependencyData.append(name).append('=').append(describe(dependencies.get(name))).append('\n');
+            }
+            entry = new Entry(inputPath, inputHash, hash(output), extraFiles,
+                    hash(dependencyData.toString().getBytes(StandardCharsets.UTF_8)), dependencyNames);
+        }
+        newEntries.put(inputPath, entry);
+    }
+
+    // Writes out entries for the class files processed on this run (anything from a previous run that wasn't processed on this run is
+    // dropped). Written to a temporary file and moved in place, so a failed write never leaves a partial manifest.
+    void save(File file) throws IOException {
+        Validate.notNull(file);
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        FileUtils.forceMkdir(parent);
+
+        File tempFile = File.createTempFile(FILE_NAME, ".tmp", parent);
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+                writer.write(header);
+                writer.write('\n');
+                for (Entry entry : new TreeMap<>(newEntries).values()) { // sorted so that output is the same from run to run
+                    writer.write(entry.toString());
+                    writer.write('\n');
+                }
+            }
+
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    private boolean extraFilesExist(Entry entry, File outputFile) {
+        File outputDir = outputFile.getParentFile();
+        for (String extraFile : entry.extraFiles) {
+            if (!new File(outputDir, extraFile).isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String hashDependencies(List<String> dependencyNames, ClassInformationRepository repo) {
+        StringBuilder dependencyData = new StringBuilder();
+        for (String name : dependencyNames) {
+            String description = currentClassInformation.computeIfAbsent(name, x -> describe(repo.getInformation(x)));
+            dependencyData.append(name).append('=').append(description).append('\n');
+        }
+        return hash(dependencyData.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String describe(ClassInformation classInformation) {
+        if (classInformation == null) {
+            return "null";
+        }
+        return classInformation.getName()
+                + '|' + classInformation.getSuperClassName()
+                + '|' + String.join(",", classInformation.getInterfaces())
+                + '|' + classInformation.isInterface();
+    }
+
+    // Wraps a repository and records every lookup made against it. Not thread-safe -- create one for each class being instrumented.
+    static final class RecordingClassInformationRepository implements ClassInformationRepository {
+        private final ClassInformationRepository backingRepo;
+        private final Map<String, ClassInformation> lookups = new TreeMap<>();
+
+        RecordingClassInformationRepository(ClassInformationRepository backingRepo) {
+            Validate.notNull(backingRepo);
+            this.backingRepo = backingRepo;
+        }
+
+        @Override
+        public ClassInformation getInformation(String internalClassName) {
+            Validate.notNull(internalClassName);
+            ClassInformation ret = backingRepo.getInformation(internalClassName);
+            lookups.put(internalClassName, ret);
+            return ret;
+        }
+
+        Map<String, ClassInformation> lookups() {
+            return lookups;
+        }
+    }
+
+    private static final class Entry {
+        private final String inputPath;
+        private final String inputHash;
+        private final String outputHash;
+        private final List<String> extraFiles;
+        private final String dependenciesHash;
+        private final List<String> dependencies;
+
+        Entry(String inputPath, String inputHash, String outputHash, List<String> extraFiles, String dependenciesHash,
+                List<String> dependencies) {
+            this.inputPath = Validate.notNull(inputPath);
+            this.inputHash = Validate.notNull(inputHash);
+            this.outputHash = Validate.notNull(outputHash);
+            this.extraFiles = new ArrayList<>(extraFiles);
+            this.dependenciesHash = Validate.notNull(dependenciesHash);
+            this.dependencies = new ArrayList<>(dependencies);
+        }
+
+        static Entry parse(String line) {
+            String[] parts = line.split("\t", -1);
+            Validate.isTrue(parts.length == 6);
+            return new Entry(parts[0], parts[1], parts[2], split(parts[3], "/"), parts[4], split(parts[5], ","));
+        }
+
+        private static List<String> split(String value, String separator) {
+            return value.isEmpty() ? Collections.emptyList() : Arrays.asList(value.split(separator));
+        }
+
+        @Override
+        public String toString() {
+            return inputPath
+                    + '\t' + inputHash
+                    + '\t' + outputHash
+                    + '\t' + String.join("/", extraFiles)
+                    + '\t' + dependenciesHash
+                    + '\t' + String.join(",", dependencies);
+        }
+    }
+}
@@ -18,8 +18,11 @@ package com.offbynull.coroutines.instrumenter;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import org.apache.commons.collections4.list.UnmodifiableList;
 import org.apache.commons.collections4.map.UnmodifiableMap;
 import org.apache.commons.lang3.Validate;
 
@@ -30,6 +33,7 @@ import org.apache.commons.lang3.Validate;
 public final class InstrumentationResult {
     private final byte[] instrumentedClass;
     private final UnmodifiableMap<String, byte[]> extraFiles;
+    private final UnmodifiableList<String> warnings;
 
     InstrumentationResult(byte[] instrumentedClass) {
         this(instrumentedClass, Collections.emptyMap());
@@ -38,13 +42,23 @@ public final class InstrumentationResult {
     InstrumentationResult(
             byte[] instrumentedClass,
             Map<String, byte[]> extraFiles) {
+        this(instrumentedClass, extraFiles, Collections.emptyList());
+    }
+
+    InstrumentationResult(
+            byte[] instrumentedClass,
+            Map<String, byte[]> extraFiles,
+            List<String> warnings) {
         Validate.notNull(instrumentedClass);
         Validate.notNull(extraFiles);
+        Validate.notNull(warnings);
         Validate.noNullElements(extraFiles.keySet());
         Validate.noNullElements(extraFiles.values());
+        Validate.noNullElements(warnings);
 
         this.instrumentedClass = Arrays.copyOf(instrumentedClass, instrumentedClass.length);
         this.extraFiles = (UnmodifiableMap<String, byte[]>) UnmodifiableMap.unmodifiableMap(new HashMap<>(extraFiles));
+        this.warnings = (UnmodifiableList<String>) UnmodifiableList.unmodifiableList(new ArrayList<>(warnings));
     }
 
     /**
@@ -62,4 +76,12 @@ public final class InstrumentationResult {
     public UnmodifiableMap<String, byte[]> getExtraFiles() {
         return extraFiles;
     }
+
+    /**
+     * Get warnings generated while instrumenting (e.g. methods that instrumentation pushed past the size limits of the JIT compiler).
+     * @return warnings generated while instrumenting
+     */
+    public UnmodifiableList<String> getWarnings() {
+        return warnings;
+    }
 }
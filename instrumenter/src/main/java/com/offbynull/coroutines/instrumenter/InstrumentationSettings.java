@@ -28,19 +28,89 @@ public final class InstrumentationSettings {
     private final MarkerType markerType;
     private final boolean debugMode;
     private final boolean autoSerializable;
+    private final boolean callGraphAnalysis;
+    private final StateLayout stateLayout;
+    private final FieldResidentLocalsMode fieldResidentLocalsMode;
+    private final boolean methodSplitting;
+    private final boolean leanMode;
 
     /**
-     * Constructs a {@link InstrumentationSettings} object.
+     * Constructs a {@link InstrumentationSettings} object. All other settings are set to their defaults (see the {@code with*} methods).
      * @param markerType marker type
      * @param debugMode debug mode
      * @param autoSerializable auto-serializable
      * @throws NullPointerException if any argument is {@code null}
      */
     public InstrumentationSettings(MarkerType markerType, boolean debugMode, boolean autoSerializable) {
+        this(markerType, debugMode, autoSerializable, false, StateLayout.ARRAYS, FieldResidentLocalsMode.ANNOTATED, false, false);
+    }
+
+    private InstrumentationSettings(MarkerType markerType, boolean debugMode, boolean autoSerializable, boolean callGraphAnalysis,
+            StateLayout stateLayout, FieldResidentLocalsMode fieldResidentLocalsMode, boolean methodSplitting, boolean leanMode) {
         Validate.notNull(markerType);
+        Validate.notNull(stateLayout);
+        Validate.notNull(fieldResidentLocalsMode);
         this.markerType = markerType;
         this.debugMode = debugMode;
         this.autoSerializable = autoSerializable;
+        this.callGraphAnalysis = callGraphAnalysis;
+        this.stateLayout = stateLayout;
+        this.fieldResidentLocalsMode = fieldResidentLocalsMode;
+        this.methodSplitting = methodSplitting;
+        this.leanMode = leanMode;
+    }
+
+    /**
+     * Copy these settings but with a new call graph analysis (default is {@code false}). See {@link #isCallGraphAnalysis() }.
+     * @param callGraphAnalysis new call graph analysis
+     * @return new settings
+     */
+    public InstrumentationSettings withCallGraphAnalysis(boolean callGraphAnalysis) {
+        return new InstrumentationSettings(markerType, debugMode, autoSerializable, callGraphAnalysis, stateLayout,
+                fieldResidentLocalsMode, methodSplitting, leanMode);
+    }
+
+    /**
+     * Copy these settings but with a new state layout (default is {@link StateLayout#ARRAYS}). See {@link #getStateLayout() }.
+     * @param stateLayout new state layout
+     * @return new settings
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public InstrumentationSettings withStateLayout(StateLayout stateLayout) {
+        return new InstrumentationSettings(markerType, debugMode, autoSerializable, callGraphAnalysis, stateLayout,
+                fieldResidentLocalsMode, methodSplitting, leanMode);
+    }
+
+    /**
+     * Copy these settings but with a new field resident locals mode (default is {@link FieldResidentLocalsMode#ANNOTATED}). See
+     * {@link #getFieldResidentLocalsMode() }.
+     * @param fieldResidentLocalsMode new field resident locals mode
+     * @return new settings
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public InstrumentationSettings withFieldResidentLocalsMode(FieldResidentLocalsMode fieldResidentLocalsMode) {
+        return new InstrumentationSettings(markerType, debugMode, autoSerializable, callGraphAnalysis, stateLayout,
+                fieldResidentLocalsMode, methodSplitting, leanMode);
+    }
+
+    /**
+     * Copy these settings but with a new method splitting (default is {@code false}). See {@link #isMethodSplitting() }.
+     * @param methodSplitting new method splitting
+     * @return new settings
+     */
+    public InstrumentationSettings withMethodSplitting(boolean methodSplitting) {
+        return new InstrumentationSettings(markerType, debugMode, autoSerializable, callGraphAnalysis, stateLayout,
+                fieldResidentLocalsMode, methodSplitting, leanMode);
+    }
+
+    /**
+     * Copy these settings but with a new lean mode (default is {@code false}). See {@link #isLeanMode() }.
+     * @param leanMode new lean mode
+     * @return new settings
+     */
+    public InstrumentationSettings withLeanMode(boolean leanMode) {
+        return new InstrumentationSettings(markerType, debugMode, autoSerializable, callGraphAnalysis, stateLayout,
+                fieldResidentLocalsMode, methodSplitting, leanMode);
     }
 
     /**
@@ -73,4 +143,118 @@ public final class InstrumentationSettings {
         return autoSerializable;
     }
 
+    /**
+     * Get call graph analysis. Call graph analysis looks at all of the classes being instrumented together to find methods that can never
+     * end up calling {@code Continuation.suspend()}. Those methods are left as-is, and invocations of those methods don't get the
+     * save/restore logic that's normally added around invocations that take a {@code Continuation}. This assumes that methods taking a
+     * {@code Continuation} aren't overridden by classes other than the ones being instrumented together.
+     * <p>
+     * This setting only applies when instrumenting through {@link PluginHelper} (e.g. the Maven/Ant/Gradle plugins). {@link Instrumenter}
+     * by itself only ever sees one class at a time, so it ignores this setting.
+     * @return call graph analysis
+     */
+    public boolean isCallGraphAnalysis() {
+        return callGraphAnalysis;
+    }
+
+    /**
+     * Get state layout. The state layout controls how the locals and operand stack of a method are held on to when it suspends. See
+     * {@link StateLayout}.
+     * @return state layout
+     */
+    public StateLayout getStateLayout() {
+        return stateLayout;
+    }
+
+    /**
+     * Get field resident locals mode. Controls which methods keep their locals in the fields of their frame object for as long as they run
+     * (vs copying them in to the frame object each time they suspend and back out each time they resume). See
+     * {@link FieldResidentLocalsMode}.
+     * <p>
+     * This setting only applies when the state layout is {@link StateLayout#FRAME_CLASSES} and debug mode is off.
+     * @return field resident locals mode
+     */
+    public FieldResidentLocalsMode getFieldResidentLocalsMode() {
+        return fieldResidentLocalsMode;
+    }
+
+    /**
+     * Get method splitting. Method splitting breaks up methods with a large number of continuation points in to a chain of smaller
+     * synthetic methods before they get instrumented, so that each one stays small enough to be JIT compiled once instrumented. A method
+     * can only be split at points that aren't inside of a loop, branch, try/catch block, or synchronized block -- methods that don't have
+     * such points are left as-is.
+     * @return method splitting
+     */
+    public boolean isMethodSplitting() {
+        return methodSplitting;
+    }
+
+    /**
+     * Get lean mode. Lean mode drops everything that's only there to support serialization (e.g. {@code CoroutineWriter} /
+     * {@code CoroutineReader} / Java serialization of coroutines): no {@code .coroutinesinfo} files get generated, no versioning field
+     * gets added to instrumented classes, method ids are assigned sequentially rather than by hashing the method's bytecode, method states
+     * don't hold on to the name of their class, and auto-serializable is ignored. This results in smaller classes, faster
+     * instrumentation, and cheaper suspends. Coroutines instrumented in lean mode can't be serialized.
+     * @return lean mode
+     */
+    public boolean isLeanMode() {
+        return leanMode;
+    }
+
+    @Override
+    public String toString() {
+        return "InstrumentationSettings{" + "markerType=" + markerType + ", debugMode=" + debugMode
+                + ", autoSerializable=" + autoSerializable + ", callGraphAnalysis=" + callGraphAnalysis
+                + ", stateLayout=" + stateLayout + ", fieldResidentLocalsMode=" + fieldResidentLocalsMode
+                + ", methodSplitting=" + methodSplitting + ", leanMode=" + leanMode + '}';
+    }
+
+    /**
+     * State layout.
+     */
+    public enum StateLayout {
+        /**
+         * Locals and operand stack items are stored in typed arrays (one for each of int/float/long/double/Object, separately for locals
+         * and operand stack), which are packed in to an {@code Object[]} container. Saving the state of a method for the first time
+         * allocates the container and each non-empty array.
+         */
+        ARRAYS,
+        /**
+         * Locals and operand stack items are stored in the fields of a class generated for each instrumented method (one typed field per
+         * local variable slot / operand stack position). Saving the state of a method for the first time allocates a single object, and
+         * restoring it doesn't need to go through arrays.
+         * <p>
+         * The generated classes are returned as extra files in {@link InstrumentationResult} and must be placed next to the instrumented
+         * class ({@link PluginHelper} does this automatically, meaning that the Maven/Ant/Gradle plugins support this layout). The Java
+         * agent can't define extra classes, so it doesn't support this layout.
+         */
+        FRAME_CLASSES,
+        /**
+         * Primitive locals and operand stack items are stored in a single {@code long[]} (floats and doubles as their raw bits) and object
+         * locals and operand stack items are stored in a single {@code Object[]}. Saving the state of a method for the first time
+         * allocates at most 2 arrays, meaning less allocations and less memory held on to by suspended coroutines than {@link #ARRAYS}.
+         */
+        PACKED
+    }
+
+    /**
+     * Field resident locals mode. A method with field resident locals reads and writes its local variables directly from/to the fields of
+     * its frame object, which gets created when the method is invoked. Suspending/resuming such a method doesn't copy its locals anywhere,
+     * meaning that the cost of suspending/resuming doesn't grow with the number of locals. The trade-off is that each invocation of the
+     * method allocates a frame object (even if it never suspends) and each access to a local is a field access.
+     * <p>
+     * This is intended for generator-style methods -- methods that suspend over and over again from within a loop. Field resident locals
+     * aren't rolled back if an execution cycle fails, which is why they're never applied to a method unless it asks for them (see
+     * {@code com.offbynull.coroutines.user.FieldResidentLocals}).
+     */
+    public enum FieldResidentLocalsMode {
+        /**
+         * No methods have field resident locals.
+         */
+        NONE,
+        /**
+         * Only methods annotated with {@code com.offbynull.coroutines.user.FieldResidentLocals} have field resident locals.
+         */
+        ANNOTATED
+    }
 }
@@ -17,7 +17,7 @@
 package com.offbynull.coroutines.instrumenter;
 
 import com.offbynull.coroutines.instrumenter.asm.ClassInformationRepository;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import org.apache.commons.lang3.Validate;
 import org.objectweb.asm.tree.MethodNode;
@@ -25,20 +25,25 @@ import org.objectweb.asm.tree.MethodNode;
 final class InstrumentationState {
     private final InstrumentationSettings instrumentationSettings;
     private final ClassInformationRepository classInformationRepository;
+    private final CallGraph callGraph;
     
     private final Map<MethodNode, MethodAttributes> methodAttributes;
     private final Map<String, byte[]> extraFiles;
 
     private ControlFlag stop;
 
-    InstrumentationState(InstrumentationSettings instrumentationSettings, ClassInformationRepository classInformationRepository) {
+    InstrumentationState(InstrumentationSettings instrumentationSettings, ClassInformationRepository classInformationRepository,
+            CallGraph callGraph) { // callGraph may be null
         Validate.notNull(instrumentationSettings);
         Validate.notNull(classInformationRepository);
         this.instrumentationSettings = instrumentationSettings;
         this.classInformationRepository = classInformationRepository;
+        this.callGraph = callGraph;
         
-        this.methodAttributes = new HashMap<>();
-        this.extraFiles = new HashMap<>();
+        // Linked so that iteration order (and anything generated from it, e.g. .coroutinesinfo files) is the same from run to run --
+        // MethodNode doesn't override hashCode()
+        this.methodAttributes = new LinkedHashMap<>();
+        this.extraFiles = new LinkedHashMap<>();
         
         this.stop = ControlFlag.CONTINUE_INSTRUMENT;
     }
@@ -51,6 +56,10 @@ final class InstrumentationState {
         return classInformationRepository;
     }
 
+    CallGraph callGraph() {
+        return callGraph;
+    }
+
     Map<MethodNode, MethodAttributes> methodAttributes() {
         return methodAttributes;
     }
@@ -16,6 +16,7 @@
  */
 package com.offbynull.coroutines.instrumenter;
 
+import static com.offbynull.coroutines.instrumenter.InternalFields.INSTRUMENTED_MARKER_FIELD_VALUE;
 import com.offbynull.coroutines.instrumenter.InstrumentationState.ControlFlag;
 import com.offbynull.coroutines.instrumenter.asm.ClassInformationRepository;
 import com.offbynull.coroutines.instrumenter.asm.ClassResourceClassInformationRepository;
@@ -24,15 +25,26 @@ import com.offbynull.coroutines.instrumenter.asm.FileSystemClassInformationRepos
 import com.offbynull.coroutines.instrumenter.asm.SimpleClassWriter;
 import com.offbynull.coroutines.instrumenter.asm.SimpleClassNode;
 import com.offbynull.coroutines.instrumenter.asm.SimpleVerifier;
+import com.offbynull.coroutines.user.Continuation;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.Validate;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.CodeSizeEvaluator;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.MethodNode;
@@ -50,10 +62,16 @@ import org.objectweb.asm.util.TraceMethodVisitor;
  */
 public final class Instrumenter {
 
-    private ClassInformationRepository classRepo;
+    private static final int UTF8_TAG = 1; // constant pool tag for CONSTANT_Utf8_info
+    private static final int HUGE_METHOD_LIMIT = 8000; // HotSpot default for -XX:HugeMethodLimit
+    private static final int FREQ_INLINE_SIZE = 325; // HotSpot default for -XX:FreqInlineSize
+    private static final byte[] CONTINUATION_DESCRIPTOR = Type.getDescriptor(Continuation.class).getBytes(StandardCharsets.US_ASCII);
+
+    private final ClassInformationRepository classRepo;
 
     /**
-     * Constructs a {@link Instrumenter} object from a filesystem classpath (folders and JARs).
+     * Constructs a {@link Instrumenter} object from a filesystem classpath (folders and JARs). Class information for classes in JARs is
+     * only read in when it's needed (see {@link FileSystemClassInformationRepository#createLazy(java.util.List) }).
      * @param classpath classpath JARs and folders to use for instrumentation (this is needed by ASM to generate stack map frames).
      * @throws IOException if classes in the classpath could not be loaded up
      * @throws NullPointerException if any argument is {@code null} or contains {@code null}
@@ -64,7 +82,27 @@ public final class Instrumenter {
 
         classRepo = new CompositeClassInformationRepository(
                 new ClassResourceClassInformationRepository(Instrumenter.class.getClassLoader()), // access to core JRE classes
-                FileSystemClassInformationRepository.create(classpath)                            // access to user classes
+                FileSystemClassInformationRepository.createLazy(classpath)                        // access to user classes
+        );
+    }
+
+    /**
+     * Constructs a {@link Instrumenter} object from a filesystem classpath (folders and JARs). Class information for JARs in
+     * {@code classpath} is cached in {@code classpathCacheDirectory} and reused so long as the JARs don't change (see
+     * {@link FileSystemClassInformationRepository#create(java.util.List, java.io.File) }).
+     * @param classpath classpath JARs and folders to use for instrumentation (this is needed by ASM to generate stack map frames).
+     * @param classpathCacheDirectory directory to cache class information for JARs in
+     * @throws IOException if classes in the classpath could not be loaded up
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     */
+    public Instrumenter(List<File> classpath, File classpathCacheDirectory) throws IOException {
+        Validate.notNull(classpath);
+        Validate.noNullElements(classpath);
+        Validate.notNull(classpathCacheDirectory);
+
+        classRepo = new CompositeClassInformationRepository(
+                new ClassResourceClassInformationRepository(Instrumenter.class.getClassLoader()),       // access to core JRE classes
+                FileSystemClassInformationRepository.create(classpath, classpathCacheDirectory)         // access to user classes
         );
     }
 
@@ -80,7 +118,8 @@ public final class Instrumenter {
     }
 
     /**
-     * Instruments a class.
+     * Instruments a class. This method is safe to call from multiple threads at the same time, so long as the
+     * {@link ClassInformationRepository} this instrumenter was created with is thread-safe.
      * @param input class file contents
      * @param settings instrumentation settings
      * @return instrumentation results
@@ -88,29 +127,55 @@ public final class Instrumenter {
      * @throws NullPointerException if any argument is {@code null}
      */
     public InstrumentationResult instrument(byte[] input, InstrumentationSettings settings) {
+        return instrument(input, settings, classRepo, null);
+    }
+
+    // Same as instrument(byte[], InstrumentationSettings), but performs class information lookups against classRepo instead of the
+    // repository this instrumenter was created with. Used by PluginHelper to track which classes the output of an instrumentation depends
+    // on. If callGraph is non-null, invocations that it determines can never suspend aren't treated as continuation points.
+    InstrumentationResult instrument(byte[] input, InstrumentationSettings settings, ClassInformationRepository classRepo,
+            CallGraph callGraph) {
         Validate.notNull(input);
         Validate.notNull(settings);
+        Validate.notNull(classRepo);
         Validate.isTrue(input.length > 0);
 
 
 
-        // Read class as tree model -- because we're using SimpleClassNode, JSR blocks get inlined
+        // Methods that need to be instrumented take a Continuation parameter, meaning that the descriptor of each of those methods will
+        // show up as a UTF8 entry in the constant pool. Most classes never touch coroutines, so check the constant pool first and skip
+        // building the tree model if none of its entries mention Continuation.
         ClassReader cr = new ClassReader(input);
+        if (!containsUtf8Constant(cr, input, CONTINUATION_DESCRIPTOR)) {
+            return new InstrumentationResult(input); // class should not be instrumented -- return original data.
+        }
+
+
+
+        // Read class as tree model -- because we're using SimpleClassNode, JSR blocks get inlined. Frames are expanded so that methods
+        // which don't get instrumented can be written back out with their original frames (see below).
         ClassNode classNode = new SimpleClassNode();
-        cr.accept(classNode, 0);
+        cr.accept(classNode, ClassReader.EXPAND_FRAMES);
+
+        // Passes change methods in place, so measure them before anything runs (used to warn about methods that grow too big -- see below)
+        Map<String, Integer> originalMethodSizes = measureMethodSizes(classNode);
 
 
 
         // Apply passes.
         InstrumentationPass[] passes = new InstrumentationPass[] {
             new IdentifyInstrumentationPass(),          // identify methods for instrumentation
+            new MethodSplitInstrumentationPass(),       // split methods with too many continuation points in to pieces (if enabled)
             new AnalyzeInstrumentationPass(),           // analyze methods for instrumentation
-            new SerializationPreInstrumentationPass(),  // create .coroutinesinfo files for methods to be instrumented
+            new SerializationPreInstrumentationPass(),  // create .coroutinesinfo files for methods to be instrumented (unless lean mode)
             new PerformInstrumentationPass(),           // perform instrumentation of methods
-            new SerializationPostInstrumentationPass(), // add fields needed for serializer/deserializer to identify versioning info
+            new MethodStateHelperInstrumentationPass(), // create helper methods called by instrumented methods to create method states
+            new FrameClassInstrumentationPass(),        // create frame classes for instrumented methods (if FRAME_CLASSES state layout)
+            new SerializationPostInstrumentationPass(), // add fields needed for serializer/deserializer to identify versioning info (unless
+                                                        // lean mode)
             new AutoSerializableInstrumentationPass()   // make class serializable + give serializationuid
         };
-        InstrumentationState passState = new InstrumentationState(settings, classRepo);
+        InstrumentationState passState = new InstrumentationState(settings, classRepo, callGraph);
 
         for (InstrumentationPass pass : passes) {
             pass.pass(classNode, passState);
@@ -132,19 +197,140 @@ public final class Instrumenter {
         //                                             we're doing bad things with the stack. So, before writing the class out and returning
         //                                             it, we call verifyClassIntegrity() to check and make sure everything is okay.
         // RE-ENABLE ONLY IF JVM COMPLAINS ABOUT INSTRUMENTED CLASSES AND YOU NEED TO DEBUG, KEEP COMMENTED OUT FOR PRODUCTION
-        // verifyClassIntegrity(classNode);
+        // verifyClassIntegrity(classNode, classRepo);
 
-        ClassWriter cw = new SimpleClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES, classRepo);
+        // Only instrumented methods need their frames recomputed. Every other method keeps the frames it was compiled with, meaning that
+        // ASM doesn't have to go through the class hierarchy (getCommonSuperClass()) to derive frames for them. Max stack/locals are
+        // also left as-is -- they're computed along with the frames for instrumented methods, and unchanged for every other method.
+        Set<MethodNode> instrumentedMethodNodes = passState.methodAttributes().keySet();
+        classNode.methods.replaceAll(mn -> instrumentedMethodNodes.contains(mn) ? computeFrames(classNode, mn, classRepo) : mn);
+
+        ClassWriter cw = new SimpleClassWriter(0, classRepo);
         classNode.accept(cw);
         
         byte[] classData = cw.toByteArray();
         Map<String, byte[]> extraFiles = passState.extraFiles();
+        List<String> warnings = checkMethodSizes(originalMethodSizes, classNode, instrumentedMethodNodes);
+
+        return new InstrumentationResult(classData, extraFiles, warnings);
+    }
+
+    private static Map<String, Integer> measureMethodSizes(ClassNode classNode) {
+        Map<String, Integer> sizes = new HashMap<>();
+        for (MethodNode methodNode : classNode.methods) {
+            CodeSizeEvaluator codeSizeEvaluator = new CodeSizeEvaluator(null);
+            methodNode.instructions.iterator().forEachRemaining(x -> x.accept(codeSizeEvaluator)); // MethodNode.accept() resets labels
+            sizes.put(methodNode.name + methodNode.desc, codeSizeEvaluator.getMaxSize());
+        }
+        return sizes;
+    }
 
-        return new InstrumentationResult(classData, extraFiles);
+    // Instrumentation can blow up the size of a method's code considerably. HotSpot won't JIT compile methods with more than 8000 bytes of
+    // code (-XX:HugeMethodLimit, only lifted via -XX:-DontCompileHugeMethods), and won't inline hot methods with more than 325 bytes of
+    // code (-XX:FreqInlineSize). A method that was under one of these limits before instrumentation and is over it after will run
+    // noticeably slower than expected, so generate a warning for it. Methods that were already over a limit don't get warned about -- that
+    // has nothing to do with instrumentation.
+    private static List<String> checkMethodSizes(Map<String, Integer> originalMethodSizes, ClassNode classNode,
+            Set<MethodNode> instrumentedMethodNodes) {
+        Map<String, Integer> oldSizes = new HashMap<>();
+        instrumentedMethodNodes.forEach(mn -> oldSizes.put(mn.name + mn.desc, originalMethodSizes.get(mn.name + mn.desc)));
+
+        List<String> warnings = new ArrayList<>();
+        for (MethodNode methodNode : classNode.methods) {
+            Integer oldSize = oldSizes.get(methodNode.name + methodNode.desc);
+            if (oldSize == null) {
+                continue;
+            }
+
+            CodeSizeEvaluator codeSizeEvaluator = new CodeSizeEvaluator(null);
+            methodNode.accept(codeSizeEvaluator);
+            int newSize = codeSizeEvaluator.getMaxSize();
+
+            String methodName = classNode.name.replace('/', '.') + '.' + methodNode.name + methodNode.desc;
+            if (oldSize <= HUGE_METHOD_LIMIT && newSize > HUGE_METHOD_LIMIT) {
+                warnings.add(methodName + " grew from " + oldSize + " to " + newSize + " bytes of code after instrumentation, over the "
+                        + HUGE_METHOD_LIMIT + " byte limit for JIT compilation (method will be interpreted)");
+            } else if (oldSize <= FREQ_INLINE_SIZE && newSize > FREQ_INLINE_SIZE) {
+                warnings.add(methodName + " grew from " + oldSize + " to " + newSize + " bytes of code after instrumentation, over the "
+                        + FREQ_INLINE_SIZE + " byte limit for inlining hot methods (method will no longer be inlined)");
+            }
+        }
+        
+        return warnings;
     }
 
 
-    private void verifyClassIntegrity(ClassNode classNode) {
+    /**
+     * Get a string that identifies this version of the instrumenter. Classes instrumented by instrumenters with the same version and the
+     * same {@link InstrumentationSettings} will come out the same, meaning that this can be used to identify when previously instrumented
+     * output can be reused.
+     * @return version of this instrumenter
+     */
+    public static String getVersion() {
+        // The marker value only changes when the instrumented output becomes incompatible, so also include the implementation version
+        // (if available) and the size/timestamp of where the instrumenter was loaded from (catches SNAPSHOT rebuilds)
+        StringBuilder version = new StringBuilder();
+        version.append(INSTRUMENTED_MARKER_FIELD_VALUE);
+        version.append('/').append(Instrumenter.class.getPackage().getImplementationVersion());
+        try {
+            CodeSource codeSource = Instrumenter.class.getProtectionDomain().getCodeSource();
+            URL location = codeSource == null ? null : codeSource.getLocation();
+            if (location != null && "file".equals(location.getProtocol())) {
+                File locationFile = FileUtils.toFile(location);
+                if (locationFile.isFile()) {
+                    version.append('/').append(locationFile.length()).append('/').append(locationFile.lastModified());
+                }
+            }
+        } catch (RuntimeException re) { // e.g. SecurityException
+            // do nothing
+        }
+        return version.toString();
+    }
+
+    ClassInformationRepository classRepository() {
+        return classRepo;
+    }
+
+    // Writes out methodNode on its own (inside of a class with the same name/version/hierarchy as classNode) with COMPUTE_FRAMES and reads
+    // it back in, giving a copy of methodNode with frames.
+    private static MethodNode computeFrames(ClassNode classNode, MethodNode methodNode, ClassInformationRepository classRepo) {
+        ClassWriter cw = new SimpleClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES, classRepo);
+        cw.visit(classNode.version, classNode.access, classNode.name, null, classNode.superName,
+                classNode.interfaces.toArray(new String[classNode.interfaces.size()]));
+        methodNode.accept(cw);
+        cw.visitEnd();
+
+        ClassNode computedClassNode = new ClassNode(Opcodes.ASM5);
+        new ClassReader(cw.toByteArray()).accept(computedClassNode, ClassReader.EXPAND_FRAMES);
+        Validate.validState(computedClassNode.methods.size() == 1); // sanity check
+        return computedClassNode.methods.get(0);
+    }
+
+    static boolean containsUtf8Constant(ClassReader cr, byte[] classData, byte[] needle) {
+        for (int i = 1; i < cr.getItemCount(); i++) {
+            int offset = cr.getItem(i); // offset of item's data (right after its tag byte), 0 for 2nd slot of longs/doubles
+            if (offset == 0 || classData[offset - 1] != UTF8_TAG) {
+                continue;
+            }
+
+            int start = offset + 2;
+            int end = start + cr.readUnsignedShort(offset);
+            // Modified UTF-8 encodes ASCII chars as single bytes and everything else as bytes with the high bit set, so an ASCII needle can
+            // be matched byte-for-byte
+            for (int j = start; j <= end - needle.length; j++) {
+                int k = 0;
+                while (k < needle.length && classData[j + k] == needle[k]) {
+                    k++;
+                }
+                if (k == needle.length) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void verifyClassIntegrity(ClassNode classNode, ClassInformationRepository classRepo) {
         // Do not COMPUTE_FRAMES. If you COMPUTE_FRAMES and you pop too many items off the stack or do other weird things that mess up the
         // stack map frames, it'll crash on classNode.accept(cw).
         ClassWriter cw = new SimpleClassWriter(ClassWriter.COMPUTE_MAXS/* | ClassWriter.COMPUTE_FRAMES*/, classRepo);
@@ -17,6 +17,7 @@
 package com.offbynull.coroutines.instrumenter;
 
 import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.MethodState;
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -52,6 +53,7 @@ final class InternalFields {
     // The following consts are used to write out the versions of the methods being instrumented -- this is used by the serialization logic
     // to determine if the MethodState objects being deserialized are for the methods loaded.
     static final int INSTRUMENTED_METHODID_FIELD_ACCESS = Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_STATIC;
-    static final Type INSTRUMENTED_METHODID_FIELD_TYPE = Type.INT_TYPE;
-    static final Integer INSTRUMENTED_METHODID_FIELD_VALUE = 0;
+    static final Type INSTRUMENTED_METHODID_FIELD_TYPE = Type.getType(String.class);
+    static final String INSTRUMENTED_METHODID_FIELD_NAME = MethodState.IDENTIFYING_FIELD_NAME;
+    static final int INSTRUMENTED_METHODID_FIELD_MAX_LENGTH = 65535;
 }
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.Frame;
+
+// Backwards dataflow analysis that determines which local variable slots are live (may be read before being written to) at each
+// instruction. A local that isn't live at a continuation point doesn't need to be saved when the method suspends, because nothing after the
+// continuation point will ever read the value it had.
+//
+// Long/double locals are tracked by their first slot only (the second slot is always uninitialized in the frames produced by Analyzer).
+//
+// Exception handlers are treated as possible successors of every instruction they cover. Since an instruction may throw before it writes
+// to its local, whatever is live at a handler is considered live at the start of every instruction it covers (the instruction's own write
+// isn't allowed to kill it).
+final class LocalsLivenessAnalyzer {
+
+    private LocalsLivenessAnalyzer() {
+        // do nothing
+    }
+
+    // Returns the locals live on entry to each instruction, indexed the same as methodNode.instructions.
+    static BitSet[] analyze(MethodNode methodNode) {
+        Validate.notNull(methodNode);
+
+        InsnList insnList = methodNode.instructions;
+        int count = insnList.size();
+
+        List<List<Integer>> predecessors = new ArrayList<>(count);
+        List<List<Integer>> handlers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            predecessors.add(new ArrayList<>());
+            handlers.add(new ArrayList<>());
+        }
+
+        for (int i = 0; i < count; i++) {
+            for (int successor : getSuccessors(insnList, i)) {
+                predecessors.get(successor).add(i);
+            }
+        }
+
+        for (TryCatchBlockNode tryCatchBlockNode : methodNode.tryCatchBlocks) {
+            int start = insnList.indexOf(tryCatchBlockNode.start);
+            int end = insnList.indexOf(tryCatchBlockNode.end);
+            int handler = insnList.indexOf(tryCatchBlockNode.handler);
+            for (int i = start; i < end; i++) {
+                handlers.get(i).add(handler);
+                predecessors.get(handler).add(i);
+            }
+        }
+
+        BitSet[] liveIn = new BitSet[count];
+        BitSet[] liveOut = new BitSet[count];
+        for (int i = 0; i < count; i++) {
+            liveIn[i] = new BitSet();
+            liveOut[i] = new BitSet();
+        }
+
+        Deque<Integer> queue = new ArrayDeque<>();
+        boolean[] queued = new boolean[count];
+        for (int i = count - 1; i >= 0; i--) { // going backwards, so start from the end to converge faster
+            queue.add(i);
+            queued[i] = true;
+        }
+
+        while (!queue.isEmpty()) {
+            int idx = queue.poll();
+            queued[idx] = false;
+
+            AbstractInsnNode insnNode = insnList.get(idx);
+
+            BitSet newLiveIn = (BitSet) liveOut[idx].clone();
+            Integer defined = getDefinedLocal(insnNode);
+            if (defined != null) {
+                newLiveIn.clear(defined);
+            }
+            Integer used = getUsedLocal(insnNode);
+            if (used != null) {
+                newLiveIn.set(used);
+            }
+            for (int handler : handlers.get(idx)) {
+                newLiveIn.or(liveIn[handler]);
+            }
+
+            if (newLiveIn.equals(liveIn[idx])) {
+                continue;
+            }
+            liveIn[idx] = newLiveIn;
+
+            for (int predecessor : predecessors.get(idx)) {
+                liveOut[predecessor].or(newLiveIn);
+                if (!queued[predecessor]) {
+                    queue.add(predecessor);
+                    queued[predecessor] = true;
+                }
+            }
+        }
+
+        return liveIn;
+    }
+
+    // Returns a copy of frame where locals that aren't live are marked as uninitialized (so they're skipped when saving/loading locals).
+    // Locals in alwaysLive are kept regardless.
+    static Frame<BasicValue> removeDeadLocals(Frame<BasicValue> frame, BitSet live, int ... alwaysLive) {
+        Validate.notNull(frame);
+        Validate.notNull(live);
+        Validate.notNull(alwaysLive);
+
+        Frame<BasicValue> ret = new Frame<>(frame);
+        outer:
+        for (int i = 0; i < ret.getLocals(); i++) {
+            if (live.get(i)) {
+                continue;
+            }
+            for (int idx : alwaysLive) {
+                if (idx == i) {
+                    continue outer;
+                }
+            }
+            ret.setLocal(i, BasicValue.UNINITIALIZED_VALUE);
+        }
+        return ret;
+    }
+
+    private static List<Integer> getSuccessors(InsnList insnList, int idx) {
+        AbstractInsnNode insnNode = insnList.get(idx);
+        List<Integer> ret = new ArrayList<>(2);
+
+        if (insnNode instanceof JumpInsnNode) {
+            ret.add(insnList.indexOf(((JumpInsnNode) insnNode).label));
+        } else if (insnNode instanceof TableSwitchInsnNode) {
+            TableSwitchInsnNode switchInsnNode = (TableSwitchInsnNode) insnNode;
+            ret.add(insnList.indexOf(switchInsnNode.dflt));
+            for (LabelNode labelNode : switchInsnNode.labels) {
+                ret.add(insnList.indexOf(labelNode));
+            }
+        } else if (insnNode instanceof LookupSwitchInsnNode) {
+            LookupSwitchInsnNode switchInsnNode = (LookupSwitchInsnNode) insnNode;
+            ret.add(insnList.indexOf(switchInsnNode.dflt));
+            for (LabelNode labelNode : switchInsnNode.labels) {
+                ret.add(insnList.indexOf(labelNode));
+            }
+        }
+
+        switch (insnNode.getOpcode()) {
+            case Opcodes.GOTO:
+            case Opcodes.TABLESWITCH:
+            case Opcodes.LOOKUPSWITCH:
+            case Opcodes.IRETURN:
+            case Opcodes.LRETURN:
+            case Opcodes.FRETURN:
+            case Opcodes.DRETURN:
+            case Opcodes.ARETURN:
+            case Opcodes.RETURN:
+            case Opcodes.ATHROW:
+                break; // doesn't fall through to the next instruction
+            default:
+                if (idx + 1 < insnList.size()) {
+                    ret.add(idx + 1);
+                }
+                break;
+        }
+
+        return ret;
+    }
+
+    private static Integer getUsedLocal(AbstractInsnNode insnNode) {
+        switch (insnNode.getOpcode()) {
+            case Opcodes.ILOAD:
+            case Opcodes.LLOAD:
+            case Opcodes.FLOAD:
+            case Opcodes.DLOAD:
+            case Opcodes.ALOAD:
+            case Opcodes.RET:
+                return ((VarInsnNode) insnNode).var;
+            case Opcodes.IINC:
+                return ((IincInsnNode) insnNode).var;
+            default:
+                return null;
+        }
+    }
+
+    private static Integer getDefinedLocal(AbstractInsnNode insnNode) {
+        switch (insnNode.getOpcode()) {
+            case Opcodes.ISTORE:
+            case Opcodes.LSTORE:
+            case Opcodes.FSTORE:
+            case Opcodes.DSTORE:
+            case Opcodes.ASTORE:
+                return ((VarInsnNode) insnNode).var;
+            default:
+                return null;
+        }
+    }
+}
@@ -156,7 +156,8 @@ final class LocalsStateGenerators {
     }
     
     /**
-     * Generates instructions to save the local variables table.
+     * Generates instructions to save the local variables table. Equivalent to calling
+     * {@code merge(allocateLocalsStorageArrays(markerType, storageVars, frame), saveLocals(markerType, storageVars, frame, false))}.
      * @param markerType debug marker type
      * @param storageVars variables to store locals in to
      * @param frame execution frame at the instruction where the local variables table is to be saved
@@ -164,6 +165,23 @@ final class LocalsStateGenerators {
      * @throws NullPointerException if any argument is {@code null}
      */
     public static InsnList saveLocals(MarkerType markerType, StorageVariables storageVars, Frame<BasicValue> frame) {
+        return saveLocals(markerType, storageVars, frame, true);
+    }
+
+    /**
+     * Generates instructions to save the local variables table.
+     * <p>
+     * If {@code allocateStorage} is {@code false}, the storage arrays must already be sitting in {@code storageVars} (e.g. unpacked from
+     * the container of a method state previously saved at the same continuation point) and the locals are written directly in to them.
+     * @param markerType debug marker type
+     * @param storageVars variables to store locals in to
+     * @param frame execution frame at the instruction where the local variables table is to be saved
+     * @param allocateStorage if {@code true}, new storage arrays are created before saving
+     * @return instructions to save the local variables table in to an array
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static InsnList saveLocals(MarkerType markerType, StorageVariables storageVars, Frame<BasicValue> frame,
+            boolean allocateStorage) {
         Validate.notNull(markerType);
         Validate.notNull(storageVars);
         Validate.notNull(frame);
@@ -180,43 +198,14 @@ final class LocalsStateGenerators {
         int doublesCounter = 0;
         int objectsCounter = 0;
 
-        StorageSizes storageSizes = computeSizes(frame);
-        
 
         InsnList ret = new InsnList();
                 
         // Create storage arrays and save them in respective storage vars
         ret.add(merge(
                 debugMarker(markerType, "Saving locals"),
-                mergeIf(intsVar != null, () -> new Object[] {
-                    debugMarker(markerType, "Generating ints container (" + storageSizes.getIntsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getIntsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_INT),
-                    new VarInsnNode(Opcodes.ASTORE, intsVar.getIndex())
-                }),
-                mergeIf(floatsVar != null, () -> new Object[] {
-                    debugMarker(markerType, "Generating floats container (" + storageSizes.getFloatsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getFloatsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_FLOAT),
-                    new VarInsnNode(Opcodes.ASTORE, floatsVar.getIndex())
-                }),
-                mergeIf(longsVar != null, () -> new Object[] {
-                    debugMarker(markerType, "Generating longs container (" + storageSizes.getLongsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getLongsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_LONG),
-                    new VarInsnNode(Opcodes.ASTORE, longsVar.getIndex())
-                }),
-                mergeIf(doublesVar != null, () -> new Object[] {
-                    debugMarker(markerType, "Generating doubles container (" + storageSizes.getDoublesSize() + ")"),
-                    new LdcInsnNode(storageSizes.getDoublesSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_DOUBLE),
-                    new VarInsnNode(Opcodes.ASTORE, doublesVar.getIndex())
-                }),
-                mergeIf(objectsVar != null, () -> new Object[] {
-                    debugMarker(markerType, "Generating objects container (" + storageSizes.getObjectsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getObjectsSize()),
-                    new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"),
-                    new VarInsnNode(Opcodes.ASTORE, objectsVar.getIndex())
+                mergeIf(allocateStorage, () -> new Object[] {
+                    allocateLocalsStorageArrays(markerType, storageVars, frame)
                 })
         ));
 
@@ -298,6 +287,63 @@ final class LocalsStateGenerators {
         return ret;
     }
 
+    /**
+     * Generates instructions to create the storage arrays required to save the local variables table.
+     * @param markerType debug marker type
+     * @param storageVars variables to create storage arrays in
+     * @param frame execution frame at the instruction where the local variables table is to be saved
+     * @return instructions to create storage arrays for the local variables table
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static InsnList allocateLocalsStorageArrays(MarkerType markerType, StorageVariables storageVars, Frame<BasicValue> frame) {
+        Validate.notNull(markerType);
+        Validate.notNull(storageVars);
+        Validate.notNull(frame);
+
+        Variable intsVar = storageVars.getIntStorageVar();
+        Variable floatsVar = storageVars.getFloatStorageVar();
+        Variable longsVar = storageVars.getLongStorageVar();
+        Variable doublesVar = storageVars.getDoubleStorageVar();
+        Variable objectsVar = storageVars.getObjectStorageVar();
+
+        StorageSizes storageSizes = computeSizes(frame);
+
+        // Only create arrays for types that actually exist at this frame -- packing/unpacking uses the same size > 0 check, so an empty
+        // array would never make it in to the container anyways.
+        return merge(
+                mergeIf(storageSizes.getIntsSize() > 0, () -> new Object[] {
+                    debugMarker(markerType, "Generating ints container (" + storageSizes.getIntsSize() + ")"),
+                    new LdcInsnNode(storageSizes.getIntsSize()),
+                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_INT),
+                    new VarInsnNode(Opcodes.ASTORE, intsVar.getIndex())
+                }),
+                mergeIf(storageSizes.getFloatsSize() > 0, () -> new Object[] {
+                    debugMarker(markerType, "Generating floats container (" + storageSizes.getFloatsSize() + ")"),
+                    new LdcInsnNode(storageSizes.getFloatsSize()),
+                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_FLOAT),
+                    new VarInsnNode(Opcodes.ASTORE, floatsVar.getIndex())
+                }),
+                mergeIf(storageSizes.getLongsSize() > 0, () -> new Object[] {
+                    debugMarker(markerType, "Generating longs container (" + storageSizes.getLongsSize() + ")"),
+                    new LdcInsnNode(storageSizes.getLongsSize()),
+                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_LONG),
+                    new VarInsnNode(Opcodes.ASTORE, longsVar.getIndex())
+                }),
+                mergeIf(storageSizes.getDoublesSize() > 0, () -> new Object[] {
+                    debugMarker(markerType, "Generating doubles container (" + storageSizes.getDoublesSize() + ")"),
+                    new LdcInsnNode(storageSizes.getDoublesSize()),
+                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_DOUBLE),
+                    new VarInsnNode(Opcodes.ASTORE, doublesVar.getIndex())
+                }),
+                mergeIf(storageSizes.getObjectsSize() > 0, () -> new Object[] {
+                    debugMarker(markerType, "Generating objects container (" + storageSizes.getObjectsSize() + ")"),
+                    new LdcInsnNode(storageSizes.getObjectsSize()),
+                    new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"),
+                    new VarInsnNode(Opcodes.ASTORE, objectsVar.getIndex())
+                })
+        );
+    }
+
     /**
      * Compute sizes required for the storage arrays that will contain the local variables table at this frame.
      * @param frame frame to compute for
@@ -16,7 +16,10 @@
  */
 package com.offbynull.coroutines.instrumenter;
 
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.FieldResidentLocalsMode;
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.StateLayout;
 import com.offbynull.coroutines.instrumenter.asm.ClassInformationRepository;
+import static com.offbynull.coroutines.instrumenter.asm.MethodInvokeUtils.getArgumentCountRequiredForInvocation;
 import static com.offbynull.coroutines.instrumenter.asm.MethodInvokeUtils.getReturnTypeOfInvocation;
 import static com.offbynull.coroutines.instrumenter.asm.SearchUtils.findInvocationsOf;
 import static com.offbynull.coroutines.instrumenter.asm.SearchUtils.findInvocationsWithParameter;
@@ -27,11 +30,17 @@ import com.offbynull.coroutines.instrumenter.asm.SimpleVerifier;
 import com.offbynull.coroutines.instrumenter.asm.VariableTable;
 import com.offbynull.coroutines.instrumenter.asm.VariableTable.Variable;
 import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.FieldResidentLocals;
 import com.offbynull.coroutines.user.LockState;
 import com.offbynull.coroutines.user.MethodState;
 import java.lang.reflect.Method;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import static org.apache.commons.collections4.CollectionUtils.union;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.reflect.MethodUtils;
@@ -39,11 +48,14 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.IincInsnNode;
 import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
 import org.objectweb.asm.tree.LineNumberNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
 import org.objectweb.asm.tree.analysis.Analyzer;
 import org.objectweb.asm.tree.analysis.AnalyzerException;
 import org.objectweb.asm.tree.analysis.BasicValue;
@@ -53,13 +65,17 @@ final class MethodAnalyzer {
     
     private static final Type CONTINUATION_CLASS_TYPE = Type.getType(Continuation.class);
     private static final Method CONTINUATION_SUSPEND_METHOD = MethodUtils.getAccessibleMethod(Continuation.class, "suspend");
+    private static final Type FIELD_RESIDENT_LOCALS_ANNOTATION_TYPE = Type.getType(FieldResidentLocals.class);
+    private static final Type OBJECT_TYPE = Type.getType(Object.class);
     
     private final ClassInformationRepository classInfoRepo;
+    private final CallGraph callGraph;
     
-    MethodAnalyzer(ClassInformationRepository classInfoRepo) {
+    MethodAnalyzer(ClassInformationRepository classInfoRepo, CallGraph callGraph) { // callGraph may be null
         Validate.notNull(classInfoRepo);
 
         this.classInfoRepo = classInfoRepo;
+        this.callGraph = callGraph;
     }
 
     public MethodAttributes analyze(ClassNode classNode, MethodNode methodNode, InstrumentationSettings settings) {
@@ -84,16 +100,6 @@ final class MethodAnalyzer {
 
 
 
-        ///////////////////////////////////////////////////////////////////////////////////////////
-        // CREATE METHOD SIGNATURE
-        ///////////////////////////////////////////////////////////////////////////////////////////
-        int methodId = new MethodHasher().generateMethodHash(classNode, methodNode);
-        MethodSignature signature = new MethodSignature(methodId, classNode.name, methodNode.name,
-                Type.getMethodType(methodNode.desc));
-        
-        
-        
-        
         ///////////////////////////////////////////////////////////////////////////////////////////
         // FIND SUSPEND / CONTINUATION INVOCATIONS + ALSO FIND SYNCHRONIZATION INSTRUCTIONS
         ///////////////////////////////////////////////////////////////////////////////////////////
@@ -104,6 +110,14 @@ final class MethodAnalyzer {
         List<AbstractInsnNode> contInvocationInsnNodes
                 = findInvocationsWithParameter(methodNode.instructions, CONTINUATION_CLASS_TYPE);
 
+        // If we have a call graph, ignore invocations that it says can never suspend -- they can be invoked like any other method. Pieces
+        // of split methods (see MethodSplitter) don't exist in the call graph, so they're always kept.
+        if (callGraph != null) {
+            contInvocationInsnNodes.removeIf(x -> x instanceof MethodInsnNode
+                    && !MethodSplitter.isPieceInvocation(classNode, (MethodInsnNode) x)
+                    && !callGraph.isSuspendingInvocation((MethodInsnNode) x));
+        }
+
         // If there are no continuation points, we don't need to instrument this method. It'll be like any other normal method
         // invocation because it won't have the potential to pause or call in to another method that may potentially pause.
         if (suspendInvocationInsnNodes.isEmpty() && contInvocationInsnNodes.isEmpty()) {
@@ -136,6 +150,89 @@ final class MethodAnalyzer {
 
 
 
+        ///////////////////////////////////////////////////////////////////////////////////////////
+        // DETERMINE WHICH INDEX IN LOCAL VARIABLE TABLE CONTAINS CONTINUATION OBJECT
+        ///////////////////////////////////////////////////////////////////////////////////////////
+        
+        // Find index of continuation object
+        int contArgIdx = getLocalVariableIndexOfContinuationParameter(methodNode);
+
+
+
+
+        ///////////////////////////////////////////////////////////////////////////////////////////
+        // DETERMINE FIELD RESIDENT LOCALS
+        ///////////////////////////////////////////////////////////////////////////////////////////
+
+        // Methods with field resident locals keep the locals they write to in the fields of their frame object for as long as they run,
+        // meaning nothing needs to be copied in to or out of those locals when they suspend/resume. This requires a frame class, so it's
+        // only done for the FRAME_CLASSES state layout. It isn't done in debug mode, so that the full state of the method is viewable in
+        // the debugger.
+        ResidentLocals residentLocals = new ResidentLocals();
+        if (settings.getStateLayout() == StateLayout.FRAME_CLASSES
+                && !settings.isDebugMode()
+                && isFieldResidentLocalsWanted(methodNode, settings.getFieldResidentLocalsMode())) {
+            residentLocals = determineResidentLocals(methodNode, frames, contArgIdx);
+        }
+
+
+
+
+        ///////////////////////////////////////////////////////////////////////////////////////////
+        // REMOVE DEAD LOCALS FROM FRAMES AT SUSPEND / CONTINUATION POINTS
+        ///////////////////////////////////////////////////////////////////////////////////////////
+
+        // Locals that are never read after a suspend/continuation point (before being overwritten) don't need to be saved or loaded, so
+        // mark them as uninitialized in the frames for those points. Everything downstream (saving/loading locals, allocating storage
+        // variables, .coroutinesinfo) skips uninitialized locals.
+        //
+        // The continuation object is always kept because the instrumentation logic needs it after the point. In debug mode nothing is
+        // removed, so that the full state of the method is viewable in the debugger.
+        if (!settings.isDebugMode()) {
+            BitSet[] liveLocals = LocalsLivenessAnalyzer.analyze(methodNode);
+            for (AbstractInsnNode invokeInsnNode : union(contInvocationInsnNodes, suspendInvocationInsnNodes)) {
+                int instructionIndex = methodNode.instructions.indexOf(invokeInsnNode);
+                frames[instructionIndex] = LocalsLivenessAnalyzer.removeDeadLocals(
+                        frames[instructionIndex],
+                        liveLocals[instructionIndex],
+                        contArgIdx);
+            }
+        }
+
+
+
+
+        ///////////////////////////////////////////////////////////////////////////////////////////
+        // TRIM FRAMES AT TAIL CALL CONTINUATION POINTS
+        ///////////////////////////////////////////////////////////////////////////////////////////
+
+        // A continuation point is a tail call if the method returns as soon as the invocation returns (e.g. return callee(c, ...)). The
+        // only thing needed to resume such a continuation point is to invoke the method again, so the frames for those points are trimmed
+        // down to just the invocation's arguments -- no locals and nothing below the arguments on the operand stack get saved or loaded.
+        // When resuming, the instrumented code returns directly after the invocation rather than restoring the rest of the method.
+        //
+        // Invocations within try/catch blocks aren't tail calls, because the catch handlers in the method may still need to run after the
+        // invocation. In debug mode nothing is trimmed, so that the full state of the method is viewable in the debugger.
+        Set<AbstractInsnNode> tailCallInsnNodes = new HashSet<>();
+        if (!settings.isDebugMode()) {
+            for (AbstractInsnNode contInvocationInsnNode : contInvocationInsnNodes) {
+                boolean withinTryCatch = findTryCatchBlockNodesEncompassingInstruction(
+                        methodNode.instructions,
+                        methodNode.tryCatchBlocks,
+                        contInvocationInsnNode).size() > 0;
+                if (withinTryCatch || !isTailCall(contInvocationInsnNode, Type.getReturnType(methodNode.desc))) {
+                    continue;
+                }
+
+                int instructionIndex = methodNode.instructions.indexOf(contInvocationInsnNode);
+                frames[instructionIndex] = removeAllButInvocationArguments(frames[instructionIndex], contInvocationInsnNode);
+                tailCallInsnNodes.add(contInvocationInsnNode);
+            }
+        }
+
+
+
+
         ///////////////////////////////////////////////////////////////////////////////////////////
         // CREATE SUSPEND/CONTINUATION/SYNCHRONIZATION OBJECTS
         ///////////////////////////////////////////////////////////////////////////////////////////
@@ -173,7 +270,7 @@ final class MethodAnalyzer {
                         lineNumber, (MethodInsnNode) contInvocationInsnNode, frame);
             } else {
                 continuationPoint = new NormalInvokeContinuationPoint(
-                        lineNumber, (MethodInsnNode) contInvocationInsnNode, frame);
+                        lineNumber, (MethodInsnNode) contInvocationInsnNode, frame, tailCallInsnNodes.contains(contInvocationInsnNode));
             }
             continuationPoints.add(continuationPoint);
         }
@@ -191,6 +288,25 @@ final class MethodAnalyzer {
 
 
 
+        ///////////////////////////////////////////////////////////////////////////////////////////
+        // CREATE METHOD SIGNATURE
+        ///////////////////////////////////////////////////////////////////////////////////////////
+        // Method ids only need to be stable across versions of a class for serialization. In lean mode, the index of the method in the
+        // class is enough to make them unique (they still need to be unique within the class, e.g. frame classes are named after them).
+        //
+        // Otherwise, the id is a hash of the method's bytecode along with what gets saved at each of its continuation points. What gets
+        // saved depends on the settings (e.g. dead locals are removed above when not in debug mode), so the same class instrumented with
+        // different settings will have different ids for its methods -- serialized method states from one won't be accepted by the other
+        // without a frame updater.
+        int methodId = settings.isLeanMode()
+                ? classNode.methods.indexOf(methodNode)
+                : new MethodHasher().generateMethodHash(classNode, methodNode, continuationPoints);
+        MethodSignature signature = new MethodSignature(methodId, classNode.name, methodNode.name,
+                Type.getMethodType(methodNode.desc));
+
+
+
+
         ///////////////////////////////////////////////////////////////////////////////////////////
         // DETERMINE TYPES RETURNED FROM SUSPEND / CONTINUATION POINTS
         ///////////////////////////////////////////////////////////////////////////////////////////
@@ -287,16 +403,6 @@ final class MethodAnalyzer {
 
 
 
-        ///////////////////////////////////////////////////////////////////////////////////////////
-        // DETERMINE WHICH INDEX IN LOCAL VARIABLE TABLE CONTAINS CONTINUATION OBJECT
-        ///////////////////////////////////////////////////////////////////////////////////////////
-        
-        // Find index of continuation object
-        int contArgIdx = getLocalVariableIndexOfContinuationParameter(methodNode);
-
-
-
-
         ///////////////////////////////////////////////////////////////////////////////////////////
         // CALCULATE EXTRA VARIABLES REQUIRED BY INSTRUMENTATION
         ///////////////////////////////////////////////////////////////////////////////////////////
@@ -310,14 +416,23 @@ final class MethodAnalyzer {
                 continuationArgVar,
                 methodStateVar);
         
-        // Create variables for storing/loading locals -- only create ones we need
-        StorageVariables localsStorageVars = allocateStorageVariableSlots(varTable, localsTypes);
-
-        // Create variables for storing/loading operand stack -- only create ones we need
+        // Create variables for storing/loading locals -- only create ones we need (none are needed if frame classes or packed arrays are
+        // being used, locals get stored/loaded directly to/from the fields of the frame class / the packed arrays)
+        boolean frameClasses = settings.getStateLayout() == StateLayout.FRAME_CLASSES;
+        boolean packed = settings.getStateLayout() == StateLayout.PACKED;
+        StorageVariables localsStorageVars = allocateStorageVariableSlots(varTable,
+                frameClasses || packed ? new TypeTracker() : localsTypes);
+
+        // Create variables for storing/loading operand stack -- only create ones we need (these are still needed if frame classes or packed
+        // arrays are being used, they're used to hold on to the arguments of an invocation while it's being invoked)
         StorageVariables stackStorageVars = allocateStorageVariableSlots(varTable, operandStackTypes);
         
         // Create variables to locals and operand stack storage containers -- these must exist
-        StorageContainerVariables storageContainerVars = allocateStorageContainerVariableSlots(varTable);
+        Type containerType = frameClasses
+                ? Type.getObjectType(FrameClassGenerators.getFrameClassName(signature))
+                : Type.getType(Object[].class);
+        StorageContainerVariables storageContainerVars = allocateStorageContainerVariableSlots(varTable, containerType, packed,
+                residentLocals);
 
         // Create variables to cache return values and thrown exceptions of invocations -- only create ones we need
         CacheVariables cacheVars = allocateCacheVariableSlots(varTable, invocationReturnTypes, invocationFoundWrappedInTryCatch);
@@ -345,6 +460,144 @@ final class MethodAnalyzer {
                 stackStorageVars,
                 lockVars);
     }
+
+    private boolean isFieldResidentLocalsWanted(MethodNode methodNode, FieldResidentLocalsMode mode) {
+        switch (mode) {
+            case NONE:
+                return false;
+            case ANNOTATED:
+                return isAnnotatedWith(methodNode, FIELD_RESIDENT_LOCALS_ANNOTATION_TYPE);
+            default:
+                throw new IllegalStateException(); // should never happen
+        }
+    }
+
+    private boolean isAnnotatedWith(MethodNode methodNode, Type annotationType) {
+        String desc = annotationType.getDescriptor();
+        return (methodNode.invisibleAnnotations != null && methodNode.invisibleAnnotations.stream().anyMatch(x -> desc.equals(x.desc)))
+                || (methodNode.visibleAnnotations != null && methodNode.visibleAnnotations.stream().anyMatch(x -> desc.equals(x.desc)));
+    }
+
+    private boolean isTailCall(AbstractInsnNode invokeInsnNode, Type methodReturnType) {
+        Type invokeReturnType = getReturnTypeOfInvocation(invokeInsnNode);
+
+        AbstractInsnNode nextInsnNode = getNextExecutedInstruction(invokeInsnNode);
+        if (nextInsnNode == null) {
+            return false;
+        }
+
+        // Result of invocation discarded, followed by a void return
+        if (methodReturnType.getSort() == Type.VOID && invokeReturnType.getSort() != Type.VOID) {
+            int popOpcode = invokeReturnType.getSize() == 2 ? Opcodes.POP2 : Opcodes.POP;
+            if (nextInsnNode.getOpcode() != popOpcode) {
+                return false;
+            }
+            nextInsnNode = getNextExecutedInstruction(nextInsnNode);
+            return nextInsnNode != null && nextInsnNode.getOpcode() == Opcodes.RETURN;
+        }
+
+        // Result of invocation returned as-is (or void invocation followed by void return)
+        return nextInsnNode.getOpcode() == invokeReturnType.getOpcode(Opcodes.IRETURN);
+    }
+
+    private AbstractInsnNode getNextExecutedInstruction(AbstractInsnNode insnNode) {
+        // Skip over labels / line numbers / frames, and follow unconditional jumps (javac commonly jumps to a shared return instruction).
+        // Jumps are only followed so many times, to avoid looping forever on code that jumps to itself.
+        int jumpsRemaining = 16;
+        AbstractInsnNode nextInsnNode = insnNode.getNext();
+        while (nextInsnNode != null) {
+            if (nextInsnNode.getOpcode() == Opcodes.GOTO) {
+                if (jumpsRemaining == 0) {
+                    return null;
+                }
+                jumpsRemaining--;
+                nextInsnNode = ((JumpInsnNode) nextInsnNode).label;
+            } else if (nextInsnNode.getOpcode() != -1) {
+                return nextInsnNode;
+            }
+            nextInsnNode = nextInsnNode.getNext();
+        }
+        return null;
+    }
+
+    private Frame<BasicValue> removeAllButInvocationArguments(Frame<BasicValue> frame, AbstractInsnNode invokeInsnNode) {
+        int argCount = getArgumentCountRequiredForInvocation(invokeInsnNode);
+
+        Frame<BasicValue> ret = new Frame<>(frame);
+        for (int i = 0; i < ret.getLocals(); i++) {
+            ret.setLocal(i, BasicValue.UNINITIALIZED_VALUE);
+        }
+        ret.clearStack();
+        for (int i = frame.getStackSize() - argCount; i < frame.getStackSize(); i++) {
+            ret.push(frame.getStack(i));
+        }
+        return ret;
+    }
+
+    private ResidentLocals determineResidentLocals(MethodNode methodNode, Frame<BasicValue>[] frames, int contArgIdx) {
+        // Only locals that get written to are made resident. Locals that never get written to are arguments ('this' included) -- they'll
+        // hold the same values every time the method gets invoked, including when it gets invoked to restore its state.
+        BitSet slots = getWrittenLocals(methodNode);
+        
+        // The continuation object must stay where it is, the instrumentation logic reads it directly. This should never happen in code
+        // generated by javac.
+        if (slots.get(contArgIdx)) {
+            return new ResidentLocals();
+        }
+        
+        // Arguments that get written to need to be copied in to the frame when the method starts
+        Map<Integer, Type> arguments = new LinkedHashMap<>();
+        boolean isStatic = (methodNode.access & Opcodes.ACC_STATIC) == Opcodes.ACC_STATIC;
+        int slot = 0;
+        if (!isStatic) {
+            if (slots.get(slot)) {
+                arguments.put(slot, OBJECT_TYPE);
+            }
+            slot++;
+        }
+        for (Type argType : Type.getMethodType(methodNode.desc).getArgumentTypes()) {
+            if (slots.get(slot)) {
+                arguments.put(slot, argType);
+            }
+            slot += argType.getSize();
+        }
+        
+        // Object locals that get read from the frame need to be cast back to the type the verifier expects
+        Map<AbstractInsnNode, Type> referenceLoadTypes = new LinkedHashMap<>();
+        for (int i = 0; i < methodNode.instructions.size(); i++) {
+            AbstractInsnNode insnNode = methodNode.instructions.get(i);
+            if (insnNode.getOpcode() != Opcodes.ALOAD || frames[i] == null) { // frame is null if instruction is unreachable
+                continue;
+            }
+            int var = ((VarInsnNode) insnNode).var;
+            if (slots.get(var)) {
+                referenceLoadTypes.put(insnNode, frames[i].getLocal(var).getType());
+            }
+        }
+        
+        return new ResidentLocals(slots, arguments, referenceLoadTypes);
+    }
+
+    private BitSet getWrittenLocals(MethodNode methodNode) {
+        BitSet ret = new BitSet();
+        for (AbstractInsnNode insnNode : methodNode.instructions.toArray()) {
+            switch (insnNode.getOpcode()) {
+                case Opcodes.ISTORE:
+                case Opcodes.LSTORE:
+                case Opcodes.FSTORE:
+                case Opcodes.DSTORE:
+                case Opcodes.ASTORE:
+                    ret.set(((VarInsnNode) insnNode).var);
+                    break;
+                case Opcodes.IINC:
+                    ret.set(((IincInsnNode) insnNode).var);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return ret;
+    }
     
     private int getLocalVariableIndexOfContinuationParameter(MethodNode methodNode) {
         // If it is NOT static, the first index in the local variables table is always the "this" pointer, followed by the arguments passed
@@ -440,10 +693,17 @@ final class MethodAnalyzer {
     }
 
     private StorageContainerVariables allocateStorageContainerVariableSlots(
-            VariableTable varTable) {
-        Variable containerVar = varTable.acquireExtra(Object[].class);
+            VariableTable varTable,
+            Type containerType,
+            boolean packed,
+            ResidentLocals residentLocals) {
+        Variable containerVar = varTable.acquireExtra(containerType);
+        Variable primitivesVar = null;
+        if (packed) {
+            primitivesVar = varTable.acquireExtra(long[].class);
+        }
 
-        return new StorageContainerVariables(containerVar);
+        return new StorageContainerVariables(containerVar, primitivesVar, residentLocals);
     }
 
     private LockVariables allocateLockVariableSlots(
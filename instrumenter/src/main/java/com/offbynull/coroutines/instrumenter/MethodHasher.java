@@ -31,31 +31,105 @@ import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.Frame;
 
 final class MethodHasher {
 
-    int generateMethodHash(ClassNode classNode, MethodNode methodNode) {
+    // Bump this whenever the way continuation points are saved/loaded changes in a way that dumpSavedLayout() doesn't pick up on.
+    private static final int SAVED_LAYOUT_VERSION = 1;
+
+    int generateMethodHash(ClassNode classNode, MethodNode methodNode, List<ContinuationPoint> continuationPoints) {
         Validate.notNull(classNode);
         Validate.notNull(methodNode);
+        Validate.notNull(continuationPoints);
+        Validate.noNullElements(continuationPoints);
         Validate.isTrue(classNode.methods.contains(methodNode)); // sanity check
 
         String signature = classNode.name + '\u0000' + methodNode.name + '\u0000' + methodNode.desc;
         byte[] signatureBytes = signature.getBytes(StandardCharsets.UTF_8);
         byte[] contentBytes = dumpBytecode(methodNode);
+        byte[] layoutBytes = dumpSavedLayout(continuationPoints);
 
-        byte[] combinedBytes = new byte[signatureBytes.length + contentBytes.length];
+        byte[] combinedBytes = new byte[signatureBytes.length + contentBytes.length + layoutBytes.length];
         System.arraycopy(signatureBytes, 0, combinedBytes, 0, signatureBytes.length);
         System.arraycopy(contentBytes, 0, combinedBytes, signatureBytes.length, contentBytes.length);
+        System.arraycopy(layoutBytes, 0, combinedBytes, signatureBytes.length + contentBytes.length, layoutBytes.length);
 
         byte[] methodHash = md5(combinedBytes);
 
         return ByteBuffer.wrap(methodHash).getInt();
     }
 
+    // Takes into account what gets saved at each continuation point. The same bytecode can be saved differently depending on the
+    // instrumentation settings (e.g. dead locals are only removed and tail calls are only trimmed when not in debug mode), and a
+    // serialized method state is only valid for code that saves it the same way -- so the method id needs to change when this changes,
+    // otherwise the method state will get loaded in to the wrong variables.
+    private static byte[] dumpSavedLayout(List<ContinuationPoint> continuationPoints) {
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                DataOutputStream daos = new DataOutputStream(baos);) {
+            daos.writeInt(SAVED_LAYOUT_VERSION);
+            for (ContinuationPoint continuationPoint : continuationPoints) {
+                Frame<BasicValue> frame = continuationPoint.getFrame();
+
+                daos.writeChars("cp");
+                daos.writeInt(frame.getLocals());
+                for (int i = 0; i < frame.getLocals(); i++) {
+                    daos.writeChar(getStorageCode(frame.getLocal(i)));
+                }
+                daos.writeInt(frame.getStackSize());
+                for (int i = 0; i < frame.getStackSize(); i++) {
+                    daos.writeChar(getStorageCode(frame.getStack(i)));
+                }
+
+                // Tail calls are saved trimmed down to the invocation's arguments, and are resumed by returning directly after the
+                // invocation rather than restoring the rest of the method
+                boolean tailCall = continuationPoint instanceof NormalInvokeContinuationPoint
+                        && ((NormalInvokeContinuationPoint) continuationPoint).isTailCall();
+                daos.writeBoolean(tailCall);
+            }
+            daos.flush(); // doesn't really need it -- just incase
+
+            return baos.toByteArray();
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe); // should never happen
+        }
+    }
+
+    // Only the type of storage matters, not the exact type -- the exact type of an object can change as the classes it's derived from
+    // change (without the layout of what's saved changing).
+    private static char getStorageCode(BasicValue basicValue) {
+        Type type = basicValue.getType();
+        if (type == null) {
+            return '-'; // uninitialized, not saved
+        }
+
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+            case Type.BYTE:
+            case Type.SHORT:
+            case Type.CHAR:
+            case Type.INT:
+                return 'I';
+            case Type.FLOAT:
+                return 'F';
+            case Type.LONG:
+                return 'J';
+            case Type.DOUBLE:
+                return 'D';
+            case Type.ARRAY:
+            case Type.OBJECT:
+                return 'L';
+            default:
+                throw new IllegalArgumentException("Unrecognized type: " + type);
+        }
+    }
+
     // Takes into account the instructions and operands, as well as the overall structure.
     private static byte[] dumpBytecode(MethodNode methodNode) {
         // Calculate label offsets -- required for hash calculation
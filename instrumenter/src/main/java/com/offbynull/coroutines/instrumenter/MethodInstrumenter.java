@@ -18,12 +18,19 @@ package com.offbynull.coroutines.instrumenter;
 
 import static com.offbynull.coroutines.instrumenter.ContinuationGenerators.entryPointLoader;
 import static com.offbynull.coroutines.instrumenter.ContinuationGenerators.saveState;
+import static com.offbynull.coroutines.instrumenter.FrameClassGenerators.incrementResidentLocal;
+import static com.offbynull.coroutines.instrumenter.FrameClassGenerators.loadResidentLocal;
+import static com.offbynull.coroutines.instrumenter.FrameClassGenerators.storeResidentLocal;
+import com.offbynull.coroutines.instrumenter.asm.VariableTable.Variable;
 import java.util.List;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.IincInsnNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
 import static com.offbynull.coroutines.instrumenter.SynchronizationGenerators.enterMonitorAndStore;
 import static com.offbynull.coroutines.instrumenter.SynchronizationGenerators.exitMonitorAndDelete;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
@@ -31,6 +38,8 @@ import org.apache.commons.lang3.Validate;
 import org.objectweb.asm.tree.ClassNode;
 
 final class MethodInstrumenter {
+    
+    private static final Type OBJECT_TYPE = Type.getType(Object.class);
 
     public void instrument(ClassNode classNode, MethodNode methodNode, MethodAttributes attrs) {
         Validate.notNull(classNode);
@@ -49,6 +58,12 @@ final class MethodInstrumenter {
                 .map(x -> x.getMonitorInstruction())
                 .forEach(x -> Validate.isTrue(methodNode.instructions.contains(x)));
 
+        // Move locals in to the frame (if method has field resident locals) -- must be done before any instrumentation logic is added,
+        // instrumentation logic accesses the local variables table directly
+        if (attrs.getStorageContainerVariables().getResidentLocals().isEnabled()) {
+            moveResidentLocalsToFrame(methodNode, attrs);
+        }
+
         // Add trycatch nodes
         attrs.getContinuationPoints().stream()
                 .filter(x -> x instanceof TryCatchInvokeContinuationPoint)
@@ -96,4 +111,64 @@ final class MethodInstrumenter {
             methodNode.instructions.remove(nodeToReplace);
         }
     }
+
+    private void moveResidentLocalsToFrame(MethodNode methodNode, MethodAttributes attrs) {
+        ResidentLocals residentLocals = attrs.getStorageContainerVariables().getResidentLocals();
+        Variable frameVar = attrs.getStorageContainerVariables().getContainerVar();
+
+        for (AbstractInsnNode insnNode : methodNode.instructions.toArray()) {
+            InsnList insnsToReplaceWith;
+            if (insnNode instanceof VarInsnNode) {
+                VarInsnNode varInsnNode = (VarInsnNode) insnNode;
+                if (!residentLocals.isResident(varInsnNode.var)) {
+                    continue;
+                }
+                switch (varInsnNode.getOpcode()) {
+                    case Opcodes.ILOAD:
+                        insnsToReplaceWith = loadResidentLocal(frameVar, varInsnNode.var, Type.INT_TYPE);
+                        break;
+                    case Opcodes.LLOAD:
+                        insnsToReplaceWith = loadResidentLocal(frameVar, varInsnNode.var, Type.LONG_TYPE);
+                        break;
+                    case Opcodes.FLOAD:
+                        insnsToReplaceWith = loadResidentLocal(frameVar, varInsnNode.var, Type.FLOAT_TYPE);
+                        break;
+                    case Opcodes.DLOAD:
+                        insnsToReplaceWith = loadResidentLocal(frameVar, varInsnNode.var, Type.DOUBLE_TYPE);
+                        break;
+                    case Opcodes.ALOAD:
+                        insnsToReplaceWith = loadResidentLocal(frameVar, varInsnNode.var, residentLocals.getReferenceLoadType(varInsnNode));
+                        break;
+                    case Opcodes.ISTORE:
+                        insnsToReplaceWith = storeResidentLocal(frameVar, varInsnNode.var, Type.INT_TYPE);
+                        break;
+                    case Opcodes.LSTORE:
+                        insnsToReplaceWith = storeResidentLocal(frameVar, varInsnNode.var, Type.LONG_TYPE);
+                        break;
+                    case Opcodes.FSTORE:
+                        insnsToReplaceWith = storeResidentLocal(frameVar, varInsnNode.var, Type.FLOAT_TYPE);
+                        break;
+                    case Opcodes.DSTORE:
+                        insnsToReplaceWith = storeResidentLocal(frameVar, varInsnNode.var, Type.DOUBLE_TYPE);
+                        break;
+                    case Opcodes.ASTORE:
+                        insnsToReplaceWith = storeResidentLocal(frameVar, varInsnNode.var, OBJECT_TYPE);
+                        break;
+                    default:
+                        throw new IllegalStateException(); // should never happen (RET not possible, JSR blocks have been inlined)
+                }
+            } else if (insnNode instanceof IincInsnNode) {
+                IincInsnNode iincInsnNode = (IincInsnNode) insnNode;
+                if (!residentLocals.isResident(iincInsnNode.var)) {
+                    continue;
+                }
+                insnsToReplaceWith = incrementResidentLocal(frameVar, iincInsnNode.var, iincInsnNode.incr);
+            } else {
+                continue;
+            }
+
+            methodNode.instructions.insertBefore(insnNode, insnsToReplaceWith);
+            methodNode.instructions.remove(insnNode);
+        }
+    }
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+// Split identified methods that have too many continuation points in to pieces (if method splitting is enabled). Pieces get identified for
+// instrumentation just like the methods they were split from.
+final class MethodSplitInstrumentationPass implements InstrumentationPass {
+
+    @Override
+    public void pass(ClassNode classNode, InstrumentationState state) {
+        Validate.notNull(classNode);
+        Validate.notNull(state);
+
+        if (!state.instrumentationSettings().isMethodSplitting()) {
+            return;
+        }
+
+        MethodSplitter splitter = new MethodSplitter(state.classInformationRepository(), state.callGraph());
+
+        List<MethodNode> methodNodes = new ArrayList<>(state.methodAttributes().keySet()); // create a copy and iterate of that, otherwise
+                                                                                           // we are modifying and iterating over the
+                                                                                           // collection at the same time
+        // Go through in the order the methods appear in the class, so that pieces are named the same from run to run -- piece names feed in
+        // to method ids / versioning info
+        methodNodes.sort((x, y) -> Integer.compare(classNode.methods.indexOf(x), classNode.methods.indexOf(y)));
+        for (MethodNode methodNode : methodNodes) {
+            for (MethodNode piece : splitter.split(classNode, methodNode)) {
+                MethodAttributes existing = state.methodAttributes().putIfAbsent(piece, null);
+                Validate.validState(existing == null); // sanity check, will never happen
+            }
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter;
+
+import static com.offbynull.coroutines.instrumenter.asm.SearchUtils.findInvocationsOf;
+import static com.offbynull.coroutines.instrumenter.asm.SearchUtils.findInvocationsWithParameter;
+import static com.offbynull.coroutines.instrumenter.asm.SearchUtils.searchForOpcodes;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformationRepository;
+import com.offbynull.coroutines.instrumenter.asm.SimpleVerifier;
+import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.FieldResidentLocals;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.reflect.MethodUtils;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.Frame;
+
+// Splits methods with a large number of continuation points in to pieces, so that each piece stays small enough once instrumented for the
+// JIT to compile it (and for it to stay under the 64KB limit on the size of a method). Every piece is a normal method that takes a
+// Continuation, so each one gets instrumented on its own -- the call from one piece to the next is just another continuation point, meaning
+// that the state of each piece gets saved/restored through the Continuation like it would for any other method invocation. Each piece also
+// gets its own method id, versioning info, and frame class, just like any other method.
+//
+// Only the tail end of a method gets moved out (repeatedly, so a large method ends up as a chain of pieces)...
+//
+//   public String run(Continuation c) {                    public String run(Continuation c) {
+//       int i = 0;                                             int i = 0;
+//       i = step(c, i);                                        i = step(c, i);
+//       ...                                                    ...
+//       i = step(c, i);                           -->          return run__COROUTINES_SPLIT_0(this, c, i);
+//       ...                                                }
+//       return "done" + i;
+//   }                                                      private static synthetic String run__COROUTINES_SPLIT_0(Test t,
+//                                                                  Continuation c, int i) {
+//                                                              i = step(c, i);
+//                                                              ...
+//                                                              return "done" + i;
+//                                                          }
+//
+// ... where the locals that are live at the split point are passed in as arguments. The tail can only be moved out at a point where...
+//
+//  1. the operand stack is empty.
+//  2. no jump (or switch) crosses it -- e.g. it isn't inside of a loop or an if block.
+//  3. no try/catch block crosses it (try portion, handler, or both).
+//  4. every live local has a known type, and the Continuation is one of them.
+//
+// ... and methods that are synchronized or have MONITORENTER/MONITOREXIT instructions are never split. Methods that are mostly one big loop
+// (e.g. while (true) { switch (state) { ... } }) have no such points, so they can't be split.
+final class MethodSplitter {
+
+    // Roughly the number of continuation points that keeps a method with a handful of live locals under HotSpot's 8000 byte limit for JIT
+    // compilation once it's been instrumented.
+    private static final int MAX_CONTINUATION_POINTS = 16;
+    private static final String PIECE_NAME_MARKER = "__COROUTINES_SPLIT_";
+    private static final int PIECE_ACCESS = Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC;
+
+    private static final Type CONTINUATION_CLASS_TYPE = Type.getType(Continuation.class);
+    private static final Method CONTINUATION_SUSPEND_METHOD = MethodUtils.getAccessibleMethod(Continuation.class, "suspend");
+    private static final String FIELD_RESIDENT_LOCALS_ANNOTATION_DESC = Type.getDescriptor(FieldResidentLocals.class);
+    private static final Type OBJECT_TYPE = Type.getType(Object.class);
+    private static final String NULL_TYPE_NAME = "null"; // type given by SimpleVerifier to null constants
+
+    private final ClassInformationRepository classInfoRepo;
+    private final CallGraph callGraph;
+
+    // callGraph may be null (if call graph analysis is disabled).
+    MethodSplitter(ClassInformationRepository classInfoRepo, CallGraph callGraph) {
+        Validate.notNull(classInfoRepo);
+        this.classInfoRepo = classInfoRepo;
+        this.callGraph = callGraph;
+    }
+
+    static boolean isPieceInvocation(ClassNode classNode, MethodInsnNode methodInsnNode) {
+        Validate.notNull(classNode);
+        Validate.notNull(methodInsnNode);
+        return methodInsnNode.owner.equals(classNode.name) && methodInsnNode.name.contains(PIECE_NAME_MARKER);
+    }
+
+    // Splits methodNode if it has too many continuation points. The pieces split off get added to classNode and returned (empty if the
+    // method wasn't split).
+    List<MethodNode> split(ClassNode classNode, MethodNode methodNode) {
+        Validate.notNull(classNode);
+        Validate.notNull(methodNode);
+        Validate.isTrue(classNode.methods.contains(methodNode)); // sanity check
+
+        List<MethodNode> pieces = new ArrayList<>();
+        int nextPieceIdx = 0;
+
+        MethodNode current = methodNode;
+        while (true) {
+            if ((current.access & Opcodes.ACC_SYNCHRONIZED) != 0
+                    || !searchForOpcodes(current.instructions, Opcodes.MONITORENTER, Opcodes.MONITOREXIT).isEmpty()) {
+                break;
+            }
+
+            Set<AbstractInsnNode> contPointInsnNodes = findContinuationPoints(classNode, current);
+            if (contPointInsnNodes.size() <= MAX_CONTINUATION_POINTS) {
+                break;
+            }
+
+            Frame<BasicValue>[] frames;
+            try {
+                frames = new Analyzer<>(new SimpleVerifier(classInfoRepo)).analyze(classNode.name, current);
+            } catch (AnalyzerException ae) {
+                break; // leave it for MethodAnalyzer to report
+            }
+            BitSet[] liveLocals = LocalsLivenessAnalyzer.analyze(current);
+
+            int splitIdx = findSplitPoint(current, frames, liveLocals, contPointInsnNodes);
+            if (splitIdx == -1) {
+                break;
+            }
+
+            String pieceName;
+            do {
+                pieceName = methodNode.name + PIECE_NAME_MARKER + nextPieceIdx;
+                nextPieceIdx++;
+            } while (containsMethodWithName(classNode, pieceName));
+
+            MethodNode piece = splitAt(classNode, current, pieceName, splitIdx, frames[splitIdx], liveLocals[splitIdx]);
+            classNode.methods.add(piece);
+            pieces.add(piece);
+
+            current = piece; // piece may need further splitting
+        }
+
+        return pieces;
+    }
+
+    private Set<AbstractInsnNode> findContinuationPoints(ClassNode classNode, MethodNode methodNode) {
+        // Same as what MethodAnalyzer treats as continuation points
+        Set<AbstractInsnNode> ret = new HashSet<>();
+        ret.addAll(findInvocationsOf(methodNode.instructions, CONTINUATION_SUSPEND_METHOD));
+        for (AbstractInsnNode insnNode : findInvocationsWithParameter(methodNode.instructions, CONTINUATION_CLASS_TYPE)) {
+            if (callGraph != null
+                    && insnNode instanceof MethodInsnNode
+                    && !isPieceInvocation(classNode, (MethodInsnNode) insnNode)
+                    && !callGraph.isSuspendingInvocation((MethodInsnNode) insnNode)) {
+                continue;
+            }
+            ret.add(insnNode);
+        }
+        return ret;
+    }
+
+    // Returns the index of the instruction that the tail of the method should start at, or -1 if there's no point that it can be split at.
+    // Picks the last point that leaves at most MAX_CONTINUATION_POINTS continuation points in the head, or if there isn't one, the first
+    // point after that. Both the head and the tail must have at least 1 continuation point.
+    private int findSplitPoint(MethodNode methodNode, Frame<BasicValue>[] frames, BitSet[] liveLocals,
+            Set<AbstractInsnNode> contPointInsnNodes) {
+        InsnList insnList = methodNode.instructions;
+        int count = insnList.size();
+
+        // crossings[i] > 0 means that a jump/switch/try-catch block crosses the boundary between instruction i-1 and instruction i
+        int[] crossings = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            for (LabelNode target : getJumpTargets(insnList.get(i))) {
+                addCrossing(crossings, i, insnList.indexOf(target));
+            }
+        }
+        for (TryCatchBlockNode tryCatchBlockNode : methodNode.tryCatchBlocks) {
+            int start = insnList.indexOf(tryCatchBlockNode.start);
+            int end = insnList.indexOf(tryCatchBlockNode.end);
+            int handler = insnList.indexOf(tryCatchBlockNode.handler);
+            addCrossing(crossings, Math.min(start, handler), Math.max(end - 1, handler));
+        }
+        for (int i = 1; i < crossings.length; i++) {
+            crossings[i] += crossings[i - 1];
+        }
+
+        int total = contPointInsnNodes.size();
+        int headCount = 0;
+        int best = -1;
+        for (int i = 0; i < count; i++) {
+            AbstractInsnNode insnNode = insnList.get(i);
+            if (headCount > 0
+                    && headCount < total
+                    && insnNode instanceof LabelNode // start of a statement, so line numbers / local variable ranges come along with it
+                    && crossings[i] == 0
+                    && frames[i] != null
+                    && frames[i].getStackSize() == 0
+                    && isSplittableFrame(frames[i], liveLocals[i])) {
+                if (headCount <= MAX_CONTINUATION_POINTS) {
+                    best = i;
+                } else {
+                    return best != -1 ? best : i;
+                }
+            }
+
+            if (contPointInsnNodes.contains(insnNode)) {
+                headCount++;
+            }
+        }
+
+        return best;
+    }
+
+    private static void addCrossing(int[] crossings, int from, int to) {
+        // Crosses every boundary in (min, max]
+        int lo = Math.min(from, to);
+        int hi = Math.max(from, to);
+        if (lo == hi) {
+            return;
+        }
+        crossings[lo + 1]++;
+        crossings[hi + 1]--;
+    }
+
+    private static List<LabelNode> getJumpTargets(AbstractInsnNode insnNode) {
+        List<LabelNode> ret = new ArrayList<>();
+        if (insnNode instanceof JumpInsnNode) {
+            ret.add(((JumpInsnNode) insnNode).label);
+        } else if (insnNode instanceof TableSwitchInsnNode) {
+            ret.add(((TableSwitchInsnNode) insnNode).dflt);
+            ret.addAll(((TableSwitchInsnNode) insnNode).labels);
+        } else if (insnNode instanceof LookupSwitchInsnNode) {
+            ret.add(((LookupSwitchInsnNode) insnNode).dflt);
+            ret.addAll(((LookupSwitchInsnNode) insnNode).labels);
+        }
+        return ret;
+    }
+
+    // Every live local must have a known type, and one of them must be the Continuation (otherwise the piece wouldn't get instrumented).
+    private static boolean isSplittableFrame(Frame<BasicValue> frame, BitSet live) {
+        boolean continuationFound = false;
+        for (int i = 0; i < frame.getLocals(); i++) {
+            if (!live.get(i)) {
+                continue;
+            }
+            Type type = getLocalType(frame, i);
+            if (type == null) {
+                return false;
+            }
+            continuationFound |= type.equals(CONTINUATION_CLASS_TYPE);
+        }
+        return continuationFound;
+    }
+
+    // Returns null if local isn't initialized / its type isn't known.
+    private static Type getLocalType(Frame<BasicValue> frame, int idx) {
+        BasicValue value = frame.getLocal(idx);
+        if (value == null || value.getType() == null || value == BasicValue.UNINITIALIZED_VALUE) {
+            return null;
+        }
+
+        Type type = value.getType();
+        if (type.getSort() == Type.OBJECT && type.getInternalName().equals(NULL_TYPE_NAME)) {
+            return OBJECT_TYPE;
+        }
+        return type;
+    }
+
+    private static boolean containsMethodWithName(ClassNode classNode, String name) {
+        return classNode.methods.stream().anyMatch(x -> x.name.equals(name));
+    }
+
+    private static MethodNode splitAt(ClassNode classNode, MethodNode methodNode, String pieceName, int splitIdx, Frame<BasicValue> frame,
+            BitSet live) {
+        InsnList insnList = methodNode.instructions;
+        AbstractInsnNode splitInsnNode = insnList.get(splitIdx);
+
+
+
+        // Live locals at the split point become the arguments of the piece. Locals that aren't arguments keep their relative position but
+        // get shifted past the arguments, so nothing in the piece can clash.
+        List<Type> argTypes = new ArrayList<>();
+        Map<Integer, Integer> argMapping = new HashMap<>();
+        int argSlots = 0;
+        for (int i = 0; i < frame.getLocals(); i++) {
+            if (!live.get(i)) {
+                continue;
+            }
+            Type type = getLocalType(frame, i);
+            argTypes.add(type);
+            argMapping.put(i, argSlots);
+            argSlots += type.getSize();
+        }
+        Type returnType = Type.getReturnType(methodNode.desc);
+        String pieceDesc = Type.getMethodDescriptor(returnType, argTypes.toArray(new Type[argTypes.size()]));
+
+        MethodNode piece = new MethodNode(Opcodes.ASM5, PIECE_ACCESS, pieceName, pieceDesc, null,
+                methodNode.exceptions.toArray(new String[methodNode.exceptions.size()]));
+        piece.maxLocals = argSlots + methodNode.maxLocals;
+        piece.maxStack = methodNode.maxStack;
+        piece.localVariables = new ArrayList<>();
+
+        // Pieces of a method with field resident locals should also have field resident locals
+        copyFieldResidentLocalsAnnotation(methodNode.visibleAnnotations, piece, true);
+        copyFieldResidentLocalsAnnotation(methodNode.invisibleAnnotations, piece, false);
+
+
+
+        // Move tail in to piece
+        LabelNode pieceStartLabelNode = new LabelNode();
+        piece.instructions.add(pieceStartLabelNode);
+        Set<LabelNode> movedLabelNodes = new HashSet<>();
+        for (AbstractInsnNode insnNode = splitInsnNode; insnNode != null;) {
+            AbstractInsnNode nextInsnNode = insnNode.getNext();
+            insnList.remove(insnNode);
+            if (insnNode instanceof FrameNode) {
+                // skip -- locals are remapped, and frames for instrumented methods get recomputed anyway
+            } else {
+                if (insnNode instanceof VarInsnNode) {
+                    VarInsnNode varInsnNode = (VarInsnNode) insnNode;
+                    varInsnNode.var = remapLocal(varInsnNode.var, argMapping, argSlots);
+                } else if (insnNode instanceof IincInsnNode) {
+                    IincInsnNode iincInsnNode = (IincInsnNode) insnNode;
+                    iincInsnNode.var = remapLocal(iincInsnNode.var, argMapping, argSlots);
+                } else if (insnNode instanceof LabelNode) {
+                    movedLabelNodes.add((LabelNode) insnNode);
+                }
+                piece.instructions.add(insnNode);
+            }
+            insnNode = nextInsnNode;
+        }
+
+        // Try/catch blocks can't cross the split point, so they're either entirely in the head or entirely in the tail
+        for (TryCatchBlockNode tryCatchBlockNode : new ArrayList<>(methodNode.tryCatchBlocks)) {
+            if (movedLabelNodes.contains(tryCatchBlockNode.start)) {
+                methodNode.tryCatchBlocks.remove(tryCatchBlockNode);
+                piece.tryCatchBlocks.add(tryCatchBlockNode);
+            }
+        }
+
+
+
+        // Replace tail in original method with a call to the piece
+        //
+        //          return <piece>(<live locals>);
+        LabelNode headEndLabelNode = new LabelNode();
+        for (int i = 0; i < frame.getLocals(); i++) {
+            if (argMapping.containsKey(i)) {
+                insnList.add(new VarInsnNode(getLocalType(frame, i).getOpcode(Opcodes.ILOAD), i));
+            }
+        }
+        insnList.add(new MethodInsnNode(Opcodes.INVOKESTATIC, classNode.name, pieceName, pieceDesc, false));
+        insnList.add(new InsnNode(returnType.getOpcode(Opcodes.IRETURN)));
+        insnList.add(headEndLabelNode);
+
+
+
+        // Local variable table (debug info) entries that are entirely in the tail move over to the piece. Entries that cross the split
+        // point get cut off at the split point, and if the local is being passed in to the piece, a copy that covers the rest of its range
+        // gets added to the piece.
+        if (methodNode.localVariables != null) {
+            for (LocalVariableNode lvn : new ArrayList<>(methodNode.localVariables)) {
+                boolean startMoved = movedLabelNodes.contains(lvn.start);
+                boolean endMoved = movedLabelNodes.contains(lvn.end);
+                if (startMoved) {
+                    methodNode.localVariables.remove(lvn);
+                    lvn.index = remapLocal(lvn.index, argMapping, argSlots);
+                    piece.localVariables.add(lvn);
+                } else if (endMoved) {
+                    if (argMapping.containsKey(lvn.index)) {
+                        piece.localVariables.add(new LocalVariableNode(lvn.name, lvn.desc, lvn.signature, pieceStartLabelNode, lvn.end,
+                                argMapping.get(lvn.index)));
+                    }
+                    lvn.end = headEndLabelNode;
+                }
+            }
+        }
+
+        return piece;
+    }
+
+    private static int remapLocal(int idx, Map<Integer, Integer> argMapping, int argSlots) {
+        Integer mappedIdx = argMapping.get(idx);
+        return mappedIdx != null ? mappedIdx : argSlots + idx;
+    }
+
+    private static void copyFieldResidentLocalsAnnotation(List<AnnotationNode> annotationNodes, MethodNode piece, boolean visible) {
+        if (annotationNodes == null) {
+            return;
+        }
+        for (AnnotationNode annotationNode : annotationNodes) {
+            if (annotationNode.desc.equals(FIELD_RESIDENT_LOCALS_ANNOTATION_DESC)) {
+                annotationNode.accept(piece.visitAnnotation(annotationNode.desc, visible));
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter;
+
+import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.loadIntConst;
+import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.merge;
+import com.offbynull.coroutines.user.LockState;
+import com.offbynull.coroutines.user.MethodState;
+import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Utility class to generate the synthetic helper methods that create {@link MethodState}s for the {@code ARRAYS} and {@code PACKED} state
+ * layouts, along with the bytecode instructions that call them.
+ * @author Kasra Faghihi
+ */
+final class MethodStateHelperGenerators {
+    private MethodStateHelperGenerators() {
+        // do nothing
+    }
+
+    // WHY HELPER METHODS?
+    //
+    // Creating a MethodState for the ARRAYS state layout means creating a storage array for each type that needs saving, packing those
+    // arrays in to an Object[10] container, and then creating the MethodState itself. If that gets generated inline at every continuation
+    // point, a method with many continuation points quickly grows past the limits that HotSpot puts on what it'll JIT compile / inline.
+    //
+    // Instead, each class gets one synthetic static helper method for each distinct combination of storage array sizes used by the
+    // continuation points of its instrumented methods. The name of the helper encodes the sizes...
+    //
+    //   __COROUTINES_NEW_METHOD_STATE_<locals ints>_<locals floats>_<locals longs>_<locals doubles>_<locals objects>_
+    //       <stack ints>_<stack floats>_<stack longs>_<stack doubles>_<stack objects>
+    //
+    //   private static synthetic MethodState __COROUTINES_NEW_METHOD_STATE_...(int methodId, int continuationPoint, LockState lockState)
+    //
+    // ... so continuation points with the same sizes (common -- e.g. the same locals being live at several points in a loop) call the
+    // same helper. The instrumented methods only reference the helpers by name, the helpers themselves get generated once all methods in
+    // the class have been instrumented (see MethodStateHelperInstrumentationPass).
+    //
+    // The PACKED state layout gets its own helpers (prefixed with __COROUTINES_NEW_PACKED_METHOD_STATE_ but otherwise named the same
+    // way), which create the long[] for primitives and the Object[] for objects instead (see PackedLayoutGenerators).
+    //
+    // Only the creation of storage is moved out. Saving/loading individual locals and operand stack items has to stay inline because a
+    // called method can't touch the local variables table / operand stack of its caller.
+
+    private static final String HELPER_NAME_PREFIX = "__COROUTINES_NEW_METHOD_STATE_";
+    private static final String PACKED_HELPER_NAME_PREFIX = "__COROUTINES_NEW_PACKED_METHOD_STATE_";
+    private static final String HELPER_DESC = Type.getMethodDescriptor(Type.getType(MethodState.class),
+            Type.INT_TYPE, Type.INT_TYPE, Type.getType(LockState.class));
+    private static final int HELPER_ACCESS = Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC;
+    private static final int CONTAINER_SIZE = 10;
+
+    /**
+     * Checks if a method is a helper generated by this class.
+     * @param name name of method
+     * @param desc descriptor of method
+     * @return {@code true} if the method is a helper generated by this class, {@code false} otherwise
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static boolean isHelperMethod(String name, String desc) {
+        Validate.notNull(name);
+        Validate.notNull(desc);
+        return (name.startsWith(HELPER_NAME_PREFIX) || name.startsWith(PACKED_HELPER_NAME_PREFIX)) && desc.equals(HELPER_DESC);
+    }
+
+    /**
+     * Generates instructions that create a {@link MethodState} (along with the storage for its locals and operand stack) by calling the
+     * helper method for the storage sizes given.
+     * @param className internal name of the class being instrumented
+     * @param localsSizes sizes of the storage arrays for locals
+     * @param stackSizes sizes of the storage arrays for the operand stack
+     * @param methodId method id
+     * @param continuationPoint continuation point id
+     * @param loadLockStateInsnList instructions that load the lock state (or {@code null}) on to the stack
+     * @return instructions that leave the new method state on top of the stack
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static InsnList callHelper(String className, StorageSizes localsSizes, StorageSizes stackSizes, int methodId,
+            int continuationPoint, InsnList loadLockStateInsnList) {
+        Validate.notNull(className);
+        Validate.notNull(localsSizes);
+        Validate.notNull(stackSizes);
+        Validate.notNull(loadLockStateInsnList);
+
+        return merge(
+                loadIntConst(methodId),
+                loadIntConst(continuationPoint),
+                loadLockStateInsnList,
+                new MethodInsnNode(Opcodes.INVOKESTATIC, className, getHelperName(HELPER_NAME_PREFIX, localsSizes, stackSizes), HELPER_DESC,
+                        false)
+        );
+    }
+
+    /**
+     * Generates instructions that create a {@link MethodState} for the {@code PACKED} state layout (along with the packed arrays for its
+     * locals and operand stack) by calling the helper method for the storage sizes given.
+     * @param className internal name of the class being instrumented
+     * @param localsSizes sizes of the storage arrays for locals
+     * @param stackSizes sizes of the storage arrays for the operand stack
+     * @param methodId method id
+     * @param continuationPoint continuation point id
+     * @param loadLockStateInsnList instructions that load the lock state (or {@code null}) on to the stack
+     * @return instructions that leave the new method state on top of the stack
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static InsnList callPackedHelper(String className, StorageSizes localsSizes, StorageSizes stackSizes, int methodId,
+            int continuationPoint, InsnList loadLockStateInsnList) {
+        Validate.notNull(className);
+        Validate.notNull(localsSizes);
+        Validate.notNull(stackSizes);
+        Validate.notNull(loadLockStateInsnList);
+
+        return merge(
+                loadIntConst(methodId),
+                loadIntConst(continuationPoint),
+                loadLockStateInsnList,
+                new MethodInsnNode(Opcodes.INVOKESTATIC, className, getHelperName(PACKED_HELPER_NAME_PREFIX, localsSizes, stackSizes),
+                        HELPER_DESC, false)
+        );
+    }
+
+    /**
+     * Generates a helper method.
+     * @param className internal name of the class the helper is for
+     * @param leanMode {@code true} if the method states created by the helper shouldn't hold on to the class name (lean mode)
+     * @param name name of the helper (as referenced by the instructions generated by
+     * {@link #callHelper(java.lang.String, com.offbynull.coroutines.instrumenter.StorageSizes,
+     * com.offbynull.coroutines.instrumenter.StorageSizes, int, int, org.objectweb.asm.tree.InsnList) })
+     * @return helper method
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code name} isn't the name of a helper
+     */
+    public static MethodNode generateHelper(String className, boolean leanMode, String name) {
+        Validate.notNull(className);
+        Validate.notNull(name);
+        Validate.isTrue(name.startsWith(HELPER_NAME_PREFIX) || name.startsWith(PACKED_HELPER_NAME_PREFIX));
+
+        boolean packed = name.startsWith(PACKED_HELPER_NAME_PREFIX);
+        String prefix = packed ? PACKED_HELPER_NAME_PREFIX : HELPER_NAME_PREFIX;
+        String[] sizeStrs = name.substring(prefix.length()).split("_");
+        Validate.isTrue(sizeStrs.length == CONTAINER_SIZE);
+        int[] sizes = new int[CONTAINER_SIZE];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = Integer.parseInt(sizeStrs[i]);
+            Validate.isTrue(sizes[i] >= 0);
+        }
+
+        if (packed) {
+            return generatePackedHelper(className, leanMode, name, sizes);
+        }
+
+        // Args: 0 = methodId, 1 = continuationPoint, 2 = lockState. Local 3 = container.
+        //
+        //          Object[] container = new Object[10];
+        //          container[<idx>] = new <type>[<size>];  // for each size > 0 (same check as when unpacking)
+        //          return new MethodState(<class name or null if lean mode>, methodId, continuationPoint, container, lockState);
+        MethodNode methodNode = new MethodNode(Opcodes.ASM5, HELPER_ACCESS, name, HELPER_DESC, null, null);
+        InsnList insnList = methodNode.instructions;
+        insnList.add(loadIntConst(CONTAINER_SIZE));
+        insnList.add(new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"));
+        insnList.add(new VarInsnNode(Opcodes.ASTORE, 3));
+        for (int i = 0; i < sizes.length; i++) {
+            if (sizes[i] == 0) {
+                continue;
+            }
+            insnList.add(new VarInsnNode(Opcodes.ALOAD, 3));
+            insnList.add(loadIntConst(i));
+            insnList.add(loadIntConst(sizes[i]));
+            switch (i % 5) { // order of each 5 is ints, floats, longs, doubles, objects (see PackStateGenerators)
+                case 0:
+                    insnList.add(new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_INT));
+                    break;
+                case 1:
+                    insnList.add(new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_FLOAT));
+                    break;
+                case 2:
+                    insnList.add(new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_LONG));
+                    break;
+                case 3:
+                    insnList.add(new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_DOUBLE));
+                    break;
+                case 4:
+                    insnList.add(new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"));
+                    break;
+                default:
+                    throw new IllegalStateException(); // should never happen
+            }
+            insnList.add(new InsnNode(Opcodes.AASTORE));
+        }
+        insnList.add(new TypeInsnNode(Opcodes.NEW, Type.getInternalName(MethodState.class)));
+        insnList.add(new InsnNode(Opcodes.DUP));
+        insnList.add(loadClassName(className, leanMode));
+        insnList.add(new VarInsnNode(Opcodes.ILOAD, 0));
+        insnList.add(new VarInsnNode(Opcodes.ILOAD, 1));
+        insnList.add(new VarInsnNode(Opcodes.ALOAD, 3));
+        insnList.add(new VarInsnNode(Opcodes.ALOAD, 2));
+        insnList.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, Type.getInternalName(MethodState.class), "<init>",
+                Type.getMethodDescriptor(Type.VOID_TYPE, Type.getType(String.class), Type.INT_TYPE, Type.INT_TYPE,
+                        Type.getType(Object[].class), Type.getType(LockState.class)),
+                false));
+        insnList.add(new InsnNode(Opcodes.ARETURN));
+
+        // No branches, so no stack map frames needed. Max stack is reached when invoking the MethodState constructor: the new object, its
+        // dup, and 5 args.
+        methodNode.maxLocals = 4;
+        methodNode.maxStack = 7;
+
+        return methodNode;
+    }
+
+    private static MethodNode generatePackedHelper(String className, boolean leanMode, String name, int[] sizes) {
+        // The layout is the sizes as a string (one char per size, a char is 16 bits which is as high as the number of locals / operand
+        // stack items can go). It's a constant, so all method states created by this helper share the same string.
+        int primitivesSize = 0;
+        int objectsSize = 0;
+        StringBuilder layout = new StringBuilder();
+        for (int i = 0; i < sizes.length; i++) {
+            Validate.isTrue(sizes[i] <= Character.MAX_VALUE);
+            layout.append((char) sizes[i]);
+            if (i % 5 == 4) { // order of each 5 is ints, floats, longs, doubles, objects
+                objectsSize += sizes[i];
+            } else {
+                primitivesSize += sizes[i];
+            }
+        }
+
+        // Args: 0 = methodId, 1 = continuationPoint, 2 = lockState.
+        //
+        //          return new MethodState(<class name or null if lean mode>, methodId, continuationPoint,
+        //                  new long[<primitives size>],  // null if size is 0
+        //                  new Object[<objects size>],   // null if size is 0
+        //                  <layout>, lockState);
+        MethodNode methodNode = new MethodNode(Opcodes.ASM5, HELPER_ACCESS, name, HELPER_DESC, null, null);
+        InsnList insnList = methodNode.instructions;
+        insnList.add(new TypeInsnNode(Opcodes.NEW, Type.getInternalName(MethodState.class)));
+        insnList.add(new InsnNode(Opcodes.DUP));
+        insnList.add(loadClassName(className, leanMode));
+        insnList.add(new VarInsnNode(Opcodes.ILOAD, 0));
+        insnList.add(new VarInsnNode(Opcodes.ILOAD, 1));
+        if (primitivesSize == 0) {
+            insnList.add(new InsnNode(Opcodes.ACONST_NULL));
+        } else {
+            insnList.add(loadIntConst(primitivesSize));
+            insnList.add(new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_LONG));
+        }
+        if (objectsSize == 0) {
+            insnList.add(new InsnNode(Opcodes.ACONST_NULL));
+        } else {
+            insnList.add(loadIntConst(objectsSize));
+            insnList.add(new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"));
+        }
+        insnList.add(new LdcInsnNode(layout.toString()));
+        insnList.add(new VarInsnNode(Opcodes.ALOAD, 2));
+        insnList.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, Type.getInternalName(MethodState.class), "<init>",
+                Type.getMethodDescriptor(Type.VOID_TYPE, Type.getType(String.class), Type.INT_TYPE, Type.INT_TYPE,
+                        Type.getType(long[].class), Type.getType(Object[].class), Type.getType(String.class),
+                        Type.getType(LockState.class)),
+                false));
+        insnList.add(new InsnNode(Opcodes.ARETURN));
+
+        // No branches, so no stack map frames needed. Max stack is reached when invoking the MethodState constructor: the new object, its
+        // dup, and 7 args.
+        methodNode.maxLocals = 3;
+        methodNode.maxStack = 9;
+
+        return methodNode;
+    }
+
+    private static AbstractInsnNode loadClassName(String className, boolean leanMode) {
+        // The class name is only needed for serialization, so lean mode doesn't bother with it
+        if (leanMode) {
+            return new InsnNode(Opcodes.ACONST_NULL);
+        }
+        return new LdcInsnNode(className.replace('/', '.')); // '/' -> '.'   because it's non-internal format
+    }
+
+    private static String getHelperName(String prefix, StorageSizes localsSizes, StorageSizes stackSizes) {
+        return prefix
+                + localsSizes.getIntsSize() + '_'
+                + localsSizes.getFloatsSize() + '_'
+                + localsSizes.getLongsSize() + '_'
+                + localsSizes.getDoublesSize() + '_'
+                + localsSizes.getObjectsSize() + '_'
+                + stackSizes.getIntsSize() + '_'
+                + stackSizes.getFloatsSize() + '_'
+                + stackSizes.getLongsSize() + '_'
+                + stackSizes.getDoublesSize() + '_'
+                + stackSizes.getObjectsSize();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter;
+
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+// Generates the synthetic helper methods that instrumented methods call to create method states (see MethodStateHelperGenerators). Must
+// run after PerformInstrumentationPass.
+final class MethodStateHelperInstrumentationPass implements InstrumentationPass {
+
+    @Override
+    public void pass(ClassNode classNode, InstrumentationState state) {
+        Validate.notNull(classNode);
+        Validate.notNull(state);
+
+
+        // Methods attributes should be assigned at this point.
+        Validate.validState(!state.methodAttributes().isEmpty());
+        Validate.validState(state.methodAttributes().keySet().stream().allMatch(x -> x != null));
+        Validate.validState(state.methodAttributes().values().stream().allMatch(x -> x != null));
+
+        // Sanity check to make sure that we're only dealing with methodnodes in the classnode -- this should never trigger unless previous
+        // passes mess up
+        Validate.validState(classNode.methods.containsAll(state.methodAttributes().keySet()));
+
+        // Interfaces should never get this far (IdentifyInstrumentationPass skips them). If they did, the helpers would need to be public
+        // for interfaces prior to Java 9 (no private interface methods), which would add to the interface's public API.
+        Validate.validState((classNode.access & Opcodes.ACC_INTERFACE) == 0);
+
+
+        // Find the helpers referenced by instrumented methods. Sorted so that the helpers come out in the same order from run to run.
+        Set<String> helperNames = new TreeSet<>();
+        for (MethodNode methodNode : state.methodAttributes().keySet()) {
+            for (AbstractInsnNode insnNode : methodNode.instructions.toArray()) {
+                if (!(insnNode instanceof MethodInsnNode)) {
+                    continue;
+                }
+
+                MethodInsnNode methodInsnNode = (MethodInsnNode) insnNode;
+                if (methodInsnNode.getOpcode() == Opcodes.INVOKESTATIC
+                        && classNode.name.equals(methodInsnNode.owner)
+                        && MethodStateHelperGenerators.isHelperMethod(methodInsnNode.name, methodInsnNode.desc)) {
+                    helperNames.add(methodInsnNode.name);
+                }
+            }
+        }
+
+
+        // Generate them
+        for (String helperName : helperNames) {
+            MethodNode helperMethodNode = MethodStateHelperGenerators.generateHelper(classNode.name,
+                    state.instrumentationSettings().isLeanMode(), helperName);
+            classNode.methods.add(helperMethodNode);
+        }
+    }
+}
@@ -28,11 +28,13 @@ class NormalInvokeContinuationPoint implements ContinuationPoint {
     private final MethodInsnNode invokeInstruction;
     private final LabelNode continueExecutionLabel;
     private final Frame<BasicValue> frame;
+    private final boolean tailCall;
 
     NormalInvokeContinuationPoint(
             Integer lineNumber,
             MethodInsnNode invokeInstruction,
-            Frame<BasicValue> frame) {
+            Frame<BasicValue> frame,
+            boolean tailCall) {
         // lineNumber is null if it doesn't exist
         Validate.notNull(invokeInstruction);
         // stateModifierMethod is null if it doesn't exist
@@ -42,6 +44,7 @@ class NormalInvokeContinuationPoint implements ContinuationPoint {
         this.invokeInstruction = invokeInstruction;
         this.continueExecutionLabel = new LabelNode();
         this.frame = frame;
+        this.tailCall = tailCall;
     }
 
     @Override
@@ -63,5 +66,12 @@ class NormalInvokeContinuationPoint implements ContinuationPoint {
     public Frame<BasicValue> getFrame() {
         return frame;
     }
+
+    // If true, the method returns as soon as the invocation returns (the value the invocation returns is either returned as-is or
+    // discarded in favour of a void return). Nothing in the method gets used after the invocation, so the frame only contains the
+    // invocation's arguments (everything else is marked as uninitialized / removed).
+    boolean isTailCall() {
+        return tailCall;
+    }
     
 }
@@ -277,7 +277,8 @@ final class OperandStackStateGenerators {
     }
 
     /**
-     * Generates instructions to save a certain number of items from the top of the operand stack.
+     * Generates instructions to save a certain number of items from the top of the operand stack. Equivalent to calling
+     * {@code saveOperandStack(markerType, storageVars, frame, count, true)}.
      * <p>
      * The instructions generated here expect the operand stack to be fully loaded. The stack items specified by {@code frame} must actually
      * all be on the operand stack.
@@ -295,6 +296,34 @@ final class OperandStackStateGenerators {
      * or if {@code count} is larger than {@code top} (or is negative)
      */
     public static InsnList saveOperandStack(MarkerType markerType, StorageVariables storageVars, Frame<BasicValue> frame, int count) {
+        return saveOperandStack(markerType, storageVars, frame, count, true);
+    }
+
+    /**
+     * Generates instructions to save a certain number of items from the top of the operand stack.
+     * <p>
+     * The instructions generated here expect the operand stack to be fully loaded. The stack items specified by {@code frame} must actually
+     * all be on the operand stack.
+     * <p>
+     * If {@code allocateStorage} is {@code false}, the storage arrays must already be sitting in {@code storageVars} (e.g. unpacked from
+     * the container of a method state previously saved at the same continuation point) and the stack items are written directly in to
+     * them.
+     * <p>
+     * REMEMBER: The items aren't returned to the operand stack after they've been saved (they have been popped off the stack). If you want
+     * them back on the operand stack, reload using
+     * {@code loadOperandStack(markerType, storageVars, frame, frame.getStackSize() - count, frame.getStackSize() - count, count)}.
+     * @param markerType debug marker type
+     * @param storageVars variables to store operand stack in to
+     * @param frame execution frame at the instruction where the operand stack is to be saved
+     * @param count number of items to store from the stack
+     * @param allocateStorage if {@code true}, new storage arrays are created before saving
+     * @return instructions to save the operand stack to the storage variables
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code size} is larger than the number of items in the stack at {@code frame} (or is negative),
+     * or if {@code count} is larger than {@code top} (or is negative)
+     */
+    public static InsnList saveOperandStack(MarkerType markerType, StorageVariables storageVars, Frame<BasicValue> frame, int count,
+            boolean allocateStorage) {
         Validate.notNull(markerType);
         Validate.notNull(storageVars);
         Validate.notNull(frame);
@@ -322,35 +351,8 @@ final class OperandStackStateGenerators {
         // Create stack storage arrays and save them
         ret.add(merge(
                 debugMarker(markerType, "Saving operand stack (" + count + " items)"),
-                mergeIf(storageSizes.getIntsSize() > 0, () -> new Object[] {
-                    debugMarker(markerType, "Generating ints container (" + storageSizes.getIntsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getIntsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_INT),
-                    new VarInsnNode(Opcodes.ASTORE, intsVar.getIndex())
-                }),
-                mergeIf(storageSizes.getFloatsSize() > 0, () -> new Object[] {
-                    debugMarker(markerType, "Generating floats container (" + storageSizes.getFloatsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getFloatsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_FLOAT),
-                    new VarInsnNode(Opcodes.ASTORE, floatsVar.getIndex())
-                }),
-                mergeIf(storageSizes.getLongsSize() > 0, () -> new Object[] {
-                    debugMarker(markerType, "Generating longs container (" + storageSizes.getLongsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getLongsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_LONG),
-                    new VarInsnNode(Opcodes.ASTORE, longsVar.getIndex())
-                }),
-                mergeIf(storageSizes.getDoublesSize() > 0, () -> new Object[] {
-                    debugMarker(markerType, "Generating doubles container (" + storageSizes.getDoublesSize() + ")"),
-                    new LdcInsnNode(storageSizes.getDoublesSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_DOUBLE),
-                    new VarInsnNode(Opcodes.ASTORE, doublesVar.getIndex())
-                }),
-                mergeIf(storageSizes.getObjectsSize() > 0, () -> new Object[] {
-                    debugMarker(markerType, "Generating objects container (" + storageSizes.getObjectsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getObjectsSize()),
-                    new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"),
-                    new VarInsnNode(Opcodes.ASTORE, objectsVar.getIndex())
+                mergeIf(allocateStorage, () -> new Object[] {
+                    allocateOperandStackStorageArrays(markerType, storageVars, frame, count)
                 })
         ));
 
@@ -445,6 +447,66 @@ final class OperandStackStateGenerators {
     }
     
 
+    /**
+     * Generates instructions to create the storage arrays required to save a certain number of items from the top of the operand stack.
+     * @param markerType debug marker type
+     * @param storageVars variables to create storage arrays in
+     * @param frame execution frame at the instruction where the operand stack is to be saved
+     * @param count number of items that will be stored from the stack
+     * @return instructions to create storage arrays for the operand stack
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code count} is larger than the number of items in the stack at {@code frame} (or is negative)
+     */
+    public static InsnList allocateOperandStackStorageArrays(MarkerType markerType, StorageVariables storageVars,
+            Frame<BasicValue> frame, int count) {
+        Validate.notNull(markerType);
+        Validate.notNull(storageVars);
+        Validate.notNull(frame);
+        Validate.isTrue(count >= 0);
+        Validate.isTrue(count <= frame.getStackSize());
+
+        Variable intsVar = storageVars.getIntStorageVar();
+        Variable floatsVar = storageVars.getFloatStorageVar();
+        Variable longsVar = storageVars.getLongStorageVar();
+        Variable doublesVar = storageVars.getDoubleStorageVar();
+        Variable objectsVar = storageVars.getObjectStorageVar();
+
+        StorageSizes storageSizes = computeSizes(frame, frame.getStackSize() - count, count);
+
+        return merge(
+                mergeIf(storageSizes.getIntsSize() > 0, () -> new Object[] {
+                    debugMarker(markerType, "Generating ints container (" + storageSizes.getIntsSize() + ")"),
+                    new LdcInsnNode(storageSizes.getIntsSize()),
+                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_INT),
+                    new VarInsnNode(Opcodes.ASTORE, intsVar.getIndex())
+                }),
+                mergeIf(storageSizes.getFloatsSize() > 0, () -> new Object[] {
+                    debugMarker(markerType, "Generating floats container (" + storageSizes.getFloatsSize() + ")"),
+                    new LdcInsnNode(storageSizes.getFloatsSize()),
+                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_FLOAT),
+                    new VarInsnNode(Opcodes.ASTORE, floatsVar.getIndex())
+                }),
+                mergeIf(storageSizes.getLongsSize() > 0, () -> new Object[] {
+                    debugMarker(markerType, "Generating longs container (" + storageSizes.getLongsSize() + ")"),
+                    new LdcInsnNode(storageSizes.getLongsSize()),
+                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_LONG),
+                    new VarInsnNode(Opcodes.ASTORE, longsVar.getIndex())
+                }),
+                mergeIf(storageSizes.getDoublesSize() > 0, () -> new Object[] {
+                    debugMarker(markerType, "Generating doubles container (" + storageSizes.getDoublesSize() + ")"),
+                    new LdcInsnNode(storageSizes.getDoublesSize()),
+                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_DOUBLE),
+                    new VarInsnNode(Opcodes.ASTORE, doublesVar.getIndex())
+                }),
+                mergeIf(storageSizes.getObjectsSize() > 0, () -> new Object[] {
+                    debugMarker(markerType, "Generating objects container (" + storageSizes.getObjectsSize() + ")"),
+                    new LdcInsnNode(storageSizes.getObjectsSize()),
+                    new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"),
+                    new VarInsnNode(Opcodes.ASTORE, objectsVar.getIndex())
+                })
+        );
+    }
+
     /**
      * Compute sizes required for the storage arrays that will contain the operand stack at this frame.
      * @param frame frame to compute for
@@ -53,135 +53,6 @@ final class PackStateGenerators {
     //
     // See ObjectArrayVsHolderBenchmark class to see the benchmark used to determine this.
     
-    public static InsnList packStorageArrays(MarkerType markerType, Frame<BasicValue> frame, Variable containerVar,
-            StorageVariables localsStorageVars, StorageVariables operandStackStorageVars) {
-        Validate.notNull(markerType);
-        Validate.notNull(frame);
-        Validate.notNull(containerVar);
-        Validate.notNull(localsStorageVars);
-        Validate.notNull(operandStackStorageVars);
-        
-        Variable localsIntsVar = localsStorageVars.getIntStorageVar();
-        Variable localsFloatsVar = localsStorageVars.getFloatStorageVar();
-        Variable localsLongsVar = localsStorageVars.getLongStorageVar();
-        Variable localsDoublesVar = localsStorageVars.getDoubleStorageVar();
-        Variable localsObjectsVar = localsStorageVars.getObjectStorageVar();
-        Variable stackIntsVar = operandStackStorageVars.getIntStorageVar();
-        Variable stackFloatsVar = operandStackStorageVars.getFloatStorageVar();
-        Variable stackLongsVar = operandStackStorageVars.getLongStorageVar();
-        Variable stackDoublesVar = operandStackStorageVars.getDoubleStorageVar();
-        Variable stackObjectsVar = operandStackStorageVars.getObjectStorageVar();
-        
-        StorageSizes stackSizes = OperandStackStateGenerators.computeSizes(frame, 0, frame.getStackSize());
-        StorageSizes localsSizes = LocalsStateGenerators.computeSizes(frame);
-        
-        // Why are we using size > 0 vs checking to see if var != null?
-        //
-        // REMEMBER THAT the analyzer will determine the variable slots to create for storage array based on its scan of EVERY
-        // continuation/suspend point in the method. Imagine the method that we're instrumenting is this...
-        //
-        // public void example(Continuation c, String arg1) {
-        //     String var1 = "hi";
-        //     c.suspend();     
-        //
-        //     System.out.println(var1);
-        //     int var2 = 5;
-        //     c.suspend();
-        //
-        //     System.out.println(var1 + var2);
-        // }
-        //
-        // There are two continuation/suspend points. The analyzer determines that method will need to assign variable slots for
-        // localsObjectsVar+localsIntsVar. All the other locals vars will be null.
-        //
-        // If we ended up using var != null instead of size > 0, things would mess up on the first suspend(). The only variable initialized
-        // at the first suspend is var1. As such, LocalStateGenerator ONLY CREATES AN ARRAY FOR localsObjectsVar. It doesn't touch
-        // localsIntsVar because, at the first suspend(), var2 is UNINITALIZED. Nothing has been set to that variable slot.
-        //
-        //
-        // The same thing applies to the operand stack. It doesn't make sense to create arrays for operand stack types that don't exist yet
-        // at a continuation point, even though they may exist at other continuation points furhter down
-                
-        
-        // Storage arrays in to locals container
-        return merge(
-                debugMarker(markerType, "Packing storage arrays for locals and operand stack in to an Object[]"),
-                new LdcInsnNode(10),
-                new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"),
-                new VarInsnNode(Opcodes.ASTORE, containerVar.getIndex()),
-                mergeIf(localsSizes.getIntsSize() > 0, () -> new Object[] {
-                    debugMarker(markerType, "Putting locals ints in to container"),
-                    new VarInsnNode(Opcodes.ALOAD, containerVar.getIndex()),       // [Object[]]
-                    new LdcInsnNode(0),                                            // [Object[], 0]
-                    new VarInsnNode(Opcodes.ALOAD, localsIntsVar.getIndex()),      // [Object[], 0, val]
-                    new InsnNode(Opcodes.AASTORE),                                 // []
-                }),
-                mergeIf(localsSizes.getFloatsSize() > 0, () -> new Object[] {
-                    debugMarker(markerType, "Putting locals floats in to container"),
-                    new VarInsnNode(Opcodes.ALOAD, containerVar.getIndex()),       // [Object[]]
-                    new LdcInsnNode(1),                                            // [Object[], 1]
-                    new VarInsnNode(Opcodes.ALOAD, localsFloatsVar.getIndex()),    // [Object[], 1, val]
-                    new InsnNode(Opcodes.AASTORE),                                 // []
-                }),
-                mergeIf(localsSizes.getLongsSize() > 0, () -> new Object[] {
-                    debugMarker(markerType, "Putting locals longs in to container"),
-                    new VarInsnNode(Opcodes.ALOAD, containerVar.getIndex()),       // [Object[]]
-                    new LdcInsnNode(2),                                            // [Object[], 2]
-                    new VarInsnNode(Opcodes.ALOAD, localsLongsVar.getIndex()),     // [Object[], 2, val]
-                    new InsnNode(Opcodes.AASTORE),                                 // []
-                }),
-                mergeIf(localsSizes.getDoublesSize() > 0, () -> new Object[] {
-                    debugMarker(markerType, "Putting locals doubles in to container"),
-                    new VarInsnNode(Opcodes.ALOAD, containerVar.getIndex()),       // [Object[]]
-                    new LdcInsnNode(3),                                            // [Object[], 3]
-                    new VarInsnNode(Opcodes.ALOAD, localsDoublesVar.getIndex()),   // [Object[], 3, val]
-                    new InsnNode(Opcodes.AASTORE),                                 // []
-                }),
-                mergeIf(localsSizes.getObjectsSize() > 0, () -> new Object[] {
-                    debugMarker(markerType, "Putting locals objects in to container"),
-                    new VarInsnNode(Opcodes.ALOAD, containerVar.getIndex()),       // [Object[]]
-                    new LdcInsnNode(4),                                            // [Object[], 4]
-                    new VarInsnNode(Opcodes.ALOAD, localsObjectsVar.getIndex()),   // [Object[], 4, val]
-                    new InsnNode(Opcodes.AASTORE),                                 // []
-                }),
-                mergeIf(stackSizes.getIntsSize() > 0, () -> new Object[] {
-                    debugMarker(markerType, "Putting stack ints in to container"),
-                    new VarInsnNode(Opcodes.ALOAD, containerVar.getIndex()),       // [Object[]]
-                    new LdcInsnNode(5),                                            // [Object[], 5]
-                    new VarInsnNode(Opcodes.ALOAD, stackIntsVar.getIndex()),       // [Object[], 5, val]
-                    new InsnNode(Opcodes.AASTORE),                                 // []
-                }),
-                mergeIf(stackSizes.getFloatsSize() > 0, () -> new Object[] {
-                    debugMarker(markerType, "Putting stack floats in to container"),
-                    new VarInsnNode(Opcodes.ALOAD, containerVar.getIndex()),       // [Object[]]
-                    new LdcInsnNode(6),                                            // [Object[], 6]
-                    new VarInsnNode(Opcodes.ALOAD, stackFloatsVar.getIndex()),     // [Object[], 6, val]
-                    new InsnNode(Opcodes.AASTORE),                                 // []
-                }),
-                mergeIf(stackSizes.getLongsSize() > 0, () -> new Object[] {
-                    debugMarker(markerType, "Putting stack longs in to container"),
-                    new VarInsnNode(Opcodes.ALOAD, containerVar.getIndex()),       // [Object[]]
-                    new LdcInsnNode(7),                                            // [Object[], 7]
-                    new VarInsnNode(Opcodes.ALOAD, stackLongsVar.getIndex()),      // [Object[], 7, val]
-                    new InsnNode(Opcodes.AASTORE),                                 // []
-                }),
-                mergeIf(stackSizes.getDoublesSize() > 0, () -> new Object[] {
-                    debugMarker(markerType, "Putting stack doubles in to container"),
-                    new VarInsnNode(Opcodes.ALOAD, containerVar.getIndex()),       // [Object[]]
-                    new LdcInsnNode(8),                                            // [Object[], 8]
-                    new VarInsnNode(Opcodes.ALOAD, stackDoublesVar.getIndex()),    // [Object[], 8, val]
-                    new InsnNode(Opcodes.AASTORE),                                 // []
-                }),
-                mergeIf(stackSizes.getObjectsSize() > 0, () -> new Object[] {
-                    debugMarker(markerType, "Putting stack objects in to container"),
-                    new VarInsnNode(Opcodes.ALOAD, containerVar.getIndex()),       // [Object[]]
-                    new LdcInsnNode(9),                                            // [Object[], 9]
-                    new VarInsnNode(Opcodes.ALOAD, stackObjectsVar.getIndex()),    // [Object[], 9, val]
-                    new InsnNode(Opcodes.AASTORE),                                 // []
-                })
-        );
-    }
-    
     public static InsnList unpackLocalsStorageArrays(MarkerType markerType, Frame<BasicValue> frame, Variable containerVar,
             StorageVariables localsStorageVars) {
         Validate.notNull(markerType);
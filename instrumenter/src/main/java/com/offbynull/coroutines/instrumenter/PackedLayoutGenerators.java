@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter;
+
+import com.offbynull.coroutines.instrumenter.asm.VariableTable.Variable;
+import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
+import static com.offbynull.coroutines.instrumenter.generators.DebugGenerators.debugMarker;
+import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.loadIntConst;
+import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.Frame;
+
+/**
+ * Utility class to generate bytecode instructions that save/load the local variables table and operand stack to/from the packed arrays
+ * used by the {@code PACKED} state layout.
+ * @author Kasra Faghihi
+ */
+final class PackedLayoutGenerators {
+    private PackedLayoutGenerators() {
+        // do nothing
+    }
+
+    // HOW THE PACKED LAYOUT WORKS...
+    //
+    // Rather than a storage array for each type (up to 8 primitive arrays + 2 object arrays + the Object[10] container that holds them),
+    // a method frame is saved in to 2 arrays: a long[] for all primitive items and an Object[] for all object items. Primitives are widened
+    // to longs (floats/doubles go through their raw bits). Items are placed in the same order as the container returned by
+    // MethodState.getData()...
+    //
+    //   long[]:   locals ints, locals floats, locals longs, locals doubles, stack ints, stack floats, stack longs, stack doubles
+    //   Object[]: locals objects, stack objects
+    //
+    // ... where the order within each type is the same as what LocalsStateGenerators / OperandStackStateGenerators produce (locals in
+    // order of slot, operand stack items from bottom to top). MethodState converts to/from the container, so serialization is unaffected.
+
+    private static final int CATEGORY_INT = 0;
+    private static final int CATEGORY_FLOAT = 1;
+    private static final int CATEGORY_LONG = 2;
+    private static final int CATEGORY_DOUBLE = 3;
+    private static final int CATEGORY_OBJECT = 4;
+    private static final int CATEGORY_NONE = -1;
+    private static final Type[] CATEGORY_TYPES = new Type[] {Type.INT_TYPE, Type.FLOAT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE};
+
+    /**
+     * Generates instructions to save the local variables table to packed arrays.
+     * @param markerType debug marker type
+     * @param primitivesVar variable holding the {@code long[]} to save primitives in to
+     * @param objectsVar variable holding the {@code Object[]} to save objects in to
+     * @param frame execution frame at the instruction where the local variables table is to be saved
+     * @return instructions to save the local variables table in to the packed arrays
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static InsnList saveLocals(MarkerType markerType, Variable primitivesVar, Variable objectsVar, Frame<BasicValue> frame) {
+        Validate.notNull(markerType);
+        Validate.notNull(primitivesVar);
+        Validate.notNull(objectsVar);
+        Validate.notNull(frame);
+
+        int[] indices = computeIndices(frame);
+
+        InsnList ret = new InsnList();
+        ret.add(debugMarker(markerType, "Saving locals to packed arrays"));
+        for (int i = 0; i < frame.getLocals(); i++) {
+            int category = getCategory(frame.getLocal(i).getType());
+            if (category == CATEGORY_NONE) {
+                ret.add(debugMarker(markerType, "Skipping uninitialized/null value at " + i));
+                continue;
+            }
+
+            int idx = indices[i];
+            ret.add(debugMarker(markerType, "Saving LVT index " + i + " to packed index " + idx));
+            if (category == CATEGORY_OBJECT) {
+                ret.add(new VarInsnNode(Opcodes.ALOAD, objectsVar.getIndex()));                           // [Object[]]
+                ret.add(loadIntConst(idx));                                                               // [Object[], idx]
+                ret.add(new VarInsnNode(Opcodes.ALOAD, i));                                               // [Object[], idx, val]
+                ret.add(new InsnNode(Opcodes.AASTORE));                                                   // []
+            } else {
+                ret.add(new VarInsnNode(Opcodes.ALOAD, primitivesVar.getIndex()));                        // [long[]]
+                ret.add(loadIntConst(idx));                                                               // [long[], idx]
+                ret.add(new VarInsnNode(CATEGORY_TYPES[category].getOpcode(Opcodes.ILOAD), i));           // [long[], idx, val]
+                ret.add(toLong(category));                                                                // [long[], idx, long]
+                ret.add(new InsnNode(Opcodes.LASTORE));                                                   // []
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Generates instructions to load the local variables table from packed arrays.
+     * @param markerType debug marker type
+     * @param primitivesVar variable holding the {@code long[]} to load primitives from
+     * @param objectsVar variable holding the {@code Object[]} to load objects from
+     * @param frame execution frame at the instruction for which the local variables table is to be restored
+     * @return instructions to load the local variables table from the packed arrays
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static InsnList loadLocals(MarkerType markerType, Variable primitivesVar, Variable objectsVar, Frame<BasicValue> frame) {
+        Validate.notNull(markerType);
+        Validate.notNull(primitivesVar);
+        Validate.notNull(objectsVar);
+        Validate.notNull(frame);
+
+        int[] indices = computeIndices(frame);
+
+        InsnList ret = new InsnList();
+        ret.add(debugMarker(markerType, "Loading locals from packed arrays"));
+        for (int i = 0; i < frame.getLocals(); i++) {
+            Type type = frame.getLocal(i).getType();
+            // Same as LocalsStateGenerators -- uninitialized slots are skipped, 'Lnull;' slots get null put in to them
+            if (type != null && "Lnull;".equals(type.getDescriptor())) {
+                ret.add(debugMarker(markerType, "Putting null value at " + i));
+                ret.add(new InsnNode(Opcodes.ACONST_NULL));
+                ret.add(new VarInsnNode(Opcodes.ASTORE, i));
+                continue;
+            }
+
+            int category = getCategory(type);
+            if (category == CATEGORY_NONE) {
+                ret.add(debugMarker(markerType, "Skipping uninitialized value at " + i));
+                continue;
+            }
+
+            int idx = indices[i];
+            ret.add(debugMarker(markerType, "Loading LVT index " + i + " from packed index " + idx));
+            ret.add(loadItem(primitivesVar, objectsVar, type, category, idx));                            // [val]
+            ret.add(new VarInsnNode(category == CATEGORY_OBJECT
+                    ? Opcodes.ASTORE
+                    : CATEGORY_TYPES[category].getOpcode(Opcodes.ISTORE), i));                            // []
+        }
+        return ret;
+    }
+
+    /**
+     * Generates instructions to save the entire operand stack to packed arrays. The items are popped off the operand stack.
+     * @param markerType debug marker type
+     * @param primitivesVar variable holding the {@code long[]} to save primitives in to
+     * @param objectsVar variable holding the {@code Object[]} to save objects in to
+     * @param frame execution frame at the instruction where the operand stack is to be saved
+     * @return instructions to save the operand stack in to the packed arrays
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static InsnList saveOperandStack(MarkerType markerType, Variable primitivesVar, Variable objectsVar, Frame<BasicValue> frame) {
+        Validate.notNull(markerType);
+        Validate.notNull(primitivesVar);
+        Validate.notNull(objectsVar);
+        Validate.notNull(frame);
+
+        int[] indices = computeIndices(frame);
+
+        InsnList ret = new InsnList();
+        ret.add(debugMarker(markerType, "Saving operand stack to packed arrays (" + frame.getStackSize() + " items)"));
+        for (int i = frame.getStackSize() - 1; i >= 0; i--) {
+            int category = getCategory(frame.getStack(i).getType());
+            // Same as OperandStackStateGenerators -- 'Lnull;' items don't need to be saved, null gets pushed back in when loading
+            if (category == CATEGORY_NONE) {
+                ret.add(debugMarker(markerType, "Skipping null value at " + i));
+                ret.add(new InsnNode(Opcodes.POP));
+                continue;
+            }
+
+            int idx = indices[frame.getLocals() + i];
+            ret.add(debugMarker(markerType, "Popping/storing item at " + i + " to packed index " + idx));
+            if (category == CATEGORY_OBJECT) {
+                ret.add(new VarInsnNode(Opcodes.ALOAD, objectsVar.getIndex()));        // [val, Object[]]
+                ret.add(new InsnNode(Opcodes.SWAP));                                   // [Object[], val]
+                ret.add(loadIntConst(idx));                                            // [Object[], val, idx]
+                ret.add(new InsnNode(Opcodes.SWAP));                                   // [Object[], idx, val]
+                ret.add(new InsnNode(Opcodes.AASTORE));                                // []
+            } else {
+                ret.add(toLong(category));                                             // [long_PART1, long_PART2]
+                ret.add(new VarInsnNode(Opcodes.ALOAD, primitivesVar.getIndex()));     // [long_PART1, long_PART2, long[]]
+                ret.add(new InsnNode(Opcodes.DUP_X2));                                 // [long[], long_PART1, long_PART2, long[]]
+                ret.add(new InsnNode(Opcodes.POP));                                    // [long[], long_PART1, long_PART2]
+                ret.add(loadIntConst(idx));                                            // [long[], long_PART1, long_PART2, idx]
+                ret.add(new InsnNode(Opcodes.DUP_X2));                                 // [long[], idx, long_PART1, long_PART2, idx]
+                ret.add(new InsnNode(Opcodes.POP));                                    // [long[], idx, long_PART1, long_PART2]
+                ret.add(new InsnNode(Opcodes.LASTORE));                                // []
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Generates instructions to load a certain number of items from packed arrays on to the top of the operand stack.
+     * @param markerType debug marker type
+     * @param primitivesVar variable holding the {@code long[]} to load primitives from
+     * @param objectsVar variable holding the {@code Object[]} to load objects from
+     * @param frame execution frame at the instruction where the operand stack is to be loaded
+     * @param storageStackLoadIdx stack position where loading should start from
+     * @param count number of stack items to load
+     * @return instructions to load the operand stack from the packed arrays
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if any numeric argument is negative, or if you're trying to load too many items on the stack (such
+     * that it goes past {@code frame.getStackSize()})
+     */
+    public static InsnList loadOperandStack(MarkerType markerType, Variable primitivesVar, Variable objectsVar, Frame<BasicValue> frame,
+            int storageStackLoadIdx, int count) {
+        Validate.notNull(markerType);
+        Validate.notNull(primitivesVar);
+        Validate.notNull(objectsVar);
+        Validate.notNull(frame);
+        Validate.isTrue(storageStackLoadIdx >= 0);
+        Validate.isTrue(count >= 0);
+        Validate.isTrue(storageStackLoadIdx + count <= frame.getStackSize());
+
+        int[] indices = computeIndices(frame);
+
+        InsnList ret = new InsnList();
+        ret.add(debugMarker(markerType, "Loading stack items from packed arrays"));
+        for (int i = storageStackLoadIdx; i < storageStackLoadIdx + count; i++) {
+            Type type = frame.getStack(i).getType();
+            int category = getCategory(type);
+            if (category == CATEGORY_NONE) {
+                ret.add(debugMarker(markerType, "Loading null value at " + i));
+                ret.add(new InsnNode(Opcodes.ACONST_NULL));
+                continue;
+            }
+
+            int idx = indices[frame.getLocals() + i];
+            ret.add(debugMarker(markerType, "Loading item at " + i + " from packed index " + idx));
+            ret.add(loadItem(primitivesVar, objectsVar, type, category, idx));
+        }
+        return ret;
+    }
+
+    private static InsnList loadItem(Variable primitivesVar, Variable objectsVar, Type type, int category, int idx) {
+        InsnList ret = new InsnList();
+        if (category == CATEGORY_OBJECT) {
+            ret.add(new VarInsnNode(Opcodes.ALOAD, objectsVar.getIndex()));                               // [Object[]]
+            ret.add(loadIntConst(idx));                                                                   // [Object[], idx]
+            ret.add(new InsnNode(Opcodes.AALOAD));                                                        // [val]
+            // must cast, otherwise the jvm won't know the type of the item
+            ret.add(new TypeInsnNode(Opcodes.CHECKCAST, type.getInternalName()));
+        } else {
+            ret.add(new VarInsnNode(Opcodes.ALOAD, primitivesVar.getIndex()));                            // [long[]]
+            ret.add(loadIntConst(idx));                                                                   // [long[], idx]
+            ret.add(new InsnNode(Opcodes.LALOAD));                                                        // [long]
+            ret.add(fromLong(category));                                                                  // [val]
+        }
+        return ret;
+    }
+
+    private static InsnList toLong(int category) {
+        InsnList ret = new InsnList();
+        switch (category) {
+            case CATEGORY_INT:
+                ret.add(new InsnNode(Opcodes.I2L));
+                break;
+            case CATEGORY_FLOAT:
+                ret.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "java/lang/Float", "floatToRawIntBits", "(F)I", false));
+                ret.add(new InsnNode(Opcodes.I2L));
+                break;
+            case CATEGORY_LONG:
+                break;
+            case CATEGORY_DOUBLE:
+                ret.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "java/lang/Double", "doubleToRawLongBits", "(D)J", false));
+                break;
+            default:
+                throw new IllegalStateException(); // should never happen
+        }
+        return ret;
+    }
+
+    private static InsnList fromLong(int category) {
+        InsnList ret = new InsnList();
+        switch (category) {
+            case CATEGORY_INT:
+                ret.add(new InsnNode(Opcodes.L2I));
+                break;
+            case CATEGORY_FLOAT:
+                ret.add(new InsnNode(Opcodes.L2I));
+                ret.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "java/lang/Float", "intBitsToFloat", "(I)F", false));
+                break;
+            case CATEGORY_LONG:
+                break;
+            case CATEGORY_DOUBLE:
+                ret.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "java/lang/Double", "longBitsToDouble", "(J)D", false));
+                break;
+            default:
+                throw new IllegalStateException(); // should never happen
+        }
+        return ret;
+    }
+
+    // Returns the index in to the long[] / Object[] of each local variable slot followed by each operand stack position (only meaningful
+    // for items that get saved).
+    private static int[] computeIndices(Frame<BasicValue> frame) {
+        StorageSizes localsSizes = LocalsStateGenerators.computeSizes(frame);
+        StorageSizes stackSizes = OperandStackStateGenerators.computeSizes(frame, 0, frame.getStackSize());
+
+        // Next free index for each category, for locals and then for operand stack
+        int[] localsNext = new int[5];
+        int[] stackNext = new int[5];
+        localsNext[CATEGORY_INT] = 0;
+        localsNext[CATEGORY_FLOAT] = localsNext[CATEGORY_INT] + localsSizes.getIntsSize();
+        localsNext[CATEGORY_LONG] = localsNext[CATEGORY_FLOAT] + localsSizes.getFloatsSize();
+        localsNext[CATEGORY_DOUBLE] = localsNext[CATEGORY_LONG] + localsSizes.getLongsSize();
+        stackNext[CATEGORY_INT] = localsNext[CATEGORY_DOUBLE] + localsSizes.getDoublesSize();
+        stackNext[CATEGORY_FLOAT] = stackNext[CATEGORY_INT] + stackSizes.getIntsSize();
+        stackNext[CATEGORY_LONG] = stackNext[CATEGORY_FLOAT] + stackSizes.getFloatsSize();
+        stackNext[CATEGORY_DOUBLE] = stackNext[CATEGORY_LONG] + stackSizes.getLongsSize();
+        localsNext[CATEGORY_OBJECT] = 0;
+        stackNext[CATEGORY_OBJECT] = localsSizes.getObjectsSize();
+
+        int[] ret = new int[frame.getLocals() + frame.getStackSize()];
+        for (int i = 0; i < frame.getLocals(); i++) {
+            int category = getCategory(frame.getLocal(i).getType());
+            ret[i] = category == CATEGORY_NONE ? -1 : localsNext[category]++;
+        }
+        for (int i = 0; i < frame.getStackSize(); i++) {
+            int category = getCategory(frame.getStack(i).getType());
+            ret[frame.getLocals() + i] = category == CATEGORY_NONE ? -1 : stackNext[category]++;
+        }
+        return ret;
+    }
+
+    private static int getCategory(Type type) {
+        // If type == null, it's an uninitialized slot. If type is 'Lnull;', the slot always contains null at this point. Neither need to be
+        // saved (see LocalsStateGenerators / OperandStackStateGenerators).
+        if (type == null || "Lnull;".equals(type.getDescriptor())) {
+            return CATEGORY_NONE;
+        }
+
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+            case Type.BYTE:
+            case Type.SHORT:
+            case Type.CHAR:
+            case Type.INT:
+                return CATEGORY_INT;
+            case Type.FLOAT:
+                return CATEGORY_FLOAT;
+            case Type.LONG:
+                return CATEGORY_LONG;
+            case Type.DOUBLE:
+                return CATEGORY_DOUBLE;
+            case Type.ARRAY:
+            case Type.OBJECT:
+                return CATEGORY_OBJECT;
+            case Type.METHOD:
+            case Type.VOID:
+            default:
+                throw new IllegalStateException();
+        }
+    }
+}
@@ -16,12 +16,23 @@
  */
 package com.offbynull.coroutines.instrumenter;
 
+import com.offbynull.coroutines.instrumenter.InstrumentationManifest.RecordingClassInformationRepository;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformationRepository;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Consumer;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.Validate;
@@ -74,7 +85,10 @@ public final class PluginHelper {
 
     /**
      * Instruments class files and generates detail files. Detail files are placed alongside destination class files -- they have the same
-     * name but the extension will be changed to {@code .coroutinesinfo}.
+     * name but the extension will be changed to {@code .coroutinesinfo}. This method is equivalent to calling...
+     * <pre>
+     * instrument(instrumenter, settings, srcDstMapping, logger, 1);
+     * </pre>
      * @param instrumenter instrumenter
      * @param settings instrumentation settings
      * @param srcDstMapping class files to instrument mapped to destination files where the final instrumented results will be placed
@@ -85,44 +99,213 @@ public final class PluginHelper {
      */
     public static void instrument(Instrumenter instrumenter, InstrumentationSettings settings, Map<File, File> srcDstMapping,
             Consumer<String> logger) throws IOException {
+        instrument(instrumenter, settings, srcDstMapping, logger, 1);
+    }
+
+    /**
+     * Instruments class files and generates detail files. Detail files are placed alongside destination class files -- they have the same
+     * name but the extension will be changed to {@code .coroutinesinfo}.
+     * <p>
+     * If {@code parallelism} is greater than 1, class files are instrumented concurrently on a fork/join pool with that many threads. Each
+     * class file is instrumented independently of the others, so the {@link ClassInformationRepository} backing {@code instrumenter} must
+     * be safe to access from multiple threads (the built-in repositories are). Regardless of the parallelism level, class files are
+     * processed/logged in order of their source path and if multiple class files fail to instrument the failure reported is the one that
+     * comes first in that order.
+     * @param instrumenter instrumenter
+     * @param settings instrumentation settings
+     * @param srcDstMapping class files to instrument mapped to destination files where the final instrumented results will be placed
+     * @param logger logger to dump messages to (if any)
+     * @param parallelism maximum number of class files to instrument at the same time
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if a source class file doesn't exist, or if {@code parallelism < 1}
+     * @throws IOException on IO error
+     */
+    public static void instrument(Instrumenter instrumenter, InstrumentationSettings settings, Map<File, File> srcDstMapping,
+            Consumer<String> logger, int parallelism) throws IOException {
         Validate.notNull(instrumenter);
+        Validate.notNull(settings);
         Validate.notNull(srcDstMapping);
         Validate.notNull(logger);
+        Validate.isTrue(parallelism >= 1);
 
-        for (Entry<File, File> e : srcDstMapping.entrySet()) {
-            File inputFile = e.getKey();
-            File outputFile = e.getValue();
-            File outputDir = outputFile.getParentFile();
+        CallGraph callGraph = createCallGraph(instrumenter, settings, srcDstMapping);
+        instrumentAll(instrumenter, settings, callGraph, srcDstMapping, null, logger, parallelism);
+    }
 
+    /**
+     * Incrementally instruments class files and generates detail files. Detail files are placed alongside destination class files -- they
+     * have the same name but the extension will be changed to {@code .coroutinesinfo}.
+     * <p>
+     * This method behaves the same as {@link #instrument(Instrumenter, InstrumentationSettings, Map, Consumer, int) }, except that it
+     * keeps a manifest of the class files it's processed. Class files that haven't changed since the last time they were processed are
+     * skipped, along with their detail files. A class file is considered changed if...
+     * <ul>
+     * <li>its contents have changed.</li>
+     * <li>its destination class file or detail files have changed or are missing.</li>
+     * <li>the class hierarchy information the instrumenter used for it has changed (e.g. a class it references had its superclass or
+     * interfaces changed).</li>
+     * <li>the version of the instrumenter or the instrumentation settings have changed (in which case all class files are considered
+     * changed).</li>
+     * <li>call graph analysis is enabled and the results of the analysis have changed (in which case all class files are considered
+     * changed).</li>
+     * </ul>
+     * Note that a class file that's already instrumented (e.g. when instrumenting in place and the class file wasn't recompiled) can't be
+     * instrumented again, regardless of what's changed.
+     * @param instrumenter instrumenter
+     * @param settings instrumentation settings
+     * @param srcDstMapping class files to instrument mapped to destination files where the final instrumented results will be placed
+     * @param manifestFile manifest file to read from and write to (created if it doesn't exist)
+     * @param logger logger to dump messages to (if any)
+     * @param parallelism maximum number of class files to instrument at the same time
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if a source class file doesn't exist, or if {@code parallelism < 1}
+     * @throws IOException on IO error
+     */
+    public static void instrument(Instrumenter instrumenter, InstrumentationSettings settings, Map<File, File> srcDstMapping,
+            File manifestFile, Consumer<String> logger, int parallelism) throws IOException {
+        Validate.notNull(instrumenter);
+        Validate.notNull(settings);
+        Validate.notNull(srcDstMapping);
+        Validate.notNull(manifestFile);
+        Validate.notNull(logger);
+        Validate.isTrue(parallelism >= 1);
+
+        CallGraph callGraph = createCallGraph(instrumenter, settings, srcDstMapping);
+        InstrumentationManifest manifest = InstrumentationManifest.load(manifestFile, settings, callGraph);
+        instrumentAll(instrumenter, settings, callGraph, srcDstMapping, manifest, logger, parallelism);
+        manifest.save(manifestFile); // only saved if everything succeeded
+    }
+
+    // Returns null if call graph analysis is disabled. Every class file is read in to build the call graph, so a class file that's changed
+    // can affect how other class files (even ones that haven't changed) get instrumented.
+    private static CallGraph createCallGraph(Instrumenter instrumenter, InstrumentationSettings settings, Map<File, File> srcDstMapping)
+            throws IOException {
+        if (!settings.isCallGraphAnalysis()) {
+            return null;
+        }
+
+        List<byte[]> classFiles = new ArrayList<>(srcDstMapping.size());
+        for (File inputFile : srcDstMapping.keySet()) {
             Validate.notNull(inputFile);
-            Validate.notNull(outputFile);
             Validate.isTrue(inputFile.isFile());
-            // output file may not exists or it may exist (e.g. if we're writing out to the same location)
-
-            byte[] input = FileUtils.readFileToByteArray(inputFile);
-            
-            InstrumentationResult result = instrumenter.instrument(input, settings);
-            
-            byte[] output = result.getInstrumentedClass();
-            Map<String, byte[]> extraOutputs = result.getExtraFiles();
-            
-            if (input.length == output.length) { // condition that determines if no instrumentation happened
-                continue;
+            classFiles.add(FileUtils.readFileToByteArray(inputFile));
+        }
+        return CallGraph.create(classFiles, instrumenter.classRepository());
+    }
+
+    private static void instrumentAll(Instrumenter instrumenter, InstrumentationSettings settings, CallGraph callGraph,
+            Map<File, File> srcDstMapping, InstrumentationManifest manifest, Consumer<String> logger, int parallelism)
+            throws IOException {
+        // Sort so that output/logging don't depend on the map's iteration order or the order in which threads finish.
+        List<Entry<File, File>> entries = new ArrayList<>(srcDstMapping.entrySet());
+        for (Entry<File, File> e : entries) {
+            Validate.notNull(e.getKey());
+            Validate.notNull(e.getValue());
+        }
+        entries.sort(Comparator.comparing(e -> e.getKey().getAbsolutePath()));
+
+        if (parallelism == 1 || entries.size() <= 1) {
+            for (Entry<File, File> e : entries) {
+                String message = instrumentFile(instrumenter, settings, callGraph, manifest, e.getKey(), e.getValue());
+                if (message != null) {
+                    logger.accept(message);
+                }
+            }
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<String>> tasks = new ArrayList<>(entries.size());
+            for (Entry<File, File> e : entries) {
+                tasks.add(pool.submit(() -> instrumentFile(instrumenter, settings, callGraph, manifest, e.getKey(), e.getValue())));
             }
 
-            FileUtils.writeByteArrayToFile(outputFile, output);
-            for (Entry<String, byte[]> extraOutput : extraOutputs.entrySet()) {
-                File extraFile = new File(outputDir, extraOutput.getKey());
-                byte[] extraData = extraOutput.getValue();
-                FileUtils.writeByteArrayToFile(extraFile, extraData);
+            // Join in submission order -- messages get logged in the same order as the sequential path would log them, and the first
+            // failure in that order is what gets thrown.
+            for (ForkJoinTask<String> task : tasks) {
+                String message;
+                try {
+                    message = task.get();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while instrumenting");
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause); // should never happen
+                }
+
+                if (message != null) {
+                    logger.accept(message);
+                }
             }
-            
-            logger.accept("Instrumenting " + inputFile.getAbsolutePath()
-                    + " (" + input.length + " bytes -> " + output.length + " bytes)"
-                    + (extraOutputs.isEmpty() ? "" : " with extra files " + extraOutputs.keySet()));
+        } finally {
+            pool.shutdownNow();
         }
     }
 
+    private static String instrumentFile(Instrumenter instrumenter, InstrumentationSettings settings, CallGraph callGraph,
+            InstrumentationManifest manifest, File inputFile, File outputFile) throws IOException {
+        File outputDir = outputFile.getParentFile();
+
+        Validate.isTrue(inputFile.isFile());
+        // output file may not exists or it may exist (e.g. if we're writing out to the same location)
+
+        byte[] input = FileUtils.readFileToByteArray(inputFile);
+
+        String inputHash = null;
+        RecordingClassInformationRepository recordingRepo = null;
+        InstrumentationResult result;
+        if (manifest == null) {
+            result = instrumenter.instrument(input, settings, instrumenter.classRepository(), callGraph);
+        } else {
+            inputHash = InstrumentationManifest.hash(input);
+            if (manifest.isUpToDate(inputFile, inputHash, outputFile, instrumenter.classRepository())) {
+                return null;
+            }
+
+            recordingRepo = new RecordingClassInformationRepository(instrumenter.classRepository());
+            result = instrumenter.instrument(input, settings, recordingRepo, callGraph);
+        }
+
+        byte[] output = result.getInstrumentedClass();
+        Map<String, byte[]> extraOutputs = result.getExtraFiles();
+
+        if (input.length == output.length) { // condition that determines if no instrumentation happened
+            if (manifest != null) {
+                manifest.record(inputFile, inputHash, null, emptyList(), emptyMap());
+            }
+            return null;
+        }
+
+        FileUtils.writeByteArrayToFile(outputFile, output);
+        for (Entry<String, byte[]> extraOutput : extraOutputs.entrySet()) {
+            File extraFile = new File(outputDir, extraOutput.getKey());
+            byte[] extraData = extraOutput.getValue();
+            FileUtils.writeByteArrayToFile(extraFile, extraData);
+        }
+
+        if (manifest != null) {
+            manifest.record(inputFile, inputHash, output, new ArrayList<>(extraOutputs.keySet()), recordingRepo.lookups());
+        }
+
+        StringBuilder message = new StringBuilder()
+                .append("Instrumenting ").append(inputFile.getAbsolutePath())
+                .append(" (").append(input.length).append(" bytes -> ").append(output.length).append(" bytes)")
+                .append(extraOutputs.isEmpty() ? "" : " with extra files " + extraOutputs.keySet());
+        for (String warning : result.getWarnings()) {
+            message.append(System.lineSeparator()).append("WARNING: ").append(warning);
+        }
+        return message.toString();
+    }
+
     /**
      * Instruments class files and generates detail files. This method is equivalent to calling...
      * <pre>
@@ -141,7 +324,64 @@ public final class PluginHelper {
      */
     public static void instrument(Instrumenter instrumenter, InstrumentationSettings settings, File srcDir, File dstDir,
             Consumer<String> logger) throws IOException {
+        instrument(instrumenter, settings, srcDir, dstDir, logger, 1);
+    }
+
+    /**
+     * Instruments class files and generates detail files. This method is equivalent to calling...
+     * <pre>
+     * Map&lt;File, File&gt; srcDstMapping = mapPaths(srcDir, dstDir);
+     * instrument(instrumenter, settings, srcDstMapping, logger, parallelism);
+     * </pre>
+     * @param instrumenter instrumenter
+     * @param settings instrumentation settings
+     * @param srcDir source directory
+     * @param dstDir destination directory
+     * @param logger logger to dump messages to (if any)
+     * @param parallelism maximum number of class files to instrument at the same time
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if either of the paths passed in are not directories (or if a file in {@code srcDir} was removed
+     * while this method is executing), or if {@code parallelism < 1}
+     * @throws IOException on IO error
+     */
+    public static void instrument(Instrumenter instrumenter, InstrumentationSettings settings, File srcDir, File dstDir,
+            Consumer<String> logger, int parallelism) throws IOException {
         Map<File, File> srcDstMapping = mapPaths(srcDir, dstDir);
-        instrument(instrumenter, settings, srcDstMapping, logger);
+        instrument(instrumenter, settings, srcDstMapping, logger, parallelism);
+    }
+
+    /**
+     * Instruments class files and generates detail files. If {@code incremental} is {@code false}, this method is equivalent to
+     * calling...
+     * <pre>
+     * Map&lt;File, File&gt; srcDstMapping = mapPaths(srcDir, dstDir);
+     * instrument(instrumenter, settings, srcDstMapping, logger, parallelism);
+     * </pre>
+     * Otherwise, it's equivalent to calling...
+     * <pre>
+     * Map&lt;File, File&gt; srcDstMapping = mapPaths(srcDir, dstDir);
+     * instrument(instrumenter, settings, srcDstMapping, new File(dstDir, "coroutines.manifest"), logger, parallelism);
+     * </pre>
+     * @param instrumenter instrumenter
+     * @param settings instrumentation settings
+     * @param srcDir source directory
+     * @param dstDir destination directory
+     * @param logger logger to dump messages to (if any)
+     * @param parallelism maximum number of class files to instrument at the same time
+     * @param incremental if {@code true}, skip class files that haven't changed since the last time this method was called
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if either of the paths passed in are not directories (or if a file in {@code srcDir} was removed
+     * while this method is executing), or if {@code parallelism < 1}
+     * @throws IOException on IO error
+     */
+    public static void instrument(Instrumenter instrumenter, InstrumentationSettings settings, File srcDir, File dstDir,
+            Consumer<String> logger, int parallelism, boolean incremental) throws IOException {
+        Map<File, File> srcDstMapping = mapPaths(srcDir, dstDir);
+        if (incremental) {
+            File manifestFile = new File(dstDir, InstrumentationManifest.FILE_NAME);
+            instrument(instrumenter, settings, srcDstMapping, manifestFile, logger, parallelism);
+        } else {
+            instrument(instrumenter, settings, srcDstMapping, logger, parallelism);
+        }
     }
 }
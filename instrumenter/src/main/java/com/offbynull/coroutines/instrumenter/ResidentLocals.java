@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2016, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.commons.collections4.map.UnmodifiableMap;
+import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+
+// Local variable slots that are kept in the fields of the method's frame object for as long as the method runs (field resident locals).
+// Only slots that the method writes to are made resident -- slots that are never written to (e.g. 'this' and most arguments) hold the same
+// value every time the method is invoked, including when it's invoked to restore its state, so they stay where they are.
+final class ResidentLocals {
+    private final BitSet slots;
+    private final UnmodifiableMap<Integer, Type> arguments;
+    private final UnmodifiableMap<AbstractInsnNode, Type> referenceLoadTypes;
+
+    // Not resident.
+    ResidentLocals() {
+        this(new BitSet(), new LinkedHashMap<>(), new LinkedHashMap<>());
+    }
+
+    ResidentLocals(
+            BitSet slots,                                         // slots that are resident
+            Map<Integer, Type> arguments,                         // resident slots that hold arguments -> type of argument
+            Map<AbstractInsnNode, Type> referenceLoadTypes) {     // ALOADs of resident slots -> type being loaded
+        Validate.notNull(slots);
+        Validate.notNull(arguments);
+        Validate.notNull(referenceLoadTypes);
+        Validate.isTrue(arguments.keySet().stream().allMatch(x -> slots.get(x)));
+        Validate.noNullElements(arguments.values());
+        Validate.noNullElements(referenceLoadTypes.keySet());
+        Validate.noNullElements(referenceLoadTypes.values());
+
+        this.slots = (BitSet) slots.clone();
+        this.arguments = (UnmodifiableMap<Integer, Type>) UnmodifiableMap.unmodifiableMap(new LinkedHashMap<>(arguments));
+        this.referenceLoadTypes =
+                (UnmodifiableMap<AbstractInsnNode, Type>) UnmodifiableMap.unmodifiableMap(new LinkedHashMap<>(referenceLoadTypes));
+    }
+
+    public boolean isEnabled() {
+        return !slots.isEmpty();
+    }
+
+    public boolean isResident(int slot) {
+        return slots.get(slot);
+    }
+
+    public UnmodifiableMap<Integer, Type> getArguments() {
+        return arguments;
+    }
+
+    // Returns null if the type isn't known (e.g. the instruction is unreachable).
+    public Type getReferenceLoadType(AbstractInsnNode insnNode) {
+        return referenceLoadTypes.get(insnNode);
+    }
+}
@@ -17,17 +17,18 @@
 package com.offbynull.coroutines.instrumenter;
 
 import static com.offbynull.coroutines.instrumenter.InternalFields.INSTRUMENTED_METHODID_FIELD_ACCESS;
+import static com.offbynull.coroutines.instrumenter.InternalFields.INSTRUMENTED_METHODID_FIELD_MAX_LENGTH;
+import static com.offbynull.coroutines.instrumenter.InternalFields.INSTRUMENTED_METHODID_FIELD_NAME;
 import static com.offbynull.coroutines.instrumenter.InternalFields.INSTRUMENTED_METHODID_FIELD_TYPE;
-import static com.offbynull.coroutines.instrumenter.InternalFields.INSTRUMENTED_METHODID_FIELD_VALUE;
-import static com.offbynull.coroutines.user.MethodState.getIdentifyingFieldName;
+import static com.offbynull.coroutines.user.MethodState.getIdentifyingFieldValue;
 import org.objectweb.asm.tree.ClassNode;
-import java.util.Map;
-import org.apache.commons.collections4.list.UnmodifiableList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
 import org.apache.commons.lang3.Validate;
 import org.objectweb.asm.tree.FieldNode;
-import org.objectweb.asm.tree.MethodNode;
 
-// Adds fields used by serializer/deserializer to identify which version of the method its working with.
+// Adds field used by serializer/deserializer to identify which version of the method its working with.
 final class SerializationPostInstrumentationPass implements InstrumentationPass {
 
     @Override
@@ -46,24 +47,38 @@ final class SerializationPostInstrumentationPass implements InstrumentationPass
         Validate.validState(classNode.methods.containsAll(state.methodAttributes().keySet()));
 
 
-        // Generate the fields needed by the serializer/deserializer
-        for (Map.Entry<MethodNode, MethodAttributes> method : state.methodAttributes().entrySet()) {            
-            MethodAttributes methodAttrs = method.getValue();
-            
-            UnmodifiableList<ContinuationPoint> continuationPoints =  methodAttrs.getContinuationPoints();
-            
-            // Shove in versioning info for the method as a fields on the class. 
-            int methodId = methodAttrs.getSignature().getMethodId();
-            for (int i = 0; i < continuationPoints.size(); i++) {
-                int continuationPointId = i;
-                FieldNode methodIdField = new FieldNode(
-                        INSTRUMENTED_METHODID_FIELD_ACCESS,
-                        getIdentifyingFieldName(methodId, continuationPointId),
-                        INSTRUMENTED_METHODID_FIELD_TYPE.getDescriptor(),
-                        null,
-                        INSTRUMENTED_METHODID_FIELD_VALUE);
-                classNode.fields.add(methodIdField);
-            }
+        // Should we skip this? (lean mode doesn't support serialization)
+        if (state.instrumentationSettings().isLeanMode()) {
+            return;
         }
+
+
+        // Collect versioning info for each method -- continuation point ids are always 0 to n-1, so only the count needs to be kept. Sorted
+        // so that the output is the same between runs (methodAttributes is keyed by MethodNode, which has no stable iteration order).
+        List<MethodAttributes> methodAttrsList = state.methodAttributes().values().stream()
+                .sorted(Comparator.comparingInt(x -> x.getSignature().getMethodId()))
+                .collect(Collectors.toList());
+        int[] methodIds = new int[methodAttrsList.size()];
+        int[] continuationPointCounts = new int[methodAttrsList.size()];
+        for (int i = 0; i < methodAttrsList.size(); i++) {
+            MethodAttributes methodAttrs = methodAttrsList.get(i);
+            methodIds[i] = methodAttrs.getSignature().getMethodId();
+            continuationPointCounts[i] = methodAttrs.getContinuationPoints().size();
+        }
+
+
+        // Shove in versioning info for all methods as a single constant field on the class. Constant strings get stored in the constant
+        // pool as modified UTF-8, which has a max size of 65535 bytes (every char we write is ASCII so length == bytes).
+        String value = getIdentifyingFieldValue(methodIds, continuationPointCounts);
+        Validate.validState(value.length() <= INSTRUMENTED_METHODID_FIELD_MAX_LENGTH,
+                "Too many instrumented methods in class %s to fit identifying field", classNode.name);
+
+        FieldNode methodIdField = new FieldNode(
+                INSTRUMENTED_METHODID_FIELD_ACCESS,
+                INSTRUMENTED_METHODID_FIELD_NAME,
+                INSTRUMENTED_METHODID_FIELD_TYPE.getDescriptor(),
+                null,
+                value);
+        classNode.fields.add(methodIdField);
     }
 }
@@ -41,6 +41,12 @@ final class SerializationPreInstrumentationPass implements InstrumentationPass {
         Validate.validState(classNode.methods.containsAll(state.methodAttributes().keySet()));
 
 
+        // Should we skip this? (lean mode doesn't support serialization)
+        if (state.instrumentationSettings().isLeanMode()) {
+            return;
+        }
+
+
         // Generate for the .coroutinesinfo details for the methods we're about to instrument (MUST NOT BE INSTRUMETED AT THIS POINT)
         SerializationDetailer detailer = new SerializationDetailer();
         StringBuilder details = new StringBuilder();
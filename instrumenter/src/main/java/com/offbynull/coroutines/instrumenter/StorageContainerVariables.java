@@ -20,17 +20,36 @@ import com.offbynull.coroutines.instrumenter.asm.VariableTable.Variable;
 import org.apache.commons.lang3.Validate;
 import org.objectweb.asm.Type;
 
+// The container var is an Object[] for the ARRAYS state layout, or the generated frame class for the FRAME_CLASSES state layout. For the
+// PACKED state layout, the container var is the Object[] holding objects and the primitives var is the long[] holding primitives (the
+// primitives var is null for other state layouts). Field resident locals (only possible for the FRAME_CLASSES state layout) reside in the
+// container for as long as the method runs.
 final class StorageContainerVariables {
     private final Variable containerVar;
+    private final Variable primitivesVar;
+    private final ResidentLocals residentLocals;
     
-    StorageContainerVariables(Variable containerVar) {
+    StorageContainerVariables(Variable containerVar, Variable primitivesVar, ResidentLocals residentLocals) {
         Validate.notNull(containerVar);
-        Validate.isTrue(containerVar.getType().equals(Type.getType(Object[].class)));
+        Validate.notNull(residentLocals);
+        Validate.isTrue(containerVar.getType().equals(Type.getType(Object[].class)) || containerVar.getType().getSort() == Type.OBJECT);
+        Validate.isTrue(primitivesVar == null || primitivesVar.getType().equals(Type.getType(long[].class)));
+        Validate.isTrue(!residentLocals.isEnabled() || containerVar.getType().getSort() == Type.OBJECT);
 
         this.containerVar = containerVar;
+        this.primitivesVar = primitivesVar;
+        this.residentLocals = residentLocals;
     }
 
     public Variable getContainerVar() {
         return containerVar;
     }
+
+    public Variable getPrimitivesVar() {
+        return primitivesVar;
+    }
+
+    public ResidentLocals getResidentLocals() {
+        return residentLocals;
+    }
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter.asm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.Validate;
+
+// On-disk cache of the class information contained in JARs. Each JAR gets its own index file in the cache directory (named after the hash
+// of the JAR's path). An index file is only used if the JAR's path, size, and last modified time all match what was recorded when the index
+// was written -- if any of them differ, the JAR is rescanned and the index is rewritten.
+//
+// Index file layout (DataOutputStream)...
+//   int       magic
+//   int       version
+//   UTF       JAR path
+//   long      JAR size
+//   long      JAR last modified time
+//   int       class count, followed by that many classes
+// class:
+//   UTF       name
+//   boolean   has superclass, followed by superclass name UTF if true
+//   int       interface count, followed by that many interface name UTFs
+//   boolean   is interface
+final class ClassInformationIndexCache {
+
+    private static final int MAGIC = 0x434F4349; // "COCI"
+    private static final int VERSION = 1;
+    private static final String EXTENSION = ".coroutinesindex";
+
+    private final File cacheDirectory;
+
+    ClassInformationIndexCache(File cacheDirectory) {
+        Validate.notNull(cacheDirectory);
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    // Returns null if there's no usable index for the JAR.
+    List<ClassInformation> read(File jarFile) {
+        Validate.notNull(jarFile);
+
+        File indexFile = getIndexFile(jarFile);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                return null;
+            }
+            if (!dis.readUTF().equals(jarFile.getAbsolutePath())
+                    || dis.readLong() != jarFile.length()
+                    || dis.readLong() != jarFile.lastModified()) {
+                return null;
+            }
+
+            int count = dis.readInt();
+            Validate.isTrue(count >= 0);
+            List<ClassInformation> ret = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String name = dis.readUTF();
+                String superClassName = dis.readBoolean() ? dis.readUTF() : null;
+                int interfaceCount = dis.readInt();
+                Validate.isTrue(interfaceCount >= 0);
+                List<String> interfaces = new ArrayList<>(interfaceCount);
+                for (int j = 0; j < interfaceCount; j++) {
+                    interfaces.add(dis.readUTF());
+                }
+                boolean interfaceMarker = dis.readBoolean();
+                ret.add(new ClassInformation(name, superClassName, interfaces, interfaceMarker));
+            }
+            return ret;
+        } catch (IOException | RuntimeException e) {
+            return null; // corrupt or unreadable index, treat as missing
+        }
+    }
+
+    // Size and last modified time must be read before the JAR is scanned (so that if the JAR changes while it's being scanned, the index
+    // won't match the next time around).
+    void write(File jarFile, long jarSize, long jarLastModified, List<ClassInformation> classInformations) throws IOException {
+        Validate.notNull(jarFile);
+        Validate.notNull(classInformations);
+        Validate.noNullElements(classInformations);
+
+        FileUtils.forceMkdir(cacheDirectory);
+
+        File indexFile = getIndexFile(jarFile);
+        File tempFile = File.createTempFile(indexFile.getName(), ".tmp", cacheDirectory);
+        try {
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                dos.writeInt(MAGIC);
+                dos.writeInt(VERSION);
+                dos.writeUTF(jarFile.getAbsolutePath());
+                dos.writeLong(jarSize);
+                dos.writeLong(jarLastModified);
+                dos.writeInt(classInformations.size());
+                for (ClassInformation ci : classInformations) {
+                    dos.writeUTF(ci.getName());
+                    dos.writeBoolean(ci.getSuperClassName() != null);
+                    if (ci.getSuperClassName() != null) {
+                        dos.writeUTF(ci.getSuperClassName());
+                    }
+                    List<String> interfaces = ci.getInterfaces();
+                    dos.writeInt(interfaces.size());
+                    for (String iface : interfaces) {
+                        dos.writeUTF(iface);
+                    }
+                    dos.writeBoolean(ci.isInterface());
+                }
+            }
+
+            // Multiple builds may be sharing the same cache directory, so move into place atomically if possible
+            try {
+                Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    private File getIndexFile(File jarFile) {
+        String name = DigestUtils.sha256Hex(jarFile.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+        return new File(cacheDirectory, name + EXTENSION);
+    }
+}
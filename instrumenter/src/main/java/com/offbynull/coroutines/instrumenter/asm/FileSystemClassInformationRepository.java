@@ -17,13 +17,15 @@
 package com.offbynull.coroutines.instrumenter.asm;
 
 import static com.offbynull.coroutines.instrumenter.asm.InternalUtils.getClassInformation;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.compress.archivers.jar.JarArchiveEntry;
 import org.apache.commons.compress.archivers.jar.JarArchiveInputStream;
 import org.apache.commons.io.FileUtils;
@@ -31,10 +33,13 @@ import org.apache.commons.lang3.Validate;
 
 /**
  * Provides information on classes contained within JARs and folders.
+ * <p>
+ * This class is thread-safe -- it can be shared between threads instrumenting classes in parallel.
  * @author Kasra Faghihi
  */
 public final class FileSystemClassInformationRepository implements ClassInformationRepository {
-    private final Map<String, ClassInformation> hierarchyMap = new HashMap<>();
+    private final Map<String, ClassInformation> hierarchyMap = new ConcurrentHashMap<>();
+    private final Map<String, JarCentralDirectory.Entry> lazyJarEntries = new ConcurrentHashMap<>(); // not yet read in to hierarchyMap
 
     /**
      * Constructs a {@link FileSystemClassInformationRepository} object and loads it up with the classes in a classpath.
@@ -50,11 +55,73 @@ public final class FileSystemClassInformationRepository implements ClassInformat
         repo.addClasspath(initialClasspath);
         return repo;
     }
+
+    /**
+     * Constructs a {@link FileSystemClassInformationRepository} object and loads it up with the classes in a classpath. Class information
+     * for JARs is cached in {@code cacheDirectory} -- if a JAR's path, size, and last modified time are unchanged from when it was cached,
+     * the cached class information is used instead of rescanning the JAR.
+     * @param initialClasspath classpath to scan for class information (can be JAR files and/or folders)
+     * @param cacheDirectory directory to cache JAR class information in (created if it doesn't exist)
+     * @return newly created {@link FileSystemClassInformationRepository} object
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null} elements
+     * @throws IOException if an IO error occurs
+     */
+    public static FileSystemClassInformationRepository create(List<File> initialClasspath, File cacheDirectory) throws IOException {
+        Validate.notNull(initialClasspath);
+        Validate.noNullElements(initialClasspath);
+        Validate.notNull(cacheDirectory);
+        FileSystemClassInformationRepository repo = new FileSystemClassInformationRepository();
+        repo.addClasspath(initialClasspath, cacheDirectory);
+        return repo;
+    }
+    
+    /**
+     * Constructs a {@link FileSystemClassInformationRepository} object and loads it up with the classes in a classpath. Unlike
+     * {@link #create(java.util.List) }, JARs aren't scanned up front. Instead, only the central directory of each JAR is read (to find out
+     * which classes it contains and where they're located), and the class information for a class is read out of its JAR the first time
+     * it's requested. Folders are still scanned up front.
+     * <p>
+     * JARs that can't be indexed this way (e.g. ZIP64 JARs) are scanned up front, same as with {@link #create(java.util.List) }. Note that
+     * JARs must not change while this repository is in use.
+     * @param initialClasspath classpath to scan for class information (can be JAR files and/or folders)
+     * @return newly created {@link FileSystemClassInformationRepository} object
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null} elements
+     * @throws IOException if an IO error occurs
+     */
+    public static FileSystemClassInformationRepository createLazy(List<File> initialClasspath) throws IOException {
+        Validate.notNull(initialClasspath);
+        Validate.noNullElements(initialClasspath);
+        FileSystemClassInformationRepository repo = new FileSystemClassInformationRepository();
+        repo.addClasspathLazily(initialClasspath);
+        return repo;
+    }
     
     @Override
     public ClassInformation getInformation(String internalClassName) {
         Validate.notNull(internalClassName);
-        return hierarchyMap.get(internalClassName);
+
+        ClassInformation ci = hierarchyMap.get(internalClassName);
+        if (ci != null || lazyJarEntries.isEmpty()) {
+            return ci;
+        }
+
+        JarCentralDirectory.Entry entry = lazyJarEntries.get(internalClassName);
+        if (entry == null) {
+            return null;
+        }
+
+        // If multiple threads read the same class at the same time, they'll all come up with the same result
+        try {
+            ci = getClassInformation(new ByteArrayInputStream(entry.load()));
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+        if (!ci.getName().equals(internalClassName)) {
+            return null; // class file is at the wrong path within the JAR
+        }
+
+        ClassInformation existing = hierarchyMap.putIfAbsent(internalClassName, ci);
+        return existing != null ? existing : ci;
     }
 
     /**
@@ -67,9 +134,10 @@ public final class FileSystemClassInformationRepository implements ClassInformat
     public void addIndividual(String className, ClassInformation classInformation) {
         Validate.notNull(className);
         Validate.notNull(classInformation);
-        Validate.isTrue(!hierarchyMap.containsKey(className));
         
-        hierarchyMap.put(className, classInformation);
+        Validate.isTrue(!lazyJarEntries.containsKey(className));
+        ClassInformation existing = hierarchyMap.putIfAbsent(className, classInformation);
+        Validate.isTrue(existing == null);
     }
 
     /**
@@ -82,9 +150,53 @@ public final class FileSystemClassInformationRepository implements ClassInformat
         Validate.notNull(classpath);
         Validate.noNullElements(classpath);
 
+        addClasspath(classpath, (ClassInformationIndexCache) null);
+    }
+
+    /**
+     * Add classes contained within a list of JAR files and folders. Note that if a duplicate class is encountered, the original is kept.
+     * Class information for JARs is cached in {@code cacheDirectory} -- if a JAR's path, size, and last modified time are unchanged from
+     * when it was cached, the cached class information is used instead of rescanning the JAR.
+     * @param classpath list of JARs and folders to scan
+     * @param cacheDirectory directory to cache JAR class information in (created if it doesn't exist)
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null} elements
+     * @throws IOException if an IO error occurs
+     */
+    public void addClasspath(List<File> classpath, File cacheDirectory) throws IOException {
+        Validate.notNull(classpath);
+        Validate.noNullElements(classpath);
+        Validate.notNull(cacheDirectory);
+
+        addClasspath(classpath, new ClassInformationIndexCache(cacheDirectory));
+    }
+
+    /**
+     * Add classes contained within a list of JAR files and folders. Note that if a duplicate class is encountered, the original is kept.
+     * JARs aren't scanned up front, class information for the classes they contain is read out the first time each class is requested (see
+     * {@link #createLazy(java.util.List) }).
+     * @param classpath list of JARs and folders to scan
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null} elements
+     * @throws IOException if an IO error occurs
+     */
+    public void addClasspathLazily(List<File> classpath) throws IOException {
+        Validate.notNull(classpath);
+        Validate.noNullElements(classpath);
+
+        for (File classpathElement : classpath) {
+            if (classpathElement.isFile()) {
+                addJarLazily(classpathElement);
+            } else if (classpathElement.isDirectory()) {
+                addDirectory(classpathElement);
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    private void addClasspath(List<File> classpath, ClassInformationIndexCache cache) throws IOException {
         for (File classpathElement : classpath) {
             if (classpathElement.isFile()) {
-                addJar(classpathElement);
+                addJar(classpathElement, cache);
             } else if (classpathElement.isDirectory()) {
                 addDirectory(classpathElement);
             } else {
@@ -107,9 +219,50 @@ public final class FileSystemClassInformationRepository implements ClassInformat
         }
     }
 
-    private void addJar(File file) throws IOException {
+    private void addJarLazily(File file) throws IOException {
+        Validate.notNull(file);
+        Validate.isTrue(file.isFile());
+
+        List<JarCentralDirectory.Entry> entries = JarCentralDirectory.read(file);
+        if (entries == null) {
+            addJar(file, null); // can't be indexed, fall back to scanning
+            return;
+        }
+
+        for (JarCentralDirectory.Entry entry : entries) {
+            String className = entry.getClassName();
+            if (!hierarchyMap.containsKey(className)) {
+                lazyJarEntries.putIfAbsent(className, entry); // if duplicate encounter, ignore
+            }
+        }
+    }
+
+    private void addJar(File file, ClassInformationIndexCache cache) throws IOException {
         Validate.notNull(file);
         Validate.isTrue(file.isFile());
+
+        if (cache == null) {
+            for (ClassInformation ci : scanJar(file)) {
+                putIfAbsent(ci);
+            }
+            return;
+        }
+
+        List<ClassInformation> classInformations = cache.read(file);
+        if (classInformations == null) {
+            long size = file.length();
+            long lastModified = file.lastModified();
+            classInformations = scanJar(file);
+            cache.write(file, size, lastModified, classInformations);
+        }
+
+        for (ClassInformation ci : classInformations) {
+            putIfAbsent(ci);
+        }
+    }
+
+    private List<ClassInformation> scanJar(File file) throws IOException {
+        List<ClassInformation> ret = new ArrayList<>();
         try (FileInputStream fis = new FileInputStream(file);
                 JarArchiveInputStream jais = new JarArchiveInputStream(fis)) {
             JarArchiveEntry entry;
@@ -118,19 +271,22 @@ public final class FileSystemClassInformationRepository implements ClassInformat
                     continue;
                 }
 
-                populateSuperClassMapping(jais);
+                ret.add(getClassInformation(jais));
             }
         }
+        return ret;
     }
     
     private void populateSuperClassMapping(final InputStream is) throws IOException {
         ClassInformation ci = getClassInformation(is);
         
-        if (hierarchyMap.containsKey(ci.getName())) {
-            // duplicate encounter, ignore
-            return;
-        }
+        putIfAbsent(ci);
+    }
 
-        hierarchyMap.put(ci.getName(), ci);
+    private void putIfAbsent(ClassInformation ci) {
+        if (lazyJarEntries.containsKey(ci.getName())) {
+            return; // encountered earlier in a JAR that was added lazily, ignore
+        }
+        hierarchyMap.putIfAbsent(ci.getName(), ci); // if duplicate encounter, ignore
     }
 }
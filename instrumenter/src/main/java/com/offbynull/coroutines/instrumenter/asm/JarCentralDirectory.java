@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter.asm;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+
+// Reads the central directory at the end of a JAR to find where each class file is located, without reading (or inflating) any of the
+// class files themselves. Class files are then read on demand by seeking directly to them.
+//
+// Only plain JARs are supported: no ZIP64, no encrypted entries, no compression methods other than STORED/DEFLATED, and no data
+// prepended to the JAR (e.g. self-extracting archives). For anything else, read() returns null and the caller should fall back to
+// streaming through the JAR.
+//
+// end of central directory record (the last 22 bytes of the JAR, not including the trailing comment):
+//   4 bytes   signature
+//   2 bytes   number of this disk
+//   2 bytes   disk where central directory starts
+//   2 bytes   number of central directory records on this disk
+//   2 bytes   total number of central directory records
+//   4 bytes   size of central directory
+//   4 bytes   offset of start of central directory
+//   2 bytes   comment length
+// central directory record:
+//   4 bytes   signature
+//   4 bytes   versions
+//   2 bytes   flags
+//   2 bytes   compression method
+//   8 bytes   last modified time/date + CRC-32
+//   4 bytes   compressed size
+//   4 bytes   uncompressed size
+//   2 bytes   file name length (n)
+//   2 bytes   extra field length (m)
+//   2 bytes   file comment length (k)
+//   12 bytes  disk number start + internal/external file attributes
+//   4 bytes   offset of local file header
+//   n+m+k     file name + extra field + file comment
+// local file header:
+//   26 bytes  signature + versions + flags + compression method + last modified time/date + CRC-32 + sizes
+//   2 bytes   file name length (n)
+//   2 bytes   extra field length (m)
+//   n+m       file name + extra field (may differ from what's in the central directory record)
+//   ...       file data
+final class JarCentralDirectory {
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int EOCD_MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int CD_SIGNATURE = 0x02014b50;
+    private static final int CD_HEADER_SIZE = 46;
+    private static final int LFH_SIGNATURE = 0x04034b50;
+    private static final int LFH_HEADER_SIZE = 30;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int FLAG_ENCRYPTED = 0x0001;
+
+    private static final String CLASS_EXTENSION = ".class";
+    private static final String VERSIONED_PREFIX = "META-INF/versions/";
+
+    private JarCentralDirectory() {
+        // do nothing
+    }
+
+    // Returns the class files in the JAR, in the order they appear in the central directory, or null if the JAR isn't supported.
+    static List<Entry> read(File file) throws IOException {
+        Validate.notNull(file);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            if (length < EOCD_SIZE) {
+                return null;
+            }
+
+            // Find the end of central directory record -- it's at the very end of the file, unless there's a comment after it
+            int tailSize = (int) Math.min(length, EOCD_SIZE + EOCD_MAX_COMMENT_SIZE);
+            byte[] tail = new byte[tailSize];
+            raf.seek(length - tailSize);
+            raf.readFully(tail);
+
+            int eocdIdx = -1;
+            for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+                if (readInt(tail, i) == EOCD_SIGNATURE && i + EOCD_SIZE + readShort(tail, i + 20) == tailSize) {
+                    eocdIdx = i;
+                    break;
+                }
+            }
+            if (eocdIdx == -1) {
+                return null;
+            }
+
+            int count = readShort(tail, eocdIdx + 10);
+            long cdSize = readInt(tail, eocdIdx + 12) & 0xFFFFFFFFL;
+            long cdOffset = readInt(tail, eocdIdx + 16) & 0xFFFFFFFFL;
+            long eocdOffset = length - tailSize + eocdIdx;
+            if (cdOffset + cdSize != eocdOffset) { // catches ZIP64 (sizes/offsets are all 0xFFFF...) and prepended data
+                return null;
+            }
+
+            byte[] cd = new byte[(int) cdSize];
+            raf.seek(cdOffset);
+            raf.readFully(cd);
+
+            List<Entry> ret = new ArrayList<>();
+            int idx = 0;
+            for (int i = 0; i < count; i++) {
+                if (idx + CD_HEADER_SIZE > cd.length || readInt(cd, idx) != CD_SIGNATURE) {
+                    return null;
+                }
+
+                int flags = readShort(cd, idx + 8);
+                int method = readShort(cd, idx + 10);
+                long compressedSize = readInt(cd, idx + 20) & 0xFFFFFFFFL;
+                long size = readInt(cd, idx + 24) & 0xFFFFFFFFL;
+                int nameLength = readShort(cd, idx + 28);
+                int extraLength = readShort(cd, idx + 30);
+                int commentLength = readShort(cd, idx + 32);
+                long localHeaderOffset = readInt(cd, idx + 42) & 0xFFFFFFFFL;
+                if (idx + CD_HEADER_SIZE + nameLength > cd.length) {
+                    return null;
+                }
+                String name = new String(cd, idx + CD_HEADER_SIZE, nameLength, StandardCharsets.UTF_8);
+                idx += CD_HEADER_SIZE + nameLength + extraLength + commentLength;
+
+                if (!name.endsWith(CLASS_EXTENSION) || name.startsWith(VERSIONED_PREFIX)) {
+                    continue;
+                }
+                if ((flags & FLAG_ENCRYPTED) != 0
+                        || (method != METHOD_STORED && method != METHOD_DEFLATED)
+                        || size > Integer.MAX_VALUE
+                        || compressedSize > Integer.MAX_VALUE) {
+                    return null;
+                }
+
+                String className = name.substring(0, name.length() - CLASS_EXTENSION.length());
+                ret.add(new Entry(file, className, localHeaderOffset, (int) compressedSize, (int) size, method));
+            }
+
+            return ret;
+        }
+    }
+
+    private static int readShort(byte[] data, int idx) {
+        return (data[idx] & 0xFF) | ((data[idx + 1] & 0xFF) << 8);
+    }
+
+    private static int readInt(byte[] data, int idx) {
+        return (data[idx] & 0xFF) | ((data[idx + 1] & 0xFF) << 8) | ((data[idx + 2] & 0xFF) << 16) | ((data[idx + 3] & 0xFF) << 24);
+    }
+
+    static final class Entry {
+        private final File file;
+        private final String className;
+        private final long localHeaderOffset;
+        private final int compressedSize;
+        private final int size;
+        private final int method;
+
+        private Entry(File file, String className, long localHeaderOffset, int compressedSize, int size, int method) {
+            this.file = file;
+            this.className = className;
+            this.localHeaderOffset = localHeaderOffset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.method = method;
+        }
+
+        // Internal class name derived from the entry's path.
+        String getClassName() {
+            return className;
+        }
+
+        // Seeks to and reads just this class file. Safe to call from multiple threads.
+        byte[] load() throws IOException {
+            // Inflater in nowrap mode may need an extra dummy byte at the end of the input (see Inflater's constructor docs), so leave room
+            byte[] compressed = new byte[compressedSize + 1];
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                byte[] header = new byte[LFH_HEADER_SIZE];
+                raf.seek(localHeaderOffset);
+                raf.readFully(header);
+                if (readInt(header, 0) != LFH_SIGNATURE) {
+                    throw new ZipException("Bad local file header for " + className + " in " + file);
+                }
+
+                int nameLength = readShort(header, 26);
+                int extraLength = readShort(header, 28);
+                raf.seek(localHeaderOffset + LFH_HEADER_SIZE + nameLength + extraLength);
+                raf.readFully(compressed, 0, compressedSize);
+            }
+
+            if (method == METHOD_STORED) {
+                return Arrays.copyOf(compressed, compressedSize);
+            }
+
+            Inflater inflater = new Inflater(true);
+            try (InputStream is = new InflaterInputStream(new ByteArrayInputStream(compressed), inflater)) {
+                byte[] data = new byte[size];
+                IOUtils.readFully(is, data);
+                return data;
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.offbynull.coroutines.instrumenter;
 
+import static com.offbynull.coroutines.instrumenter.InternalFields.INSTRUMENTED_METHODID_FIELD_NAME;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.BASIC_TYPE_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.COMPLEX_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.CONSTRUCTOR_INVOKE_TEST;
@@ -15,6 +16,7 @@ import static com.offbynull.coroutines.instrumenter.SharedConstants.JSR_EXCEPTIO
 import static com.offbynull.coroutines.instrumenter.SharedConstants.LAMBDA_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.LONG_RETURN_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.MONITOR_INVOKE_TEST;
+import static com.offbynull.coroutines.instrumenter.SharedConstants.NEST_MATE_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.NORMAL_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.NULL_TYPE_IN_LOCAL_VARIABLE_TABLE_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.NULL_TYPE_IN_OPERAND_STACK_INVOKE_TEST;
@@ -22,9 +24,15 @@ import static com.offbynull.coroutines.instrumenter.SharedConstants.PEERNETIC_FA
 import static com.offbynull.coroutines.instrumenter.SharedConstants.RECURSIVE_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.RETURN_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.SANITY_TEST;
+import static com.offbynull.coroutines.instrumenter.SharedConstants.SPLIT_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.STATIC_INVOKE_TEST;
+import static com.offbynull.coroutines.instrumenter.SharedConstants.TAIL_CALL_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.UNINITIALIZED_VARIABLE_INVOKE_TEST;
+import com.offbynull.coroutines.instrumenter.asm.ClassResourceClassInformationRepository;
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.FieldResidentLocalsMode;
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.StateLayout;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
+import com.offbynull.coroutines.instrumenter.testhelpers.TestUtils.FieldResidentLocalsAnnotator;
 import static com.offbynull.coroutines.instrumenter.testhelpers.TestUtils.getClasspath;
 import static com.offbynull.coroutines.instrumenter.testhelpers.TestUtils.loadClassesInZipResourceAndInstrument;
 import static com.offbynull.coroutines.instrumenter.testhelpers.TestUtils.readZipFromResource;
@@ -33,22 +41,38 @@ import com.offbynull.coroutines.user.Coroutine;
 import com.offbynull.coroutines.user.CoroutineRunner;
 import com.offbynull.coroutines.user.MethodState;
 import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import static org.apache.commons.lang3.reflect.ConstructorUtils.invokeConstructor;
 import static org.apache.commons.lang3.reflect.FieldUtils.readField;
 import static org.apache.commons.lang3.reflect.MethodUtils.invokeStaticMethod;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.util.Textifier;
+import org.objectweb.asm.util.TraceMethodVisitor;
 
 public final class InstrumentationTest {
 
@@ -111,6 +135,48 @@ public final class InstrumentationTest {
         performCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
     }
 
+    @Test
+    public void mustProperlySuspendWithTailCalls() throws Exception {
+        performCountTest(TAIL_CALL_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
+    }
+
+    @Test
+    public void mustProperlySuspendWithTailCallsInDebugMode() throws Exception {
+        performCountTest(TAIL_CALL_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, true, true));
+    }
+
+    @Test
+    public void mustProperlySuspendWithTailCallsWhenUsingFrameClasses() throws Exception {
+        performCountTest(TAIL_CALL_INVOKE_TEST,
+                new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                        .withStateLayout(StateLayout.FRAME_CLASSES));
+    }
+
+    @Test
+    public void mustProperlySuspendWithSplitMethods() throws Exception {
+        performCountTest(SPLIT_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                .withMethodSplitting(true));
+    }
+
+    @Test
+    public void mustProperlySuspendWithSplitMethodsInDebugMode() throws Exception {
+        performCountTest(SPLIT_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, true, true)
+                .withMethodSplitting(true));
+    }
+
+    @Test
+    public void mustProperlySuspendWithSplitMethodsWhenUsingFrameClasses() throws Exception {
+        performCountTest(SPLIT_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                .withStateLayout(StateLayout.FRAME_CLASSES)
+                .withMethodSplitting(true));
+    }
+
+    @Test
+    public void mustProperlySuspendWithNestMates() throws Exception {
+        // Compiled with Java 11 -- outer class has a NestMembers attribute and inner class has a NestHost attribute
+        performCountTest(NEST_MATE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
+    }
+
     @Test
     public void mustProperlySuspendWithInheritedMethods() throws Exception {
         performCountTest(INHERITANCE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
@@ -157,6 +223,109 @@ public final class InstrumentationTest {
     public void mustProperlySuspendInNonTrivialCoroutineWhenDebugModeSet() throws Exception {
         performCountTest(COMPLEX_TEST, new InstrumentationSettings(MarkerType.CONSTANT, true, true));
     }
+
+    @Test
+    public void mustProperlySuspendInNonTrivialCoroutineWhenUsingFrameClasses() throws Exception {
+        performCountTest(COMPLEX_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                .withStateLayout(StateLayout.FRAME_CLASSES));
+    }
+
+    @Test
+    public void mustProperlySuspendInNonTrivialCoroutineWhenUsingPackedArrays() throws Exception {
+        performCountTest(COMPLEX_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                .withStateLayout(StateLayout.PACKED));
+    }
+
+    @Test
+    public void mustProperlySuspendInNonTrivialCoroutineWhenUsingPackedArraysInDebugMode() throws Exception {
+        performCountTest(COMPLEX_TEST, new InstrumentationSettings(MarkerType.CONSTANT, true, true)
+                .withStateLayout(StateLayout.PACKED));
+    }
+
+    @Test
+    public void mustProperlySuspendWithMethodsThatOperateOnLongsWhenUsingPackedArrays() throws Exception {
+        performCountTest(LONG_RETURN_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                .withStateLayout(StateLayout.PACKED));
+    }
+
+    @Test
+    public void mustProperlySuspendWithMethodsThatOperateOnDoublesWhenUsingPackedArrays() throws Exception {
+        performDoubleCountTest(DOUBLE_RETURN_INVOKE_TEST,
+                new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                        .withStateLayout(StateLayout.PACKED));
+    }
+
+    @Test
+    public void mustProperlySuspendWithTailCallsWhenUsingPackedArrays() throws Exception {
+        performCountTest(TAIL_CALL_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                .withStateLayout(StateLayout.PACKED));
+    }
+
+    @Test
+    public void mustProperlySuspendWithSplitMethodsWhenUsingPackedArrays() throws Exception {
+        performCountTest(SPLIT_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                .withStateLayout(StateLayout.PACKED)
+                .withMethodSplitting(true));
+    }
+
+    @Test
+    public void mustProperlySuspendInNonTrivialCoroutineInLeanMode() throws Exception {
+        performCountTest(COMPLEX_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                .withLeanMode(true));
+    }
+
+    @Test
+    public void mustProperlySuspendInNonTrivialCoroutineInLeanModeWhenUsingFrameClasses() throws Exception {
+        performCountTest(COMPLEX_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                .withStateLayout(StateLayout.FRAME_CLASSES)
+                .withLeanMode(true));
+    }
+
+    @Test
+    public void mustProperlySuspendWithSplitMethodsInLeanModeWhenUsingPackedArrays() throws Exception {
+        performCountTest(SPLIT_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                .withStateLayout(StateLayout.PACKED)
+                .withMethodSplitting(true)
+                .withLeanMode(true));
+    }
+
+    @Test
+    public void mustProperlySuspendInNonTrivialCoroutineWhenUsingFieldResidentLocals() throws Exception {
+        performCountTest(COMPLEX_TEST,
+                new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                        .withStateLayout(StateLayout.FRAME_CLASSES),
+                new FieldResidentLocalsAnnotator());
+    }
+
+    @Test
+    public void mustProperlySuspendWithMethodsThatOperateOnDoublesWhenUsingFieldResidentLocals() throws Exception {
+        performDoubleCountTest(DOUBLE_RETURN_INVOKE_TEST,
+                new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                        .withStateLayout(StateLayout.FRAME_CLASSES),
+                new FieldResidentLocalsAnnotator());
+    }
+
+    @Test
+    public void mustIgnoreFieldResidentLocalsAnnotationWhenModeIsNone() throws Exception {
+        performCountTest(COMPLEX_TEST,
+                new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                        .withStateLayout(StateLayout.FRAME_CLASSES)
+                        .withFieldResidentLocalsMode(FieldResidentLocalsMode.NONE),
+                new FieldResidentLocalsAnnotator());
+    }
+
+    @Test
+    public void mustProperlySuspendWithBasicTypesInLocalVariableTableAndOperandStackWhenUsingFrameClasses() throws Exception {
+        performCountTest(BASIC_TYPE_INVOKE_TEST,
+                new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                        .withStateLayout(StateLayout.FRAME_CLASSES));
+    }
+    
+    @Test
+    public void mustProperlySuspendWithBasicTypesInLocalVariableTableAndOperandStackWhenUsingPackedArrays() throws Exception {
+        performCountTest(BASIC_TYPE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                .withStateLayout(StateLayout.PACKED));
+    }
     
     @Test
     public void mustProperlyContinueWhenExceptionOccursButIsCaughtBeforeReachingRunner() throws Exception {
@@ -260,24 +429,149 @@ public final class InstrumentationTest {
 
         assertTrue(hit);
         
-        MethodState firstPointer = (MethodState) readField(continuation, "firstPointer", true);
-        MethodState nextLoadPointer = (MethodState) readField(continuation, "nextLoadPointer", true);
-        MethodState nextUnloadPointer = (MethodState) readField(continuation, "nextUnloadPointer", true);
-        MethodState firstCutpointPointer = (MethodState) readField(continuation, "firstCutpointPointer", true);
+        MethodState[] savedStates = (MethodState[]) readField(continuation, "savedStates", true);
+        int nextLoadIdx = (int) readField(continuation, "nextLoadIdx", true);
+        int nextUnloadIdx = (int) readField(continuation, "nextUnloadIdx", true);
+        MethodState[] cutpointStates = (MethodState[]) readField(continuation, "cutpointStates", true);
+        int cutpointSize = (int) readField(continuation, "cutpointSize", true);
         assertEquals(2, continuation.getSize());
         assertNotNull(continuation.getSaved(0));
         assertNotNull(continuation.getSaved(1));
-        assertNotNull(firstPointer);
-        assertNotNull(nextLoadPointer);
-        assertTrue(firstPointer == nextLoadPointer);
-        assertNull(nextUnloadPointer);
-        assertNull(firstCutpointPointer);
+        assertTrue(savedStates[0] == continuation.getSaved(0));
+        assertTrue(savedStates[1] == continuation.getSaved(1));
+        assertNull(savedStates[2]);
+        assertEquals(0, nextLoadIdx);
+        assertEquals(-1, nextUnloadIdx);
+        assertEquals(0, cutpointSize);
+        for (MethodState cutpointState : cutpointStates) {
+            assertNull(cutpointState);
+        }
+    }
+
+    @Test
+    public void mustRollBackToOriginalStateWhenExecutionCycleFailsAfterMethodStatesReused() throws Exception {
+        performFailedCycleAfterReuseTest(new InstrumentationSettings(MarkerType.CONSTANT, false, true));
+    }
+
+    @Test
+    public void mustRollBackToOriginalStateWhenExecutionCycleFailsAfterMethodStatesReusedUsingFrameClasses() throws Exception {
+        performFailedCycleAfterReuseTest(new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                .withStateLayout(StateLayout.FRAME_CLASSES));
+    }
+
+    @Test
+    public void mustRollBackToOriginalStateWhenExecutionCycleFailsAfterMethodStatesReusedUsingPackedArrays() throws Exception {
+        performFailedCycleAfterReuseTest(new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                .withStateLayout(StateLayout.PACKED));
+    }
+
+    @Test
+    public void mustNotRollBackFieldResidentLocalsWhenExecutionCycleFails() throws Exception {
+        StringBuilder builder = new StringBuilder();
+
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                .withStateLayout(StateLayout.FRAME_CLASSES);
+        try (URLClassLoader classLoader = loadClassesInZipResourceAndInstrument(NORMAL_INVOKE_TEST + ".zip", settings,
+                new FieldResidentLocalsAnnotator())) {
+            Class<Coroutine> cls = (Class<Coroutine>) classLoader.loadClass(NORMAL_INVOKE_TEST);
+            Coroutine coroutine = invokeConstructor(cls, builder);
+
+            CoroutineRunner runner = new CoroutineRunner(coroutine);
+            Continuation continuation = (Continuation) readField(runner, "continuation", true);
+
+            assertTrue(runner.execute());
+            assertTrue(runner.execute());
+            assertTrue(runner.execute());
+
+            // Run an execution cycle that saves successfully but then fails, as if something further up the call chain threw once all
+            // method states were saved
+            coroutine.run(continuation);
+            assertEquals(Continuation.MODE_SAVING, continuation.getMode());
+            continuation.failedExecutionCycle();
+            continuation.setMode(Continuation.MODE_LOADING);
+
+            // Resumes from where the last successful execution cycle left off, but the loop counter in run() is a field resident local
+            // that was incremented by the failed cycle -- it isn't rolled back, so 3 doesn't get output again
+            assertTrue(runner.execute());
+            assertTrue(runner.execute());
+            assertTrue(runner.execute());
+            assertTrue(runner.execute());
+            assertTrue(runner.execute());
+            assertTrue(runner.execute());
+            assertFalse(runner.execute()); // coroutine finished executing here
+
+            assertEquals("started\n"
+                    + "0\n"
+                    + "1\n"
+                    + "2\n"
+                    + "3\n"
+                    + "4\n"
+                    + "5\n"
+                    + "6\n"
+                    + "7\n"
+                    + "8\n"
+                    + "9\n",
+                    builder.toString());
+        }
     }
 
     private void performCountTest(String testClass, InstrumentationSettings settings) throws Exception {
+        performCountTest(testClass, settings, x -> x);
+    }
+
+    private void performFailedCycleAfterReuseTest(InstrumentationSettings settings) throws Exception {
         StringBuilder builder = new StringBuilder();
 
-        try (URLClassLoader classLoader = loadClassesInZipResourceAndInstrument(testClass + ".zip", settings)) {
+        try (URLClassLoader classLoader = loadClassesInZipResourceAndInstrument(NORMAL_INVOKE_TEST + ".zip", settings)) {
+            Class<Coroutine> cls = (Class<Coroutine>) classLoader.loadClass(NORMAL_INVOKE_TEST);
+            Coroutine coroutine = invokeConstructor(cls, builder);
+
+            CoroutineRunner runner = new CoroutineRunner(coroutine);
+            Continuation continuation = (Continuation) readField(runner, "continuation", true);
+
+            // Suspend at the same point enough times for method states to start getting reused
+            assertTrue(runner.execute());
+            assertTrue(runner.execute());
+            assertTrue(runner.execute());
+
+            // Run an execution cycle that saves successfully but then fails, as if something further up the call chain threw once all
+            // method states were saved
+            coroutine.run(continuation);
+            assertEquals(Continuation.MODE_SAVING, continuation.getMode());
+            continuation.failedExecutionCycle();
+            continuation.setMode(Continuation.MODE_LOADING);
+
+            // Must resume from where the last successful execution cycle left off (3 gets output again)
+            assertTrue(runner.execute());
+            assertTrue(runner.execute());
+            assertTrue(runner.execute());
+            assertTrue(runner.execute());
+            assertTrue(runner.execute());
+            assertTrue(runner.execute());
+            assertTrue(runner.execute());
+            assertFalse(runner.execute()); // coroutine finished executing here
+
+            assertEquals("started\n"
+                    + "0\n"
+                    + "1\n"
+                    + "2\n"
+                    + "3\n"
+                    + "3\n"
+                    + "4\n"
+                    + "5\n"
+                    + "6\n"
+                    + "7\n"
+                    + "8\n"
+                    + "9\n",
+                    builder.toString());
+        }
+    }
+
+    private void performCountTest(String testClass, InstrumentationSettings settings, Function<byte[], byte[]> classModifier)
+            throws Exception {
+        StringBuilder builder = new StringBuilder();
+
+        try (URLClassLoader classLoader = loadClassesInZipResourceAndInstrument(testClass + ".zip", settings, classModifier)) {
             Class<Coroutine> cls = (Class<Coroutine>) classLoader.loadClass(testClass);
             Coroutine coroutine = invokeConstructor(cls, builder);
 
@@ -317,9 +611,14 @@ public final class InstrumentationTest {
     }
 
     private void performDoubleCountTest(String testClass, InstrumentationSettings settings) throws Exception {
+        performDoubleCountTest(testClass, settings, x -> x);
+    }
+
+    private void performDoubleCountTest(String testClass, InstrumentationSettings settings, Function<byte[], byte[]> classModifier)
+            throws Exception {
         StringBuilder builder = new StringBuilder();
 
-        try (URLClassLoader classLoader = loadClassesInZipResourceAndInstrument(testClass + ".zip", settings)) {
+        try (URLClassLoader classLoader = loadClassesInZipResourceAndInstrument(testClass + ".zip", settings, classModifier)) {
             Class<Coroutine> cls = (Class<Coroutine>) classLoader.loadClass(testClass);
             Coroutine coroutine = invokeConstructor(cls, builder);
 
@@ -367,6 +666,291 @@ public final class InstrumentationTest {
         }, "Instrumentation of constructors not allowed");
     }
 
+    @Test
+    public void mustPassThroughClassesThatDontReferenceContinuation() throws Exception {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "NoContinuationTest", null, "java/lang/Object", null);
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "run", "(Ljava/lang/String;)V", null, null);
+        mv.visitCode();
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        byte[] classContent = cw.toByteArray();
+
+        // Class doesn't mention Continuation anywhere, so the class hierarchy should never need to be consulted
+        Instrumenter instrumenter = new Instrumenter(x -> {
+            throw new IllegalStateException();
+        });
+        InstrumentationResult result = instrumenter.instrument(classContent, new InstrumentationSettings(MarkerType.NONE, true, true));
+
+        assertArrayEquals(classContent, result.getInstrumentedClass());
+        assertTrue(result.getExtraFiles().isEmpty());
+    }
+
+    @Test
+    public void mustKeepOriginalFramesForMethodsThatArentInstrumented() throws Exception {
+        // Merging the 2 branches in pick() requires knowing the common super class of fake/A and fake/B, which won't be available to the
+        // instrumenter
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                return "java/lang/Object";
+            }
+        };
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "FrameTest", null, "java/lang/Object", null);
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "run", "(Lcom/offbynull/coroutines/user/Continuation;)V",
+                null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "com/offbynull/coroutines/user/Continuation", "suspend", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "pick", "(Z)Ljava/lang/Object;", null, null);
+        mv.visitCode();
+        Label elseLabel = new Label();
+        Label endLabel = new Label();
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        mv.visitJumpInsn(Opcodes.IFEQ, elseLabel);
+        mv.visitTypeInsn(Opcodes.NEW, "fake/A");
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "fake/A", "<init>", "()V", false);
+        mv.visitJumpInsn(Opcodes.GOTO, endLabel);
+        mv.visitLabel(elseLabel);
+        mv.visitTypeInsn(Opcodes.NEW, "fake/B");
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "fake/B", "<init>", "()V", false);
+        mv.visitLabel(endLabel);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        byte[] classContent = cw.toByteArray();
+
+        Instrumenter instrumenter = new Instrumenter(new ClassResourceClassInformationRepository(getClass().getClassLoader()));
+        byte[] instrumentedContent = instrumenter.instrument(classContent, new InstrumentationSettings(MarkerType.NONE, false, true))
+                .getInstrumentedClass();
+
+        ClassNode classNode = new ClassNode();
+        new ClassReader(classContent).accept(classNode, 0);
+        ClassNode instrumentedClassNode = new ClassNode();
+        new ClassReader(instrumentedContent).accept(instrumentedClassNode, 0);
+
+        // pick() must come out exactly the way it went in -- same instructions, same stack map frames, same maxs
+        MethodNode pickMethodNode = findMethod(classNode, "pick");
+        MethodNode instrumentedPickMethodNode = findMethod(instrumentedClassNode, "pick");
+        assertTrue(Arrays.stream(instrumentedPickMethodNode.instructions.toArray()).anyMatch(x -> x instanceof FrameNode));
+        assertEquals(textify(pickMethodNode), textify(instrumentedPickMethodNode));
+        assertEquals(pickMethodNode.maxStack, instrumentedPickMethodNode.maxStack);
+        assertEquals(pickMethodNode.maxLocals, instrumentedPickMethodNode.maxLocals);
+
+        // run() must have been instrumented, and the class must pass the JVM's verifier (which checks the stack map frames of both
+        // methods when the class gets linked) and suspend/resume properly
+        assertNotEquals(textify(findMethod(classNode, "run")), textify(findMethod(instrumentedClassNode, "run")));
+        Class<?> cls = new ClassLoader(getClass().getClassLoader()) {
+            Class<?> define() {
+                return defineClass("FrameTest", instrumentedContent, 0, instrumentedContent.length);
+            }
+        }.define();
+        CoroutineRunner runner = new CoroutineRunner(c -> invokeStaticMethod(cls, "run", c));
+        assertTrue(runner.execute());
+        assertFalse(runner.execute());
+    }
+
+    private static MethodNode findMethod(ClassNode classNode, String name) {
+        return classNode.methods.stream().filter(x -> x.name.equals(name)).findAny().get();
+    }
+
+    private static String textify(MethodNode methodNode) {
+        Textifier textifier = new Textifier();
+        methodNode.accept(new TraceMethodVisitor(textifier));
+        StringWriter writer = new StringWriter();
+        textifier.print(new PrintWriter(writer));
+        return writer.toString();
+    }
+
+    @Test
+    public void mustNotSaveDeadLocalsUnlessInDebugMode() throws Exception {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "LivenessTest", null, "java/lang/Object",
+                new String[] { "com/offbynull/coroutines/user/Coroutine" });
+
+        // String dead = "dead"; dead.length(); String live = "live"; c.suspend(); live.length();
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "run", "(Lcom/offbynull/coroutines/user/Continuation;)V", null, null);
+        mv.visitCode();
+        mv.visitLdcInsn("dead");
+        mv.visitVarInsn(Opcodes.ASTORE, 2);
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+        mv.visitInsn(Opcodes.POP);
+        mv.visitLdcInsn("live");
+        mv.visitVarInsn(Opcodes.ASTORE, 3);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "com/offbynull/coroutines/user/Continuation", "suspend", "()V", false);
+        mv.visitVarInsn(Opcodes.ALOAD, 3);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+        mv.visitInsn(Opcodes.POP);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        byte[] classContent = cw.toByteArray();
+
+        Instrumenter instrumenter = new Instrumenter(new ClassResourceClassInformationRepository(getClass().getClassLoader()));
+
+        String details = new String(
+                instrumenter.instrument(classContent, new InstrumentationSettings(MarkerType.NONE, false, false))
+                        .getExtraFiles().values().iterator().next(),
+                StandardCharsets.UTF_8);
+        assertFalse(details.contains("LVT index is 2 "));
+        assertTrue(details.contains("LVT index is 3 "));
+
+        String debugDetails = new String(
+                instrumenter.instrument(classContent, new InstrumentationSettings(MarkerType.NONE, true, false))
+                        .getExtraFiles().values().iterator().next(),
+                StandardCharsets.UTF_8);
+        assertTrue(debugDetails.contains("LVT index is 2 "));
+        assertTrue(debugDetails.contains("LVT index is 3 "));
+    }
+
+    @Test
+    public void mustCreateMethodStatesThroughSharedHelpers() throws Exception {
+        byte[] classContent =
+                readZipFromResource(COMPLEX_TEST + ".zip").entrySet().stream()
+                .filter(x -> x.getKey().endsWith(".class"))
+                .map(x -> x.getValue())
+                .findAny().get();
+
+        Instrumenter instrumenter = new Instrumenter(getClasspath());
+        byte[] instrumentedContent = instrumenter.instrument(classContent, new InstrumentationSettings(MarkerType.NONE, false, true))
+                .getInstrumentedClass();
+
+        ClassNode classNode = new ClassNode();
+        new ClassReader(instrumentedContent).accept(classNode, 0);
+
+        List<MethodNode> helperMethodNodes = classNode.methods.stream()
+                .filter(x -> x.name.startsWith("__COROUTINES_NEW_METHOD_STATE_"))
+                .collect(Collectors.toList());
+        assertFalse(helperMethodNodes.isEmpty());
+        for (MethodNode helperMethodNode : helperMethodNodes) {
+            assertTrue((helperMethodNode.access & Opcodes.ACC_STATIC) != 0);
+            assertTrue((helperMethodNode.access & Opcodes.ACC_SYNTHETIC) != 0);
+        }
+    }
+
+    @Test
+    public void mustNotAddHelpersToJava8Interfaces() throws Exception {
+        // Private interface methods aren't allowed prior to Java 9, so helpers would have to be public if they were added to this
+        // interface
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, "DefaultMethodTest", null,
+                "java/lang/Object", new String[] { "com/offbynull/coroutines/user/Coroutine" });
+
+        // default void run(Continuation c) { c.suspend(); }
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "run", "(Lcom/offbynull/coroutines/user/Continuation;)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "com/offbynull/coroutines/user/Continuation", "suspend", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        byte[] classContent = cw.toByteArray();
+
+        Instrumenter instrumenter = new Instrumenter(new ClassResourceClassInformationRepository(getClass().getClassLoader()));
+        for (StateLayout stateLayout : new StateLayout[] { StateLayout.ARRAYS, StateLayout.PACKED }) {
+            byte[] instrumentedContent = instrumenter.instrument(classContent,
+                    new InstrumentationSettings(MarkerType.NONE, false, true).withStateLayout(stateLayout))
+                    .getInstrumentedClass();
+
+            ClassNode classNode = new ClassNode();
+            new ClassReader(instrumentedContent).accept(classNode, 0);
+            assertEquals(1, classNode.methods.size());
+            assertTrue(classNode.methods.stream().noneMatch(x -> x.name.startsWith("__COROUTINES_NEW_")));
+        }
+    }
+
+    @Test
+    public void mustWarnWhenInstrumentationPushesMethodPastInlineLimit() throws Exception {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "SizeTest", null, "java/lang/Object",
+                new String[] { "com/offbynull/coroutines/user/Coroutine" });
+
+        // c.suspend(); c.suspend(); c.suspend();
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "run", "(Lcom/offbynull/coroutines/user/Continuation;)V", null, null);
+        mv.visitCode();
+        for (int i = 0; i < 3; i++) {
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "com/offbynull/coroutines/user/Continuation", "suspend", "()V", false);
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        byte[] classContent = cw.toByteArray();
+
+        Instrumenter instrumenter = new Instrumenter(new ClassResourceClassInformationRepository(getClass().getClassLoader()));
+        InstrumentationResult result = instrumenter.instrument(classContent, new InstrumentationSettings(MarkerType.NONE, false, true));
+
+        assertEquals(1, result.getWarnings().size());
+        assertTrue(result.getWarnings().get(0).startsWith("SizeTest.run(Lcom/offbynull/coroutines/user/Continuation;)V "));
+        assertTrue(result.getWarnings().get(0).contains("inlining"));
+    }
+
+    @Test
+    public void mustSplitMethodsWithManyContinuationPointsOnlyWhenEnabled() throws Exception {
+        byte[] classContent =
+                readZipFromResource(SPLIT_INVOKE_TEST + ".zip").entrySet().stream()
+                .filter(x -> x.getKey().endsWith(".class"))
+                .map(x -> x.getValue())
+                .findAny().get();
+
+        Instrumenter instrumenter = new Instrumenter(getClasspath());
+
+        InstrumentationSettings splitSettings = new InstrumentationSettings(MarkerType.NONE, false, true)
+                .withMethodSplitting(true);
+        ClassNode splitClassNode = new ClassNode();
+        new ClassReader(instrumenter.instrument(classContent, splitSettings).getInstrumentedClass()).accept(splitClassNode, 0);
+        long pieceCount = splitClassNode.methods.stream().filter(x -> x.name.startsWith("run__COROUTINES_SPLIT_")).count();
+        assertTrue(pieceCount >= 2);
+
+        InstrumentationSettings noSplitSettings = new InstrumentationSettings(MarkerType.NONE, false, true);
+        ClassNode noSplitClassNode = new ClassNode();
+        new ClassReader(instrumenter.instrument(classContent, noSplitSettings).getInstrumentedClass()).accept(noSplitClassNode, 0);
+        assertTrue(noSplitClassNode.methods.stream().noneMatch(x -> x.name.contains("__COROUTINES_SPLIT_")));
+    }
+
+    @Test
+    public void mustNotGenerateSerializationSupportInLeanMode() throws Exception {
+        byte[] classContent =
+                readZipFromResource(COMPLEX_TEST + ".zip").entrySet().stream()
+                .filter(x -> x.getKey().endsWith(".class"))
+                .map(x -> x.getValue())
+                .findAny().get();
+
+        Instrumenter instrumenter = new Instrumenter(getClasspath());
+
+        InstrumentationSettings leanSettings = new InstrumentationSettings(MarkerType.NONE, false, true)
+                .withLeanMode(true);
+        InstrumentationResult leanResult = instrumenter.instrument(classContent, leanSettings);
+        assertTrue(leanResult.getExtraFiles().isEmpty());
+        ClassNode leanClassNode = new ClassNode();
+        new ClassReader(leanResult.getInstrumentedClass()).accept(leanClassNode, 0);
+        assertTrue(leanClassNode.fields.stream().noneMatch(x -> x.name.equals(INSTRUMENTED_METHODID_FIELD_NAME)));
+
+        InstrumentationSettings normalSettings = new InstrumentationSettings(MarkerType.NONE, false, true);
+        InstrumentationResult normalResult = instrumenter.instrument(classContent, normalSettings);
+        assertFalse(normalResult.getExtraFiles().isEmpty());
+        assertTrue(leanResult.getInstrumentedClass().length < normalResult.getInstrumentedClass().length);
+    }
+
     @Test
     public void mustNotDoubleInstrument() throws Exception {
         byte[] classContent =
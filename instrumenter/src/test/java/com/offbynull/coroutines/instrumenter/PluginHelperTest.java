@@ -0,0 +1,321 @@
+package com.offbynull.coroutines.instrumenter;
+
+import static com.offbynull.coroutines.instrumenter.SharedConstants.BASIC_TYPE_INVOKE_TEST;
+import static com.offbynull.coroutines.instrumenter.SharedConstants.EXCEPTION_SUSPEND_TEST;
+import static com.offbynull.coroutines.instrumenter.SharedConstants.INHERITANCE_INVOKE_TEST;
+import static com.offbynull.coroutines.instrumenter.SharedConstants.INTERFACE_INVOKE_TEST;
+import static com.offbynull.coroutines.instrumenter.SharedConstants.LAMBDA_INTERFACE_INVOKE_TEST;
+import static com.offbynull.coroutines.instrumenter.SharedConstants.MONITOR_INVOKE_TEST;
+import static com.offbynull.coroutines.instrumenter.SharedConstants.NORMAL_INVOKE_TEST;
+import static com.offbynull.coroutines.instrumenter.SharedConstants.RECURSIVE_INVOKE_TEST;
+import static com.offbynull.coroutines.instrumenter.SharedConstants.STATIC_INVOKE_TEST;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformation;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformationRepository;
+import com.offbynull.coroutines.instrumenter.asm.ClassResourceClassInformationRepository;
+import com.offbynull.coroutines.instrumenter.asm.CompositeClassInformationRepository;
+import com.offbynull.coroutines.instrumenter.asm.FileSystemClassInformationRepository;
+import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
+import static com.offbynull.coroutines.instrumenter.testhelpers.TestUtils.readZipFromResource;
+import com.offbynull.coroutines.user.Coroutine;
+import com.offbynull.coroutines.user.CoroutineRunner;
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static java.util.Arrays.asList;
+import org.apache.commons.io.FileUtils;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+public final class PluginHelperTest {
+    
+    private static final String[] TEST_CLASSES = new String[] {
+        NORMAL_INVOKE_TEST,
+        STATIC_INVOKE_TEST,
+        INTERFACE_INVOKE_TEST,
+        RECURSIVE_INVOKE_TEST,
+        INHERITANCE_INVOKE_TEST,
+        BASIC_TYPE_INVOKE_TEST,
+        EXCEPTION_SUSPEND_TEST,
+        MONITOR_INVOKE_TEST
+    };
+
+    @Test
+    public void mustProduceSameOutputWhenInstrumentingInParallel() throws Exception {
+        File sequentialDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        File parallelDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        try {
+            List<String> sequentialLog = instrumentDirectory(sequentialDir, 1);
+            List<String> parallelLog = instrumentDirectory(parallelDir, 4);
+
+            assertFalse(sequentialLog.isEmpty());
+            assertEquals(sequentialLog, parallelLog);
+            
+            Map<String, byte[]> sequentialFiles = readDirectory(sequentialDir);
+            Map<String, byte[]> parallelFiles = readDirectory(parallelDir);
+            assertEquals(sequentialFiles.keySet(), parallelFiles.keySet());
+            for (String name : sequentialFiles.keySet()) {
+                assertArrayEquals(sequentialFiles.get(name), parallelFiles.get(name), name);
+            }
+        } finally {
+            FileUtils.deleteQuietly(sequentialDir);
+            FileUtils.deleteQuietly(parallelDir);
+        }
+    }
+
+    @Test
+    public void mustSkipUnchangedClassesWhenInstrumentingIncrementally() throws Exception {
+        File srcDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        File dstDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        try {
+            writeTestClasses(srcDir);
+
+            AtomicBoolean hierarchyChanged = new AtomicBoolean();
+            ClassInformationRepository baseRepo = new CompositeClassInformationRepository(
+                    new ClassResourceClassInformationRepository(getClass().getClassLoader()),
+                    FileSystemClassInformationRepository.create(asList(srcDir)));
+            ClassInformationRepository repo = name -> {
+                ClassInformation info = baseRepo.getInformation(name);
+                if (info == null || !hierarchyChanged.get()) {
+                    return info;
+                }
+                List<String> interfaces = new ArrayList<>(info.getInterfaces());
+                interfaces.add("fake/Marker");
+                return new ClassInformation(info.getName(), info.getSuperClassName(), interfaces, info.isInterface());
+            };
+            Instrumenter instrumenter = new Instrumenter(repo);
+            InstrumentationSettings settings = new InstrumentationSettings(MarkerType.NONE, false, true);
+
+            // first run -- everything instrumented
+            List<String> log = new ArrayList<>();
+            PluginHelper.instrument(instrumenter, settings, srcDir, dstDir, log::add, 2, true);
+            int instrumentedCount = log.size();
+            assertTrue(instrumentedCount >= TEST_CLASSES.length);
+            assertTrue(new File(dstDir, InstrumentationManifest.FILE_NAME).isFile());
+            Map<String, byte[]> firstRunFiles = readDirectory(dstDir);
+
+            // nothing changed -- nothing instrumented
+            log.clear();
+            PluginHelper.instrument(instrumenter, settings, srcDir, dstDir, log::add, 2, true);
+            assertEquals(0, log.size());
+
+            // output removed -- only that class instrumented
+            assertTrue(new File(dstDir, NORMAL_INVOKE_TEST + ".class").delete());
+            log.clear();
+            PluginHelper.instrument(instrumenter, settings, srcDir, dstDir, log::add, 2, true);
+            assertEquals(1, log.size());
+            assertTrue(log.get(0).contains(NORMAL_INVOKE_TEST + ".class"));
+            Map<String, byte[]> thirdRunFiles = readDirectory(dstDir);
+            assertEquals(firstRunFiles.keySet(), thirdRunFiles.keySet());
+            for (String name : firstRunFiles.keySet()) {
+                if (!name.equals(InstrumentationManifest.FILE_NAME)) {
+                    assertArrayEquals(firstRunFiles.get(name), thirdRunFiles.get(name), name);
+                }
+            }
+
+            // hierarchy changed -- classes that needed hierarchy information to instrument get instrumented again
+            hierarchyChanged.set(true);
+            log.clear();
+            PluginHelper.instrument(instrumenter, settings, srcDir, dstDir, log::add, 2, true);
+            assertTrue(log.size() > 0);
+            assertTrue(log.size() <= instrumentedCount);
+
+            log.clear();
+            PluginHelper.instrument(instrumenter, settings, srcDir, dstDir, log::add, 2, true);
+            assertEquals(0, log.size());
+
+            // settings changed -- everything instrumented
+            log.clear();
+            PluginHelper.instrument(instrumenter, new InstrumentationSettings(MarkerType.NONE, true, true), srcDir, dstDir, log::add, 2,
+                    true);
+            assertEquals(instrumentedCount, log.size());
+        } finally {
+            FileUtils.deleteQuietly(srcDir);
+            FileUtils.deleteQuietly(dstDir);
+        }
+    }
+
+    @Test
+    public void mustNotInstrumentNeverSuspendingMethodsWithCallGraphAnalysis() throws Exception {
+        File srcDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        File dstDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        File analysisDstDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        try {
+            FileUtils.writeByteArrayToFile(new File(srcDir, "CallGraphTest.class"), generateCallGraphTestClass());
+
+            Instrumenter instrumenter = new Instrumenter(asList(srcDir));
+            PluginHelper.instrument(instrumenter, new InstrumentationSettings(MarkerType.NONE, false, true), srcDir, dstDir,
+                    x -> { });
+            PluginHelper.instrument(instrumenter, new InstrumentationSettings(MarkerType.NONE, false, true).withCallGraphAnalysis(true),
+                    srcDir, analysisDstDir, x -> { });
+
+            // Without analysis, helper() gets instrumented and the invocation to it is a continuation point
+            String details = FileUtils.readFileToString(new File(dstDir, "CallGraphTest.coroutinesinfo"), StandardCharsets.UTF_8);
+            assertTrue(details.contains("Method Name: helper"));
+            assertTrue(details.contains("Continuation Point ID: 1 "));
+
+            // With analysis, helper() never suspends -- it's left alone and the invocation to it isn't a continuation point
+            String analysisDetails = FileUtils.readFileToString(new File(analysisDstDir, "CallGraphTest.coroutinesinfo"),
+                    StandardCharsets.UTF_8);
+            assertFalse(analysisDetails.contains("Method Name: helper"));
+            assertTrue(analysisDetails.contains("Method Name: suspender"));
+            assertFalse(analysisDetails.contains("Continuation Point ID: 1 "));
+
+            try (URLClassLoader classLoader = new URLClassLoader(new URL[] { analysisDstDir.toURI().toURL() })) {
+                Coroutine coroutine = (Coroutine) classLoader.loadClass("CallGraphTest").newInstance();
+                CoroutineRunner runner = new CoroutineRunner(coroutine);
+                assertTrue(runner.execute());
+                assertFalse(runner.execute());
+            }
+        } finally {
+            FileUtils.deleteQuietly(srcDir);
+            FileUtils.deleteQuietly(dstDir);
+            FileUtils.deleteQuietly(analysisDstDir);
+        }
+    }
+
+    @Test
+    public void mustTreatInterfaceMethodsImplementedByLambdasAsSuspendingWithCallGraphAnalysis() throws Exception {
+        File srcDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        File dstDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        File analysisDstDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        try {
+            for (Entry<String, byte[]> entry : readZipFromResource(LAMBDA_INTERFACE_INVOKE_TEST + ".zip").entrySet()) {
+                if (entry.getKey().endsWith(".class")) {
+                    FileUtils.writeByteArrayToFile(new File(srcDir, entry.getKey()), entry.getValue());
+                }
+            }
+
+            Instrumenter instrumenter = new Instrumenter(asList(srcDir));
+            PluginHelper.instrument(instrumenter, new InstrumentationSettings(MarkerType.NONE, false, true), srcDir, dstDir,
+                    x -> { });
+            PluginHelper.instrument(instrumenter, new InstrumentationSettings(MarkerType.NONE, false, true).withCallGraphAnalysis(true),
+                    srcDir, analysisDstDir, x -> { });
+
+            // The lambda and method reference are only bound to Step.exec() at runtime (invokedynamic), so the call graph never sees them
+            // as implementations of it -- invocations of Step.exec() must still be continuation points
+            assertEquals("abx=7cdy=8", runToCompletion(dstDir, srcDir, LAMBDA_INTERFACE_INVOKE_TEST));
+            assertEquals("abx=7cdy=8", runToCompletion(analysisDstDir, srcDir, LAMBDA_INTERFACE_INVOKE_TEST));
+        } finally {
+            FileUtils.deleteQuietly(srcDir);
+            FileUtils.deleteQuietly(dstDir);
+            FileUtils.deleteQuietly(analysisDstDir);
+        }
+    }
+
+    // Classes that didn't need instrumenting only exist in srcDir
+    private String runToCompletion(File dstDir, File srcDir, String className) throws Exception {
+        StringBuilder builder = new StringBuilder();
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] { dstDir.toURI().toURL(), srcDir.toURI().toURL() })) {
+            Coroutine coroutine = (Coroutine) classLoader.loadClass(className).getConstructor(StringBuilder.class).newInstance(builder);
+            CoroutineRunner runner = new CoroutineRunner(coroutine);
+            assertTrue(runner.execute());
+            assertTrue(runner.execute());
+            assertFalse(runner.execute());
+        }
+        return builder.toString();
+    }
+
+    // public class CallGraphTest implements Coroutine {
+    //     public void run(Continuation c) { helper(c); suspender(c); }
+    //     static void helper(Continuation c) { leaf(c); }
+    //     static void leaf(Continuation c) { }
+    //     static void suspender(Continuation c) { c.suspend(); }
+    // }
+    private byte[] generateCallGraphTestClass() {
+        String contDesc = "(Lcom/offbynull/coroutines/user/Continuation;)V";
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "CallGraphTest", null, "java/lang/Object",
+                new String[] { "com/offbynull/coroutines/user/Coroutine" });
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "run", contDesc, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "CallGraphTest", "helper", contDesc, false);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "CallGraphTest", "suspender", contDesc, false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_STATIC, "helper", contDesc, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "CallGraphTest", "leaf", contDesc, false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_STATIC, "leaf", contDesc, null, null);
+        mv.visitCode();
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_STATIC, "suspender", contDesc, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "com/offbynull/coroutines/user/Continuation", "suspend", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private void writeTestClasses(File dir) throws Exception {
+        for (String testClass : TEST_CLASSES) {
+            for (Entry<String, byte[]> entry : readZipFromResource(testClass + ".zip").entrySet()) {
+                if (entry.getKey().endsWith(".class")) {
+                    FileUtils.writeByteArrayToFile(new File(dir, entry.getKey()), entry.getValue());
+                }
+            }
+        }
+    }
+
+    private List<String> instrumentDirectory(File dir, int parallelism) throws Exception {
+        writeTestClasses(dir);
+
+        Instrumenter instrumenter = new Instrumenter(asList(dir));
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.NONE, false, true);
+        
+        String dirPath = dir.getAbsolutePath();
+        List<String> log = new ArrayList<>();
+        PluginHelper.instrument(instrumenter, settings, dir, dir, x -> log.add(x.replace(dirPath, "")), parallelism);
+        return log;
+    }
+    
+    private Map<String, byte[]> readDirectory(File dir) throws Exception {
+        Map<String, byte[]> ret = new TreeMap<>();
+        Collection<File> files = FileUtils.listFiles(dir, null, true);
+        for (File file : files) {
+            String name = dir.toPath().relativize(file.toPath()).toString();
+            ret.put(name, FileUtils.readFileToByteArray(file));
+        }
+        return ret;
+    }
+}
@@ -11,83 +11,268 @@ import static com.offbynull.coroutines.instrumenter.SharedConstants.NULL_TYPE_IN
 import static com.offbynull.coroutines.instrumenter.SharedConstants.RECURSIVE_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.RETURN_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.STATIC_INVOKE_TEST;
+import static com.offbynull.coroutines.instrumenter.SharedConstants.SPLIT_INVOKE_TEST;
+import static com.offbynull.coroutines.instrumenter.SharedConstants.TAIL_CALL_INVOKE_TEST;
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.StateLayout;
+import com.offbynull.coroutines.instrumenter.testhelpers.TestUtils.FieldResidentLocalsAnnotator;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
 import static com.offbynull.coroutines.instrumenter.testhelpers.TestUtils.loadClassesInZipResourceAndInstrument;
 import com.offbynull.coroutines.user.Coroutine;
 import com.offbynull.coroutines.user.CoroutineReader;
+import com.offbynull.coroutines.user.CoroutineReader.BinaryCoroutineDeserializer;
 import com.offbynull.coroutines.user.CoroutineRunner;
 import com.offbynull.coroutines.user.CoroutineWriter;
+import com.offbynull.coroutines.user.CoroutineWriter.BinaryCoroutineSerializer;
+import com.offbynull.coroutines.user.SerializedState.FrameInterceptPoint;
+import com.offbynull.coroutines.user.SerializedState.FrameUpdatePoint;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import static org.apache.commons.lang3.reflect.ConstructorUtils.invokeConstructor;
 import static org.apache.commons.lang3.reflect.FieldUtils.readField;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 
 public final class SerializationTest {
+    
+    private static final Function<CoroutineRunner, CoroutineRunner> DEFAULT_SERIALIZATION =
+            SerializationTest::writeReadExecuteWithDefaultSerialization;
+    private static final Function<CoroutineRunner, CoroutineRunner> BINARY_SERIALIZATION =
+            SerializationTest::writeReadExecuteWithBinarySerialization;
+    private static final Function<CoroutineRunner, CoroutineRunner> STREAM_SERIALIZATION =
+            SerializationTest::writeReadExecuteWithStreamSerialization;
+    private static final Function<CoroutineRunner, CoroutineRunner> BUFFER_SERIALIZATION =
+            SerializationTest::writeReadExecuteWithBufferSerialization;
+    private static final Function<CoroutineRunner, CoroutineRunner> CHANNEL_SERIALIZATION =
+            SerializationTest::writeReadExecuteWithChannelSerialization;
 
     @Test
     public void mustProperlySuspendWithVirtualMethods() throws Exception {
-        performIntCountTest(NORMAL_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
+        performIntCountTest(NORMAL_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), DEFAULT_SERIALIZATION);
     }
     
     @Test
     public void mustProperlySuspendWithStaticMethods() throws Exception {
-        performIntCountTest(STATIC_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
+        performIntCountTest(STATIC_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), DEFAULT_SERIALIZATION);
     }
 
     @Test
     public void mustProperlySuspendWithInterfaceMethods() throws Exception {
-        performIntCountTest(INTERFACE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
+        performIntCountTest(INTERFACE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), DEFAULT_SERIALIZATION);
     }
 
     @Test
     public void mustProperlySuspendWithRecursiveMethods() throws Exception {
-        performIntCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
+        performIntCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), DEFAULT_SERIALIZATION);
+    }
+
+    @Test
+    public void mustProperlySuspendWithTailCalls() throws Exception {
+        performIntCountTest(TAIL_CALL_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), DEFAULT_SERIALIZATION);
+    }
+
+    @Test
+    public void mustProperlySuspendWithSplitMethods() throws Exception {
+        performIntCountTest(SPLIT_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                .withMethodSplitting(true), DEFAULT_SERIALIZATION);
     }
 
     @Test
     public void mustProperlySuspendWithInheritedMethods() throws Exception {
-        performIntCountTest(INHERITANCE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
+        performIntCountTest(INHERITANCE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), DEFAULT_SERIALIZATION);
     }
 
     @Test
     public void mustProperlySuspendWithMethodsThatReturnValues() throws Exception {
-        performIntCountTest(RETURN_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
+        performIntCountTest(RETURN_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), DEFAULT_SERIALIZATION);
     }
 
     @Test
     public void mustProperlySuspendWithMethodsThatOperateOnLongs() throws Exception {
-        performIntCountTest(LONG_RETURN_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
+        performIntCountTest(LONG_RETURN_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), DEFAULT_SERIALIZATION);
     }
 
     @Test
     public void mustProperlySuspendWithMethodsThatOperateOnDoubles() throws Exception {
-        performDoubleCountTest(DOUBLE_RETURN_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
+        performDoubleCountTest(DOUBLE_RETURN_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), DEFAULT_SERIALIZATION);
     }
 
     @Test
     public void mustProperlySuspendWithNullTypeInLocalVariableTable() throws Exception {
-        performIntCountTest(NULL_TYPE_IN_LOCAL_VARIABLE_TABLE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
+        performIntCountTest(NULL_TYPE_IN_LOCAL_VARIABLE_TABLE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), DEFAULT_SERIALIZATION);
     }
     
     @Test
     public void mustProperlySuspendWithBasicTypesInLocalVariableTableAndOperandStack() throws Exception {
-        performIntCountTest(BASIC_TYPE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
+        performIntCountTest(BASIC_TYPE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), DEFAULT_SERIALIZATION);
     }
 
     @Test
     public void mustGracefullyIgnoreWhenContinuationPointDoesNotInvokeOtherContinuationPoints() throws Exception {
-        performIntCountTest(EMPTY_CONTINUATION_POINT_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
+        performIntCountTest(EMPTY_CONTINUATION_POINT_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), DEFAULT_SERIALIZATION);
+    }
+
+    @Test
+    public void mustProperlySuspendWithVirtualMethodsUsingBinarySerialization() throws Exception {
+        performIntCountTest(NORMAL_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), BINARY_SERIALIZATION);
+    }
+
+    @Test
+    public void mustProperlySuspendWithRecursiveMethodsUsingBinarySerialization() throws Exception {
+        performIntCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), BINARY_SERIALIZATION);
+    }
+
+    @Test
+    public void mustProperlySuspendWithTailCallsUsingBinarySerialization() throws Exception {
+        performIntCountTest(TAIL_CALL_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), BINARY_SERIALIZATION);
+    }
+
+    @Test
+    public void mustProperlySuspendWithMethodsThatOperateOnLongsUsingBinarySerialization() throws Exception {
+        performIntCountTest(LONG_RETURN_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), BINARY_SERIALIZATION);
+    }
+
+    @Test
+    public void mustProperlySuspendWithMethodsThatOperateOnDoublesUsingBinarySerialization() throws Exception {
+        performDoubleCountTest(DOUBLE_RETURN_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                BINARY_SERIALIZATION);
+    }
+
+    @Test
+    public void mustProperlySuspendWithBasicTypesInLocalVariableTableAndOperandStackUsingBinarySerialization() throws Exception {
+        performIntCountTest(BASIC_TYPE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), BINARY_SERIALIZATION);
+    }
+
+    @Test
+    public void mustProperlySuspendWithBasicTypesInLocalVariableTableAndOperandStackUsingFrameClasses() throws Exception {
+        performIntCountTest(BASIC_TYPE_INVOKE_TEST,
+                new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                        .withStateLayout(StateLayout.FRAME_CLASSES), DEFAULT_SERIALIZATION);
+    }
+
+    @Test
+    public void mustProperlySuspendWithBasicTypesInLocalVariableTableAndOperandStackUsingFieldResidentLocals() throws Exception {
+        performIntCountTest(BASIC_TYPE_INVOKE_TEST,
+                new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                        .withStateLayout(StateLayout.FRAME_CLASSES),
+                DEFAULT_SERIALIZATION,
+                new FieldResidentLocalsAnnotator());
+    }
+
+    @Test
+    public void mustProperlySuspendWithMethodsThatOperateOnDoublesUsingFrameClasses() throws Exception {
+        performDoubleCountTest(DOUBLE_RETURN_INVOKE_TEST,
+                new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                        .withStateLayout(StateLayout.FRAME_CLASSES), BINARY_SERIALIZATION);
+    }
+
+    @Test
+    public void mustProperlySuspendWithBasicTypesInLocalVariableTableAndOperandStackUsingPackedArrays() throws Exception {
+        performIntCountTest(BASIC_TYPE_INVOKE_TEST,
+                new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                        .withStateLayout(StateLayout.PACKED), DEFAULT_SERIALIZATION);
+    }
+
+    @Test
+    public void mustProperlySuspendWithMethodsThatOperateOnDoublesUsingPackedArrays() throws Exception {
+        performDoubleCountTest(DOUBLE_RETURN_INVOKE_TEST,
+                new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                        .withStateLayout(StateLayout.PACKED), BINARY_SERIALIZATION);
+    }
+
+    @Test
+    public void mustProperlyContinueAfterDeserializingOnceUsingPackedArrays() throws Exception {
+        // Deserialized method states don't have packed arrays. Only deserialize once (after the first suspend) so that the method states
+        // that were deserialized stick around as spares while execution continues.
+        AtomicInteger counter = new AtomicInteger();
+        performIntCountTest(BASIC_TYPE_INVOKE_TEST,
+                new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                        .withStateLayout(StateLayout.PACKED),
+                runner -> counter.incrementAndGet() == 2 ? writeReadExecuteWithDefaultSerialization(runner) : runner);
+    }
+
+    @Test
+    public void mustProperlySuspendWithBasicTypesInLocalVariableTableAndOperandStackUsingPackedArraysAndStreamSerialization()
+            throws Exception {
+        performIntCountTest(BASIC_TYPE_INVOKE_TEST,
+                new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                        .withStateLayout(StateLayout.PACKED), STREAM_SERIALIZATION);
+    }
+
+    @Test
+    public void mustProperlySuspendWithVirtualMethodsUsingStreamSerialization() throws Exception {
+        performIntCountTest(NORMAL_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), STREAM_SERIALIZATION);
     }
 
-    private void performIntCountTest(String testClass, InstrumentationSettings settings) throws Exception {
+    @Test
+    public void mustProperlySuspendWithRecursiveMethodsUsingBufferSerialization() throws Exception {
+        performIntCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), BUFFER_SERIALIZATION);
+    }
+
+    @Test
+    public void mustProperlySuspendWithBasicTypesInLocalVariableTableAndOperandStackUsingChannelSerialization() throws Exception {
+        performIntCountTest(BASIC_TYPE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true), CHANNEL_SERIALIZATION);
+    }
+
+    @Test
+    public void mustFailToSerializeCoroutinesInstrumentedInLeanMode() throws Exception {
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.CONSTANT, false, true)
+                .withLeanMode(true);
+        try (URLClassLoader classLoader = loadClassesInZipResourceAndInstrument(NORMAL_INVOKE_TEST + ".zip", settings)) {
+            Class<Coroutine> cls = (Class<Coroutine>) classLoader.loadClass(NORMAL_INVOKE_TEST);
+            Coroutine coroutine = invokeConstructor(cls, new StringBuilder());
+
+            CoroutineRunner runner = new CoroutineRunner(coroutine);
+            assertTrue(runner.execute());
+
+            assertThrows(IllegalArgumentException.class, () -> new CoroutineWriter().write(runner));
+        }
+    }
+
+    @Test
+    public void mustFailToDeserializeCoroutinesInstrumentedWithDeadLocalsRemovedToDebugMode() throws Exception {
+        // Dead locals are only removed when not in debug mode, meaning that what gets saved for NormalInvokeTest.echo() is different
+        performMismatchedSettingsTest(NORMAL_INVOKE_TEST,
+                new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                new InstrumentationSettings(MarkerType.CONSTANT, true, true));
+    }
+
+    @Test
+    public void mustFailToDeserializeCoroutinesInstrumentedInDebugModeToDeadLocalsRemoved() throws Exception {
+        performMismatchedSettingsTest(NORMAL_INVOKE_TEST,
+                new InstrumentationSettings(MarkerType.CONSTANT, true, true),
+                new InstrumentationSettings(MarkerType.CONSTANT, false, true));
+    }
+
+    @Test
+    public void mustFailToDeserializeCoroutinesInstrumentedWithTailCallsTrimmedToDebugMode() throws Exception {
+        // Tail calls are only trimmed when not in debug mode, meaning that what gets saved for TailCallInvokeTest.countDown() is different
+        performMismatchedSettingsTest(TAIL_CALL_INVOKE_TEST,
+                new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                new InstrumentationSettings(MarkerType.CONSTANT, true, true));
+    }
+
+    private void performIntCountTest(String testClass, InstrumentationSettings settings, Function<CoroutineRunner, CoroutineRunner> writeRead)
+            throws Exception {
+        performIntCountTest(testClass, settings, writeRead, x -> x);
+    }
+
+    private void performIntCountTest(String testClass, InstrumentationSettings settings, Function<CoroutineRunner, CoroutineRunner> writeRead,
+            Function<byte[], byte[]> classModifier) throws Exception {
         // This test is being wrapped in a new thread where the thread's context classlaoder is being set to the classloader of the zip
         // we're dynamically loading. We need to do this being ObjectInputStream uses the system classloader by default, not the thread's
         // classloader. CoroutineReader has been modified to use the thread's classloader if the system's classloader fails.
-        try (URLClassLoader classLoader = loadClassesInZipResourceAndInstrument(testClass + ".zip", settings)) {
+        try (URLClassLoader classLoader = loadClassesInZipResourceAndInstrument(testClass + ".zip", settings, classModifier)) {
             ArrayBlockingQueue<Throwable> threadResult = new ArrayBlockingQueue<>(1);
             Thread thread = new Thread(() -> {
                 try {
@@ -97,20 +282,20 @@ public final class SerializationTest {
                     // Create and run original for a few cycles
                     CoroutineRunner runner = new CoroutineRunner(coroutine);
 
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertFalse((runner = writeReadExecute(runner)).execute()); // coroutine finished executing here
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertFalse((runner = writeRead.apply(runner)).execute()); // coroutine finished executing here
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
 
                     // Assert everything continued fine with deserialized version
                     Object deserializedCoroutine = readField(runner, "coroutine", true);
@@ -152,13 +337,104 @@ public final class SerializationTest {
         }
     }
 
-    private CoroutineRunner writeReadExecute(CoroutineRunner runner) {
+    private void performMismatchedSettingsTest(String testClass, InstrumentationSettings writeSettings,
+            InstrumentationSettings readSettings) throws Exception {
+        byte[] data;
+        try (URLClassLoader classLoader = loadClassesInZipResourceAndInstrument(testClass + ".zip", writeSettings)) {
+            data = runWithContextClassLoader(classLoader, () -> {
+                Class<Coroutine> cls = (Class<Coroutine>) classLoader.loadClass(testClass);
+                Coroutine coroutine = invokeConstructor(cls, new StringBuilder());
+
+                CoroutineRunner runner = new CoroutineRunner(coroutine);
+                assertTrue(runner.execute());
+
+                return new CoroutineWriter().write(runner);
+            });
+        }
+
+        // The method states were saved differently than how the code instrumented with the other settings loads them, so they must not
+        // be accepted (the method ids won't match)
+        try (URLClassLoader classLoader = loadClassesInZipResourceAndInstrument(testClass + ".zip", readSettings)) {
+            runWithContextClassLoader(classLoader, () -> {
+                assertThrows(IllegalStateException.class, () -> new CoroutineReader().read(data));
+                return null;
+            });
+        }
+    }
+
+    // Wrap in a new thread where the thread's context classlaoder is being set to the classloader of the zip we're dynamically loading. We
+    // need to do this being ObjectInputStream uses the system classloader by default, not the thread's classloader.
+    private static <T> T runWithContextClassLoader(ClassLoader classLoader, Callable<T> callable) throws Exception {
+        ArrayBlockingQueue<Object> threadResult = new ArrayBlockingQueue<>(1);
+        Thread thread = new Thread(() -> {
+            try {
+                threadResult.add(new Object[] { callable.call() });
+            } catch (AssertionError | Exception e) {
+                threadResult.add(e);
+            }
+        });
+        thread.setContextClassLoader(classLoader);
+        thread.start();
+        thread.join();
+
+        Object result = threadResult.peek();
+        if (result instanceof Exception) {
+            throw (Exception) result;
+        } else if (result instanceof Error) {
+            throw (Error) result;
+        } else if (result == null) {
+            throw new RuntimeException();
+        }
+        return (T) ((Object[]) result)[0];
+    }
+
+    private static CoroutineRunner writeReadExecuteWithDefaultSerialization(CoroutineRunner runner) {
         byte[] data = new CoroutineWriter().write(runner);
         CoroutineRunner reconstructedRunner = new CoroutineReader().read(data);
         return reconstructedRunner;
     }
 
-    private void performDoubleCountTest(String testClass, InstrumentationSettings settings) throws Exception {
+    private static CoroutineRunner writeReadExecuteWithBinarySerialization(CoroutineRunner runner) {
+        CoroutineWriter writer = new CoroutineWriter(new BinaryCoroutineSerializer(), new FrameUpdatePoint[0], new FrameInterceptPoint[0]);
+        CoroutineReader reader = new CoroutineReader(new BinaryCoroutineDeserializer(), new FrameUpdatePoint[0], new FrameInterceptPoint[0]);
+        byte[] data = writer.write(runner);
+        CoroutineRunner reconstructedRunner = reader.read(data);
+        return reconstructedRunner;
+    }
+
+    private static CoroutineRunner writeReadExecuteWithStreamSerialization(CoroutineRunner runner) {
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            new CoroutineWriter().write(runner, os);
+            return new CoroutineReader().read(new ByteArrayInputStream(os.toByteArray()));
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    private static CoroutineRunner writeReadExecuteWithBufferSerialization(CoroutineRunner runner) {
+        CoroutineWriter writer = new CoroutineWriter(new BinaryCoroutineSerializer(), new FrameUpdatePoint[0], new FrameInterceptPoint[0]);
+        CoroutineReader reader = new CoroutineReader(new BinaryCoroutineDeserializer(), new FrameUpdatePoint[0], new FrameInterceptPoint[0]);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+        writer.write(runner, buffer);
+        buffer.flip();
+        return reader.read(buffer);
+    }
+
+    private static CoroutineRunner writeReadExecuteWithChannelSerialization(CoroutineRunner runner) {
+        CoroutineWriter writer = new CoroutineWriter(new BinaryCoroutineSerializer(), new FrameUpdatePoint[0], new FrameInterceptPoint[0]);
+        CoroutineReader reader = new CoroutineReader(new BinaryCoroutineDeserializer(), new FrameUpdatePoint[0], new FrameInterceptPoint[0]);
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            writer.write(runner, Channels.newChannel(os));
+            return reader.read(Channels.newChannel(new ByteArrayInputStream(os.toByteArray())));
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    private void performDoubleCountTest(String testClass, InstrumentationSettings settings,
+            Function<CoroutineRunner, CoroutineRunner> writeRead) throws Exception {
         // This test is being wrapped in a new thread where the thread's context classlaoder is being set to the classloader of the zip
         // we're dynamically loading. We need to do this being ObjectInputStream uses the system classloader by default, not the thread's
         // classloader. CoroutineReader has been modified to use the thread's classloader if the system's classloader fails.
@@ -173,20 +449,20 @@ public final class SerializationTest {
                     CoroutineRunner runner = new CoroutineRunner(coroutine);
 
 
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertFalse((runner = writeReadExecute(runner)).execute()); // coroutine finished executing here
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertFalse((runner = writeRead.apply(runner)).execute()); // coroutine finished executing here
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
+                    assertTrue((runner = writeRead.apply(runner)).execute());
 
                     // Assert everything continued fine with deserialized version
                     Object deserializedCoroutine = readField(runner, "coroutine", true);
@@ -7,11 +7,15 @@ final class SharedConstants {
     public static final String STATIC_INVOKE_TEST = "StaticInvokeTest";
     public static final String INTERFACE_INVOKE_TEST = "InterfaceInvokeTest";
     public static final String RECURSIVE_INVOKE_TEST = "RecursiveInvokeTest";
+    public static final String TAIL_CALL_INVOKE_TEST = "TailCallInvokeTest";
+    public static final String SPLIT_INVOKE_TEST = "SplitInvokeTest";
+    public static final String NEST_MATE_INVOKE_TEST = "NestMateInvokeTest";
     public static final String INHERITANCE_INVOKE_TEST = "InheritanceInvokeTest";
     public static final String RETURN_INVOKE_TEST = "ReturnInvokeTest";
     public static final String LONG_RETURN_INVOKE_TEST = "LongReturnInvokeTest";
     public static final String DOUBLE_RETURN_INVOKE_TEST = "DoubleReturnInvokeTest";
     public static final String LAMBDA_INVOKE_TEST = "LambdaInvokeTest";
+    public static final String LAMBDA_INTERFACE_INVOKE_TEST = "LambdaInterfaceInvokeTest";
     public static final String CONSTRUCTOR_INVOKE_TEST = "ConstructorInvokeTest";
     public static final String EXCEPTION_SUSPEND_TEST = "ExceptionSuspendTest";
     public static final String JSR_EXCEPTION_SUSPEND_TEST = "JsrExceptionSuspendTest";
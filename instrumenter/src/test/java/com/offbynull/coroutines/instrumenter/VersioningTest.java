@@ -41,7 +41,7 @@ public final class VersioningTest {
 
             CoroutineReader reader = new CoroutineReader(
                     new FrameInterceptPoint[]{
-                        new FrameInterceptPoint(INTERCEPT_TEST, -926730864, 0, (frame, mode) -> {
+                        new FrameInterceptPoint(INTERCEPT_TEST, 100146621, 0, (frame, mode) -> {
                             assertEquals(READ, mode);
 
                             int[] varInts = frame.getVariables().getInts();
@@ -88,7 +88,7 @@ public final class VersioningTest {
             CoroutineReader reader = new CoroutineReader();
             CoroutineWriter writer = new CoroutineWriter(
                     new FrameInterceptPoint[]{
-                        new FrameInterceptPoint(INTERCEPT_TEST, -926730864, 0, (frame, mode) -> {
+                        new FrameInterceptPoint(INTERCEPT_TEST, 100146621, 0, (frame, mode) -> {
                             assertEquals(WRITE, mode);
 
                             int[] varInts = frame.getVariables().getInts();
@@ -155,14 +155,14 @@ public final class VersioningTest {
         runWrapped(UPDATE_TEST_MODIFIED, (classLoader) -> {
             Class<Coroutine> cls = (Class<Coroutine>) classLoader.loadClass(UPDATE_TEST);
 
-            FrameUpdatePoint updateEchoPoint = new FrameUpdatePoint(UPDATE_TEST, -526669244, 0, (frame, mode) -> {
+            FrameUpdatePoint updateEchoPoint = new FrameUpdatePoint(UPDATE_TEST, -1323207222, 0, (frame, mode) -> {
                 Object[] varObjects =  frame.getVariables().getObjects();
                 
                 varObjects = Arrays.copyOf(varObjects, 4);
                 varObjects[3] = "_";
                 
                 return frame
-                        .withMethodId(-1238526627)
+                        .withMethodId(-1112051899)
                         .withObjectVariables(varObjects);
             });
             CoroutineReader reader = new CoroutineReader(new FrameUpdatePoint[] { updateEchoPoint });
@@ -189,16 +189,16 @@ public final class VersioningTest {
 
             assertTrue(runner.execute());
 
-            // This adds a frame for -526669244 -- remember that the original frame is also saved. So if we read to the original version
+            // This adds a frame for -1323207222 -- remember that the original frame is also saved. So if we read to the original version
             // it will load up what this upgrader computes and returns, but if we read to the modified version it will load up what was
             // PASSED IN to this upgrader.
-            FrameUpdatePoint downgradeEchoPoint = new FrameUpdatePoint(UPDATE_TEST, -1238526627, 0, (frame, mode) -> {
+            FrameUpdatePoint downgradeEchoPoint = new FrameUpdatePoint(UPDATE_TEST, -1112051899, 0, (frame, mode) -> {
                 Object[] varObjects =  frame.getVariables().getObjects();
                 
                 varObjects = Arrays.copyOf(varObjects, 3); // trim the last item
                 
                 return frame
-                        .withMethodId(-526669244)
+                        .withMethodId(-1323207222)
                         .withObjectVariables(varObjects);
             });
             CoroutineWriter writer = new CoroutineWriter(new FrameUpdatePoint[] { downgradeEchoPoint });
@@ -2,12 +2,16 @@ package com.offbynull.coroutines.instrumenter.asm;
 
 import com.offbynull.coroutines.instrumenter.testhelpers.TestUtils;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import static java.util.Arrays.asList;
 import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.AfterAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -65,6 +69,67 @@ public final class FileSystemClassInformationRepositoryTest {
         assertTrue(info.isInterface());
     }
 
+    @Test
+    public void mustReuseCachedClassInformationForUnchangedJar() throws Exception {
+        File cacheDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        File cachedJarFile = File.createTempFile(getClass().getSimpleName(), ".jar");
+        try {
+            FileUtils.copyFile(jarFile, cachedJarFile);
+
+            FileSystemClassInformationRepository cachedRepo = FileSystemClassInformationRepository.create(asList(cachedJarFile), cacheDir);
+            assertEquals("fake/java/lang/Number", cachedRepo.getInformation("fake/java/lang/Integer").getSuperClassName());
+            assertEquals(1, cacheDir.listFiles().length);
+
+            // Clobber the JAR without changing its size or last modified time -- cached information should be used, so it shouldn't
+            // matter that the JAR is no longer readable
+            long lastModified = cachedJarFile.lastModified();
+            FileUtils.writeByteArrayToFile(cachedJarFile, new byte[(int) cachedJarFile.length()]);
+            assertTrue(cachedJarFile.setLastModified(lastModified));
+
+            cachedRepo = FileSystemClassInformationRepository.create(asList(cachedJarFile), cacheDir);
+            ClassInformation info = cachedRepo.getInformation("fake/java/util/concurrent/RunnableFuture");
+            assertEquals("java/lang/Object", info.getSuperClassName());
+            assertEquals(2, info.getInterfaces().size());
+            assertTrue(info.getInterfaces().contains("fake/java/lang/Runnable"));
+            assertTrue(info.getInterfaces().contains("fake/java/util/concurrent/Future"));
+            assertTrue(info.isInterface());
+
+            // Change the JAR's size -- cached information shouldn't be used, so the JAR should get rescanned (and fail to be read)
+            FileUtils.writeByteArrayToFile(cachedJarFile, new byte[(int) cachedJarFile.length() + 1]);
+            assertTrue(cachedJarFile.setLastModified(lastModified));
+
+            assertThrows(IOException.class, () -> FileSystemClassInformationRepository.create(asList(cachedJarFile), cacheDir));
+        } finally {
+            FileUtils.deleteQuietly(cacheDir);
+            FileUtils.deleteQuietly(cachedJarFile);
+        }
+    }
+
+    @Test
+    public void mustLazilyGetSameClassInformationAsEagerlyLoaded() throws Exception {
+        FileSystemClassInformationRepository lazyRepo = FileSystemClassInformationRepository.createLazy(asList(jarFile));
+
+        String[] classNames = {
+            "fake/java/lang/Integer",
+            "fake/java/lang/Boolean",
+            "fake/java/util/concurrent/RunnableFuture",
+            "2huowhf9w37fy9fhnwfwfwefasef"
+        };
+        for (String className : classNames) {
+            ClassInformation expected = repo.getInformation(className);
+            ClassInformation actual = lazyRepo.getInformation(className);
+            if (expected == null) {
+                assertNull(actual);
+            } else {
+                assertEquals(expected.getName(), actual.getName());
+                assertEquals(expected.getSuperClassName(), actual.getSuperClassName());
+                assertEquals(expected.getInterfaces(), actual.getInterfaces());
+                assertEquals(expected.isInterface(), actual.isInterface());
+                assertSame(actual, lazyRepo.getInformation(className)); // must be read in only once
+            }
+        }
+    }
+
     @Test
     public void mustFailToGetClassInformationForUnknownClass() {
         ClassInformation info = repo.getInformation("2huowhf9w37fy9fhnwfwfwefasef");
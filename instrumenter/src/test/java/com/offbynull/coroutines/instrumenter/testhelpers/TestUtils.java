@@ -1,5 +1,6 @@
 package com.offbynull.coroutines.instrumenter.testhelpers;
 
+import com.offbynull.coroutines.instrumenter.InstrumentationResult;
 import com.offbynull.coroutines.instrumenter.InstrumentationSettings;
 import com.offbynull.coroutines.instrumenter.Instrumenter;
 import com.offbynull.coroutines.instrumenter.asm.ClassResourceClassInformationRepository;
@@ -8,6 +9,8 @@ import com.offbynull.coroutines.instrumenter.asm.FileSystemClassInformationRepos
 import com.offbynull.coroutines.instrumenter.asm.SimpleClassNode;
 import com.offbynull.coroutines.instrumenter.asm.SimpleClassWriter;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
+import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.FieldResidentLocals;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -35,7 +38,9 @@ import org.apache.commons.lang3.Validate;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AnnotationNode;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
 
 /**
  * Test utilities.
@@ -108,7 +113,16 @@ public final class TestUtils {
         for (Entry<String, byte[]> entry : classContents.entrySet()) {
             byte[] content = entry.getValue();
             if (entry.getKey().endsWith(".class")) {
-                content = instrumenter.instrument(classModifier.apply(content), settings).getInstrumentedClass();
+                InstrumentationResult result = instrumenter.instrument(classModifier.apply(content), settings);
+                content = result.getInstrumentedClass();
+                
+                // Extra classes (e.g. frame classes) need to be placed alongside the class they were generated for
+                String dir = entry.getKey().substring(0, entry.getKey().lastIndexOf('/') + 1);
+                for (Entry<String, byte[]> extraFile : result.getExtraFiles().entrySet()) {
+                    if (extraFile.getKey().endsWith(".class")) {
+                        instrumentedJarEntries.add(new JarEntry(dir + extraFile.getKey(), extraFile.getValue()));
+                    }
+                }
             }
             instrumentedJarEntries.add(new JarEntry(entry.getKey(), content));
         }
@@ -346,4 +360,31 @@ public final class TestUtils {
             return cw.toByteArray();
         }
     }
+    
+    public static final class FieldResidentLocalsAnnotator implements Function<byte[], byte[]> {
+
+        @Override
+        public byte[] apply(byte[] t) {
+            ClassReader cr = new ClassReader(t);
+            ClassNode cn = new SimpleClassNode();
+            cr.accept(cn, 0);
+
+            Type continuationType = Type.getType(Continuation.class);
+            String annotationDesc = Type.getDescriptor(FieldResidentLocals.class);
+            for (MethodNode mn : cn.methods) {
+                if ("<init>".equals(mn.name) || !Arrays.asList(Type.getArgumentTypes(mn.desc)).contains(continuationType)) {
+                    continue;
+                }
+                if (mn.invisibleAnnotations == null) {
+                    mn.invisibleAnnotations = new ArrayList<>();
+                }
+                mn.invisibleAnnotations.add(new AnnotationNode(annotationDesc));
+            }
+
+            ClassWriter cw = new ClassWriter(0);
+            cn.accept(cw);
+
+            return cw.toByteArray();
+        }
+    }
 }
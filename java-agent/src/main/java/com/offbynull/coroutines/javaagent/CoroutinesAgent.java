@@ -19,8 +19,10 @@ package com.offbynull.coroutines.javaagent;
 import com.offbynull.coroutines.instrumenter.InstrumentationResult;
 import com.offbynull.coroutines.instrumenter.InstrumentationSettings;
 import com.offbynull.coroutines.instrumenter.Instrumenter;
-import com.offbynull.coroutines.instrumenter.asm.ClassResourceClassInformationRepository;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
+import com.offbynull.coroutines.javaagent.InstrumentedClassCache.RecordingClassInformationRepository;
+import java.io.File;
+import java.io.IOException;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
@@ -33,6 +35,12 @@ import java.util.Arrays;
  */
 public final class CoroutinesAgent {
 
+    // Upper bound on the amount of class information (used by the instrumenter to look up class hierarchies) cached for each class loader
+    private static final int MAX_CACHED_CLASSES_PER_CLASSLOADER = 10000;
+    
+    // Default upper bound on the size of the on-disk cache of instrumented classes (only used if cacheDirectory is set)
+    private static final long DEFAULT_CACHE_MAX_SIZE = 100L * 1024L * 1024L;
+
     private CoroutinesAgent() {
         // do nothing
     }
@@ -52,6 +60,9 @@ public final class CoroutinesAgent {
         MarkerType markerType = MarkerType.NONE;
         boolean debugMode = false;
         boolean autoSerializable = true;
+        boolean leanMode = false;
+        File cacheDirectory = null;
+        long cacheMaxSize = DEFAULT_CACHE_MAX_SIZE;
         if (agentArgs != null && !agentArgs.isEmpty()) {
             String[] splitArgs = agentArgs.split(",");
             for (String splitArg : splitArgs) {
@@ -90,28 +101,64 @@ public final class CoroutinesAgent {
                             throw new IllegalArgumentException("Unable to parse debug mode -- must be true or false");
                         }
                         break;                        
+                    case "leanMode":
+                        if (val.equalsIgnoreCase("true")) {
+                            leanMode = true;
+                        } else if (val.equalsIgnoreCase("false")) {
+                            leanMode = false;
+                        } else {
+                            throw new IllegalArgumentException("Unable to parse lean mode -- must be true or false");
+                        }
+                        break;
+                    case "cacheDirectory":
+                        if (val.isEmpty()) {
+                            throw new IllegalArgumentException("Unable to parse cache directory -- must not be empty");
+                        }
+                        cacheDirectory = new File(val);
+                        break;
+                    case "cacheMaxSize":
+                        try {
+                            cacheMaxSize = Long.parseLong(val);
+                        } catch (NumberFormatException nfe) {
+                            throw new IllegalArgumentException("Unable to parse cache max size -- must be a number of bytes", nfe);
+                        }
+                        if (cacheMaxSize < 0L) {
+                            throw new IllegalArgumentException("Unable to parse cache max size -- must not be negative");
+                        }
+                        break;
                     default:
                         throw new IllegalArgumentException("Unrecognized arg passed to Coroutines Java agent: " + keyVal);
                 }
             }
         }
         
-        inst.addTransformer(new CoroutinesClassFileTransformer(markerType, debugMode, autoSerializable));
+        InstrumentationSettings settings = new InstrumentationSettings(markerType, debugMode, autoSerializable)
+                .withLeanMode(leanMode);
+        InstrumentedClassCache instrumentedClassCache = null;
+        if (cacheDirectory != null) {
+            try {
+                instrumentedClassCache = new InstrumentedClassCache(cacheDirectory, cacheMaxSize, settings);
+            } catch (IOException ioe) {
+                throw new IllegalArgumentException("Unable to create cache directory: " + cacheDirectory, ioe);
+            }
+        }
+        
+        inst.addTransformer(new CoroutinesClassFileTransformer(settings, instrumentedClassCache));
     }
     
     private static final class CoroutinesClassFileTransformer implements ClassFileTransformer {
-        private final MarkerType markerType;
-        private final boolean debugMode;
-        private final boolean autoSerializable;
+        private final InstrumentationSettings settings;
+        private final InstrumenterCache instrumenterCache;
+        private final InstrumentedClassCache instrumentedClassCache; // null if not caching to disk
 
-        CoroutinesClassFileTransformer(MarkerType markerType, boolean debugMode, boolean autoSerializable) {
-            if (markerType == null) {
+        CoroutinesClassFileTransformer(InstrumentationSettings settings, InstrumentedClassCache instrumentedClassCache) {
+            if (settings == null) {
                 throw new NullPointerException();
             }
 
-            this.markerType = markerType;
-            this.debugMode = debugMode;
-            this.autoSerializable = autoSerializable;
+            this.settings = settings;
+            this.instrumenterCache = new InstrumenterCache(MAX_CACHED_CLASSES_PER_CLASSLOADER);
+            this.instrumentedClassCache = instrumentedClassCache;
         }
 
         @Override
@@ -135,15 +182,37 @@ public final class CoroutinesAgent {
             
 //            System.out.println(className + " " + (loader == null));
             
+            String cacheKey = null;
+            RecordingClassInformationRepository recordingRepo = null;
+            if (instrumentedClassCache != null) {
+                cacheKey = instrumentedClassCache.key(classfileBuffer);
+                byte[] cached = instrumentedClassCache.get(cacheKey, instrumenterCache.getRepository(loader));
+                if (cached != null) {
+                    return cached;
+                }
+                // Track the class hierarchy lookups made while instrumenting, the cached entry is only valid so long as they don't change
+                recordingRepo = new RecordingClassInformationRepository(instrumenterCache.getRepository(loader));
+            }
+            
+            byte[] instrumented;
             try {
-                InstrumentationSettings settings = new InstrumentationSettings(markerType, debugMode, autoSerializable);
-                Instrumenter instrumenter = new Instrumenter(new ClassResourceClassInformationRepository(loader));
+                Instrumenter instrumenter = recordingRepo != null ? new Instrumenter(recordingRepo) : instrumenterCache.get(loader);
                 InstrumentationResult result = instrumenter.instrument(classfileBuffer, settings);
-                return result.getInstrumentedClass();
+                instrumented = result.getInstrumentedClass();
             } catch (Throwable e) {
                 System.err.println("FAILED TO INSTRUMENT: " + e);
                 return null;
             }
+            
+            if (instrumentedClassCache != null && !Arrays.equals(classfileBuffer, instrumented)) {
+                try {
+                    instrumentedClassCache.put(cacheKey, instrumented, recordingRepo.lookups());
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("FAILED TO CACHE INSTRUMENTED CLASS: " + e);
+                }
+            }
+            
+            return instrumented;
         }
         
     }
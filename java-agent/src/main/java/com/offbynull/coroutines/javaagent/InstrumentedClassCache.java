@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.javaagent;
+
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings;
+import com.offbynull.coroutines.instrumenter.Instrumenter;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformation;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformationRepository;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+
+// On-disk cache of instrumented classes, so that classes don't have to be instrumented again each time the JVM starts. Each instrumented
+// class is stored in its own file, named after the hash of...
+//   instrumenter version (changes whenever the instrumenter changes)
+//   instrumentation settings
+//   original class bytes
+// ... along with the class hierarchy information of every class that the instrumenter looked up while instrumenting it (see
+// RecordingClassInformationRepository) -- the instrumented output (stack map frames specifically) depends on the hierarchy of these
+// classes. An entry is only used if the hierarchy of those classes is still the same in the JVM that's asking for it (e.g. a superclass
+// hasn't been changed and had an interface added/removed), meaning that an entry can never be reused if anything that would affect its
+// output changes. Only classes that actually got changed by instrumentation are stored (the vast majority of classes don't need
+// instrumentation, and for those the instrumenter bails out early).
+//
+// The file for each entry is laid out as...
+//   number of dependencies (int)
+//   name + description of class information for each dependency (UTF strings, see describe())
+//   length of instrumented class (int)
+//   instrumented class (bytes)
+//
+// Files are written to a temporary file and moved in place, so a JVM that crashes (or multiple JVMs sharing the same directory) can never
+// leave behind a partially written entry. Once the total size of the entries goes over the maximum size, the least recently used entries
+// (based on last modified time, which gets bumped every time an entry is used) are deleted until the total size is 10% under the maximum.
+//
+// Safe to call from multiple threads.
+final class InstrumentedClassCache {
+
+    private static final String EXTENSION = ".class";
+
+    private final File directory;
+    private final long maxSize;
+    private final byte[] keyPrefix;
+    private final AtomicLong size;
+    private final Object evictLock = new Object();
+
+    InstrumentedClassCache(File directory, long maxSize, InstrumentationSettings settings) throws IOException {
+        if (directory == null || settings == null) {
+            throw new NullPointerException();
+        }
+        if (maxSize < 0L) {
+            throw new IllegalArgumentException();
+        }
+
+        FileUtils.forceMkdir(directory);
+
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.keyPrefix = (Instrumenter.getVersion() + '\t' + settings + '\n').getBytes(StandardCharsets.UTF_8);
+        this.size = new AtomicLong(sizeOf(listEntries()));
+    }
+
+    String key(byte[] classData) {
+        if (classData == null) {
+            throw new NullPointerException();
+        }
+
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        digest.update(keyPrefix);
+        digest.update(classData);
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    // Returns null if not cached, or if the class hierarchy information that the cached entry was instrumented against is different from
+    // what's in repo.
+    byte[] get(String key, ClassInformationRepository repo) {
+        if (key == null || repo == null) {
+            throw new NullPointerException();
+        }
+
+        File file = new File(directory, key + EXTENSION);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        byte[] instrumentedClassData;
+        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(FileUtils.readFileToByteArray(file)))) {
+            int dependencyCount = dis.readInt();
+            for (int i = 0; i < dependencyCount; i++) {
+                String name = dis.readUTF();
+                String description = dis.readUTF();
+                if (!description.equals(describe(repo.getInformation(name)))) {
+                    return null; // class hierarchy changed since this entry was put in, it'll get replaced once instrumented again
+                }
+            }
+            instrumentedClassData = new byte[dis.readInt()];
+            dis.readFully(instrumentedClassData);
+        } catch (IOException ioe) {
+            // Deleted between the check and the read (e.g. evicted by another JVM) or corrupt, treat as missing
+            return null;
+        }
+
+        file.setLastModified(System.currentTimeMillis()); // best effort, keeps the entry from being evicted
+        return instrumentedClassData;
+    }
+
+    // dependencies should be the class information lookups made while instrumenting (see RecordingClassInformationRepository). Replaces
+    // the existing entry (if any), since an entry is only ever put in again if get() found it to be stale.
+    void put(String key, byte[] instrumentedClassData, Map<String, ClassInformation> dependencies) throws IOException {
+        if (key == null || instrumentedClassData == null || dependencies == null) {
+            throw new NullPointerException();
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            Map<String, ClassInformation> sortedDependencies = new TreeMap<>(dependencies);
+            dos.writeInt(sortedDependencies.size());
+            for (Map.Entry<String, ClassInformation> dependency : sortedDependencies.entrySet()) {
+                dos.writeUTF(dependency.getKey());
+                dos.writeUTF(describe(dependency.getValue()));
+            }
+            dos.writeInt(instrumentedClassData.length);
+            dos.write(instrumentedClassData);
+        }
+        byte[] data = baos.toByteArray();
+
+        File file = new File(directory, key + EXTENSION);
+        File tempFile = File.createTempFile(key, ".tmp", directory);
+        try {
+            FileUtils.writeByteArrayToFile(tempFile, data);
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+
+        if (size.addAndGet(data.length) > maxSize) {
+            evict();
+        }
+    }
+
+    private static String describe(ClassInformation classInformation) {
+        if (classInformation == null) {
+            return "null";
+        }
+        return classInformation.getName()
+                + '|' + classInformation.getSuperClassName()
+                + '|' + String.join(",", classInformation.getInterfaces())
+                + '|' + classInformation.isInterface();
+    }
+
+    private void evict() {
+        synchronized (evictLock) {
+            // Re-list rather than trusting the running total -- other JVMs may be adding/evicting entries in the same directory
+            File[] files = listEntries();
+            long total = sizeOf(files);
+            if (total <= maxSize) {
+                size.set(total);
+                return;
+            }
+
+            // Snapshot last modified times before sorting -- they may change mid-sort if entries are being used
+            Map<File, Long> lastModifieds = new HashMap<>();
+            for (File file : files) {
+                lastModifieds.put(file, file.lastModified());
+            }
+            Arrays.sort(files, Comparator.comparing(lastModifieds::get));
+
+            long targetSize = maxSize - maxSize / 10L;
+            for (File file : files) {
+                if (total <= targetSize) {
+                    break;
+                }
+                long length = file.length();
+                if (file.delete()) {
+                    total -= length;
+                }
+            }
+            size.set(total);
+        }
+    }
+
+    private File[] listEntries() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        return files == null ? new File[0] : files;
+    }
+
+    private static long sizeOf(File[] files) {
+        long total = 0L;
+        for (File file : files) {
+            total += file.length();
+        }
+        return total;
+    }
+
+    // Wraps a repository and records every lookup made against it. Not thread-safe -- create one for each class being instrumented.
+    static final class RecordingClassInformationRepository implements ClassInformationRepository {
+        private final ClassInformationRepository backingRepo;
+        private final Map<String, ClassInformation> lookups = new HashMap<>();
+
+        RecordingClassInformationRepository(ClassInformationRepository backingRepo) {
+            if (backingRepo == null) {
+                throw new NullPointerException();
+            }
+            this.backingRepo = backingRepo;
+        }
+
+        @Override
+        public ClassInformation getInformation(String internalClassName) {
+            if (internalClassName == null) {
+                throw new NullPointerException();
+            }
+            ClassInformation ret = backingRepo.getInformation(internalClassName);
+            lookups.put(internalClassName, ret);
+            return ret;
+        }
+
+        Map<String, ClassInformation> lookups() {
+            return lookups;
+        }
+    }
+}
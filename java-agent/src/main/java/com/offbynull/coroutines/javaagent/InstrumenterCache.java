@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.javaagent;
+
+import com.offbynull.coroutines.instrumenter.Instrumenter;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformation;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformationRepository;
+import com.offbynull.coroutines.instrumenter.asm.ClassResourceClassInformationRepository;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// Holds on to one Instrumenter per ClassLoader. Each Instrumenter is backed by a repository that caches the class information it reads out
+// of its ClassLoader's .class resources, so hierarchy lookups for commonly used classes (e.g. the superclasses/interfaces shared by many
+// classes) only read and parse the .class resource once.
+//
+// Nothing held on to by this cache strongly references a ClassLoader (the ClassLoader is only referenced weakly by the repository), so
+// caching doesn't prevent class loaders from being unloaded. Class information caches are bounded -- once full, the least recently used
+// entry gets evicted.
+//
+// Safe to call from multiple threads (e.g. parallel capable class loaders may transform classes concurrently).
+final class InstrumenterCache {
+
+    private final int maxEntriesPerClassLoader;
+    private final Map<ClassLoader, Entry> entries = new WeakHashMap<>(); // guarded by itself
+
+    InstrumenterCache(int maxEntriesPerClassLoader) {
+        if (maxEntriesPerClassLoader < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxEntriesPerClassLoader = maxEntriesPerClassLoader;
+    }
+
+    Instrumenter get(ClassLoader classLoader) {
+        return getEntry(classLoader).instrumenter;
+    }
+
+    // Repository backing the Instrumenter returned by get().
+    ClassInformationRepository getRepository(ClassLoader classLoader) {
+        return getEntry(classLoader).repository;
+    }
+
+    private Entry getEntry(ClassLoader classLoader) {
+        if (classLoader == null) {
+            throw new NullPointerException();
+        }
+
+        synchronized (entries) {
+            Entry entry = entries.get(classLoader);
+            if (entry == null) {
+                entry = new Entry(new CachingClassResourceRepository(classLoader, maxEntriesPerClassLoader));
+                entries.put(classLoader, entry);
+            }
+            return entry;
+        }
+    }
+
+    private static final class Entry {
+        private final ClassInformationRepository repository;
+        private final Instrumenter instrumenter;
+
+        Entry(ClassInformationRepository repository) {
+            this.repository = repository;
+            this.instrumenter = new Instrumenter(repository);
+        }
+    }
+
+    private static final class CachingClassResourceRepository implements ClassInformationRepository {
+        private final WeakReference<ClassLoader> classLoaderRef;
+        private final Map<String, ClassInformation> cache; // guarded by itself
+
+        CachingClassResourceRepository(ClassLoader classLoader, int maxEntries) {
+            this.classLoaderRef = new WeakReference<>(classLoader);
+            this.cache = new LruMap<>(maxEntries);
+        }
+
+        @Override
+        public ClassInformation getInformation(String internalClassName) {
+            if (internalClassName == null) {
+                throw new NullPointerException();
+            }
+
+            synchronized (cache) {
+                ClassInformation classInformation = cache.get(internalClassName);
+                if (classInformation != null) {
+                    return classInformation;
+                }
+            }
+
+            ClassLoader classLoader = classLoaderRef.get();
+            if (classLoader == null) {
+                return null; // class loader was unloaded, nothing can be transforming classes for it anymore
+            }
+
+            // Read outside of lock. If multiple threads read the same class at the same time, they'll all come up with the same result.
+            // Classes that aren't found aren't cached -- the class loader may be able to find them later on (e.g. URLClassLoader.addURL()).
+            ClassInformation classInformation = new ClassResourceClassInformationRepository(classLoader).getInformation(internalClassName);
+            if (classInformation != null) {
+                synchronized (cache) {
+                    cache.put(internalClassName, classInformation);
+                }
+            }
+
+            return classInformation;
+        }
+    }
+
+    private static final class LruMap<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        LruMap(int maxEntries) {
+            super(16, 0.75f, true); // access order
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
@@ -1,16 +1,25 @@
 package com.offbynull.coroutines.javaagent;
 
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings;
+import com.offbynull.coroutines.instrumenter.asm.ClassResourceClassInformationRepository;
+import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
 import java.net.URL;
+import java.nio.file.Files;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.Validate;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
@@ -66,6 +75,77 @@ public class CoroutinesAgentTest {
         assertTrue(outputContent.length > inputContent.length);
     }
 
+    @Test
+    public void mustInstrumentClassesInLeanMode() throws Exception {
+        Instrumentation inst = mock(Instrumentation.class);
+        String agentArgs = "markerType=NONE,leanMode=true";
+        
+        CoroutinesAgent.premain(agentArgs, inst);
+        
+        ArgumentCaptor<ClassFileTransformer> captor = ArgumentCaptor.forClass(ClassFileTransformer.class);
+        verify(inst).addTransformer(captor.capture());
+        
+        byte[] inputContent = readZipFromResource("NormalInvokeTest.zip").get("NormalInvokeTest.class");
+        
+        ClassFileTransformer tranformer = captor.getValue();
+        byte[] outputContent = tranformer.transform(
+                getClass().getClassLoader(),
+                "NormalInvokeTest",
+                null,
+                null,
+                inputContent);
+        
+        assertTrue(outputContent.length > inputContent.length);
+    }
+
+    @Test
+    public void mustReuseInstrumentedClassesFromCacheDirectory() throws Exception {
+        File cacheDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        try {
+            String agentArgs = "cacheDirectory=" + cacheDir.getAbsolutePath() + ",cacheMaxSize=1000000";
+            byte[] inputContent = readZipFromResource("NormalInvokeTest.zip").get("NormalInvokeTest.class");
+
+            Instrumentation inst = mock(Instrumentation.class);
+            CoroutinesAgent.premain(agentArgs, inst);
+            ArgumentCaptor<ClassFileTransformer> captor = ArgumentCaptor.forClass(ClassFileTransformer.class);
+            verify(inst).addTransformer(captor.capture());
+            byte[] outputContent = captor.getValue().transform(getClass().getClassLoader(), "NormalInvokeTest", null, null, inputContent);
+
+            assertTrue(outputContent.length > inputContent.length);
+            File[] cachedFiles = cacheDir.listFiles();
+            assertEquals(1, cachedFiles.length);
+            InstrumentedClassCache cache = new InstrumentedClassCache(cacheDir, 1000000L,
+                    new InstrumentationSettings(MarkerType.NONE, false, true));
+            String key = cache.key(inputContent);
+            assertEquals(key + ".class", cachedFiles[0].getName());
+            assertArrayEquals(outputContent, cache.get(key, new ClassResourceClassInformationRepository(getClass().getClassLoader())));
+
+            // Overwrite the cached entry -- a fresh agent (e.g. JVM restart) should return whatever is in the cache without instrumenting
+            byte[] fakeContent = new byte[] { 1, 2, 3 };
+            cache.put(key, fakeContent, Collections.emptyMap());
+
+            inst = mock(Instrumentation.class);
+            CoroutinesAgent.premain(agentArgs, inst);
+            captor = ArgumentCaptor.forClass(ClassFileTransformer.class);
+            verify(inst).addTransformer(captor.capture());
+            outputContent = captor.getValue().transform(getClass().getClassLoader(), "NormalInvokeTest", null, null, inputContent);
+
+            assertArrayEquals(fakeContent, outputContent);
+        } finally {
+            FileUtils.deleteQuietly(cacheDir);
+        }
+    }
+
+    @Test
+    public void mustFailIfCacheMaxSizeIncorrect() throws Exception {
+        Instrumentation inst = mock(Instrumentation.class);
+        String agentArgs = "cacheDirectory=ignored,cacheMaxSize=-1";
+        
+        assertThrows(IllegalArgumentException.class, () -> {
+            CoroutinesAgent.premain(agentArgs, inst);
+        });
+    }
+
     @Test
     public void mustFailIfDebugTypeIncorrect() throws Exception {
         Instrumentation inst = mock(Instrumentation.class);
@@ -76,6 +156,16 @@ public class CoroutinesAgentTest {
         });
     }
 
+    @Test
+    public void mustFailIfLeanModeIncorrect() throws Exception {
+        Instrumentation inst = mock(Instrumentation.class);
+        String agentArgs = "markerType=NONE,leanMode=ffffffffffff";
+        
+        assertThrows(IllegalArgumentException.class, () -> {
+            CoroutinesAgent.premain(agentArgs, inst);
+        });
+    }
+
     @Test
     public void mustFailIfMarkerTypeIncorrect() throws Exception {
         Instrumentation inst = mock(Instrumentation.class);
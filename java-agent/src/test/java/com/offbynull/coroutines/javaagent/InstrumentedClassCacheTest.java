@@ -0,0 +1,111 @@
+package com.offbynull.coroutines.javaagent;
+
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformation;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformationRepository;
+import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
+import com.offbynull.coroutines.javaagent.InstrumentedClassCache.RecordingClassInformationRepository;
+import java.io.File;
+import java.nio.file.Files;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class InstrumentedClassCacheTest {
+
+    private static final ClassInformationRepository EMPTY_REPO = x -> null;
+
+    private File cacheDir;
+
+    @BeforeEach
+    public void before() throws Exception {
+        cacheDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    }
+
+    @AfterEach
+    public void after() {
+        FileUtils.deleteQuietly(cacheDir);
+    }
+
+    @Test
+    public void mustKeyOnSettingsAndClassData() throws Exception {
+        InstrumentedClassCache cache1 = new InstrumentedClassCache(cacheDir, 1000L,
+                new InstrumentationSettings(MarkerType.NONE, false, true));
+        InstrumentedClassCache cache2 = new InstrumentedClassCache(cacheDir, 1000L,
+                new InstrumentationSettings(MarkerType.NONE, true, true));
+
+        assertEquals(cache1.key(new byte[] { 1 }), cache1.key(new byte[] { 1 }));
+        assertNotEquals(cache1.key(new byte[] { 1 }), cache1.key(new byte[] { 2 }));
+        assertNotEquals(cache1.key(new byte[] { 1 }), cache2.key(new byte[] { 1 }));
+    }
+
+    @Test
+    public void mustEvictLeastRecentlyUsedEntriesWhenFull() throws Exception {
+        InstrumentedClassCache cache = new InstrumentedClassCache(cacheDir, 250L,
+                new InstrumentationSettings(MarkerType.NONE, false, true));
+
+        String key1 = cache.key(new byte[] { 1 });
+        String key2 = cache.key(new byte[] { 2 });
+        String key3 = cache.key(new byte[] { 3 });
+
+        cache.put(key1, new byte[100], emptyMap());
+        cache.put(key2, new byte[100], emptyMap());
+        setLastModified(key1, 1000L);
+        setLastModified(key2, 2000L);
+        
+        assertArrayEquals(new byte[100], cache.get(key1, EMPTY_REPO)); // bumps key1's last modified time, so key2 is now the least recently used
+        cache.put(key3, new byte[100], emptyMap());
+
+        assertArrayEquals(new byte[100], cache.get(key1, EMPTY_REPO));
+        assertNull(cache.get(key2, EMPTY_REPO));
+        assertArrayEquals(new byte[100], cache.get(key3, EMPTY_REPO));
+    }
+
+    @Test
+    public void mustNotReuseEntriesWhenClassHierarchyChanges() throws Exception {
+        InstrumentedClassCache cache = new InstrumentedClassCache(cacheDir, 1000L,
+                new InstrumentationSettings(MarkerType.NONE, false, true));
+
+        ClassInformation original = new ClassInformation("Child", "Parent", emptyList(), false);
+        ClassInformation changed = new ClassInformation("Child", "OtherParent", emptyList(), false);
+        ClassInformationRepository originalRepo = x -> x.equals("Child") ? original : null;
+        ClassInformationRepository changedRepo = x -> x.equals("Child") ? changed : null;
+
+        String key = cache.key(new byte[] { 1 });
+        cache.put(key, new byte[] { 9 }, singletonMap("Child", original));
+        assertArrayEquals(new byte[] { 9 }, cache.get(key, originalRepo));
+        assertNull(cache.get(key, changedRepo));
+        assertNull(cache.get(key, EMPTY_REPO)); // class can't be found anymore
+
+        cache.put(key, new byte[] { 8 }, singletonMap("Child", changed)); // instrumented again against the changed hierarchy
+        assertArrayEquals(new byte[] { 8 }, cache.get(key, changedRepo));
+        assertNull(cache.get(key, originalRepo));
+    }
+
+    @Test
+    public void mustRecordClassInformationLookups() throws Exception {
+        ClassInformation info = new ClassInformation("Child", "Parent", emptyList(), false);
+        RecordingClassInformationRepository repo = new RecordingClassInformationRepository(x -> x.equals("Child") ? info : null);
+
+        assertSame(info, repo.getInformation("Child"));
+        assertNull(repo.getInformation("Missing"));
+
+        assertEquals(2, repo.lookups().size());
+        assertSame(info, repo.lookups().get("Child"));
+        assertTrue(repo.lookups().containsKey("Missing"));
+    }
+
+    private void setLastModified(String key, long time) {
+        new File(cacheDir, key + ".class").setLastModified(time);
+    }
+}
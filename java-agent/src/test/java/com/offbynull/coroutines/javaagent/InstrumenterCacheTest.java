@@ -0,0 +1,70 @@
+package com.offbynull.coroutines.javaagent;
+
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings;
+import com.offbynull.coroutines.instrumenter.Instrumenter;
+import com.offbynull.coroutines.instrumenter.asm.ClassResourceClassInformationRepository;
+import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import org.junit.jupiter.api.Test;
+
+public class InstrumenterCacheTest {
+
+    @Test
+    public void mustReuseInstrumenterForSameClassLoader() throws Exception {
+        InstrumenterCache cache = new InstrumenterCache(100);
+        ClassLoader classLoader = getClass().getClassLoader();
+        
+        try (URLClassLoader otherClassLoader = new URLClassLoader(new URL[0], classLoader)) {
+            Instrumenter instrumenter = cache.get(classLoader);
+            assertSame(instrumenter, cache.get(classLoader));
+            assertNotSame(instrumenter, cache.get(otherClassLoader));
+            assertSame(cache.get(otherClassLoader), cache.get(otherClassLoader));
+        }
+    }
+
+    @Test
+    public void mustInstrumentSameAsUncachedRegardlessOfCacheSize() throws Exception {
+        byte[] inputContent = readClassFromZipResource("NormalInvokeTest.zip", "NormalInvokeTest.class");
+        ClassLoader classLoader = getClass().getClassLoader();
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.NONE, false, true);
+        
+        byte[] expected = new Instrumenter(new ClassResourceClassInformationRepository(classLoader))
+                .instrument(inputContent, settings)
+                .getInstrumentedClass();
+        
+        for (int maxEntries : new int[] { 0, 1, 100 }) {
+            InstrumenterCache cache = new InstrumenterCache(maxEntries);
+            for (int i = 0; i < 2; i++) { // 2nd time around, class information should be coming from the cache (if it fits)
+                byte[] actual = cache.get(classLoader).instrument(inputContent, settings).getInstrumentedClass();
+                assertArrayEquals(expected, actual);
+            }
+        }
+    }
+    
+    private byte[] readClassFromZipResource(String path, String name) throws Exception {
+        ClassLoader cl = ClassLoader.getSystemClassLoader();
+        URL url = cl.getResource(path);
+        Validate.isTrue(url != null);
+        
+        try (InputStream is = url.openStream();
+                ZipArchiveInputStream zais = new ZipArchiveInputStream(is)) {
+            ZipArchiveEntry entry;
+            while ((entry = zais.getNextZipEntry()) != null) {
+                if (entry.getName().equals(name)) {
+                    return IOUtils.toByteArray(zais);
+                }
+            }
+        }
+        
+        throw new IllegalArgumentException();
+    }
+}
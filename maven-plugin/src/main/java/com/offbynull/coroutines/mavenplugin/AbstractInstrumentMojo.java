@@ -17,6 +17,8 @@
 package com.offbynull.coroutines.mavenplugin;
 
 import com.offbynull.coroutines.instrumenter.InstrumentationSettings;
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.FieldResidentLocalsMode;
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.StateLayout;
 import com.offbynull.coroutines.instrumenter.Instrumenter;
 import com.offbynull.coroutines.instrumenter.PluginHelper;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
@@ -46,6 +48,30 @@ public abstract class AbstractInstrumentMojo extends AbstractMojo {
     
     @Parameter(property = "coroutines.autoSerializable", defaultValue = "true")
     private boolean autoSerializable;
+    
+    @Parameter(property = "coroutines.callGraphAnalysis", defaultValue = "false")
+    private boolean callGraphAnalysis;
+    
+    @Parameter(property = "coroutines.stateLayout", defaultValue = "ARRAYS")
+    private StateLayout stateLayout;
+    
+    @Parameter(property = "coroutines.fieldResidentLocalsMode", defaultValue = "ANNOTATED")
+    private FieldResidentLocalsMode fieldResidentLocalsMode;
+    
+    @Parameter(property = "coroutines.methodSplitting", defaultValue = "false")
+    private boolean methodSplitting;
+    
+    @Parameter(property = "coroutines.leanMode", defaultValue = "false")
+    private boolean leanMode;
+    
+    @Parameter(property = "coroutines.parallelism", defaultValue = "1")
+    private int parallelism;
+    
+    @Parameter(property = "coroutines.incremental", defaultValue = "false")
+    private boolean incremental;
+    
+    @Parameter(property = "coroutines.classpathCacheDirectory")
+    private File classpathCacheDirectory;
 
     /**
      * Instruments all classes in a path recursively.
@@ -58,9 +84,14 @@ public abstract class AbstractInstrumentMojo extends AbstractMojo {
             throws MojoExecutionException {
         try {
             Instrumenter instrumenter = getInstrumenter(log, classpath);
-            InstrumentationSettings settings = new InstrumentationSettings(markerType, debugMode, autoSerializable);
+            InstrumentationSettings settings = new InstrumentationSettings(markerType, debugMode, autoSerializable)
+                    .withCallGraphAnalysis(callGraphAnalysis)
+                    .withStateLayout(stateLayout)
+                    .withFieldResidentLocalsMode(fieldResidentLocalsMode)
+                    .withMethodSplitting(methodSplitting)
+                    .withLeanMode(leanMode);
 
-            PluginHelper.instrument(instrumenter, settings, path, path, log::info);
+            PluginHelper.instrument(instrumenter, settings, path, path, log::info, parallelism, incremental);
         } catch (Exception ex) {
             throw new MojoExecutionException("Unable to get compile classpath elements", ex);
         }
@@ -88,7 +119,12 @@ public abstract class AbstractInstrumentMojo extends AbstractMojo {
         log.debug("Creating instrumenter...");
 
         try {
-            return new Instrumenter(classpathFiles);
+            if (classpathCacheDirectory != null) {
+                log.debug("Caching classpath information in " + classpathCacheDirectory);
+                return new Instrumenter(classpathFiles, classpathCacheDirectory);
+            } else {
+                return new Instrumenter(classpathFiles);
+            }
         } catch (Exception ex) {
             throw new MojoExecutionException("Unable to create instrumenter", ex);
         }
@@ -102,4 +138,12 @@ public abstract class AbstractInstrumentMojo extends AbstractMojo {
         return project;
     }
 
+    /**
+     * Gets whether call graph analysis is enabled.
+     * @return call graph analysis
+     */
+    protected final boolean isCallGraphAnalysis() {
+        return callGraphAnalysis;
+    }
+
 }
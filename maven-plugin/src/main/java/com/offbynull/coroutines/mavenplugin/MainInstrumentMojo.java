@@ -19,11 +19,14 @@ package com.offbynull.coroutines.mavenplugin;
 import java.io.File;
 import java.util.List;
 import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.model.Plugin;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 
 /**
@@ -56,10 +59,21 @@ import org.apache.maven.plugins.annotations.ResolutionScope;
 @Mojo(name = "instrument", defaultPhase = LifecyclePhase.PROCESS_CLASSES, requiresDependencyResolution = ResolutionScope.COMPILE)
 public final class MainInstrumentMojo extends AbstractInstrumentMojo {
 
+    @Parameter(defaultValue = "${plugin}", required = true, readonly = true)
+    private PluginDescriptor plugin;
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         Log log = getLog();
 
+        // Call graph analysis assumes that the classes being instrumented are the only ones that override methods declared in them. Test
+        // classes get instrumented in a separate pass (after main classes have been instrumented), so a test class that overrides a main
+        // class method and suspends would go unseen.
+        if (isCallGraphAnalysis() && isTestInstrumentGoalConfigured()) {
+            throw new MojoExecutionException("Call graph analysis can't be used when the test-instrument goal is also configured -- test"
+                    + " classes may override methods of main classes");
+        }
+
         File mainOutputFolder = new File(getProject().getBuild().getOutputDirectory());
         if (!mainOutputFolder.isDirectory()) {
             log.warn("Main folder doesn't exist -- nothing to instrument");
@@ -76,4 +90,9 @@ public final class MainInstrumentMojo extends AbstractInstrumentMojo {
         log.debug("Processing main output folder ... ");
         instrumentPath(log, classpath, mainOutputFolder);
     }
+
+    private boolean isTestInstrumentGoalConfigured() {
+        Plugin buildPlugin = getProject().getBuild().getPluginsAsMap().get(plugin.getPluginLookupKey());
+        return buildPlugin != null && buildPlugin.getExecutions().stream().anyMatch(x -> x.getGoals().contains("test-instrument"));
+    }
 }
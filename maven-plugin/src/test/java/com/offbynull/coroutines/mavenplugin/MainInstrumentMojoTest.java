@@ -1,5 +1,7 @@
 package com.offbynull.coroutines.mavenplugin;
 
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.FieldResidentLocalsMode;
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.StateLayout;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
 import java.io.File;
 import java.io.IOException;
@@ -16,8 +18,13 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.apache.maven.model.Build;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.project.MavenProject;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -38,7 +45,10 @@ public final class MainInstrumentMojoTest {
         
         FieldUtils.writeField(fixture, "project", mavenProject, true);
         FieldUtils.writeField(fixture, "markerType", MarkerType.NONE, true);
+        FieldUtils.writeField(fixture, "stateLayout", StateLayout.ARRAYS, true);
+        FieldUtils.writeField(fixture, "fieldResidentLocalsMode", FieldResidentLocalsMode.ANNOTATED, true);
         FieldUtils.writeField(fixture, "debugMode", false, true);
+        FieldUtils.writeField(fixture, "parallelism", 1, true);
         FieldUtils.writeField(fixture, "log", log, true);
     }
 
@@ -97,6 +107,29 @@ public final class MainInstrumentMojoTest {
         }
     }
     
+    @Test
+    public void mustRejectCallGraphAnalysisWhenTestInstrumentGoalIsConfigured() throws Exception {
+        FieldUtils.writeField(fixture, "callGraphAnalysis", true, true);
+
+        // mock
+        PluginDescriptor pluginDescriptor = Mockito.mock(PluginDescriptor.class);
+        Mockito.when(pluginDescriptor.getPluginLookupKey()).thenReturn("com.offbynull.coroutines:maven-plugin");
+        FieldUtils.writeField(fixture, "plugin", pluginDescriptor, true);
+
+        PluginExecution execution = new PluginExecution();
+        execution.addGoal("test-instrument");
+        Plugin plugin = new Plugin();
+        plugin.setGroupId("com.offbynull.coroutines");
+        plugin.setArtifactId("maven-plugin");
+        plugin.addExecution(execution);
+        Build build = Mockito.mock(Build.class);
+        Mockito.when(mavenProject.getBuild()).thenReturn(build);
+        Mockito.when(build.getPluginsAsMap()).thenReturn(Collections.singletonMap(plugin.getKey(), plugin));
+
+        // execute plugin
+        assertThrows(MojoExecutionException.class, () -> fixture.execute());
+    }
+    
     private Map<String, byte[]> readZipFromResource(String path) throws IOException {
         ClassLoader cl = ClassLoader.getSystemClassLoader();
         URL url = cl.getResource(path);
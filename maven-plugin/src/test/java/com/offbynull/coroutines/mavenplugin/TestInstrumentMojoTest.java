@@ -1,5 +1,7 @@
 package com.offbynull.coroutines.mavenplugin;
 
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.FieldResidentLocalsMode;
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.StateLayout;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
 import java.io.File;
 import java.io.IOException;
@@ -39,7 +41,10 @@ public final class TestInstrumentMojoTest {
         
         FieldUtils.writeField(fixture, "project", mavenProject, true);
         FieldUtils.writeField(fixture, "markerType", MarkerType.NONE, true);
+        FieldUtils.writeField(fixture, "stateLayout", StateLayout.ARRAYS, true);
+        FieldUtils.writeField(fixture, "fieldResidentLocalsMode", FieldResidentLocalsMode.ANNOTATED, true);
         FieldUtils.writeField(fixture, "debugMode", false, true);
+        FieldUtils.writeField(fixture, "parallelism", 1, true);
         FieldUtils.writeField(fixture, "log", log, true);
     }
 
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import com.offbynull.coroutines.user.SerializedState.Data;
+import com.offbynull.coroutines.user.SerializedState.Frame;
+import com.offbynull.coroutines.user.SerializedState.VersionedFrame;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Shared logic for CoroutineWriter.BinaryCoroutineSerializer / CoroutineReader.BinaryCoroutineDeserializer. Layout is...
+//
+// header (written raw, before the ObjectOutput is created -- lets us reject bad data without creating the ObjectInput):
+//   4 bytes   magic
+//   1 byte    version
+// body (written to ObjectOutput):
+//   object    coroutine
+//   object    context
+//   varint    class name count, followed by that many UTF strings (frames refer to class names by index)
+//   varint    versioned frame count, followed by that many versioned frames
+//
+// versioned frame:
+//   varint    frame count, followed by that many frames
+// frame:
+//   varint    class name index
+//   int       method id
+//   varint    continuation point id
+//   data      variables
+//   data      operands
+// data:
+//   varint    int count, followed by that many ints
+//   varint    float count, followed by that many floats
+//   varint    long count, followed by that many longs
+//   varint    double count, followed by that many doubles
+//   varint    object count, followed by that many objects (written through ObjectOutput.writeObject())
+//   varint    continuation index count, followed by that many varints
+//
+// Monitors aren't supported, same as with the default serializer.
+final class BinaryFormat {
+
+    static final int MAGIC = 0x434F524F; // "CORO"
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 5;
+
+    private BinaryFormat() {
+        // do nothing
+    }
+
+    static void writeHeader(byte[] header) {
+        header[0] = (byte) (MAGIC >>> 24);
+        header[1] = (byte) (MAGIC >>> 16);
+        header[2] = (byte) (MAGIC >>> 8);
+        header[3] = (byte) MAGIC;
+        header[4] = VERSION;
+    }
+
+    static void readHeader(byte[] data) throws StreamCorruptedException {
+        if (data.length < HEADER_SIZE) {
+            throw new StreamCorruptedException("Header missing");
+        }
+
+        int magic = ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+        if (magic != MAGIC) {
+            throw new StreamCorruptedException("Bad magic");
+        }
+        if (data[4] != VERSION) {
+            throw new StreamCorruptedException("Unsupported version: " + data[4]);
+        }
+    }
+
+
+
+    static void writeBody(ObjectOutput out, SerializedState serializedState) throws IOException {
+        out.writeObject(serializedState.getCoroutine());
+        out.writeObject(serializedState.getContext());
+
+        VersionedFrame[] versionedFrames = serializedState.getFrames();
+
+        // Write class names once up front and refer to them by index
+        Map classNameIndexes = new HashMap();
+        List classNames = new ArrayList();
+        for (int i = 0; i < versionedFrames.length; i++) {
+            Frame[] frames = versionedFrames[i].getFrames();
+            for (int j = 0; j < frames.length; j++) {
+                String className = frames[j].getClassName();
+                if (!classNameIndexes.containsKey(className)) {
+                    classNameIndexes.put(className, Integer.valueOf(classNames.size()));
+                    classNames.add(className);
+                }
+            }
+        }
+
+        writeVarInt(out, classNames.size());
+        for (int i = 0; i < classNames.size(); i++) {
+            out.writeUTF((String) classNames.get(i));
+        }
+
+        writeVarInt(out, versionedFrames.length);
+        for (int i = 0; i < versionedFrames.length; i++) {
+            Frame[] frames = versionedFrames[i].getFrames();
+            writeVarInt(out, frames.length);
+            for (int j = 0; j < frames.length; j++) {
+                Frame frame = frames[j];
+                if (frame.getMonitors().length > 0) {
+                    throw new IllegalArgumentException("Monitors not allowed in binary serializer");
+                }
+
+                writeVarInt(out, ((Integer) classNameIndexes.get(frame.getClassName())).intValue());
+                out.writeInt(frame.getMethodId());
+                writeVarInt(out, frame.getContinuationPointId());
+                writeData(out, frame.getVariables());
+                writeData(out, frame.getOperands());
+            }
+        }
+    }
+
+    private static void writeData(ObjectOutput out, Data data) throws IOException {
+        int[] ints = data.getInts();
+        writeVarInt(out, ints.length);
+        for (int i = 0; i < ints.length; i++) {
+            out.writeInt(ints[i]);
+        }
+
+        float[] floats = data.getFloats();
+        writeVarInt(out, floats.length);
+        for (int i = 0; i < floats.length; i++) {
+            out.writeFloat(floats[i]);
+        }
+
+        long[] longs = data.getLongs();
+        writeVarInt(out, longs.length);
+        for (int i = 0; i < longs.length; i++) {
+            out.writeLong(longs[i]);
+        }
+
+        double[] doubles = data.getDoubles();
+        writeVarInt(out, doubles.length);
+        for (int i = 0; i < doubles.length; i++) {
+            out.writeDouble(doubles[i]);
+        }
+
+        Object[] objects = data.getObjects();
+        writeVarInt(out, objects.length);
+        for (int i = 0; i < objects.length; i++) {
+            out.writeObject(objects[i]);
+        }
+
+        int[] continuationIndexes = data.getContinuationIndexes();
+        writeVarInt(out, continuationIndexes.length);
+        for (int i = 0; i < continuationIndexes.length; i++) {
+            writeVarInt(out, continuationIndexes[i]);
+        }
+    }
+
+
+
+    static SerializedState readBody(ObjectInput in) throws IOException, ClassNotFoundException {
+        Coroutine coroutine = (Coroutine) in.readObject();
+        Object context = in.readObject();
+
+        String[] classNames = new String[readLength(in)];
+        for (int i = 0; i < classNames.length; i++) {
+            classNames[i] = in.readUTF();
+        }
+
+        VersionedFrame[] versionedFrames = new VersionedFrame[readLength(in)];
+        for (int i = 0; i < versionedFrames.length; i++) {
+            Frame[] frames = new Frame[readLength(in)];
+            for (int j = 0; j < frames.length; j++) {
+                int classNameIdx = readVarInt(in);
+                if (classNameIdx < 0 || classNameIdx >= classNames.length) {
+                    throw new StreamCorruptedException("Bad class name index: " + classNameIdx);
+                }
+
+                String className = classNames[classNameIdx];
+                int methodId = in.readInt();
+                int continuationPointId = readVarInt(in);
+                Data variables = readData(in);
+                Data operands = readData(in);
+                frames[j] = new Frame(className, methodId, continuationPointId, new Object[0], variables, operands);
+            }
+            versionedFrames[i] = new VersionedFrame(frames);
+        }
+
+        return new SerializedState(coroutine, context, versionedFrames);
+    }
+
+    private static Data readData(ObjectInput in) throws IOException, ClassNotFoundException {
+        int[] ints = new int[readLength(in)];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = in.readInt();
+        }
+
+        float[] floats = new float[readLength(in)];
+        for (int i = 0; i < floats.length; i++) {
+            floats[i] = in.readFloat();
+        }
+
+        long[] longs = new long[readLength(in)];
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = in.readLong();
+        }
+
+        double[] doubles = new double[readLength(in)];
+        for (int i = 0; i < doubles.length; i++) {
+            doubles[i] = in.readDouble();
+        }
+
+        Object[] objects = new Object[readLength(in)];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = in.readObject();
+        }
+
+        int[] continuationIndexes = new int[readLength(in)];
+        for (int i = 0; i < continuationIndexes.length; i++) {
+            continuationIndexes[i] = readVarInt(in);
+        }
+
+        return new Data(ints, floats, longs, doubles, objects, continuationIndexes);
+    }
+
+
+
+    // Unsigned LEB128 -- lengths/indexes/ids that are almost always small take up 1 byte instead of 4.
+    private static void writeVarInt(ObjectOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(ObjectInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Bad varint");
+    }
+
+    private static int readLength(ObjectInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0) {
+            throw new StreamCorruptedException("Bad length: " + length);
+        }
+        return length;
+    }
+}
@@ -28,7 +28,7 @@ import java.io.Serializable;
  * @author Kasra Faghihi
  */
 public final class Continuation implements Serializable {
-    private static final long serialVersionUID = 6L;
+    private static final long serialVersionUID = 7L;
     
     /**
      * Do not use -- for internal use only.
@@ -43,22 +43,26 @@ public final class Continuation implements Serializable {
      */
     public static final int MODE_LOADING = 2;
     
-    private MethodState firstPointer;
+    private static final int INITIAL_CAPACITY = 8;
     
-    private MethodState nextLoadPointer;
-    private MethodState nextUnloadPointer;
+    private MethodState[] savedStates = new MethodState[INITIAL_CAPACITY];
+    private int savedSize;
+    
+    private int nextLoadIdx;
+    private int nextUnloadIdx = -1;
 
-    private MethodState firstCutpointPointer;
+    private MethodState[] cutpointStates = new MethodState[INITIAL_CAPACITY];
+    private int cutpointSize;
     
     private int mode = MODE_NORMAL;
     private Object context;
 
     // How should method states be handled? Imagine that we started off restoring the following call chain...
-    // runA() <-- firstPointer[0]
-    //  runB() <-- firstPointer[1]
-    //   runC() <-- firstPointer[2]
-    //    runD() <-- firstPointer[3]
-    //     runE() <-- firstPointer[4]
+    // runA() <-- savedStates[0]
+    //  runB() <-- savedStates[1]
+    //   runC() <-- savedStates[2]
+    //    runD() <-- savedStates[3]
+    //     runE() <-- savedStates[4]
     //
     // After the restore finishes, the following happens...
     // 1. runE() finishes running and returns
@@ -80,49 +84,54 @@ public final class Continuation implements Serializable {
     // PHASE1
     // ------
     // The first phase is loading. We call loadNextMethodState() to get the method state for the next method in the call chain. Pretty
-    // straight forward.. runA -> runB -> runC -> runD -> runE.
+    // straight forward.. runA -> runB -> runC -> runD -> runE. nextLoadIdx gets bumped up each time, and once it hits the end
+    // nextUnloadIdx is set to point to the last method state (runE).
     //
     //
     // PHASE2
     // ------
     // Once things are loaded... as we leave the restored continuation points in runE() and runD(), we call unloadCurrentMethodState() to
-    // mark these method states as invalid. So after runE()+runD() return, we should be pointing to runC(). Everything after it is no longer
-    // valid...
+    // mark these method states as invalid. So after runE()+runD() return, nextUnloadIdx should be pointing to runC(). Everything after it
+    // is no longer valid...
     //
-    // runA() <-- firstPointer[0]
-    //  runB() <-- firstPointer[1]
-    //   runC() <-- firstPointer[2] / nextUnloadPointer
-    //    runD() <-- firstPointer[3] (NO LONGER CONSIDERED VALID, BUT KEPT ANYWAS -- EXPLAINED FURTHER ON)
-    //     runE() <-- firstPointer[4] (NO LONGER CONSIDERED VALID, BUT KEPT ANYWAS -- EXPLAINED FURTHER ON)
+    // runA() <-- savedStates[0]
+    //  runB() <-- savedStates[1]
+    //   runC() <-- savedStates[2] / nextUnloadIdx
+    //    runD() <-- savedStates[3] (NO LONGER CONSIDERED VALID, BUT KEPT ANYWAS -- EXPLAINED FURTHER ON)
+    //     runE() <-- savedStates[4] (NO LONGER CONSIDERED VALID, BUT KEPT ANYWAS -- EXPLAINED FURTHER ON)
     //
     //
     // PHASE3
     // ------
-    // As runX() and runY() suspend, they put their own method states as part of a NEW linked list: firstCutpointPointer. They do this by
-    // calling pushNewMethodState().
-    //   !!!WE ONLY CREATE METHOD STATES AND ADD THEM TO THIS NEW LIST AFTER THEY'RE SUSPEND! THIS IS REALLY IMPORTANT TO REMEMBER!!!
+    // As runX() and runY() suspend, they put their own method states in to a SEPARATE array: cutpointStates. They do this by calling
+    // pushNewMethodState(). Since the stack unwinds from the deepest method outwards, method states get pushed in reverse order.
+    //   !!!WE ONLY CREATE METHOD STATES AND ADD THEM TO THIS NEW ARRAY AFTER THEY'RE SUSPEND! THIS IS REALLY IMPORTANT TO REMEMBER!!!
     //
-    // runX() <-- firstCutpointPointer[0]
-    //  runY()  <-- firstCutpointPointer[1]
+    // runY() <-- cutpointStates[0]
+    // runX() <-- cutpointStates[1]
     //
     //
-    // Then, once we successfully make our way up and out of the callstack, we merge these two lists together...
-    // runA() <-- savedMethodState[0]
-    //  runB() <-- savedMethodState[1]
-    //   runC() <-- savedMethodState[2] / nextUnloadPointer
-    //    runX() <-- savedMethodState[3] / firstCutpointPointer[0]
-    //     runY() <-- savedMethodState[4] / firstCutpointPointer[1]
+    // Then, once we successfully make our way up and out of the callstack, we copy the cutpoint states (in reverse) over top of the
+    // invalidated portion of savedStates...
+    // runA() <-- savedStates[0]
+    //  runB() <-- savedStates[1]
+    //   runC() <-- savedStates[2] / nextUnloadIdx
+    //    runX() <-- savedStates[3] / cutpointStates[1]
+    //     runY() <-- savedStates[4] / cutpointStates[0]
     //
     //
-    // Why do we use a separate list for new invocations (postCutPointMethodState)? Because if there's an uncaught exception, we
-    // still want to keep the old one exactly the way it was. That's why technically we kept runD() and runE()s method states and just
-    // shift around the pointers. It's only after we're successfuly that we "commit the changes".
+    // Why do we use a separate array for new invocations (cutpointStates)? Because if there's an uncaught exception, we still want to
+    // keep the old one exactly the way it was. That's why technically we kept runD() and runE()s method states and just shift around
+    // the indexes. It's only after we're successful that we "commit the changes".
     //
     //
     // ADDITIONAL NOTES
     // ----------------
     // These phases should always be done in order. If you don't do them in order (e.g. if you try to unloadCurrentMethodState() after
     // you've called pushNewMethodState()), things will likely not act right.
+    //
+    // Both arrays only ever grow. Slots that are no longer in use get nulled out so that old method states can be GC'd, but the arrays
+    // themselves are kept around so that a coroutine that keeps suspending at the same depth doesn't allocate anything here.
     
     Continuation() {
         // do nothing
@@ -158,13 +167,14 @@ public final class Continuation implements Serializable {
      * @return n/a
      */
     public MethodState loadNextMethodState() {
-        MethodState ret = nextLoadPointer;
-        nextLoadPointer = nextLoadPointer.getNext();
+        MethodState ret = savedStates[nextLoadIdx];
+        ret.setLoadIndex(nextLoadIdx); // so that unloadMethodStateToBefore() doesn't have to search for it
+        nextLoadIdx++;
         
-        // We've reached the end of load list, so set up the 'unload' list that gets called when a method continues execution from the point
-        // where it's paused it.
-        if (nextLoadPointer == null) {
-            nextUnloadPointer = ret;
+        // We've reached the end of load list, so set up the 'unload' index that gets used when a method continues execution from the
+        // point where it's paused it.
+        if (nextLoadIdx == savedSize) {
+            nextUnloadIdx = nextLoadIdx - 1;
         }
         
         return ret;
@@ -174,7 +184,7 @@ public final class Continuation implements Serializable {
      * Do not use -- for internal use only.
      */
     public void unloadCurrentMethodState() {
-        nextUnloadPointer = nextUnloadPointer.getPrevious();
+        nextUnloadIdx--;
     }
 
     /**
@@ -182,12 +192,18 @@ public final class Continuation implements Serializable {
      * @param methodState n/a
      */
     public void unloadMethodStateToBefore(MethodState methodState) {
-        // REMEMBER: methodState being passed in must be in the linkedlist starting from firstPointer
+        // REMEMBER: methodState being passed in must be one that was loaded via loadNextMethodState(), which records the index it was
+        // loaded from.
         
         //if (methodState == null) {
         //    throw new NullPointerException();
         //}
-        nextUnloadPointer = methodState.getPrevious();
+        int idx = methodState.getLoadIndex();
+        if (idx < 0 || idx >= nextLoadIdx || savedStates[idx] != methodState) {
+            throw new IllegalStateException("Method state was never loaded");
+        }
+        
+        nextUnloadIdx = idx - 1;
     }
 
     /**
@@ -199,18 +215,23 @@ public final class Continuation implements Serializable {
         //    throw new NullPointerException();
         //}
 
-        methodState.setNext(firstCutpointPointer);
-        firstCutpointPointer = methodState;
+        if (cutpointSize == cutpointStates.length) {
+            cutpointStates = grow(cutpointStates, cutpointSize + 1);
+        }
+        cutpointStates[cutpointSize] = methodState;
+        cutpointSize++;
     }
 
     /**
      * Do not use -- for internal use only.
      */
     public void reset() {
-        firstPointer = null;
-        nextLoadPointer = null;
-        nextUnloadPointer = null;
-        firstCutpointPointer = null;
+        clear(savedStates, 0, savedSize);
+        savedSize = 0;
+        nextLoadIdx = 0;
+        nextUnloadIdx = -1;
+        clear(cutpointStates, 0, cutpointSize);
+        cutpointSize = 0;
         mode = MODE_NORMAL;
     }
 
@@ -220,15 +241,22 @@ public final class Continuation implements Serializable {
     public void successExecutionCycle() {
         // FOR A PRIMER ON WHAT WE'RE DOING HERE, SEE LARGE BLOCK OF COMMENT AT BEGINNING OF CLASS
 
-        if (nextUnloadPointer != null) {
-            nextUnloadPointer.setNext(firstCutpointPointer);
-        } else {
-            firstPointer = firstCutpointPointer;
+        int keepSize = nextUnloadIdx + 1;
+        int newSize = keepSize + cutpointSize;
+        if (newSize > savedStates.length) {
+            savedStates = grow(savedStates, newSize);
+        }
+        
+        for (int i = 0; i < cutpointSize; i++) {
+            savedStates[newSize - 1 - i] = cutpointStates[i];
         }
+        clear(savedStates, newSize, savedSize);         // clear out invalidated states that weren't overwritten
+        savedSize = newSize;
         
-        nextLoadPointer = firstPointer;     // reset next load pointer so we load from the beginning
-        nextUnloadPointer = null;           // reset unload pointer
-        firstCutpointPointer = null;        // reset cutpoint list
+        nextLoadIdx = 0;                                // reset next load index so we load from the beginning
+        nextUnloadIdx = -1;                             // reset unload index
+        clear(cutpointStates, 0, cutpointSize);         // reset cutpoint array
+        cutpointSize = 0;
     }
 
     /**
@@ -237,9 +265,23 @@ public final class Continuation implements Serializable {
     public void failedExecutionCycle() {
         // FOR A PRIMER ON WHAT WE'RE DOING HERE, SEE LARGE BLOCK OF COMMENT AT BEGINNING OF CLASS
         
-        nextLoadPointer = firstPointer;     // reset next load pointer so we load from the beginning
-        nextUnloadPointer = null;           // reset unload pointer
-        firstCutpointPointer = null;        // reset cutpoint list
+        nextLoadIdx = 0;                                // reset next load index so we load from the beginning
+        nextUnloadIdx = -1;                             // reset unload index
+        clear(cutpointStates, 0, cutpointSize);         // reset cutpoint array
+        cutpointSize = 0;
+    }
+    
+    private static MethodState[] grow(MethodState[] states, int minCapacity) {
+        int newCapacity = Math.max(states.length * 2, minCapacity);
+        MethodState[] newStates = new MethodState[newCapacity];
+        System.arraycopy(states, 0, newStates, 0, states.length);
+        return newStates;
+    }
+    
+    private static void clear(MethodState[] states, int from, int to) {
+        for (int i = from; i < to; i++) {
+            states[i] = null;
+        }
     }
 
     
@@ -285,18 +327,11 @@ public final class Continuation implements Serializable {
      * @return n/a
      */
     public MethodState getSaved(int idx) {
-        if (idx < 0) {
+        if (idx < 0 || idx >= savedSize) {
             throw new IllegalArgumentException();
         }
 
-        MethodState state = firstPointer;
-        for (int i = 0; i < idx; i++) {
-            state = state.getNext();
-            if (state == null) {
-               throw new IllegalArgumentException();
-            }
-        }
-        return state;
+        return savedStates[idx];
     }
 
     /**
@@ -304,12 +339,6 @@ public final class Continuation implements Serializable {
      * @return n/a
      */
     public int getSize() {
-        int ret = 0;
-        MethodState state = firstPointer;
-        while (state != null) {
-            ret++;
-            state = state.getNext();
-        }
-        return ret;
+        return savedSize;
     }
 }
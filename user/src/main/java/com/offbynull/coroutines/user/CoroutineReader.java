@@ -22,13 +22,23 @@ import com.offbynull.coroutines.user.SerializedState.FrameInterceptPoint;
 import com.offbynull.coroutines.user.SerializedState.FrameUpdatePoint;
 import com.offbynull.coroutines.user.SerializedState.VersionedFrame;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InvalidClassException;
+import java.io.ObjectInput;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
 import java.io.ObjectStreamClass;
 import java.io.OptionalDataException;
 import java.io.Serializable;
 import java.io.StreamCorruptedException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.ReadableByteChannel;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -37,6 +47,8 @@ import java.util.Map;
  * @author Kasra Faghihi
  */
 public final class CoroutineReader {
+    private static final int STREAM_BUFFER_SIZE = 8192;
+
     private final CoroutineDeserializer deserializer;
     private final Map updatersMap;
     private final Map interceptersMap;
@@ -132,6 +144,94 @@ public final class CoroutineReader {
         return reconstruct(serializedState);
     }
 
+    /**
+     * Deserializes a {@link CoroutineRunner} object from a stream. If the deserializer passed in to this class's constructor is a
+     * {@link StreamingCoroutineDeserializer}, the serialized data is read directly from {@code is}. Otherwise, the remainder of
+     * {@code is} is read in to a byte array first and then deserialized.
+     * <p>
+     * {@code is} doesn't get closed.
+     * @param is input stream to read from
+     * @return data from {@code is} deserialized to a {@link CoroutineRunner} object
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if failed to deserialize or deserialized to a state for an unrecognized method (e.g. a method that's
+     * state is being deserialized for was changed but no {@link FrameUpdatePoint} was provided to this class's constructor to
+     * handle the changes)
+     * @throws IOException if an I/O error occurs
+     */
+    public CoroutineRunner read(InputStream is) throws IOException {
+        if (is == null) {
+            throw new NullPointerException();
+        }
+
+        SerializedState serializedState;
+        if (deserializer instanceof StreamingCoroutineDeserializer) {
+            serializedState = ((StreamingCoroutineDeserializer) deserializer).deserialize(is);
+        } else {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            int readLen;
+            while ((readLen = is.read(buffer)) != -1) {
+                baos.write(buffer, 0, readLen);
+            }
+            serializedState = deserializer.deserialize(baos.toByteArray());
+        }
+        return reconstruct(serializedState);
+    }
+
+    /**
+     * Deserializes a {@link CoroutineRunner} object from a buffer, starting at the buffer's current position. On success, the buffer's
+     * position will be moved forward past the data that was read. On failure, the buffer's position will be left as-is.
+     * <p>
+     * Whether or not the data past the serialized {@link CoroutineRunner} gets read depends on the deserializer passed in to this class's
+     * constructor. If it isn't a {@link StreamingCoroutineDeserializer}, all remaining data in {@code buffer} is treated as the serialized
+     * data.
+     * @param buffer buffer to read from
+     * @return data from {@code buffer} deserialized to a {@link CoroutineRunner} object
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if failed to deserialize or deserialized to a state for an unrecognized method (e.g. a method that's
+     * state is being deserialized for was changed but no {@link FrameUpdatePoint} was provided to this class's constructor to
+     * handle the changes)
+     */
+    public CoroutineRunner read(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new NullPointerException();
+        }
+
+        int startPosition = buffer.position();
+        try {
+            return read(new ByteBufferInputStream(buffer));
+        } catch (IOException ioe) {
+            buffer.position(startPosition);
+            throw new IllegalStateException(ioe); // should never happen
+        } catch (RuntimeException re) {
+            buffer.position(startPosition);
+            throw re;
+        }
+    }
+
+    /**
+     * Deserializes a {@link CoroutineRunner} object from a channel. Equivalent to calling {@link #read(InputStream) } with a stream that
+     * reads from {@code channel}.
+     * <p>
+     * {@code channel} doesn't get closed.
+     * @param channel channel to read from
+     * @return data from {@code channel} deserialized to a {@link CoroutineRunner} object
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if failed to deserialize or deserialized to a state for an unrecognized method (e.g. a method that's
+     * state is being deserialized for was changed but no {@link FrameUpdatePoint} was provided to this class's constructor to
+     * handle the changes)
+     * @throws IllegalBlockingModeException if {@code channel} is a selectable channel in non-blocking mode
+     * @throws IOException if an I/O error occurs
+     */
+    public CoroutineRunner read(ReadableByteChannel channel) throws IOException {
+        if (channel == null) {
+            throw new NullPointerException();
+        }
+
+        // Don't close -- closing the stream would close the channel.
+        return read(Channels.newInputStream(channel));
+    }
+
     /**
      * Reconstructs a {@link CoroutineRunner} object from a serializable state.
      * @param state serialized state to reconstruct
@@ -241,6 +341,22 @@ public final class CoroutineReader {
          */
         SerializedState deserialize(byte[] data);
     }
+
+    /**
+     * Coroutine deserializer that's able to read directly from a stream. Implement this instead of {@link CoroutineDeserializer} if you
+     * want {@link CoroutineReader}'s stream/buffer/channel methods to avoid reading in to an intermediate byte array.
+     */
+    public interface StreamingCoroutineDeserializer extends CoroutineDeserializer {
+        /**
+         * Deserializes a coroutine from a stream. Implementations must not close {@code is}.
+         * @param is input stream to read from
+         * @return deserialized state
+         * @throws NullPointerException if any argument is {@code null}
+         * @throws IllegalArgumentException if failed to deserialize
+         * @throws IOException if an I/O error occurs
+         */
+        SerializedState deserialize(InputStream is) throws IOException;
+    }
     
     /**
      * Default implementation of {@link CoroutineDeserializer} (uses Java's built-in serialization mechanism). This implementation has the
@@ -252,7 +368,7 @@ public final class CoroutineReader {
      * implement {@link Serializable}).</li>
      * </ol>
      */
-    public static final class DefaultCoroutineDeserializer implements CoroutineDeserializer {
+    public static final class DefaultCoroutineDeserializer implements StreamingCoroutineDeserializer {
 
         //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
         public SerializedState deserialize(byte[] data) {
@@ -260,11 +376,23 @@ public final class CoroutineReader {
                 throw new NullPointerException();
             }
 
-            ByteArrayInputStream bais = null;
-            ObjectInputStream ois = null;
             try {
-                bais = new ByteArrayInputStream(data);
-                ois = new ObjectInputStream(bais) {
+                return deserialize(new ByteArrayInputStream(data));
+            } catch (EOFException eofe) {
+                throw new IllegalArgumentException(eofe);
+            } catch (IOException ioe) {
+                throw new IllegalStateException(ioe); // should never happen
+            }
+        }
+
+        public SerializedState deserialize(InputStream is) throws IOException {
+            if (is == null) {
+                throw new NullPointerException();
+            }
+
+            // Don't close -- closing the ObjectInputStream would close is.
+            try {
+                ObjectInputStream ois = new ObjectInputStream(is) {
                     protected Class resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
                         try {
                             return super.resolveClass(desc);
@@ -300,24 +428,134 @@ public final class CoroutineReader {
                 throw new IllegalArgumentException(cnfe);
             } catch (ClassCastException cce) {
                 throw new IllegalArgumentException(cce);
+            }
+        }
+        //CHECKSTYLE.ON:JavadocMethod
+    }
+
+    /**
+     * Implementation of {@link CoroutineDeserializer} that reads the compact binary format written by
+     * {@link CoroutineWriter.BinaryCoroutineSerializer}. Objects (the coroutine, its context, and any object variables/operands) are read
+     * from an {@link ObjectInput} that gets created via a pluggable {@link ObjectInputFactory}, which must match the
+     * {@link CoroutineWriter.ObjectOutputFactory} used to write the data. This implementation has the following restrictions...
+     * <ol>
+     * <li>Deserialization will fail if you have any synchronized blocks (monitor locks).</li>
+     * <li>The objects that make up the current state of your coroutine must be readable by the {@link ObjectInput} created by the
+     * {@link ObjectInputFactory} (if using {@link DefaultObjectInputFactory}, they must implement {@link Serializable}).</li>
+     * </ol>
+     */
+    public static final class BinaryCoroutineDeserializer implements StreamingCoroutineDeserializer {
+        private final ObjectInputFactory objectInputFactory;
+
+        /**
+         * Constructs a {@link BinaryCoroutineDeserializer} object. Equivalent to calling
+         * {@code new BinaryCoroutineDeserializer(new DefaultObjectInputFactory())}.
+         */
+        public BinaryCoroutineDeserializer() {
+            this(new DefaultObjectInputFactory());
+        }
+
+        /**
+         * Constructs a {@link BinaryCoroutineDeserializer} object.
+         * @param objectInputFactory factory used to create the input that objects are read from
+         * @throws NullPointerException if any argument is {@code null}
+         */
+        public BinaryCoroutineDeserializer(ObjectInputFactory objectInputFactory) {
+            if (objectInputFactory == null) {
+                throw new NullPointerException();
+            }
+            this.objectInputFactory = objectInputFactory;
+        }
+
+        //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+        public SerializedState deserialize(byte[] data) {
+            if (data == null) {
+                throw new NullPointerException();
+            }
+
+            try {
+                return deserialize(new ByteArrayInputStream(data));
             } catch (IOException ioe) {
-                throw new IllegalStateException(ioe); // should never happen
-            } finally {
-                if (ois != null) {
-                    try {
-                        ois.close();
-                    } catch (IOException ioe) {
-                        // do nothing
-                    }
+                throw new IllegalArgumentException(ioe); // reading from a byte array, so this can only be because of bad data
+            }
+        }
+
+        public SerializedState deserialize(InputStream is) throws IOException {
+            if (is == null) {
+                throw new NullPointerException();
+            }
+
+            byte[] header = new byte[BinaryFormat.HEADER_SIZE];
+            int headerLen = 0;
+            while (headerLen < header.length) {
+                int readLen = is.read(header, headerLen, header.length - headerLen);
+                if (readLen == -1) {
+                    throw new IllegalArgumentException(new EOFException("Header missing"));
                 }
-                if (bais != null) {
+                headerLen += readLen;
+            }
+
+            // Don't close -- closing the ObjectInput would close is.
+            try {
+                BinaryFormat.readHeader(header);
+
+                ObjectInput oi = objectInputFactory.create(is);
+                return BinaryFormat.readBody(oi);
+            } catch (StreamCorruptedException sce) {
+                throw new IllegalArgumentException(sce);
+            } catch (OptionalDataException ode) {
+                throw new IllegalArgumentException(ode);
+            } catch (InvalidClassException ice) {
+                throw new IllegalArgumentException(ice);
+            } catch (EOFException eofe) {
+                throw new IllegalArgumentException(eofe);
+            } catch (UTFDataFormatException udfe) {
+                throw new IllegalArgumentException(udfe);
+            } catch (ClassNotFoundException cnfe) {
+                throw new IllegalArgumentException(cnfe);
+            } catch (ClassCastException cce) {
+                throw new IllegalArgumentException(cce);
+            }
+        }
+        //CHECKSTYLE.ON:JavadocMethod
+    }
+
+    /**
+     * Creates the {@link ObjectInput} that {@link BinaryCoroutineDeserializer} reads from. Implement this to plug in your own mechanism for
+     * reading in objects.
+     */
+    public interface ObjectInputFactory {
+        /**
+         * Create an {@link ObjectInput} that reads from {@code is}. The returned object must be able to read back what was written by the
+         * {@link ObjectOutput} created by the matching {@link CoroutineWriter.ObjectOutputFactory}.
+         * @param is input stream to read from
+         * @return object input that reads from {@code is}
+         * @throws NullPointerException if any argument is {@code null}
+         * @throws IOException if an I/O error occurs
+         */
+        ObjectInput create(InputStream is) throws IOException;
+    }
+
+    /**
+     * Default implementation of {@link ObjectInputFactory} (uses Java's built-in serialization mechanism). Classes that can't be found by
+     * the system class loader will be looked up using the thread's context class loader.
+     */
+    public static final class DefaultObjectInputFactory implements ObjectInputFactory {
+
+        //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+        public ObjectInput create(InputStream is) throws IOException {
+            if (is == null) {
+                throw new NullPointerException();
+            }
+            return new ObjectInputStream(is) {
+                protected Class resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
                     try {
-                        bais.close();
-                    } catch (IOException ioe) {
-                        // do nothing
+                        return super.resolveClass(desc);
+                    } catch (ClassNotFoundException cnfe) {
+                        return Thread.currentThread().getContextClassLoader().loadClass(desc.getName());
                     }
                 }
-            }
+            };
         }
         //CHECKSTYLE.ON:JavadocMethod
     }
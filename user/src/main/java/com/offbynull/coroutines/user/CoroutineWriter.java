@@ -21,12 +21,22 @@ import com.offbynull.coroutines.user.SerializedState.Frame;
 import com.offbynull.coroutines.user.SerializedState.FrameInterceptPoint;
 import com.offbynull.coroutines.user.SerializedState.FrameUpdatePoint;
 import com.offbynull.coroutines.user.SerializedState.VersionedFrame;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InvalidClassException;
 import java.io.NotSerializableException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.Channels;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.WritableByteChannel;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -35,6 +45,8 @@ import java.util.Map;
  * @author Kasra Faghihi
  */
 public final class CoroutineWriter {
+    private static final int CHANNEL_BUFFER_SIZE = 8192;
+
     private final CoroutineSerializer serializer;
     private final Map updatersMap;
     private final Map interceptersMap;
@@ -127,6 +139,82 @@ public final class CoroutineWriter {
         return serializer.serialize(serializeState);
     }
 
+    /**
+     * Serializes a {@link CoroutineRunner} object to a stream. If the serializer passed in to this class's constructor is a
+     * {@link StreamingCoroutineSerializer}, the serialized data is written directly to {@code os}. Otherwise, it's serialized to a byte
+     * array first and then written to {@code os}.
+     * <p>
+     * {@code os} doesn't get flushed or closed.
+     * @param runner coroutine runner to serialize
+     * @param os output stream to write to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if failed to serialize
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(CoroutineRunner runner, OutputStream os) throws IOException {
+        if (runner == null || os == null) {
+            throw new NullPointerException();
+        }
+
+        SerializedState serializeState = deconstruct(runner);
+        if (serializer instanceof StreamingCoroutineSerializer) {
+            ((StreamingCoroutineSerializer) serializer).serialize(serializeState, os);
+        } else {
+            os.write(serializer.serialize(serializeState));
+        }
+    }
+
+    /**
+     * Serializes a {@link CoroutineRunner} object in to a buffer, starting at the buffer's current position. On success, the buffer's
+     * position will be set to the end of the serialized data. On failure, the buffer's position will be left as-is (but bytes past the
+     * position may have been overwritten).
+     * @param runner coroutine runner to serialize
+     * @param buffer buffer to write to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if failed to serialize
+     * @throws BufferOverflowException if there isn't enough space remaining in {@code buffer}
+     * @throws ReadOnlyBufferException if {@code buffer} is read-only
+     */
+    public void write(CoroutineRunner runner, ByteBuffer buffer) {
+        if (runner == null || buffer == null) {
+            throw new NullPointerException();
+        }
+
+        int startPosition = buffer.position();
+        try {
+            write(runner, new ByteBufferOutputStream(buffer));
+        } catch (IOException ioe) {
+            buffer.position(startPosition);
+            throw new IllegalStateException(ioe); // should never happen
+        } catch (RuntimeException re) {
+            buffer.position(startPosition);
+            throw re;
+        }
+    }
+
+    /**
+     * Serializes a {@link CoroutineRunner} object to a channel. Equivalent to calling {@link #write(CoroutineRunner, OutputStream) } with
+     * a buffered stream that writes to {@code channel}.
+     * <p>
+     * {@code channel} doesn't get closed.
+     * @param runner coroutine runner to serialize
+     * @param channel channel to write to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if failed to serialize
+     * @throws IllegalBlockingModeException if {@code channel} is a selectable channel in non-blocking mode
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(CoroutineRunner runner, WritableByteChannel channel) throws IOException {
+        if (runner == null || channel == null) {
+            throw new NullPointerException();
+        }
+
+        // Don't close -- closing the stream would close the channel.
+        OutputStream os = new BufferedOutputStream(Channels.newOutputStream(channel), CHANNEL_BUFFER_SIZE);
+        write(runner, os);
+        os.flush();
+    }
+
     /**
      * Deconstructs a {@link CoroutineRunner} object to a serializable state.
      * @param runner coroutine runner to deconstruct
@@ -145,29 +233,32 @@ public final class CoroutineWriter {
         int size = cn.getSize();
         VersionedFrame[] frames = new VersionedFrame[size];
 
-        MethodState currentMethodState = cn.getSaved(0);
-        
-        int idx = 0;
-        while (currentMethodState != null) {
+        for (int idx = 0; idx < size; idx++) {
+            MethodState currentMethodState = cn.getSaved(idx);
+
             // Pull out information from MethoState. We should never modify MethodState values, they will be copied by the Data
             // constructor before being passed to the user for further modification.
             String className = currentMethodState.getClassName();
+            if (className == null) {
+                throw new IllegalArgumentException("Methods instrumented in lean mode can't be serialized");
+            }
             int methodId = currentMethodState.getMethodId();
             int continuationPoint = currentMethodState.getContinuationPoint();
             
             LockState monitors = currentMethodState.getLockState();
             
-            int[] intVars = ((int[]) currentMethodState.getData()[0]);
-            float[] floatVars = ((float[]) currentMethodState.getData()[1]);
-            long[] longVars = ((long[]) currentMethodState.getData()[2]);
-            double[] doubleVars = ((double[]) currentMethodState.getData()[3]);
-            Object[] objectVars = ((Object[]) currentMethodState.getData()[4]);
+            Object[] data = currentMethodState.getData(); // call once, may need to be converted from frame
+            int[] intVars = ((int[]) data[0]);
+            float[] floatVars = ((float[]) data[1]);
+            long[] longVars = ((long[]) data[2]);
+            double[] doubleVars = ((double[]) data[3]);
+            Object[] objectVars = ((Object[]) data[4]);
             
-            int[] intOperands = ((int[]) currentMethodState.getData()[5]);
-            float[] floatOperands = ((float[]) currentMethodState.getData()[6]);
-            long[] longOperands = ((long[]) currentMethodState.getData()[7]);
-            double[] doubleOperands = ((double[]) currentMethodState.getData()[8]);
-            Object[] objectOperands = ((Object[]) currentMethodState.getData()[9]);
+            int[] intOperands = ((int[]) data[5]);
+            float[] floatOperands = ((float[]) data[6]);
+            long[] longOperands = ((long[]) data[7]);
+            double[] doubleOperands = ((double[]) data[8]);
+            Object[] objectOperands = ((Object[]) data[9]);
 
 
             // Clone the object[] buffers because we need to remove references to the Continuation object for this coroutine.
@@ -208,9 +299,6 @@ public final class CoroutineWriter {
                     interceptersMap,
                     serializedFrame);
             frames[idx] = versionedFrame;
-            idx++;
-
-            currentMethodState = currentMethodState.getNext();
         }
         
         Object context = cn.getContext();
@@ -253,6 +341,23 @@ public final class CoroutineWriter {
         byte[] serialize(SerializedState serializedState);
     }
 
+    /**
+     * Coroutine serializer that's able to write directly to a stream. Implement this instead of {@link CoroutineSerializer} if you want
+     * {@link CoroutineWriter}'s stream/buffer/channel methods to avoid serializing to an intermediate byte array.
+     */
+    public interface StreamingCoroutineSerializer extends CoroutineSerializer {
+        /**
+         * Serializes a coroutine to a stream. Implementations must not close {@code os}, but must flush out anything they buffer
+         * internally before returning.
+         * @param serializedState state to serialize
+         * @param os output stream to write to
+         * @throws NullPointerException if any argument is {@code null}
+         * @throws IllegalArgumentException if failed to serialize
+         * @throws IOException if an I/O error occurs
+         */
+        void serialize(SerializedState serializedState, OutputStream os) throws IOException;
+    }
+
     /**
      * Default implementation of {@link CoroutineSerializer} (uses Java's built-in serialization mechanism). This implementation has the
      * following restrictions...
@@ -263,7 +368,7 @@ public final class CoroutineWriter {
      * implement {@link Serializable}).</li>
      * </ol>
      */
-    public static final class DefaultCoroutineSerializer implements CoroutineSerializer {
+    public static final class DefaultCoroutineSerializer implements StreamingCoroutineSerializer {
         
         //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
         public byte[] serialize(SerializedState serializedState) {
@@ -271,6 +376,20 @@ public final class CoroutineWriter {
                 throw new NullPointerException();
             }
 
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try {
+                serialize(serializedState, baos);
+            } catch (IOException ioe) {
+                throw new IllegalStateException(ioe); // should never happen
+            }
+            return baos.toByteArray();
+        }
+
+        public void serialize(SerializedState serializedState, OutputStream os) throws IOException {
+            if (serializedState == null || os == null) {
+                throw new NullPointerException();
+            }
+
             VersionedFrame[] frames = serializedState.getFrames();
             for (int i = 0; i < frames.length; i++) {
                 Frame[] possibleFrames = frames[i].getFrames();
@@ -282,37 +401,124 @@ public final class CoroutineWriter {
                 }
             }
 
-            ByteArrayOutputStream baos = null;
-            ObjectOutputStream oos = null;
+            // Don't close -- closing the ObjectOutputStream would close os.
             try {
-                baos = new ByteArrayOutputStream();
-                oos = new ObjectOutputStream(baos);
-
+                ObjectOutputStream oos = new ObjectOutputStream(os);
                 oos.writeObject(serializedState);
-
-                return baos.toByteArray();
+                oos.flush();
             } catch (NotSerializableException nse) {
                 throw new IllegalArgumentException(nse);
             } catch (InvalidClassException ice) {
                 throw new IllegalArgumentException(ice);
+            }
+        }
+        //CHECKSTYLE.ON:JavadocMethod
+    }
+
+    /**
+     * Implementation of {@link CoroutineSerializer} that uses a compact binary format. The structure of the coroutine state (frames, class
+     * names, method identifiers, primitive variables/operands) is written directly, while objects (the coroutine, its context, and any
+     * object variables/operands) are passed on to an {@link ObjectOutput} that gets created via a pluggable {@link ObjectOutputFactory}.
+     * <p>
+     * Class names are only written once, and primitive values are written as-is, meaning this implementation produces much smaller output
+     * than {@link DefaultCoroutineSerializer} (and does so much faster). Output from this implementation can only be read by
+     * {@link CoroutineReader.BinaryCoroutineDeserializer}. This implementation has the following restrictions...
+     * <ol>
+     * <li>Serialization will fail if you have any synchronized blocks (monitor locks).</li>
+     * <li>The objects that make up the current state of your coroutine must be writable by the {@link ObjectOutput} created by the
+     * {@link ObjectOutputFactory} (if using {@link DefaultObjectOutputFactory}, they must implement {@link Serializable}).</li>
+     * </ol>
+     */
+    public static final class BinaryCoroutineSerializer implements StreamingCoroutineSerializer {
+        private final ObjectOutputFactory objectOutputFactory;
+
+        /**
+         * Constructs a {@link BinaryCoroutineSerializer} object. Equivalent to calling
+         * {@code new BinaryCoroutineSerializer(new DefaultObjectOutputFactory())}.
+         */
+        public BinaryCoroutineSerializer() {
+            this(new DefaultObjectOutputFactory());
+        }
+
+        /**
+         * Constructs a {@link BinaryCoroutineSerializer} object.
+         * @param objectOutputFactory factory used to create the output that objects are written to
+         * @throws NullPointerException if any argument is {@code null}
+         */
+        public BinaryCoroutineSerializer(ObjectOutputFactory objectOutputFactory) {
+            if (objectOutputFactory == null) {
+                throw new NullPointerException();
+            }
+            this.objectOutputFactory = objectOutputFactory;
+        }
+
+        //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+        public byte[] serialize(SerializedState serializedState) {
+            if (serializedState == null) {
+                throw new NullPointerException();
+            }
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try {
+                serialize(serializedState, baos);
             } catch (IOException ioe) {
                 throw new IllegalStateException(ioe); // should never happen
-            } finally {
-                if (oos != null) {
-                    try {
-                        oos.close();
-                    } catch (IOException ioe) {
-                        // do nothing
-                    }
-                }
-                if (baos != null) {
-                    try {
-                        baos.close();
-                    } catch (IOException ioe) {
-                        // do nothing
-                    }
-                }
             }
+            return baos.toByteArray();
+        }
+
+        public void serialize(SerializedState serializedState, OutputStream os) throws IOException {
+            if (serializedState == null || os == null) {
+                throw new NullPointerException();
+            }
+
+            byte[] header = new byte[BinaryFormat.HEADER_SIZE];
+            BinaryFormat.writeHeader(header);
+            os.write(header);
+
+            // Don't close -- closing the ObjectOutput would close os.
+            try {
+                ObjectOutput oo = objectOutputFactory.create(os);
+                BinaryFormat.writeBody(oo, serializedState);
+                oo.flush();
+            } catch (NotSerializableException nse) {
+                throw new IllegalArgumentException(nse);
+            } catch (InvalidClassException ice) {
+                throw new IllegalArgumentException(ice);
+            }
+        }
+        //CHECKSTYLE.ON:JavadocMethod
+    }
+
+    /**
+     * Creates the {@link ObjectOutput} that {@link BinaryCoroutineSerializer} writes to. Implement this to plug in your own mechanism for
+     * writing out objects.
+     */
+    public interface ObjectOutputFactory {
+        /**
+         * Create an {@link ObjectOutput} that writes to {@code os}. The returned object is used to write out all objects in the coroutine's
+         * state, along with the structure surrounding those objects. The {@link ObjectInput} created by the matching
+         * {@link CoroutineReader.ObjectInputFactory} must be able to read back what was written.
+         * @param os output stream to write to
+         * @return object output that writes to {@code os}
+         * @throws NullPointerException if any argument is {@code null}
+         * @throws IOException if an I/O error occurs
+         */
+        ObjectOutput create(OutputStream os) throws IOException;
+    }
+
+    /**
+     * Default implementation of {@link ObjectOutputFactory} (uses Java's built-in serialization mechanism). Objects get written using a
+     * single {@link ObjectOutputStream}, meaning that objects referenced by multiple frames are only written once.
+     */
+    public static final class DefaultObjectOutputFactory implements ObjectOutputFactory {
+
+        //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+        public ObjectOutput create(OutputStream os) throws IOException {
+            if (os == null) {
+                throw new NullPointerException();
+            }
+            return new ObjectOutputStream(os);
         }
         //CHECKSTYLE.ON:JavadocMethod
     }
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method as having field resident locals. Rather than copying its locals out each time it suspends and back in each time it
+ * resumes, the instrumenter will have the method keep its locals in the fields of a frame object for as long as it runs. This makes
+ * suspending/resuming the method cheaper (the cost no longer grows with the number of locals), at the expense of allocating a frame object
+ * each time the method is invoked and turning each access to a local into a field access. Good candidates are generator-style methods:
+ * methods that suspend over and over again from within a loop.
+ * <p>
+ * Since the locals live in the frame object rather than being copied in to it when the method suspends, they aren't rolled back if an
+ * execution cycle fails (e.g. {@link CoroutineRunner#execute() } throws a {@link CoroutineException}). Executing the coroutine again
+ * resumes the method from where the last successful execution cycle left off, but its locals keep whatever values were written to them
+ * during the failed cycle. Only use this annotation on methods that are fine with that.
+ * <p>
+ * This annotation only has an effect if the method is instrumented using the {@code FRAME_CLASSES} state layout. It's ignored otherwise.
+ * @author Kasra Faghihi
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface FieldResidentLocals {
+    // no elements
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import java.io.Serializable;
+
+/**
+ * Do not use -- for internal use only.
+ * <p>
+ * Implemented by the frame classes that the instrumenter generates when the {@code FRAME_CLASSES} state layout is used. A frame class
+ * holds on to the locals and operand stack of a method frame as typed fields (one field per local variable slot / operand stack position)
+ * rather than as typed arrays packed in to an {@code Object[]} container.
+ * @author Kasra Faghihi
+ */
+public interface MethodFrame extends Serializable {
+
+    /**
+     * Do not use -- for internal use only.
+     * <p>
+     * Convert this frame to the container format returned by {@link MethodState#getData() }: an {@code Object[10]} containing the typed
+     * arrays for locals (ints, floats, longs, doubles, objects) followed by the typed arrays for the operand stack (in the same order).
+     * Arrays that have no items are {@code null}.
+     * @param continuationPoint point in the method at which state was saved
+     * @return locals and operand stack at {@code continuationPoint}
+     * @throws IllegalArgumentException if {@code continuationPoint} isn't a continuation point of the method this frame is for
+     */
+    Object[] toData(int continuationPoint);
+}
@@ -25,22 +25,36 @@ import java.io.Serializable;
  * @author Kasra Faghihi
  */
 public final class MethodState implements Serializable {
-    private static final long serialVersionUID = 6L;
+    private static final long serialVersionUID = 8L;
+
+    /**
+     * Do not use -- for internal use only.
+     * <p>
+     * Name of the field that gets inserted into an instrumented class to identify the methods (and the continuation points within those
+     * methods) that were instrumented. The value of this field is generated by
+     * {@link #getIdentifyingFieldValue(int[], int[]) }.
+     */
+    public static final String IDENTIFYING_FIELD_NAME = "__COROUTINES_IDS";
+
+    private static final int CONTAINER_SIZE = 10;
 
     private final String className;
     private final int methodId;
     private final int continuationPoint;
     private final Object[] data;
-    private final LockState lockState;
-
-    private MethodState next;
-    private MethodState previous;
+    private final MethodFrame frame;
+    private final long[] primitives;
+    private final Object[] objects;
+    private final String layout;
+    private LockState lockState;
+    private transient MethodState spare;
+    private transient int loadIndex = -1;
 
     /**
      * Do not use -- for internal use only.
      * <p>
      * Constructs a {@link MethodState} object.
-     * @param className name of owner (class) for method at which state was saved
+     * @param className name of owner (class) for method at which state was saved ({@code null} if instrumented in lean mode)
      * @param methodId identifier for method at which state was saved
      * @param continuationPoint point in the method at which state was saved (does not refer to offset, just an id that's generated by the
      * instrumenter to mark that point)
@@ -58,6 +72,91 @@ public final class MethodState implements Serializable {
         this.methodId = methodId;
         this.continuationPoint = continuationPoint;
         this.data = data;
+        this.frame = null;
+        this.primitives = null;
+        this.objects = null;
+        this.layout = null;
+        this.lockState = lockState;
+    }
+
+    /**
+     * Do not use -- for internal use only.
+     * <p>
+     * Constructs a {@link MethodState} object where the locals and operand stack are held on to by an instrumenter generated frame class.
+     * @param className name of owner (class) for method at which state was saved ({@code null} if instrumented in lean mode)
+     * @param methodId identifier for method at which state was saved
+     * @param continuationPoint point in the method at which state was saved (does not refer to offset, just an id that's generated by the
+     * instrumenter to mark that point)
+     * @param frame locals and operand stack at the point which state was saved
+     * @param lockState monitors entered at the point which state was saved (may be {@code null})
+     */
+    public MethodState(String className, int methodId, int continuationPoint, MethodFrame frame, LockState lockState) {
+        if (continuationPoint < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (frame == null) {
+            throw new NullPointerException();
+        }
+        this.className = className;
+        this.methodId = methodId;
+        this.continuationPoint = continuationPoint;
+        this.data = null;
+        this.frame = frame;
+        this.primitives = null;
+        this.objects = null;
+        this.layout = null;
+        this.lockState = lockState;
+    }
+
+    /**
+     * Do not use -- for internal use only.
+     * <p>
+     * Constructs a {@link MethodState} object where the primitive locals and operand stack items are packed in to a single {@code long[]}
+     * and the object locals and operand stack items are packed in to a single {@code Object[]}. Primitives are packed in the order of
+     * locals ints, floats, longs, doubles followed by operand stack ints, floats, longs, doubles (floats/doubles are stored as their raw
+     * bits). Objects are packed as locals followed by operand stack.
+     * @param className name of owner (class) for method at which state was saved ({@code null} if instrumented in lean mode)
+     * @param methodId identifier for method at which state was saved
+     * @param continuationPoint point in the method at which state was saved (does not refer to offset, just an id that's generated by the
+     * instrumenter to mark that point)
+     * @param primitives primitive locals and operand stack items at the point which state was saved ({@code null} if there are none)
+     * @param objects object locals and operand stack items at the point which state was saved ({@code null} if there are none)
+     * @param layout number of items of each type, one {@code char} for each array of the container returned by {@link #getData() }
+     * @param lockState monitors entered at the point which state was saved (may be {@code null})
+     * @throws IllegalArgumentException if {@code layout} doesn't match the sizes of {@code primitives} and {@code objects}
+     */
+    public MethodState(String className, int methodId, int continuationPoint, long[] primitives, Object[] objects, String layout,
+            LockState lockState) {
+        if (continuationPoint < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (layout == null) {
+            throw new NullPointerException();
+        }
+        if (layout.length() != CONTAINER_SIZE) {
+            throw new IllegalArgumentException();
+        }
+        int primitivesSize = 0;
+        int objectsSize = 0;
+        for (int i = 0; i < CONTAINER_SIZE; i++) {
+            if (i % 5 == 4) {
+                objectsSize += layout.charAt(i);
+            } else {
+                primitivesSize += layout.charAt(i);
+            }
+        }
+        if (primitivesSize != (primitives == null ? 0 : primitives.length)
+                || objectsSize != (objects == null ? 0 : objects.length)) {
+            throw new IllegalArgumentException();
+        }
+        this.className = className;
+        this.methodId = methodId;
+        this.continuationPoint = continuationPoint;
+        this.data = null;
+        this.frame = null;
+        this.primitives = primitives;
+        this.objects = objects;
+        this.layout = layout;
         this.lockState = lockState;
     }
 
@@ -65,7 +164,7 @@ public final class MethodState implements Serializable {
      * Do not use -- for internal use only.
      * <p>
      * Get name of owner (class) for method at which state was saved
-     * @return name of owner (class) for method at which state was saved
+     * @return name of owner (class) for method at which state was saved, or {@code null} if the method was instrumented in lean mode
      */
     public String getClassName() {
         return className;
@@ -95,81 +194,280 @@ public final class MethodState implements Serializable {
     /**
      * Do not use -- for internal use only.
      * <p>
-     * Get locals and operand stack at the point which state was saved.
+     * Get locals and operand stack at the point which state was saved. If this method state was constructed with a frame or with packed
+     * arrays, they're converted to a new container each time this method is invoked -- the container returned is a copy, meaning that
+     * writing to it won't change this method state.
      * @return locals and operand stack at the point which state was saved
      */
     public Object[] getData() {
+        if (frame != null) {
+            return frame.toData(continuationPoint);
+        }
+        if (data == null) {
+            return unpack(primitives, objects, layout);
+        }
         return data;
     }
 
     /**
      * Do not use -- for internal use only.
      * <p>
-     * Get the monitors entered at the point which state was saved.
-     * @return monitors entered at the point which state was saved
+     * Get the frame holding on to locals and operand stack at the point which state was saved.
+     * @return frame holding on to locals and operand stack at the point which state was saved, or {@code null} if this method state
+     * wasn't constructed with a frame
      */
-    public LockState getLockState() {
-        return lockState;
+    public MethodFrame getFrame() {
+        return frame;
     }
 
+    /**
+     * Do not use -- for internal use only.
+     * <p>
+     * Get the primitive locals and operand stack items at the point which state was saved, packed in to a single array (see
+     * {@link #MethodState(String, int, int, long[], Object[], String, LockState) }). Method states that weren't constructed with packed
+     * arrays (e.g. they were deserialized) need to be converted using {@link #toPacked() } first.
+     * @return primitive locals and operand stack items at the point which state was saved, or {@code null} if there are none or if this
+     * method state wasn't constructed with packed arrays
+     */
+    public long[] getPrimitives() {
+        return primitives;
+    }
 
+    /**
+     * Do not use -- for internal use only.
+     * <p>
+     * Get the object locals and operand stack items at the point which state was saved, packed in to a single array (see
+     * {@link #getPrimitives() }).
+     * @return object locals and operand stack items at the point which state was saved, or {@code null} if there are none or if this
+     * method state wasn't constructed with packed arrays
+     */
+    public Object[] getObjects() {
+        return objects;
+    }
 
-    
-    
-    
-    
-    
-    
-    
     /**
      * Do not use -- for internal use only.
      * <p>
-     * Get the next method state.
-     * @return next method state
+     * Check if this method state was constructed with packed arrays.
+     * @return {@code true} if this method state was constructed with packed arrays, {@code false} otherwise
      */
-    MethodState getNext() {
-        return next;
+    public boolean isPacked() {
+        return layout != null;
     }
 
     /**
      * Do not use -- for internal use only.
      * <p>
-     * Set the next method state.
-     * @param next next method state
+     * Convert this method state to one that holds on to its locals and operand stack as packed arrays (see
+     * {@link #MethodState(String, int, int, long[], Object[], String, LockState) }). This method state isn't modified.
+     * @return this method state if it was constructed with packed arrays, otherwise a new method state with the same locals and operand
+     * stack packed in to arrays
      */
-    void setNext(MethodState next) {
-        this.next = next;
-        if (next != null) {
-            next.previous = this;
+    public MethodState toPacked() {
+        if (isPacked()) {
+            return this;
+        }
+
+        Object[] container = getData();
+
+        // Order of arrays in the container is locals ints, floats, longs, doubles, objects followed by operand stack ints, floats, longs,
+        // doubles, objects. Arrays that have no items are null.
+        char[] sizes = new char[CONTAINER_SIZE];
+        int primitivesSize = 0;
+        int objectsSize = 0;
+        for (int i = 0; i < CONTAINER_SIZE; i++) {
+            int size = getLength(container[i]);
+            sizes[i] = (char) size;
+            if (i % 5 == 4) {
+                objectsSize += size;
+            } else {
+                primitivesSize += size;
+            }
         }
+
+        long[] newPrimitives = primitivesSize == 0 ? null : new long[primitivesSize];
+        Object[] newObjects = objectsSize == 0 ? null : new Object[objectsSize];
+        int primitivesIdx = 0;
+        int objectsIdx = 0;
+        for (int i = 0; i < CONTAINER_SIZE; i++) {
+            if (container[i] == null) {
+                continue;
+            }
+            switch (i % 5) {
+                case 0: {
+                    int[] arr = (int[]) container[i];
+                    for (int j = 0; j < arr.length; j++) {
+                        newPrimitives[primitivesIdx++] = arr[j];
+                    }
+                    break;
+                }
+                case 1: {
+                    float[] arr = (float[]) container[i];
+                    for (int j = 0; j < arr.length; j++) {
+                        newPrimitives[primitivesIdx++] = Float.floatToRawIntBits(arr[j]);
+                    }
+                    break;
+                }
+                case 2: {
+                    long[] arr = (long[]) container[i];
+                    for (int j = 0; j < arr.length; j++) {
+                        newPrimitives[primitivesIdx++] = arr[j];
+                    }
+                    break;
+                }
+                case 3: {
+                    double[] arr = (double[]) container[i];
+                    for (int j = 0; j < arr.length; j++) {
+                        newPrimitives[primitivesIdx++] = Double.doubleToRawLongBits(arr[j]);
+                    }
+                    break;
+                }
+                case 4: {
+                    Object[] arr = (Object[]) container[i];
+                    for (int j = 0; j < arr.length; j++) {
+                        newObjects[objectsIdx++] = arr[j];
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalStateException(); // should never happen
+            }
+        }
+
+        return new MethodState(className, methodId, continuationPoint, newPrimitives, newObjects, new String(sizes), lockState);
     }
 
     /**
      * Do not use -- for internal use only.
      * <p>
-     * Get the previous method state.
-     * @return previous method state
+     * Get the monitors entered at the point which state was saved.
+     * @return monitors entered at the point which state was saved
      */
-    MethodState getPrevious() {
-        return previous;
+    public LockState getLockState() {
+        return lockState;
     }
 
     /**
      * Do not use -- for internal use only.
      * <p>
-     * Set the previous method state.
-     * @param previous previous method state
+     * Take the spare for this method state. A method that was restored from this method state and suspends again at the same
+     * continuation point writes over the spare rather than creating a new method state. This method state can't be written over itself
+     * because it's what {@link Continuation#failedExecutionCycle() } rolls back to -- the spare is a method state for the same
+     * continuation point that was rolled back to before this one, and nothing other than this method state refers to it anymore. The
+     * spare that's returned has this method state set as its own spare (so the two alternate between each other) and has its monitors
+     * set to {@code lockState}.
+     * @param lockState monitors entered at the point which state is being saved (may be {@code null})
+     * @return spare method state, or {@code null} if there is none
      */
-    void setPrevious(MethodState previous) {
-        this.previous = previous;
-        if (previous != null) {
-            previous.next = this;
+    public MethodState takeSpare(LockState lockState) {
+        MethodState ret = spare;
+        if (ret != null) {
+            ret.spare = this;
+            ret.lockState = lockState;
         }
+        return ret;
     }
 
+    /**
+     * Do not use -- for internal use only.
+     * <p>
+     * Set the spare for this method state (see {@link #takeSpare(LockState) }).
+     * @param spare method state for the same continuation point that can be written over once this method state has been saved (may be
+     * {@code null})
+     */
+    public void setSpare(MethodState spare) {
+        this.spare = spare;
+    }
+
+
+
+    
+    
+    
+    
+    
+    
+    
+    // Index this method state was at when Continuation last loaded it.
+    int getLoadIndex() {
+        return loadIndex;
+    }
 
+    void setLoadIndex(int loadIndex) {
+        this.loadIndex = loadIndex;
+    }
 
+    private static Object[] unpack(long[] primitives, Object[] objects, String layout) {
+        Object[] container = new Object[CONTAINER_SIZE];
+        int primitivesIdx = 0;
+        int objectsIdx = 0;
+        for (int i = 0; i < CONTAINER_SIZE; i++) {
+            int size = layout.charAt(i);
+            if (size == 0) {
+                continue;
+            }
+            switch (i % 5) {
+                case 0: {
+                    int[] arr = new int[size];
+                    for (int j = 0; j < size; j++) {
+                        arr[j] = (int) primitives[primitivesIdx++];
+                    }
+                    container[i] = arr;
+                    break;
+                }
+                case 1: {
+                    float[] arr = new float[size];
+                    for (int j = 0; j < size; j++) {
+                        arr[j] = Float.intBitsToFloat((int) primitives[primitivesIdx++]);
+                    }
+                    container[i] = arr;
+                    break;
+                }
+                case 2: {
+                    long[] arr = new long[size];
+                    System.arraycopy(primitives, primitivesIdx, arr, 0, size);
+                    primitivesIdx += size;
+                    container[i] = arr;
+                    break;
+                }
+                case 3: {
+                    double[] arr = new double[size];
+                    for (int j = 0; j < size; j++) {
+                        arr[j] = Double.longBitsToDouble(primitives[primitivesIdx++]);
+                    }
+                    container[i] = arr;
+                    break;
+                }
+                case 4: {
+                    Object[] arr = new Object[size];
+                    System.arraycopy(objects, objectsIdx, arr, 0, size);
+                    objectsIdx += size;
+                    container[i] = arr;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException(); // should never happen
+            }
+        }
+        return container;
+    }
 
+    private static int getLength(Object arr) {
+        if (arr == null) {
+            return 0;
+        } else if (arr instanceof int[]) {
+            return ((int[]) arr).length;
+        } else if (arr instanceof float[]) {
+            return ((float[]) arr).length;
+        } else if (arr instanceof long[]) {
+            return ((long[]) arr).length;
+        } else if (arr instanceof double[]) {
+            return ((double[]) arr).length;
+        } else if (arr instanceof Object[]) {
+            return ((Object[]) arr).length;
+        }
+        throw new IllegalStateException(); // should never happen
+    }
 
     /**
      * Do not use -- for internal use only.
@@ -186,73 +484,39 @@ public final class MethodState implements Serializable {
      * @throws IllegalArgumentException if {@code continuationPointId < 0}
      */
     public static boolean isValid(ClassLoader classLoader, String className, int methodId, int continuationPointId) {
-        if (className == null) {
-            throw new NullPointerException();
-        }
-        if (continuationPointId < 0) {
-            throw new IllegalArgumentException();
-        }
-
-        Class cls = null;
-        if (classLoader == null) {
-            // Try to find the class from this object's classloader
-            try {
-                cls = MethodState.class.getClassLoader().loadClass(className);
-            } catch (ClassNotFoundException cnfe) {
-                // do nothing
-            }
-            
-            // Try to find the class from this Thread's classloader
-            if (cls == null) {
-                try {
-                    cls = Thread.currentThread().getContextClassLoader().loadClass(className);
-                } catch (ClassNotFoundException cnfe) {
-                    // do nothing
-                }
-            }
-        } else {
-            // Try to find the class the classloader provided
-            try {
-                cls = classLoader.loadClass(className);
-            } catch (ClassNotFoundException cnfe) {
-                // do nothing
-            }
-        }
-
-
-
-        if (cls == null) {
-            throw new IllegalStateException("Class this state is being deserialized for is missing: " + className);
-        }
-
-
-
-        String versionField = getIdentifyingFieldName(methodId, continuationPointId);
-        try {
-            cls.getDeclaredField(versionField);
-        } catch (NoSuchFieldException nsfe) {
-            return false;
-        }
-
-        return true;
+        return MethodValidityCache.isValid(classLoader, className, methodId, continuationPointId);
     }
 
     /**
      * Do not use -- for internal use only.
      * <p>
-     * Get the name of the field that will be inserted into a class for some method id and version combination.
-     * @param methodId method id
-     * @param continuationPointId continuation point id
-     * @return field name
-     * @throws IllegalArgumentException if {@code continuationPointId < 0}
+     * Get the value of the field that will be inserted into a class to identify its instrumented methods. Continuation point ids for a
+     * method always start at 0 and are sequential, so only the number of continuation points for each method id needs to be kept.
+     * @param methodIds method ids
+     * @param continuationPointCounts number of continuation points in each method (must be same size as {@code methodIds})
+     * @return field value
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code methodIds} and {@code continuationPointCounts} are of different sizes, or if
+     * {@code continuationPointCounts} contains a negative value
      */
-    public static String getIdentifyingFieldName(int methodId, int continuationPointId) {
-        if (continuationPointId < 0) {
+    public static String getIdentifyingFieldValue(int[] methodIds, int[] continuationPointCounts) {
+        if (methodIds == null || continuationPointCounts == null) {
+            throw new NullPointerException();
+        }
+        if (methodIds.length != continuationPointCounts.length) {
             throw new IllegalArgumentException();
         }
 
-        String methodIdStr = Integer.toString(methodId).replace('-', 'N');
-        String continuationPointIdStr = Integer.toString(continuationPointId).replace('-', 'N');
-        return "__COROUTINES_ID_" + methodIdStr + "_" + continuationPointIdStr;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < methodIds.length; i++) {
+            if (continuationPointCounts[i] < 0) {
+                throw new IllegalArgumentException();
+            }
+            if (i != 0) {
+                sb.append(',');
+            }
+            sb.append(methodIds[i]).append(':').append(continuationPointCounts[i]);
+        }
+        return sb.toString();
     }
 }
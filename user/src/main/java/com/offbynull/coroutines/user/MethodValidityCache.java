@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Backs {@link MethodState#isValid(java.lang.ClassLoader, java.lang.String, int, int) }. Serializing/deserializing coroutines checks every
+ * frame for validity, and doing a class lookup + reflection for each of those checks gets expensive. Instead, the class lookup is cached
+ * and the identifying field of each class ({@link MethodState#IDENTIFYING_FIELD_NAME}) is only read once and parsed into a lookup table.
+ * <p>
+ * Nothing in here strongly references a {@link ClassLoader} or a {@link Class}, so caching doesn't prevent classes or class loaders from
+ * being unloaded.
+ * @author Kasra Faghihi
+ */
+final class MethodValidityCache {
+
+    // ClassLoader -> (String className -> WeakReference<Class>). Only successful lookups are cached. A class loader that can't find a class
+    // now may be able to find it later on (e.g. URLClassLoader.addURL()).
+    //
+    // The class reference has to be weak. A Class strongly references its ClassLoader, so if the value held on to the Class the
+    // WeakHashMap would never be able to discard the ClassLoader key. Clearing of the weak reference isn't an issue here because a
+    // ClassLoader keeps strong references to all classes it's loaded (so the weak reference will stay alive for as long as the ClassLoader
+    // key does).
+    private static final Map CLASSES = new WeakHashMap();
+
+    // Class -> IdTable. Holds the identifiers of all the method versions declared on a class. Values don't reference the class.
+    private static final Map IDENTIFIERS = new WeakHashMap();
+
+    private MethodValidityCache() {
+        // do nothing
+    }
+
+    /**
+     * Determine if a method version is valid. Valid means that the method exists and is the correct version.
+     * @param classLoader class loader to use to look for the class ({@code null} will attempt to use this Object's classloader / the
+     * thread's context class loader)
+     * @param className class name
+     * @param methodId method id
+     * @param continuationPointId continuation point id
+     * @return {@code true} if method exists and is of the correct version, {@code false} otherwise
+     * @throws NullPointerException if {@code className} is {@code null}
+     * @throws IllegalArgumentException if {@code continuationPointId < 0}
+     * @throws IllegalStateException if the class couldn't be found
+     */
+    static boolean isValid(ClassLoader classLoader, String className, int methodId, int continuationPointId) {
+        if (className == null) {
+            throw new NullPointerException();
+        }
+        if (continuationPointId < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        Class cls;
+        if (classLoader == null) {
+            // Try to find the class from this object's classloader, then from this Thread's classloader
+            ClassLoader ownClassLoader = MethodValidityCache.class.getClassLoader();
+            ClassLoader threadClassLoader = Thread.currentThread().getContextClassLoader();
+            cls = getCachedClass(ownClassLoader, className);
+            if (cls == null) {
+                cls = getCachedClass(threadClassLoader, className);
+            }
+            if (cls == null) {
+                cls = loadClass(ownClassLoader, className);
+            }
+            if (cls == null) {
+                cls = loadClass(threadClassLoader, className);
+            }
+        } else {
+            // Try to find the class the classloader provided
+            cls = getCachedClass(classLoader, className);
+            if (cls == null) {
+                cls = loadClass(classLoader, className);
+            }
+        }
+
+
+
+        if (cls == null) {
+            throw new IllegalStateException("Class this state is being deserialized for is missing: " + className);
+        }
+
+
+
+        IdTable identifiers = getIdentifiers(cls);
+        return continuationPointId < identifiers.getContinuationPointCount(methodId);
+    }
+
+    private static Class getCachedClass(ClassLoader classLoader, String className) {
+        synchronized (CLASSES) {
+            Map loaderClasses = (Map) CLASSES.get(classLoader);
+            if (loaderClasses == null) {
+                return null;
+            }
+
+            WeakReference clsRef = (WeakReference) loaderClasses.get(className);
+            return clsRef == null ? null : (Class) clsRef.get();
+        }
+    }
+
+    private static Class loadClass(ClassLoader classLoader, String className) {
+        Class cls;
+        try {
+            cls = classLoader.loadClass(className);
+        } catch (ClassNotFoundException cnfe) {
+            return null;
+        }
+
+        synchronized (CLASSES) {
+            Map loaderClasses = (Map) CLASSES.get(classLoader);
+            if (loaderClasses == null) {
+                loaderClasses = new HashMap();
+                CLASSES.put(classLoader, loaderClasses);
+            }
+            loaderClasses.put(className, new WeakReference(cls));
+        }
+
+        return cls;
+    }
+
+    private static IdTable getIdentifiers(Class cls) {
+        synchronized (IDENTIFIERS) {
+            IdTable identifiers = (IdTable) IDENTIFIERS.get(cls);
+            if (identifiers != null) {
+                return identifiers;
+            }
+        }
+
+        // Read outside of lock. If multiple threads read the same class at the same time, they'll all come up with the same result.
+        IdTable identifiers = IdTable.parse(readIdentifyingField(cls));
+
+        synchronized (IDENTIFIERS) {
+            IDENTIFIERS.put(cls, identifiers);
+        }
+
+        return identifiers;
+    }
+    
+    private static String readIdentifyingField(Class cls) {
+        Field field;
+        try {
+            field = cls.getDeclaredField(MethodState.IDENTIFYING_FIELD_NAME);
+        } catch (NoSuchFieldException nsfe) {
+            return ""; // class isn't instrumented / has no instrumented methods
+        }
+
+        try {
+            field.setAccessible(true); // class itself may not be public
+            return (String) field.get(null);
+        } catch (IllegalAccessException iae) {
+            throw new IllegalStateException("Unable to read identifying field for " + cls.getName(), iae);
+        } catch (RuntimeException re) { // e.g. SecurityException / InaccessibleObjectException
+            throw new IllegalStateException("Unable to read identifying field for " + cls.getName(), re);
+        }
+    }
+
+    // Open addressing hash table of methodId -> number of continuation points. Lookups don't allocate.
+    private static final class IdTable {
+        private final int[] methodIds;
+        private final int[] counts;
+        private final boolean[] used;
+
+        private IdTable(int expectedSize) {
+            int capacity = 1;
+            while (capacity < expectedSize * 2) {
+                capacity <<= 1;
+            }
+            methodIds = new int[capacity];
+            counts = new int[capacity];
+            used = new boolean[capacity];
+        }
+
+        // Reverse of MethodState.getIdentifyingFieldValue()
+        static IdTable parse(String value) {
+            if (value.length() == 0) {
+                return new IdTable(0);
+            }
+
+            String[] entries = value.split(",");
+            IdTable table = new IdTable(entries.length);
+            for (int i = 0; i < entries.length; i++) {
+                String entry = entries[i];
+                int splitIdx = entry.indexOf(':');
+                if (splitIdx == -1) {
+                    throw new IllegalStateException("Bad identifying field entry: " + entry);
+                }
+
+                try {
+                    int methodId = Integer.parseInt(entry.substring(0, splitIdx));
+                    int count = Integer.parseInt(entry.substring(splitIdx + 1));
+                    table.put(methodId, count);
+                } catch (NumberFormatException nfe) {
+                    throw new IllegalStateException("Bad identifying field entry: " + entry, nfe);
+                }
+            }
+            return table;
+        }
+
+        private int indexOf(int methodId) {
+            int mask = methodIds.length - 1;
+            int idx = (methodId ^ (methodId >>> 16)) & mask;
+            while (used[idx] && methodIds[idx] != methodId) {
+                idx = (idx + 1) & mask;
+            }
+            return idx;
+        }
+
+        private void put(int methodId, int count) {
+            int idx = indexOf(methodId);
+            methodIds[idx] = methodId;
+            counts[idx] = Math.max(counts[idx], count); // if the same method id shows up twice (should never happen), take the largest
+            used[idx] = true;
+        }
+
+        int getContinuationPointCount(int methodId) {
+            int idx = indexOf(methodId);
+            return used[idx] ? counts[idx] : 0;
+        }
+    }
+}
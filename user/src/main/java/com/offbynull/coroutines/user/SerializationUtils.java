@@ -22,7 +22,6 @@ import com.offbynull.coroutines.user.SerializedState.FrameModifier;
 import com.offbynull.coroutines.user.SerializedState.FrameUpdatePoint;
 import com.offbynull.coroutines.user.SerializedState.VersionedFrame;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
@@ -39,7 +38,7 @@ final class SerializationUtils {
         for (int i = 0; i < possibleFrames.length; i++) {
             Frame frame = possibleFrames[i];
 
-            boolean found = MethodState.isValid(
+            boolean found = MethodValidityCache.isValid(
                     classLoader,
                     frame.getClassName(),
                     frame.getMethodId(),
@@ -53,23 +52,19 @@ final class SerializationUtils {
     }
 
     private static Frame findUpdatableFrame(Map frameUpdaterMap, VersionedFrame versionedFrame) {
-        Iterator entryIt = frameUpdaterMap.entrySet().iterator();
-        while (entryIt.hasNext()) {
-            Map.Entry entry = (Map.Entry) entryIt.next();
-            FrameUpdatePointKey key = (FrameUpdatePointKey) entry.getKey();
-            FrameUpdatePointValue value = (FrameUpdatePointValue) entry.getValue();
-
-            Frame[] possibleFrames = versionedFrame.getFrames();
-            for (int i = 0; i < possibleFrames.length; i++) {
-                Frame frame = possibleFrames[i];
-
-                String className = frame.getClassName();
-                int methodId = frame.getMethodId();
-                int continuationPointId = frame.getContinuationPointId();
-
-                if (methodId == key.methodId && continuationPointId == key.continuationPointId && className.equals(key.className)) {
-                    return frame;
-                }
+        if (frameUpdaterMap.isEmpty()) {
+            return null;
+        }
+
+        // The updaters map is already keyed on (className, methodId, continuationPointId), so probe it for each version of the frame
+        // instead of walking every updater for each version. Versions are probed oldest first.
+        Frame[] possibleFrames = versionedFrame.getFrames();
+        for (int i = 0; i < possibleFrames.length; i++) {
+            Frame frame = possibleFrames[i];
+
+            FrameUpdatePointKey key = new FrameUpdatePointKey(frame.getClassName(), frame.getMethodId(), frame.getContinuationPointId());
+            if (frameUpdaterMap.containsKey(key)) {
+                return frame;
             }
         }
 
@@ -220,7 +215,7 @@ final class SerializationUtils {
 
 
         // This is the final frame, so make sure that it's loadable.
-        boolean found = MethodState.isValid(
+        boolean found = MethodValidityCache.isValid(
                 classLoader,
                 frame.getClassName(),
                 frame.getMethodId(),
@@ -239,7 +234,7 @@ final class SerializationUtils {
 
     static VersionedFrame calculateAllPossibleFrameVersions(ClassLoader classLoader, Map updatersMap, Map interceptersMap, Frame frame) {
         // Ensure frame is for a method that we can save (sanity check)
-        boolean found = MethodState.isValid(
+        boolean found = MethodValidityCache.isValid(
                 classLoader,
                 frame.getClassName(),
                 frame.getMethodId(),
@@ -371,6 +366,7 @@ final class SerializationUtils {
         private final String className;
         private final int methodId;
         private final int continuationPointId;
+        private final int hash;
 
         FrameUpdatePointKey(String className, int methodId, int continuationPointId) {
             if (className == null) {
@@ -380,13 +376,16 @@ final class SerializationUtils {
             this.className = className;
             this.methodId = methodId;
             this.continuationPointId = continuationPointId;
+
+            // Keys are probed for every frame of every coroutine read/written, so calculate the hash once up front
+            int hash = 7;
+            hash = 71 * hash + className.hashCode();
+            hash = 71 * hash + methodId;
+            hash = 71 * hash + continuationPointId;
+            this.hash = hash;
         }
 
         public int hashCode() {
-            int hash = 7;
-            hash = 71 * hash + (this.className != null ? this.className.hashCode() : 0);
-            hash = 71 * hash + this.methodId;
-            hash = 71 * hash + this.continuationPointId;
             return hash;
         }
 
@@ -401,6 +400,9 @@ final class SerializationUtils {
                 return false;
             }
             final FrameUpdatePointKey other = (FrameUpdatePointKey) obj;
+            if (this.hash != other.hash) {
+                return false;
+            }
             if (this.methodId != other.methodId) {
                 return false;
             }